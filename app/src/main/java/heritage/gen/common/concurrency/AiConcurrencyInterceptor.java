@@ -0,0 +1,77 @@
+package heritage.gen.common.concurrency;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+/**
+ * AI 接口并发隔离拦截器
+ * 进入 {@link AiEndpoint} 接口前获取许可，请求结束后释放。
+ * 流式（SSE）接口在控制器方法返回后才真正结束，许可挂在请求属性上，
+ * 直到异步处理完成（异步分派的 afterCompletion 或 AsyncListener 回调，以先到者为准）才释放。
+ */
+@Component
+@RequiredArgsConstructor
+public class AiConcurrencyInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String PERMIT_ATTRIBUTE = AiConcurrencyInterceptor.class.getName() + ".permit";
+
+    private final AiEndpointBulkhead bulkhead;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+        AiEndpoint endpoint = handlerMethod.getMethodAnnotation(AiEndpoint.class);
+        // 异步分派会再次进入拦截器，已持有许可时不重复获取
+        if (endpoint == null || request.getAttribute(PERMIT_ATTRIBUTE) != null) {
+            return true;
+        }
+        request.setAttribute(PERMIT_ATTRIBUTE, bulkhead.acquire(endpoint.value()));
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        if (!(request.getAttribute(PERMIT_ATTRIBUTE) instanceof AiEndpointBulkhead.Permit permit)) {
+            return;
+        }
+        // 客户端断开等情况下可能没有异步分派，由容器的异步回调兜底释放
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                permit.release();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                permit.release();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                permit.release();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(PERMIT_ATTRIBUTE) instanceof AiEndpointBulkhead.Permit permit) {
+            permit.release();
+            request.removeAttribute(PERMIT_ATTRIBUTE);
+        }
+    }
+}
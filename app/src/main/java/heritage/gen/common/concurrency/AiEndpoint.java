@@ -0,0 +1,22 @@
+package heritage.gen.common.concurrency;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记调用大模型的耗时接口
+ * 同名接口共享一个并发信号量（上限见 app.ai-concurrency.limits），由 {@link AiConcurrencyInterceptor} 在请求进入时获取许可。
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AiEndpoint {
+
+    /**
+     * 接口名称，用作并发配置键与指标标签
+     */
+    String value();
+}
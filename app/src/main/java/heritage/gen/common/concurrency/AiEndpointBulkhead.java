@@ -0,0 +1,160 @@
+package heritage.gen.common.concurrency;
+
+import heritage.gen.common.config.AiConcurrencyProperties;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AI 接口并发隔离舱
+ * 每个接口名称对应一个公平信号量：
+ * 1. 有空闲许可时直接进入
+ * 2. 否则排队等待，排队数超过 maxQueueDepth 或等待超过 acquireTimeoutMs 时拒绝（AI_RATE_LIMIT_EXCEEDED）
+ * 请求线程为虚拟线程时排队几乎不占资源；未启用虚拟线程（spring.threads.virtual.enabled=false）时，
+ * 排队会让 Tomcat 平台线程阻塞最长 acquireTimeoutMs，并发高峰时占满线程池、拖垮其他接口，
+ * 因此不排队：没有空闲许可时立即拒绝，忽略 maxQueueDepth 与 acquireTimeoutMs。
+ */
+@Slf4j
+@Component
+public class AiEndpointBulkhead {
+
+    private final AiConcurrencyProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final boolean queueing;
+    private final Map<String, Compartment> compartments = new ConcurrentHashMap<>();
+
+    public AiEndpointBulkhead(AiConcurrencyProperties properties, MeterRegistry meterRegistry,
+                              @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.queueing = virtualThreads;
+        if (properties.isEnabled() && !virtualThreads) {
+            log.info("请求线程未使用虚拟线程，AI 接口并发隔离不排队，超出并发上限的请求立即拒绝");
+        }
+    }
+
+    /**
+     * 已获取的许可，release 可重复调用，仅第一次生效
+     */
+    public static final class Permit {
+
+        private final Compartment compartment;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Compartment compartment) {
+            this.compartment = compartment;
+        }
+
+        public void release() {
+            if (compartment != null && released.compareAndSet(false, true)) {
+                compartment.semaphore.release();
+            }
+        }
+    }
+
+    /**
+     * 获取接口许可，排队已满或等待超时时抛出 BusinessException
+     *
+     * @param endpoint 接口名称
+     */
+    public Permit acquire(String endpoint) {
+        if (!properties.isEnabled()) {
+            return new Permit(null);
+        }
+
+        Compartment compartment = compartments.computeIfAbsent(endpoint, this::createCompartment);
+        if (compartment.semaphore.tryAcquire()) {
+            compartment.waitTimer.record(0, TimeUnit.MILLISECONDS);
+            return new Permit(compartment);
+        }
+
+        if (compartment.waiting.incrementAndGet() > maxQueueDepth()) {
+            compartment.waiting.decrementAndGet();
+            throw reject(compartment, endpoint, "queue_full");
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            if (!compartment.semaphore.tryAcquire(properties.getAcquireTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw reject(compartment, endpoint, "timeout");
+            }
+            compartment.waitTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            return new Permit(compartment);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject(compartment, endpoint, "interrupted");
+        } finally {
+            compartment.waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * 实际生效的排队上限：平台线程请求不排队
+     */
+    private int maxQueueDepth() {
+        return queueing ? properties.getMaxQueueDepth() : 0;
+    }
+
+    /**
+     * 当前排队数（用于测试与诊断）
+     */
+    public int queueDepth(String endpoint) {
+        Compartment compartment = compartments.get(endpoint);
+        return compartment == null ? 0 : compartment.waiting.get();
+    }
+
+    private BusinessException reject(Compartment compartment, String endpoint, String reason) {
+        Counter.builder("ai.endpoint.rejected")
+            .description("AI 接口因并发隔离被拒绝的请求数")
+            .tag("endpoint", endpoint)
+            .tag("reason", reason)
+            .register(meterRegistry)
+            .increment();
+        log.warn("AI 接口繁忙，拒绝请求: endpoint={}, reason={}, 排队数={}",
+            endpoint, reason, compartment.waiting.get());
+        return new BusinessException(ErrorCode.AI_RATE_LIMIT_EXCEEDED, "当前AI请求过多，请稍后重试");
+    }
+
+    private Compartment createCompartment(String endpoint) {
+        int limit = properties.limitOf(endpoint);
+        Compartment compartment = new Compartment(
+            limit,
+            new Semaphore(limit, true),
+            new AtomicInteger(),
+            Timer.builder("ai.endpoint.queue.wait")
+                .description("AI 接口排队等待许可的耗时")
+                .tag("endpoint", endpoint)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry));
+
+        Gauge.builder("ai.endpoint.queue.depth", compartment.waiting, AtomicInteger::get)
+            .description("AI 接口排队等待中的请求数")
+            .tag("endpoint", endpoint)
+            .register(meterRegistry);
+        Gauge.builder("ai.endpoint.active", compartment, c -> c.limit - c.semaphore.availablePermits())
+            .description("AI 接口正在处理的请求数")
+            .tag("endpoint", endpoint)
+            .register(meterRegistry);
+        Gauge.builder("ai.endpoint.limit", compartment, c -> c.limit)
+            .description("AI 接口并发上限")
+            .tag("endpoint", endpoint)
+            .register(meterRegistry);
+        log.info("创建 AI 接口并发隔离: endpoint={}, limit={}", endpoint, limit);
+        return compartment;
+    }
+
+    private record Compartment(int limit, Semaphore semaphore, AtomicInteger waiting, Timer waitTimer) {}
+}
@@ -0,0 +1,49 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AI 接口并发隔离配置属性
+ * 标注了 {@link heritage.gen.common.concurrency.AiEndpoint} 的接口按名称各自持有一个信号量，
+ * 超出并发上限的请求排队等待，排队过长或等待超时直接拒绝，避免慢速模型调用占满请求线程。
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.ai-concurrency")
+public class AiConcurrencyProperties {
+
+    /**
+     * 是否启用并发隔离
+     */
+    private boolean enabled = true;
+
+    /**
+     * 未单独配置的接口的并发上限
+     */
+    private int defaultLimit = 16;
+
+    /**
+     * 按接口名称配置的并发上限（接口名称见 @AiEndpoint）
+     */
+    private Map<String, Integer> limits = new HashMap<>();
+
+    /**
+     * 每个接口最多允许排队的请求数，超出后立即拒绝
+     * 仅在请求线程为虚拟线程时生效；平台线程下不排队，超出并发上限立即拒绝
+     */
+    private int maxQueueDepth = 64;
+
+    /**
+     * 排队等待许可的最长时间（毫秒），仅在请求线程为虚拟线程时生效
+     */
+    private long acquireTimeoutMs = 30_000;
+
+    public int limitOf(String endpoint) {
+        return limits.getOrDefault(endpoint, defaultLimit);
+    }
+}
@@ -0,0 +1,29 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 知识库问答语义缓存配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.answer-cache")
+public class AnswerCacheProperties {
+
+    /**
+     * 是否启用语义缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 命中阈值：问题向量与缓存问题向量的余弦相似度不低于该值时直接返回缓存回答
+     */
+    private double similarityThreshold = 0.95;
+
+    /**
+     * 缓存有效期（分钟），兜底覆盖工具查询等知识库之外的数据变化
+     */
+    private long ttlMinutes = 1440;
+}
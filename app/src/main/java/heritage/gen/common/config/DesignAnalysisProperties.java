@@ -0,0 +1,19 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 设计分析报告（市场 / 技术 / 风险）生成配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.design.analysis")
+public class DesignAnalysisProperties {
+
+    /**
+     * 单项分析的超时时间（秒），超时的分析项在结果中标记为失败，不影响其他分析项
+     */
+    private long timeoutSeconds = 90;
+}
@@ -0,0 +1,39 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 设计图片生成缓存配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.design.image-cache")
+public class DesignImageCacheProperties {
+
+    /**
+     * 是否启用图片生成缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 缓存条目有效期（小时）
+     */
+    private long ttlHours = 168;
+
+    /**
+     * 缓存条目上限，超出后淘汰最久未使用的条目
+     */
+    private int maxEntries = 5000;
+
+    /**
+     * 命中时是否校验存储对象仍然存在（HEAD 请求），对象已被删除则作废缓存重新生成
+     */
+    private boolean verifyStoredObject = true;
+
+    /**
+     * 跨节点合并相同请求时等待其他节点生成完成的最长时间（秒），超时后本节点自行生成
+     */
+    private long lockWaitSeconds = 120;
+}
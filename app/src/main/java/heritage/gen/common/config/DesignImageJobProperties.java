@@ -0,0 +1,49 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 设计图片异步生成任务配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.design.image-job")
+public class DesignImageJobProperties {
+
+    /**
+     * 每个节点的任务 worker 数（虚拟线程），即本节点同时进行的图片生成任务上限
+     */
+    private int workers = 4;
+
+    /**
+     * 任务状态保留时间（小时）
+     */
+    private long statusTtlHours = 24;
+
+    /**
+     * 幂等键有效期（小时），有效期内相同幂等键的重复提交返回同一个任务
+     */
+    private long idempotencyTtlHours = 24;
+
+    /**
+     * 待确认任务空闲超过该时间（毫秒）视为所在节点已崩溃，由其他 worker 认领重做
+     */
+    private long claimIdleMs = 10 * 60 * 1000;
+
+    /**
+     * 处理中任务刷新空闲时间的间隔（毫秒），须明显小于 claimIdleMs
+     */
+    private long heartbeatIntervalMs = 60 * 1000;
+
+    /**
+     * SSE 订阅轮询任务状态的间隔（毫秒）
+     */
+    private long ssePollIntervalMs = 1000;
+
+    /**
+     * SSE 订阅最长持续时间（秒）
+     */
+    private long sseTimeoutSeconds = 600;
+}
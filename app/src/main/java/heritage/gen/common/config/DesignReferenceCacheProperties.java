@@ -0,0 +1,24 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 设计参考图本地磁盘缓存配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.design.reference-cache")
+public class DesignReferenceCacheProperties {
+
+    /**
+     * 缓存目录，为空时使用系统临时目录下的 heritage-ref-cache；每个进程在其下使用独立子目录，关闭时删除
+     */
+    private String directory;
+
+    /**
+     * 缓存总大小上限（MB），超出后淘汰最久未使用且未被占用的文件
+     */
+    private long maxSizeMb = 256;
+}
@@ -0,0 +1,35 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Embedding 调用配置属性
+ * 用于在客户端侧约束 DashScope Embedding 接口的并发与 TPM 限额
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.embedding")
+public class EmbeddingConfigProperties {
+
+    /**
+     * 单次 Embedding 请求包含的文本条数（text-embedding-v3 单次最多 10 条）
+     */
+    private int batchSize = 10;
+
+    /**
+     * 同时在途的 Embedding 请求数上限
+     */
+    private int maxInFlight = 4;
+
+    /**
+     * 每分钟允许消耗的 Token 预算
+     */
+    private long tokensPerMinute = 1_000_000;
+
+    /**
+     * 写入 vector_store 时每个 JDBC 批次的行数
+     */
+    private int insertBatchSize = 100;
+}
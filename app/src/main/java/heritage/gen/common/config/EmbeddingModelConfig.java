@@ -0,0 +1,30 @@
+package heritage.gen.common.config;
+
+import heritage.gen.infrastructure.ai.CachingEmbeddingModel;
+import heritage.gen.infrastructure.ai.EmbeddingCacheStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * EmbeddingModel 配置
+ * 在 DashScope (OpenAI兼容) EmbeddingModel 外包一层内容寻址缓存，并作为首选 EmbeddingModel 注入
+ * （PgVectorStore 的查询 Embedding 与向量化流水线都会经过缓存）
+ */
+@Configuration
+public class EmbeddingModelConfig {
+
+    @Bean
+    @Primary
+    public CachingEmbeddingModel cachingEmbeddingModel(
+            OpenAiEmbeddingModel openAiEmbeddingModel,
+            EmbeddingCacheStore embeddingCacheStore,
+            MeterRegistry meterRegistry,
+            @Value("${spring.ai.openai.embedding.options.model:text-embedding-v3}") String model,
+            @Value("${spring.ai.vectorstore.pgvector.dimensions:1024}") int dimensions) {
+        return new CachingEmbeddingModel(openAiEmbeddingModel, embeddingCacheStore, model, dimensions, meterRegistry);
+    }
+}
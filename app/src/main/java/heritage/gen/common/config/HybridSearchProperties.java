@@ -0,0 +1,40 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 知识库混合检索配置属性
+ * 向量检索与关键词检索并行执行，结果按 RRF（Reciprocal Rank Fusion）融合
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.retrieval.hybrid")
+public class HybridSearchProperties {
+
+    /**
+     * 是否启用混合检索（关闭时仅使用向量检索）
+     */
+    private boolean enabled = true;
+
+    /**
+     * 每一路召回的候选数 = topK × candidateMultiplier
+     */
+    private int candidateMultiplier = 4;
+
+    /**
+     * RRF 平滑常数 k，得分为 Σ 1 / (k + rank)
+     */
+    private int rrfK = 60;
+
+    /**
+     * 关键词检索的等待上限（毫秒，从检索开始计时），超时后只使用向量结果
+     */
+    private long lexicalTimeoutMs = 1000;
+
+    /**
+     * 从问题中提取的关键词数量上限
+     */
+    private int maxTerms = 16;
+}
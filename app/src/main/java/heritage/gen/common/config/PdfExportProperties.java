@@ -0,0 +1,24 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * PDF 导出配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.pdf")
+public class PdfExportProperties {
+
+    /**
+     * 中文字体的 classpath 路径，首次导出时加载一次并在之后的导出中复用
+     */
+    private String fontPath = "fonts/NotoSansSC-VariableFont_wght.ttf";
+
+    /**
+     * 是否子集化嵌入字体（只嵌入用到的字形）
+     */
+    private boolean subsetFonts = true;
+}
@@ -0,0 +1,39 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * RAG 聊天消息写后持久化配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.rag.chat.journal")
+public class RagChatJournalProperties {
+
+    /**
+     * 单批最多落库的事件数
+     */
+    private int batchSize = 200;
+
+    /**
+     * 无新事件时的最长等待时间（毫秒），即事件从写入日志到开始落库的最大延迟
+     */
+    private long flushIntervalMs = 200;
+
+    /**
+     * 待确认事件空闲超过该时间由其他节点认领（毫秒），用于接管崩溃或重启前未落库的事件
+     */
+    private long claimIdleMs = 30000;
+
+    /**
+     * 落库失败后的重试间隔（毫秒）
+     */
+    private long retryBackoffMs = 1000;
+
+    /**
+     * 会话消息顺序计数器与未落库消息的保留时间（小时），每次写入时刷新
+     */
+    private long stateTtlHours = 168;
+}
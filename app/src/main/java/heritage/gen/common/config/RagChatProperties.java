@@ -0,0 +1,69 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * RAG 聊天会话配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.rag.chat")
+public class RagChatProperties {
+
+    /**
+     * 打开会话时返回的最近消息条数，更早的消息通过游标分页加载
+     */
+    private int initialMessages = 50;
+
+    /**
+     * 分页加载单页最大消息条数
+     */
+    private int maxPageSize = 100;
+
+    /**
+     * 对话记忆：原文放入提示词的最近轮数（一问一答为一轮）
+     */
+    private int memoryWindowTurns = 4;
+
+    /**
+     * 对话记忆：单条历史消息放入提示词的最大字符数，超出部分截断
+     */
+    private int memoryMessageMaxChars = 600;
+
+    /**
+     * 是否为窗口之外的历史生成滚动摘要
+     */
+    private boolean summaryEnabled = true;
+
+    /**
+     * 窗口之外累计多少轮未摘要的对话后更新一次摘要
+     */
+    private int summaryBatchTurns = 4;
+
+    /**
+     * 滚动摘要最大字符数
+     */
+    private int summaryMaxChars = 800;
+
+    /**
+     * 是否在检索前把依赖上文的追问改写为独立的检索问题
+     */
+    private boolean rewriteEnabled = true;
+
+    /**
+     * 检索改写调用的最大输出 Token 数
+     */
+    private int rewriteMaxTokens = 128;
+
+    /**
+     * 检索改写结果缓存时长（按 会话 + 轮次 缓存，重试或重新生成同一轮时复用）
+     */
+    private int rewriteCacheTtlHours = 24;
+
+    /**
+     * 流式问答使用的会话快照（归属、知识库、滚动摘要）缓存时长（分钟），变更时主动清除
+     */
+    private int sessionCacheTtlMinutes = 10;
+}
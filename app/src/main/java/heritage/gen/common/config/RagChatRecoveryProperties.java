@@ -0,0 +1,34 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * RAG 聊天中断回答回收配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.rag.chat.recovery")
+public class RagChatRecoveryProperties {
+
+    /**
+     * 是否启用回收
+     */
+    private boolean enabled = true;
+
+    /**
+     * AI 消息占位超过该时间仍未完成视为中断（秒），需明显大于单次回答的最长耗时
+     */
+    private long staleAfterSeconds = 600;
+
+    /**
+     * 扫描间隔（秒），同时作为扫描租约的时长
+     */
+    private long sweepIntervalSeconds = 60;
+
+    /**
+     * 单次扫描最多回收的消息数
+     */
+    private int batchSize = 100;
+}
@@ -0,0 +1,29 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 知识库流式问答配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.rag.stream")
+public class RagStreamProperties {
+
+    /**
+     * 是否在流式生成前执行工具预查询（关闭时流式回答不使用数据库工具）
+     */
+    private boolean toolPrePassEnabled = true;
+
+    /**
+     * 工具预查询调用的最大输出 Token 数（只需要输出工具调用或 NONE）
+     */
+    private int toolPrePassMaxTokens = 256;
+
+    /**
+     * 单次预查询最多执行的工具调用数
+     */
+    private int maxToolCalls = 4;
+}
@@ -0,0 +1,46 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 知识库检索重排配置属性
+ * 混合检索多召回一些候选，由重排打分器选出最相关的 topK 个片段放入提示词
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.retrieval.rerank")
+public class RerankProperties {
+
+    /**
+     * 是否启用重排（关闭时直接取混合检索的前 topK 个）
+     */
+    private boolean enabled = true;
+
+    /**
+     * 打分器：lexical（本地关键词覆盖度，无模型调用）/ llm（大模型逐段打分）
+     * llm 的模型调用无法被中断，超时回退后请求仍会跑完并计入 Token 用量，因此默认使用 lexical
+     */
+    private String scorer = "lexical";
+
+    /**
+     * 参与重排的候选数
+     */
+    private int candidates = 30;
+
+    /**
+     * 重排时间预算（毫秒），超时后按混合检索顺序取前 topK 个
+     */
+    private long timeoutMs = 1500;
+
+    /**
+     * 送入打分器的单个片段最大字符数
+     */
+    private int maxPassageChars = 300;
+
+    /**
+     * 大模型打分的最大输出 Token 数
+     */
+    private int maxTokens = 256;
+}
@@ -0,0 +1,44 @@
+package heritage.gen.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 向量化 Stream 消费者配置属性
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.vectorize.consumer")
+public class VectorizeConsumerProperties {
+
+    /**
+     * 每个节点的消费 worker 数（每个 worker 为一个虚拟线程，并拥有独立的消费者名和 PEL）
+     */
+    private int workers = 4;
+
+    /**
+     * 为交互与手动通道保留的 worker 数，批量通道最多占用 workers - reservedWorkers 个 worker
+     */
+    private int reservedWorkers = 1;
+
+    /**
+     * 待确认消息空闲超过该时间（毫秒）即视为遗留消息，可被其他 worker 认领
+     */
+    private long claimIdleMs = 5 * 60 * 1000;
+
+    /**
+     * worker 尝试认领遗留消息的间隔（毫秒）
+     */
+    private long claimIntervalMs = 30 * 1000;
+
+    /**
+     * 处理中的消息刷新空闲时间的间隔（毫秒），须明显小于 claimIdleMs
+     */
+    private long heartbeatIntervalMs = 60 * 1000;
+
+    /**
+     * Stream lag 与 PEL 指标的刷新间隔（毫秒）
+     */
+    private long metricsIntervalMs = 15 * 1000;
+}
@@ -0,0 +1,22 @@
+package heritage.gen.common.config;
+
+import heritage.gen.common.concurrency.AiConcurrencyInterceptor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Spring MVC 配置
+ */
+@Configuration
+@RequiredArgsConstructor
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    private final AiConcurrencyInterceptor aiConcurrencyInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(aiConcurrencyInterceptor).addPathPatterns("/api/**");
+    }
+}
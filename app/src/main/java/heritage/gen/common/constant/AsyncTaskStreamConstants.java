@@ -61,6 +61,100 @@ public final class AsyncTaskStreamConstants {
      */
     public static final String FIELD_KB_ID = "kbId";
 
+    /**
+     * 暂存解析文本的对象存储键字段
+     */
+    public static final String FIELD_STORAGE_KEY = "storageKey";
+
+    /**
+     * 暂存解析文本的内容哈希字段
+     */
+    public static final String FIELD_CONTENT_HASH = "contentHash";
+
+    /**
+     * 向量化任务优先级通道字段
+     */
+    public static final String FIELD_LANE = "lane";
+
+    /**
+     * 向量化任务提交者字段（用于通道内按提交者公平调度）
+     */
+    public static final String FIELD_SUBMITTER = "submitter";
+
+    /**
+     * 知识库向量化通道队列 Key 前缀，完整格式：{前缀}{通道}:{提交者}
+     */
+    public static final String KB_VECTORIZE_LANE_PREFIX = "knowledgebase:vectorize:lane:";
+
+    /**
+     * 通道内活跃队列集合 Key 后缀，完整格式：{前缀}{通道}:queues
+     */
+    public static final String KB_VECTORIZE_LANE_QUEUES_SUFFIX = ":queues";
+
+    /**
+     * 单个知识库向量化租约 Key 前缀，完整格式：{前缀}{kbId}
+     */
+    public static final String KB_VECTORIZE_LOCK_PREFIX = "knowledgebase:vectorize:lock:";
+
+    // ========== 设计图片生成任务 Stream 配置 ==========
+
+    /**
+     * 设计图片生成任务 Stream Key
+     */
+    public static final String DESIGN_IMAGE_JOB_STREAM_KEY = "design:image-job:stream";
+
+    /**
+     * 设计图片生成任务 Consumer Group 名称
+     */
+    public static final String DESIGN_IMAGE_JOB_GROUP_NAME = "image-job-group";
+
+    /**
+     * 设计图片生成任务 Consumer 名称前缀
+     */
+    public static final String DESIGN_IMAGE_JOB_CONSUMER_PREFIX = "image-job-consumer-";
+
+    /**
+     * 任务状态 Hash Key 前缀，完整格式：{前缀}{jobId}
+     */
+    public static final String DESIGN_IMAGE_JOB_STATUS_PREFIX = "design:image-job:status:";
+
+    /**
+     * 幂等键 Key 前缀，完整格式：{前缀}{userId}:{类型}:{幂等键}
+     */
+    public static final String DESIGN_IMAGE_JOB_IDEMPOTENCY_PREFIX = "design:image-job:idem:";
+
+    /**
+     * 任务ID字段
+     */
+    public static final String FIELD_JOB_ID = "jobId";
+
+    // ========== RAG 聊天消息日志 Stream 配置 ==========
+
+    /**
+     * RAG 聊天消息日志 Stream Key（写后持久化到 rag_chat_messages / rag_chat_sessions）
+     */
+    public static final String RAG_CHAT_JOURNAL_STREAM_KEY = "rag:chat:journal:stream";
+
+    /**
+     * RAG 聊天消息日志 Consumer Group 名称
+     */
+    public static final String RAG_CHAT_JOURNAL_GROUP_NAME = "chat-journal-group";
+
+    /**
+     * RAG 聊天消息日志 Consumer 名称前缀
+     */
+    public static final String RAG_CHAT_JOURNAL_CONSUMER_PREFIX = "chat-journal-";
+
+    /**
+     * 尚未落库的消息 Hash Key 前缀（字段为 messageOrder），完整格式：{前缀}{sessionId}
+     */
+    public static final String RAG_CHAT_JOURNAL_PENDING_PREFIX = "rag:chat:journal:pending:";
+
+    /**
+     * 会话消息顺序计数器 Key 前缀，完整格式：{前缀}{sessionId}
+     */
+    public static final String RAG_CHAT_ORDER_PREFIX = "rag:chat:order:";
+
     // ========== 简历分析 Stream 配置 ==========
 
     /**
@@ -0,0 +1,160 @@
+package heritage.gen.infrastructure.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 带内容寻址缓存的 EmbeddingModel 装饰器
+ * 缓存键为 SHA-256(模型名, 维度, 规范化文本)，向量化流水线和向量检索的查询 Embedding 都会先查缓存，
+ * 只有未命中的文本才会调用底层模型
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingCacheStore cacheStore;
+    private final String model;
+    private final int dimensions;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, EmbeddingCacheStore cacheStore,
+                                 String model, int dimensions, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.cacheStore = cacheStore;
+        this.model = model;
+        this.dimensions = dimensions;
+        this.hitCounter = Counter.builder("embedding.cache.requests")
+            .description("Embedding 缓存查询次数")
+            .tag("result", "hit")
+            .register(meterRegistry);
+        this.missCounter = Counter.builder("embedding.cache.requests")
+            .description("Embedding 缓存查询次数")
+            .tag("result", "miss")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        String requestModel = request.getOptions() != null && request.getOptions().getModel() != null
+            ? request.getOptions().getModel()
+            : model;
+        int requestDimensions = request.getOptions() != null && request.getOptions().getDimensions() != null
+            ? request.getOptions().getDimensions()
+            : dimensions;
+
+        List<String> keys = texts.stream()
+            .map(text -> buildCacheKey(requestModel, requestDimensions, text))
+            .toList();
+
+        Map<String, float[]> cached = lookup(keys);
+
+        // 收集未命中的文本（同一请求内的重复文本只计算一次）
+        Map<String, String> missingTexts = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!cached.containsKey(keys.get(i))) {
+                missingTexts.putIfAbsent(keys.get(i), texts.get(i));
+            }
+        }
+        int missCount = countMisses(keys, cached);
+        hitCounter.increment(texts.size() - missCount);
+        missCounter.increment(missCount);
+
+        if (!missingTexts.isEmpty()) {
+            List<String> missingKeys = new ArrayList<>(missingTexts.keySet());
+            EmbeddingResponse response = delegate.call(
+                new EmbeddingRequest(new ArrayList<>(missingTexts.values()), request.getOptions()));
+            Map<String, float[]> computed = new LinkedHashMap<>();
+            for (Embedding embedding : response.getResults()) {
+                computed.put(missingKeys.get(embedding.getIndex()), embedding.getOutput());
+            }
+            cached.putAll(computed);
+            store(computed, requestModel, requestDimensions);
+        }
+
+        List<Embedding> results = new ArrayList<>(texts.size());
+        for (int i = 0; i < keys.size(); i++) {
+            results.add(new Embedding(cached.get(keys.get(i)), i));
+        }
+        log.debug("Embedding 请求完成: total={}, computed={}", texts.size(), missingTexts.size());
+        return new EmbeddingResponse(results);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        // 使用配置的维度，避免默认实现为探测维度而发起一次真实调用
+        return dimensions;
+    }
+
+    /**
+     * 构建缓存键：SHA-256(模型名 + 维度 + 规范化文本)
+     */
+    public static String buildCacheKey(String model, int dimensions, String text) {
+        String payload = model + "\n" + dimensions + "\n" + normalize(text);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(payload.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    /**
+     * 文本规范化：Unicode NFC、折叠连续空白、去除首尾空白
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC);
+        return WHITESPACE.matcher(normalized).replaceAll(" ").strip();
+    }
+
+    private Map<String, float[]> lookup(List<String> keys) {
+        try {
+            return new LinkedHashMap<>(cacheStore.getAll(keys.stream().distinct().toList()));
+        } catch (Exception e) {
+            // 缓存不可用时直接回源，不影响主流程
+            log.warn("查询 Embedding 缓存失败，将直接调用模型: {}", e.getMessage());
+            return new LinkedHashMap<>();
+        }
+    }
+
+    private void store(Map<String, float[]> computed, String requestModel, int requestDimensions) {
+        try {
+            cacheStore.putAll(computed, requestModel, requestDimensions);
+        } catch (Exception e) {
+            log.warn("写入 Embedding 缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private static int countMisses(List<String> keys, Map<String, float[]> cached) {
+        return (int) keys.stream().filter(key -> !cached.containsKey(key)).count();
+    }
+}
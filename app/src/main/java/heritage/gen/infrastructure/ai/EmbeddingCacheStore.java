@@ -0,0 +1,28 @@
+package heritage.gen.infrastructure.ai;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Embedding 缓存存储
+ * 以内容哈希为键保存已计算过的向量
+ */
+public interface EmbeddingCacheStore {
+
+    /**
+     * 批量查询缓存
+     *
+     * @param contentHashes 内容哈希集合
+     * @return 命中的哈希 -> 向量（未命中的键不出现在结果中）
+     */
+    Map<String, float[]> getAll(Collection<String> contentHashes);
+
+    /**
+     * 批量写入缓存（已存在的键保持不变）
+     *
+     * @param embeddings 哈希 -> 向量
+     * @param model      生成向量的模型名称
+     * @param dimensions 向量维度
+     */
+    void putAll(Map<String, float[]> embeddings, String model, int dimensions);
+}
@@ -0,0 +1,127 @@
+package heritage.gen.infrastructure.ai;
+
+import heritage.gen.common.config.EmbeddingConfigProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Embedding 客户端限流器
+ * 同时约束在途请求数（信号量）和每分钟 Token 预算（令牌桶），
+ * 让 DashScope 的限额由客户端主动遵守，而不是依赖服务端报错
+ */
+@Slf4j
+@Component
+public class EmbeddingRateLimiter {
+
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+    private static final long MIN_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final int maxInFlight;
+    private final Semaphore inFlightPermits;
+    private final long tokensPerMinute;
+    private final ReentrantLock bucketLock = new ReentrantLock();
+    private final LongSupplier nanoClock;
+    private final Sleeper sleeper;
+
+    private double availableTokens;
+    private long lastRefillNanos;
+
+    /**
+     * 等待 Token 预算恢复（测试中替换为推进假时钟）
+     */
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    @Autowired
+    public EmbeddingRateLimiter(EmbeddingConfigProperties embeddingConfig) {
+        this(embeddingConfig, System::nanoTime, TimeUnit.NANOSECONDS::sleep);
+    }
+
+    EmbeddingRateLimiter(EmbeddingConfigProperties embeddingConfig, LongSupplier nanoClock, Sleeper sleeper) {
+        this.nanoClock = nanoClock;
+        this.sleeper = sleeper;
+        this.maxInFlight = Math.max(1, embeddingConfig.getMaxInFlight());
+        this.inFlightPermits = new Semaphore(maxInFlight, true);
+        this.tokensPerMinute = Math.max(1, embeddingConfig.getTokensPerMinute());
+        this.availableTokens = tokensPerMinute;
+        this.lastRefillNanos = nanoClock.getAsLong();
+        log.info("Embedding 限流器已初始化: maxInFlight={}, tokensPerMinute={}",
+            maxInFlight, tokensPerMinute);
+    }
+
+    /**
+     * 获取一次 Embedding 调用的许可（阻塞直到并发槽位和 Token 预算都满足）
+     * 获取成功后必须在调用结束时执行 {@link #release()}
+     *
+     * @param estimatedTokens 本次请求预估消耗的 Token 数
+     */
+    public void acquire(int estimatedTokens) throws InterruptedException {
+        inFlightPermits.acquire();
+        try {
+            acquireTokens(estimatedTokens);
+        } catch (InterruptedException e) {
+            inFlightPermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 释放并发槽位
+     */
+    public void release() {
+        inFlightPermits.release();
+    }
+
+    /**
+     * 当前在途请求数
+     */
+    public int getInFlightCount() {
+        return maxInFlight - inFlightPermits.availablePermits();
+    }
+
+    /**
+     * 按文本长度预估 Token 数（中文约 1 字 1 Token，英文按偏高估计，保证不超限）
+     */
+    public static int estimateTokens(String text) {
+        return text == null ? 0 : Math.max(1, text.length());
+    }
+
+    private void acquireTokens(int estimatedTokens) throws InterruptedException {
+        // 单次请求超过整分钟预算时按整桶计算，避免永久等待
+        double cost = Math.min(Math.max(estimatedTokens, 1), tokensPerMinute);
+        while (true) {
+            long waitNanos;
+            bucketLock.lock();
+            try {
+                refill();
+                if (availableTokens >= cost) {
+                    availableTokens -= cost;
+                    return;
+                }
+                waitNanos = (long) ((cost - availableTokens) * NANOS_PER_MINUTE / tokensPerMinute);
+            } finally {
+                bucketLock.unlock();
+            }
+            log.debug("Embedding Token 预算不足，等待 {} ms", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            sleeper.sleep(Math.max(waitNanos, MIN_WAIT_NANOS));
+        }
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        long elapsed = now - lastRefillNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        availableTokens = Math.min(tokensPerMinute, availableTokens + (double) elapsed * tokensPerMinute / NANOS_PER_MINUTE);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,93 @@
+package heritage.gen.infrastructure.ai;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 PostgreSQL 的 Embedding 缓存存储
+ * 向量以 float32 字节序列（bytea）保存，与 vector_store 解耦，重新向量化或删除知识库不会影响缓存
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class JdbcEmbeddingCacheStore implements EmbeddingCacheStore {
+
+    /**
+     * 单条 SQL 查询的最大键数量
+     */
+    private static final int LOOKUP_BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void initSchema() {
+        try {
+            jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS embedding_cache (
+                    content_hash VARCHAR(64) PRIMARY KEY,
+                    model        VARCHAR(100) NOT NULL,
+                    dimensions   INT NOT NULL,
+                    embedding    BYTEA NOT NULL,
+                    created_at   TIMESTAMP NOT NULL DEFAULT now()
+                )
+                """);
+        } catch (Exception e) {
+            log.warn("初始化 embedding_cache 表失败（缓存将不可用）: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, float[]> getAll(Collection<String> contentHashes) {
+        Map<String, float[]> result = new HashMap<>();
+        if (contentHashes.isEmpty()) {
+            return result;
+        }
+        List<String> hashes = new ArrayList<>(contentHashes);
+        for (int from = 0; from < hashes.size(); from += LOOKUP_BATCH_SIZE) {
+            List<String> batch = hashes.subList(from, Math.min(from + LOOKUP_BATCH_SIZE, hashes.size()));
+            jdbcTemplate.query(
+                "SELECT content_hash, embedding FROM embedding_cache WHERE content_hash = ANY (?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", batch.toArray())),
+                rs -> {
+                    result.put(rs.getString("content_hash"), toFloats(rs.getBytes("embedding")));
+                });
+        }
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<String, float[]> embeddings, String model, int dimensions) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(embeddings.size());
+        embeddings.forEach((hash, vector) -> rows.add(new Object[]{hash, model, dimensions, toBytes(vector)}));
+        jdbcTemplate.batchUpdate("""
+            INSERT INTO embedding_cache (content_hash, model, dimensions, embedding)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (content_hash) DO NOTHING
+            """, rows);
+    }
+
+    private static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    private static float[] toFloats(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
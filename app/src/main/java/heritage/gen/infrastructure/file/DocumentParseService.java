@@ -3,96 +3,72 @@ package heritage.gen.infrastructure.file;
 import heritage.gen.common.exception.BusinessException;
 import heritage.gen.common.exception.ErrorCode;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.tika.Tika;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.SAXException;
 
-import java.io.ByteArrayInputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 
 /**
  * 通用文档解析服务
  * 使用 Apache Tika 解析多种文档格式，提取文本内容
  * 供知识库和简历模块共同使用
+ * <p>
+ * 解析基于 SAX 事件流：Tika 输出的字符经 {@link StreamingTextCleaner} 逐字符清理后直接写入调用方的 Writer，
+ * 不再截断文本，也不在内存中保留整份文本。原先返回整份 String 的解析方法已移除，调用方应写入暂存或分块处理。
  */
 @Slf4j
 @Service
 public class DocumentParseService {
 
-    private final Tika tika;
-    private final TextCleaningService textCleaningService;
+    private final Parser parser;
 
-    public DocumentParseService(TextCleaningService textCleaningService) {
-        this.textCleaningService = textCleaningService;
-        this.tika = new Tika();
-        // 设置最大文本提取长度为5MB
-        this.tika.setMaxStringLength(5 * 1024 * 1024);
+    public DocumentParseService() {
+        this.parser = new AutoDetectParser();
     }
 
     /**
-     * 解析上传的文件，提取文本内容
+     * 流式解析文档，清理后的文本写入 output（不关闭 output）
      *
-     * @param file 上传的文件（支持PDF、DOCX、DOC、TXT、MD等）
-     * @return 提取的文本内容
+     * @param inputStream 文档输入流（不关闭）
+     * @param output      清理后文本的输出
+     * @return 清理后的文本长度（字符）
      */
-    public String parseContent(MultipartFile file) {
-        String fileName = file.getOriginalFilename();
-        log.info("开始解析文件: {}", fileName);
-
-        try (InputStream inputStream = file.getInputStream()) {
-            String content = tika.parseToString(inputStream);
-            String cleanedContent = textCleaningService.cleanText(content);
-            log.info("文件解析成功，提取文本长度: {} 字符", cleanedContent.length());
-            return cleanedContent;
-        } catch (IOException | TikaException e) {
+    public long parseTo(InputStream inputStream, Writer output) {
+        StreamingTextCleaner cleaner = new StreamingTextCleaner(new NonClosingWriter(output));
+        try (cleaner) {
+            // 与 Tika#parseToString 一致：嵌入文档（如压缩包内文件）同样递归解析
+            ParseContext context = new ParseContext();
+            context.set(Parser.class, parser);
+            // BodyContentHandler(Writer) 不设写入上限
+            parser.parse(inputStream, new BodyContentHandler(cleaner), new Metadata(), context);
+        } catch (IOException | SAXException | TikaException e) {
             log.error("文件解析失败: {}", e.getMessage(), e);
             throw new BusinessException(ErrorCode.INTERNAL_ERROR, "文件解析失败: " + e.getMessage());
         }
+        return cleaner.getWrittenChars();
     }
 
     /**
-     * 解析字节数组形式的文件内容
-     *
-     * @param fileBytes 文件字节数组
-     * @param fileName  原始文件名（用于日志）
-     * @return 提取的文本内容
+     * 关闭时只 flush 的 Writer 包装，避免清理器关闭调用方的输出
      */
-    public String parseContent(byte[] fileBytes, String fileName) {
-        log.info("开始解析文件（从字节数组）: {}", fileName);
+    private static final class NonClosingWriter extends FilterWriter {
 
-        try (InputStream inputStream = new ByteArrayInputStream(fileBytes)) {
-            String content = tika.parseToString(inputStream);
-            String cleanedContent = textCleaningService.cleanText(content);
-            log.info("文件解析成功，提取文本长度: {} 字符", cleanedContent.length());
-            return cleanedContent;
-        } catch (IOException | TikaException e) {
-            log.error("文件解析失败: {}", e.getMessage(), e);
-            throw new BusinessException(ErrorCode.INTERNAL_ERROR, "文件解析失败: " + e.getMessage());
+        private NonClosingWriter(Writer out) {
+            super(out);
         }
-    }
 
-    /**
-     * 从存储下载文件并解析内容
-     *
-     * @param storageService   文件存储服务
-     * @param storageKey       存储键
-     * @param originalFilename 原始文件名
-     * @return 提取的文本内容
-     */
-    public String downloadAndParseContent(FileStorageService storageService, String storageKey, String originalFilename) {
-        try {
-            byte[] fileBytes = storageService.downloadFile(storageKey);
-            if (fileBytes == null || fileBytes.length == 0) {
-                throw new BusinessException(ErrorCode.INTERNAL_ERROR, "下载文件失败");
-            }
-            return parseContent(fileBytes, originalFilename);
-        } catch (BusinessException e) {
-            throw e;
-        } catch (Exception e) {
-            log.error("下载并解析文件失败: storageKey={}, error={}", storageKey, e.getMessage(), e);
-            throw new BusinessException(ErrorCode.INTERNAL_ERROR, "下载并解析文件失败: " + e.getMessage());
+        @Override
+        public void close() throws IOException {
+            flush();
         }
     }
 }
@@ -13,10 +13,12 @@ import software.amazon.awssdk.services.s3.model.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.UUID;
@@ -74,6 +76,56 @@ public class FileStorageService {
         deleteFile(fileKey);
     }
 
+    /**
+     * 删除暂存的知识库解析文本
+     */
+    public void deleteParsedContent(String fileKey) {
+        deleteFile(fileKey);
+    }
+
+    /**
+     * 以指定键上传本地文件（键由调用方决定，重复上传会覆盖）
+     *
+     * @param fileKey     文件存储键
+     * @param file        本地文件
+     * @param contentType 内容类型
+     */
+    public void uploadLocalFile(String fileKey, Path file, String contentType) {
+        try {
+            PutObjectRequest putRequest = PutObjectRequest.builder()
+                    .bucket(storageConfig.getBucket())
+                    .key(fileKey)
+                    .contentType(contentType)
+                    .build();
+            s3Client.putObject(putRequest, RequestBody.fromFile(file));
+            log.debug("文件上传成功: {} -> {}", file, fileKey);
+        } catch (S3Exception e) {
+            log.error("上传文件到存储服务失败: {} - {}", fileKey, e.getMessage(), e);
+            throw new BusinessException(ErrorCode.STORAGE_UPLOAD_FAILED, "文件存储失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 以流的方式读取文件，调用方负责关闭
+     *
+     * @param fileKey 文件存储键
+     * @return 文件输入流
+     */
+    public InputStream openFileStream(String fileKey) {
+        try {
+            GetObjectRequest getRequest = GetObjectRequest.builder()
+                    .bucket(storageConfig.getBucket())
+                    .key(fileKey)
+                    .build();
+            return s3Client.getObject(getRequest);
+        } catch (NoSuchKeyException e) {
+            throw new BusinessException(ErrorCode.STORAGE_DOWNLOAD_FAILED, "文件不存在: " + fileKey);
+        } catch (S3Exception e) {
+            log.error("读取文件失败: {} - {}", fileKey, e.getMessage(), e);
+            throw new BusinessException(ErrorCode.STORAGE_DOWNLOAD_FAILED, "文件读取失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 下载文件（通用方法）
      *
@@ -281,6 +333,27 @@ public class FileStorageService {
         return url.startsWith(prefix);
     }
 
+    /**
+     * 从本服务存储的对象 URL 解析文件存储键，非本服务对象返回 null
+     */
+    public String toFileKey(String url) {
+        if (!isStoredObjectUrl(url)) {
+            return null;
+        }
+        String prefix = String.format("%s/%s/", storageConfig.getEndpoint(), storageConfig.getBucket());
+        String fileKey = url.substring(prefix.length());
+        int queryIndex = fileKey.indexOf('?');
+        return queryIndex >= 0 ? fileKey.substring(0, queryIndex) : fileKey;
+    }
+
+    /**
+     * 检查本服务存储的对象 URL 是否仍指向存在的文件
+     */
+    public boolean storedObjectExists(String url) {
+        String fileKey = toFileKey(url);
+        return fileKey != null && fileExists(fileKey);
+    }
+
     /**
      * 确保存储桶存在
      */
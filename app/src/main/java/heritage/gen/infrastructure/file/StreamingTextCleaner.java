@@ -0,0 +1,164 @@
+package heritage.gen.infrastructure.file;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * 流式文本清理器
+ * 逐字符执行与 {@link TextCleaningService#cleanText(String)} 等价的规范化，并写入下游 Writer：
+ * 1. \r\n、\r 规范化为 \n
+ * 2. 连续 3 个及以上的换行压缩为 2 个
+ * 3. 去除每行首尾空白
+ * 4. 去除全文首尾空白
+ * 只缓存当前行尾部的空白与待输出的换行数，内存占用与文本长度无关。
+ * 非线程安全，每次解析使用一个新实例。
+ * 内存中的字符串通过 {@link #clean(CharSequence)} 直接写入 StringBuilder，不经过 Writer。
+ */
+public class StreamingTextCleaner extends Writer {
+
+    private final Appendable delegate;
+
+    /**
+     * 当前行中尚未确定是否为行尾的空白
+     */
+    private final StringBuilder pendingWhitespace = new StringBuilder();
+
+    private boolean previousWasCarriageReturn;
+    private int rawNewlineRun;
+    private int pendingNewlines;
+    private boolean lineHasContent;
+    private boolean anyContent;
+    private long writtenChars;
+
+    public StreamingTextCleaner(Writer delegate) {
+        this.delegate = delegate;
+    }
+
+    private StreamingTextCleaner(StringBuilder delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 单次扫描清理内存中的文本，结果与 {@link TextCleaningService#cleanText(String)} 一致
+     *
+     * @param text 原始文本
+     * @return 清理后的文本
+     */
+    static String clean(CharSequence text) {
+        StringBuilder out = new StringBuilder(text.length());
+        StreamingTextCleaner cleaner = new StreamingTextCleaner(out);
+        try {
+            for (int i = 0, n = text.length(); i < n; i++) {
+                cleaner.accept(text.charAt(i));
+            }
+        } catch (IOException e) {
+            // StringBuilder 不会抛出 IOException
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            accept(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        accept((char) c);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            accept(str.charAt(i));
+        }
+    }
+
+    private void accept(char c) throws IOException {
+        if (c == '\r') {
+            previousWasCarriageReturn = true;
+            newline();
+            return;
+        }
+        if (c == '\n') {
+            if (previousWasCarriageReturn) {
+                // \r\n 已在 \r 处计为一个换行
+                previousWasCarriageReturn = false;
+                return;
+            }
+            newline();
+            return;
+        }
+        previousWasCarriageReturn = false;
+        rawNewlineRun = 0;
+
+        if (Character.isWhitespace(c)) {
+            // 行首空白直接丢弃，行内空白待遇到后续内容时再输出
+            if (lineHasContent) {
+                pendingWhitespace.append(c);
+            }
+            return;
+        }
+
+        for (; pendingNewlines > 0; pendingNewlines--) {
+            delegate.append('\n');
+            writtenChars++;
+        }
+        if (!pendingWhitespace.isEmpty()) {
+            delegate.append(pendingWhitespace);
+            writtenChars += pendingWhitespace.length();
+            pendingWhitespace.setLength(0);
+        }
+        delegate.append(c);
+        writtenChars++;
+        lineHasContent = true;
+        anyContent = true;
+    }
+
+    private void newline() {
+        rawNewlineRun++;
+        if (rawNewlineRun > 2) {
+            return;
+        }
+        pendingWhitespace.setLength(0);
+        lineHasContent = false;
+        // 全文开头的换行会被首尾 strip 去掉
+        if (anyContent) {
+            pendingNewlines++;
+        }
+    }
+
+    /**
+     * 已写入下游的字符数（即清理后文本长度）
+     */
+    public long getWrittenChars() {
+        return writtenChars;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (delegate instanceof Flushable flushable) {
+            flushable.flush();
+        }
+    }
+
+    /**
+     * 关闭时丢弃末尾的空白与换行（对应全文 strip），并关闭下游
+     */
+    @Override
+    public void close() throws IOException {
+        pendingWhitespace.setLength(0);
+        pendingNewlines = 0;
+        if (delegate instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+}
@@ -5,10 +5,14 @@ import org.springframework.stereotype.Service;
 /**
  * 文本清理服务
  * 提供统一的文本内容清理和规范化功能
+ * <p>
+ * 各方法均为单次字符扫描实现，输出与原先基于正则替换的实现逐字符一致（见 benchmarks 模块中的对照基准）
  */
 @Service
 public class TextCleaningService {
 
+    private static final String NBSP = "&nbsp;";
+
     /**
      * 清理和规范化文本内容
      * - 规范化换行符
@@ -22,19 +26,7 @@ public class TextCleaningService {
         if (text == null || text.isEmpty()) {
             return "";
         }
-
-        return text
-            // 规范化换行符
-            .replaceAll("\\r\\n", "\n")
-            .replaceAll("\\r", "\n")
-            // 去除连续多个空行，保留最多两个
-            .replaceAll("\\n{3,}", "\n\n")
-            // 去除行首行尾多余空格
-            .lines()
-            .map(String::strip)
-            .reduce((a, b) -> a + "\n" + b)
-            .orElse("")
-            .strip();
+        return StreamingTextCleaner.clean(text);
     }
 
     /**
@@ -64,12 +56,19 @@ public class TextCleaningService {
             return "";
         }
 
-        return text
-            .replaceAll("\\r\\n", " ")
-            .replaceAll("\\r", " ")
-            .replaceAll("\\n", " ")
-            .replaceAll("\\s+", " ")
-            .strip();
+        StringBuilder out = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (isRegexWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            pendingSpace = appendPendingSpace(out, pendingSpace);
+            out.append(c);
+        }
+        appendPendingSpace(out, pendingSpace);
+        return out.toString().strip();
     }
 
     /**
@@ -83,14 +82,99 @@ public class TextCleaningService {
             return "";
         }
 
-        return text
-            .replaceAll("<[^>]+>", " ")
-            .replaceAll("&nbsp;", " ")
-            .replaceAll("&amp;", "&")
-            .replaceAll("&lt;", "<")
-            .replaceAll("&gt;", ">")
-            .replaceAll("&quot;", "\"")
-            .replaceAll("\\s+", " ")
-            .strip();
+        StringBuilder out = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == '<') {
+                // 与 <[^>]+> 一致：'<' 之后至少一个字符再遇到 '>' 才算标签，整体替换为空格
+                int close = text.indexOf('>', i + 1);
+                if (close > i + 1) {
+                    pendingSpace = true;
+                    i = close + 1;
+                    continue;
+                }
+            } else if (c == '&') {
+                if (text.startsWith(NBSP, i)) {
+                    pendingSpace = true;
+                    i += NBSP.length();
+                    continue;
+                }
+                int consumed = decodeEntity(text, i, out, pendingSpace);
+                if (consumed > 0) {
+                    pendingSpace = false;
+                    i += consumed;
+                    continue;
+                }
+            } else if (isRegexWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+                continue;
+            }
+            pendingSpace = appendPendingSpace(out, pendingSpace);
+            out.append(c);
+            i++;
+        }
+        appendPendingSpace(out, pendingSpace);
+        return out.toString().strip();
+    }
+
+    /**
+     * 解码 i 处除 &nbsp; 以外的 HTML 实体并写出，返回消耗的字符数（不是支持的实体时返回 0）
+     * 原实现依次执行 &nbsp;、&amp;、&lt;、&gt;、&quot; 的替换，
+     * 因此 &amp; 解码出的 '&' 会与紧随其后的 lt;/gt;/quot; 再组成一次实体，但不会与 nbsp;/amp; 组合
+     */
+    private static int decodeEntity(String text, int i, StringBuilder out, boolean pendingSpace) {
+        char decoded;
+        int consumed;
+        if (text.startsWith("&amp;", i)) {
+            int next = i + 5;
+            if (text.startsWith("lt;", next)) {
+                decoded = '<';
+                consumed = 8;
+            } else if (text.startsWith("gt;", next)) {
+                decoded = '>';
+                consumed = 8;
+            } else if (text.startsWith("quot;", next)) {
+                decoded = '"';
+                consumed = 10;
+            } else {
+                decoded = '&';
+                consumed = 5;
+            }
+        } else if (text.startsWith("&lt;", i)) {
+            decoded = '<';
+            consumed = 4;
+        } else if (text.startsWith("&gt;", i)) {
+            decoded = '>';
+            consumed = 4;
+        } else if (text.startsWith("&quot;", i)) {
+            decoded = '"';
+            consumed = 6;
+        } else {
+            return 0;
+        }
+        appendPendingSpace(out, pendingSpace);
+        out.append(decoded);
+        return consumed;
+    }
+
+    /**
+     * 输出连续空白折叠后的单个空格，返回新的待输出状态
+     */
+    private static boolean appendPendingSpace(StringBuilder out, boolean pendingSpace) {
+        if (pendingSpace) {
+            out.append(' ');
+        }
+        return false;
+    }
+
+    /**
+     * 是否为正则 {@code \s} 匹配的空白字符（仅 ASCII 空白，不含全角空格）
+     */
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 }
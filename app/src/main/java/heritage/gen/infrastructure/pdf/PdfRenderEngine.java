@@ -0,0 +1,68 @@
+package heritage.gen.infrastructure.pdf;
+
+import com.itextpdf.html2pdf.ConverterProperties;
+import com.itextpdf.html2pdf.HtmlConverter;
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.layout.font.FontInfo;
+import com.itextpdf.layout.font.FontSet;
+import com.itextpdf.styledxmlparser.resolver.font.BasicFontProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * HTML 转 PDF 渲染引擎（线程安全，可全局共享）
+ * 字体只在构造时解析一次，解析结果放在共享的 {@link FontSet} 中；
+ * iText 的 FontProvider 会缓存与具体文档绑定的 PdfFont，不能跨文档共享，因此每次渲染基于共享 FontSet 新建一个，开销很小。
+ */
+public final class PdfRenderEngine {
+
+    private final FontSet fontSet;
+    private final String defaultFontFamily;
+    private final boolean subsetFonts;
+
+    /**
+     * @param fontBytes   字体文件内容（TTF/OTF）
+     * @param subsetFonts 是否只嵌入用到的字形；关闭后嵌入完整字体，PDF 体积大幅增加，仅用于需要二次编辑的场景
+     */
+    public PdfRenderEngine(byte[] fontBytes, boolean subsetFonts) throws IOException {
+        FontProgram fontProgram = FontProgramFactory.createFont(fontBytes);
+        this.fontSet = new FontSet();
+        this.fontSet.addFont(fontProgram, null);
+        this.defaultFontFamily = fontProgram.getFontNames().getFontName();
+        this.subsetFonts = subsetFonts;
+    }
+
+    /**
+     * 将 HTML 渲染为 PDF
+     */
+    public byte[] render(String html) {
+        ConverterProperties properties = new ConverterProperties();
+        properties.setFontProvider(new SharedFontProvider(fontSet, defaultFontFamily, subsetFonts));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        HtmlConverter.convertToPdf(html, out, properties);
+        return out.toByteArray();
+    }
+
+    /**
+     * 基于共享 FontSet 的单文档字体提供者
+     */
+    private static final class SharedFontProvider extends BasicFontProvider {
+
+        private final boolean subsetFonts;
+
+        private SharedFontProvider(FontSet fontSet, String defaultFontFamily, boolean subsetFonts) {
+            super(fontSet, defaultFontFamily);
+            this.subsetFonts = subsetFonts;
+        }
+
+        @Override
+        public PdfFont getPdfFont(FontInfo fontInfo, FontSet additionalFonts) {
+            PdfFont font = super.getPdfFont(fontInfo, additionalFonts);
+            font.setSubset(subsetFonts);
+            return font;
+        }
+    }
+}
@@ -4,16 +4,21 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.*;
 import org.redisson.api.options.KeysScanOptions;
+import org.redisson.api.stream.AutoClaimResult;
+import org.redisson.api.stream.PendingResult;
 import org.redisson.api.stream.StreamAddArgs;
 import org.redisson.api.stream.StreamCreateGroupArgs;
+import org.redisson.api.stream.StreamGroup;
 import org.redisson.api.stream.StreamMessageId;
 import org.redisson.api.stream.StreamReadGroupArgs;
 import org.redisson.client.codec.StringCodec;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -90,6 +95,13 @@ public class RedisService {
         return redissonClient.getBucket(key).expire(ttl);
     }
 
+    /**
+     * 清除过期时间
+     */
+    public boolean persist(String key) {
+        return redissonClient.getBucket(key).clearExpire();
+    }
+
     /**
      * 获取剩余过期时间（毫秒）
      */
@@ -139,6 +151,124 @@ public class RedisService {
         return map.containsKey(field);
     }
 
+    /**
+     * 批量写入字符串 Hash 字段并刷新过期时间（StringCodec，便于 redis-cli 直接查看）
+     */
+    public void hSetAllString(String key, Map<String, String> fields, Duration ttl) {
+        RMap<String, String> map = redissonClient.getMap(key, StringCodec.INSTANCE);
+        map.putAll(fields);
+        map.expire(ttl);
+    }
+
+    /**
+     * 写入单个字符串 Hash 字段并刷新过期时间（StringCodec）
+     */
+    public void hSetString(String key, String field, String value, Duration ttl) {
+        RMap<String, String> map = redissonClient.getMap(key, StringCodec.INSTANCE);
+        map.fastPut(field, value);
+        map.expire(ttl);
+    }
+
+    /**
+     * 字段当前值等于 expected 时才删除（原子比较删除），返回是否删除
+     */
+    public boolean hRemoveIfEquals(String key, String field, String expected) {
+        RMap<String, String> map = redissonClient.getMap(key, StringCodec.INSTANCE);
+        return map.remove(field, expected);
+    }
+
+    /**
+     * 读取字符串 Hash（StringCodec）
+     */
+    public Map<String, String> hGetAllString(String key) {
+        RMap<String, String> map = redissonClient.getMap(key, StringCodec.INSTANCE);
+        return map.readAllMap();
+    }
+
+    /**
+     * 键不存在时写入字符串值（SET NX PX），返回是否写入成功
+     */
+    public boolean setIfAbsentString(String key, String value, Duration ttl) {
+        RBucket<String> bucket = redissonClient.getBucket(key, StringCodec.INSTANCE);
+        return bucket.setIfAbsent(value, ttl);
+    }
+
+    /**
+     * 读取字符串值（StringCodec）
+     */
+    public String getString(String key) {
+        RBucket<String> bucket = redissonClient.getBucket(key, StringCodec.INSTANCE);
+        return bucket.get();
+    }
+
+    /**
+     * 写入字符串值并设置过期时间（StringCodec）
+     */
+    public void setString(String key, String value, Duration ttl) {
+        RBucket<String> bucket = redissonClient.getBucket(key, StringCodec.INSTANCE);
+        bucket.set(value, ttl);
+    }
+
+    // ==================== 集合操作 ====================
+
+    /**
+     * 向字符串集合添加成员
+     */
+    public boolean sAdd(String key, String member) {
+        RSet<String> set = redissonClient.getSet(key, StringCodec.INSTANCE);
+        return set.add(member);
+    }
+
+    /**
+     * 从字符串集合移除成员
+     */
+    public boolean sRemove(String key, String member) {
+        RSet<String> set = redissonClient.getSet(key, StringCodec.INSTANCE);
+        return set.remove(member);
+    }
+
+    /**
+     * 获取字符串集合的所有成员
+     */
+    public Set<String> sMembers(String key) {
+        RSet<String> set = redissonClient.getSet(key, StringCodec.INSTANCE);
+        return set.readAll();
+    }
+
+    // ==================== 有序集合操作 ====================
+
+    /**
+     * 写入或更新有序集合成员的分值
+     */
+    public void zAdd(String key, double score, String member) {
+        RScoredSortedSet<String> set = redissonClient.getScoredSortedSet(key, StringCodec.INSTANCE);
+        set.add(score, member);
+    }
+
+    /**
+     * 移除有序集合成员
+     */
+    public boolean zRemove(String key, String member) {
+        RScoredSortedSet<String> set = redissonClient.getScoredSortedSet(key, StringCodec.INSTANCE);
+        return set.remove(member);
+    }
+
+    /**
+     * 有序集合成员数
+     */
+    public int zCard(String key) {
+        RScoredSortedSet<String> set = redissonClient.getScoredSortedSet(key, StringCodec.INSTANCE);
+        return set.size();
+    }
+
+    /**
+     * 弹出分值最小的若干成员（ZPOPMIN）
+     */
+    public Collection<String> zPopMin(String key, int count) {
+        RScoredSortedSet<String> set = redissonClient.getScoredSortedSet(key, StringCodec.INSTANCE);
+        return set.pollFirst(count);
+    }
+
     // ==================== 分布式锁 ====================
 
     /**
@@ -285,6 +415,17 @@ public class RedisService {
             StreamReadGroupArgs.neverDelivered().count(count));
     }
 
+    /**
+     * 从 Stream 批量读取新消息（消费者组模式，阻塞等待至多 blockTimeoutMs）
+     */
+    public Map<StreamMessageId, Map<String, String>> streamReadGroup(
+            String streamKey, String groupName, String consumerName, int count, long blockTimeoutMs) {
+        RStream<String, String> stream = redissonClient.getStream(streamKey, StringCodec.INSTANCE);
+        Map<StreamMessageId, Map<String, String>> messages = stream.readGroup(groupName, consumerName,
+            StreamReadGroupArgs.neverDelivered().count(count).timeout(Duration.ofMillis(blockTimeoutMs)));
+        return messages != null ? messages : Map.of();
+    }
+
     /**
      * 确认消息已处理
      */
@@ -293,6 +434,66 @@ public class RedisService {
         stream.ack(groupName, ids);
     }
 
+    /**
+     * 认领空闲超过阈值的待确认消息（XAUTOCLAIM）
+     * 用于接管崩溃节点或已下线消费者遗留在 PEL 中的消息
+     *
+     * @param streamKey    Stream 键
+     * @param groupName    消费者组名
+     * @param consumerName 认领后归属的消费者
+     * @param minIdleMs    最小空闲时间（毫秒）
+     * @param count        最多认领条数
+     * @return 认领到的消息（已被删除的条目不包含在内）
+     */
+    public Map<StreamMessageId, Map<String, String>> streamAutoClaim(
+            String streamKey, String groupName, String consumerName, long minIdleMs, int count) {
+        RStream<String, String> stream = redissonClient.getStream(streamKey, StringCodec.INSTANCE);
+        AutoClaimResult<String, String> result = stream.autoClaim(
+            groupName, consumerName, minIdleMs, TimeUnit.MILLISECONDS, new StreamMessageId(0, 0), count);
+        if (result.getDeletedIds() != null && !result.getDeletedIds().isEmpty()) {
+            // 条目已从 Stream 中删除，只能直接确认
+            stream.ack(groupName, result.getDeletedIds().toArray(new StreamMessageId[0]));
+        }
+        return result.getMessages() != null ? result.getMessages() : Map.of();
+    }
+
+    /**
+     * 刷新消息的空闲时间（XCLAIM ... JUSTID，认领给自己）
+     * 长任务处理期间定期调用，避免被其他消费者当作遗留消息认领
+     */
+    public void streamTouchPending(String streamKey, String groupName, String consumerName, StreamMessageId... ids) {
+        RStream<String, String> stream = redissonClient.getStream(streamKey, StringCodec.INSTANCE);
+        stream.fastClaim(groupName, consumerName, 0, TimeUnit.MILLISECONDS, ids);
+    }
+
+    /**
+     * 获取消费者组的待确认消息统计（总数及各消费者 PEL 大小）
+     */
+    public PendingResult streamPendingInfo(String streamKey, String groupName) {
+        RStream<String, String> stream = redissonClient.getStream(streamKey, StringCodec.INSTANCE);
+        return stream.getPendingInfo(groupName);
+    }
+
+    /**
+     * 获取消费者组的 lag（尚未投递给该组的消息数，需 Redis 7+，低版本返回 -1）
+     */
+    public long streamGroupLag(String streamKey, String groupName) {
+        RStream<String, String> stream = redissonClient.getStream(streamKey, StringCodec.INSTANCE);
+        return stream.listGroups().stream()
+            .filter(group -> groupName.equals(group.getName()))
+            .mapToLong(StreamGroup::getLag)
+            .findFirst()
+            .orElse(-1);
+    }
+
+    /**
+     * 从 Stream 中删除消息（XDEL），通常在确认后调用以保持 Stream 长度等于未完成消息数
+     */
+    public long streamDelete(String streamKey, StreamMessageId... ids) {
+        RStream<String, String> stream = redissonClient.getStream(streamKey, StringCodec.INSTANCE);
+        return stream.remove(ids);
+    }
+
     /**
      * 获取 Stream 长度
      */
@@ -310,6 +511,41 @@ public class RedisService {
         return redissonClient.getAtomicLong(key);
     }
 
+    /**
+     * 分配序号：键不存在时先以 initialValue 初始化，再原子增加 delta 并刷新过期时间，返回增加后的值（单次往返）
+     */
+    public long allocateSequence(String key, long initialValue, long delta, Duration ttl) {
+        String script = """
+            if redis.call('exists', KEYS[1]) == 0 then
+                redis.call('set', KEYS[1], ARGV[1])
+            end
+            local value = redis.call('incrby', KEYS[1], ARGV[2])
+            redis.call('pexpire', KEYS[1], ARGV[3])
+            return value
+            """;
+        Long value = redissonClient.getScript(StringCodec.INSTANCE).eval(
+            RScript.Mode.READ_WRITE, script, RScript.ReturnType.LONG, List.of(key),
+            String.valueOf(initialValue), String.valueOf(delta), String.valueOf(ttl.toMillis()));
+        return value != null ? value : initialValue + delta;
+    }
+
+    /**
+     * 键存在时原子增加 delta 并刷新过期时间，返回增加后的值；键不存在时不创建，返回 null（单次往返）
+     */
+    public Long incrementIfExists(String key, long delta, Duration ttl) {
+        String script = """
+            if redis.call('exists', KEYS[1]) == 0 then
+                return nil
+            end
+            local value = redis.call('incrby', KEYS[1], ARGV[1])
+            redis.call('pexpire', KEYS[1], ARGV[2])
+            return value
+            """;
+        return redissonClient.getScript(StringCodec.INSTANCE).eval(
+            RScript.Mode.READ_WRITE, script, RScript.ReturnType.LONG, List.of(key),
+            String.valueOf(delta), String.valueOf(ttl.toMillis()));
+    }
+
     /**
      * 自增并返回
      */
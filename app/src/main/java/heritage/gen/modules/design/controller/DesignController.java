@@ -1,16 +1,22 @@
 package heritage.gen.modules.design.controller;
 
 import cn.dev33.satoken.stp.StpUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.concurrency.AiEndpoint;
 import heritage.gen.common.exception.BusinessException;
 import heritage.gen.common.exception.ErrorCode;
 import heritage.gen.common.result.Result;
 import heritage.gen.modules.design.model.ArtifactEntity;
 import heritage.gen.modules.design.model.DesignProject;
 import heritage.gen.modules.design.model.GenerateDesignRequest;
+import heritage.gen.modules.design.model.ImageJobType;
+import heritage.gen.modules.design.model.ImageJobView;
 import heritage.gen.modules.design.model.KvGenerationResult;
 import heritage.gen.modules.design.model.SaveDesignRequest;
 import heritage.gen.modules.design.service.AiDesignService;
 import heritage.gen.modules.design.service.ArtifactService;
+import heritage.gen.modules.design.service.DesignImageJobService;
 import heritage.gen.modules.design.service.PdfExportService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
@@ -18,7 +24,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 import java.util.Map;
@@ -35,25 +43,33 @@ public class DesignController {
     private final AiDesignService designService;
     private final ArtifactService artifactService;
     private final PdfExportService pdfExportService;
+    private final DesignImageJobService imageJobService;
+    private final ObjectMapper objectMapper;
 
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    @AiEndpoint("design.concept")
     @PostMapping("/generate/concept")
     public Result<DesignProject> generateConcept(@Valid @RequestBody GenerateDesignRequest request) {
         log.info("收到设计概念生成请求: {}", request.getIdea());
         return Result.success(designService.generateConceptOnly(request));
     }
 
+    @AiEndpoint("design.blueprint")
     @PostMapping("/generate/blueprint")
     public Result<String> generateBlueprint(@RequestBody GenerateDesignRequest request) {
         log.info("收到草图生成请求");
         return Result.success(designService.generateBlueprintOnly(request));
     }
 
+    @AiEndpoint("design.render")
     @PostMapping("/generate/render")
     public Result<String> generateRender(@RequestBody GenerateDesignRequest request) {
         log.info("收到效果图生成请求");
         return Result.success(designService.generateRenderOnly(request));
     }
 
+    @AiEndpoint("design.generate")
     @PostMapping("/generate")
     public Result<DesignProject> generateDesign(@Valid @RequestBody GenerateDesignRequest request) {
         log.info("收到设计生成请求 (Legacy): {}", request.getIdea());
@@ -160,28 +176,49 @@ public class DesignController {
                 .body(pdfData);
     }
 
+    @AiEndpoint("design.analysis")
     @PostMapping("/generate/analysis")
     public Result<Map<String, Object>> generateAnalysis(@RequestBody GenerateDesignRequest request) {
         if (request == null || request.getConcept() == null) {
             throw new BusinessException(ErrorCode.BAD_REQUEST, "缺少 concept 参数");
         }
         log.info("收到生成分析报告请求: conceptName={}", request.getConcept().getConceptName());
-        
-        Map<String, Object> analysis = new java.util.HashMap<>();
-        
-        // 生成市场分析
-        Map<String, Object> marketAnalysis = designService.generateMarketAnalysis(request.getConcept());
-        analysis.put("marketAnalysis", marketAnalysis);
-        
-        // 生成技术可行性
-        Map<String, Object> technicalFeasibility = designService.generateTechnicalFeasibility(request.getConcept());
-        analysis.put("technicalFeasibility", technicalFeasibility);
-        
-        // 生成风险评估
-        Map<String, Object> riskAssessment = designService.generateRiskAssessment(request.getConcept());
-        analysis.put("riskAssessment", riskAssessment);
-        
-        return Result.success(analysis);
+
+        // 市场分析、技术可行性、风险评估并发生成，单项失败时返回其余各项
+        return Result.success(designService.generateAnalysis(request.getConcept()));
+    }
+
+    /**
+     * 流式生成分析报告（SSE）：每完成一项即下发一个事件，事件名为分析项名称，
+     * 数据为该项 JSON；失败项的事件名为 error，全部完成后下发 done 事件
+     */
+    @AiEndpoint("design.analysis")
+    @PostMapping(value = "/generate/analysis/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> generateAnalysisStream(@RequestBody GenerateDesignRequest request) {
+        if (request == null || request.getConcept() == null) {
+            throw new BusinessException(ErrorCode.BAD_REQUEST, "缺少 concept 参数");
+        }
+        log.info("收到流式生成分析报告请求: conceptName={}", request.getConcept().getConceptName());
+
+        return designService.streamAnalysis(request.getConcept())
+                .map(section -> section.succeeded()
+                        ? ServerSentEvent.<String>builder()
+                                .event(section.section())
+                                .data(toJson(section.content()))
+                                .build()
+                        : ServerSentEvent.<String>builder()
+                                .event("error")
+                                .data(toJson(Map.of("section", section.section(), "error", section.error())))
+                                .build())
+                .concatWith(Flux.just(ServerSentEvent.<String>builder().event("done").data("{}").build()));
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new BusinessException(ErrorCode.INTERNAL_ERROR, "分析结果序列化失败");
+        }
     }
 
     @PostMapping("/{id}/analysis")
@@ -192,24 +229,69 @@ public class DesignController {
         return Result.success(entity);
     }
 
+    @AiEndpoint("design.kv")
     @PostMapping("/{id}/generate/kv")
     public Result<KvGenerationResult> generateKv(@PathVariable Long id) {
         Long userId = StpUtil.getLoginIdAsLong();
-        ArtifactEntity entity = artifactService.getDesignForWrite(id, userId);
-        KvGenerationResult result = designService.generateKvAssets(entity);
-        Map<String, Object> kvImageUrls = new java.util.HashMap<>();
-        kvImageUrls.put("kv", result.getKvUrl());
-        kvImageUrls.put("lifestyle", result.getLifestyleUrl());
-        kvImageUrls.put("detail", result.getDetailUrl());
-        artifactService.saveKvAssets(
-                id,
-                userId,
-                result.getPromptText(),
-                result.getKvUrl(),
-                result.getLifestyleUrl(),
-                result.getDetailUrl(),
-                kvImageUrls
-        );
+        KvGenerationResult result = designService.generateAndSaveKvAssets(id, userId);
         return Result.success(result);
     }
+
+    // ========== 异步图片生成任务 ==========
+
+    /**
+     * 提交草图生成任务，立即返回任务ID；Idempotency-Key 相同的重复提交返回同一任务
+     */
+    @PostMapping("/jobs/blueprint")
+    public Result<ImageJobView> submitBlueprintJob(
+            @RequestBody GenerateDesignRequest request,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        return Result.success(imageJobService.submit(ImageJobType.BLUEPRINT, userId, null, request, idempotencyKey));
+    }
+
+    /**
+     * 提交效果图生成任务
+     */
+    @PostMapping("/jobs/render")
+    public Result<ImageJobView> submitRenderJob(
+            @RequestBody GenerateDesignRequest request,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        return Result.success(imageJobService.submit(ImageJobType.RENDER, userId, null, request, idempotencyKey));
+    }
+
+    /**
+     * 提交 KV 生成任务，完成后结果同样保存到设计记录
+     */
+    @PostMapping("/{id}/jobs/kv")
+    public Result<ImageJobView> submitKvJob(
+            @PathVariable Long id,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        return Result.success(imageJobService.submit(ImageJobType.KV, userId, id, null, idempotencyKey));
+    }
+
+    /**
+     * 轮询任务状态
+     */
+    @GetMapping("/jobs/{jobId}")
+    public Result<ImageJobView> getImageJob(@PathVariable String jobId) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        return Result.success(imageJobService.get(jobId, userId));
+    }
+
+    /**
+     * 订阅任务状态（SSE），每次状态变化下发一个 status 事件，任务结束后关闭
+     */
+    @GetMapping(value = "/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> watchImageJob(@PathVariable String jobId) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        return imageJobService.watch(jobId, userId)
+                .map(view -> ServerSentEvent.<String>builder()
+                        .id(view.status() + "-" + view.updatedAt())
+                        .event("status")
+                        .data(toJson(view))
+                        .build());
+    }
 }
@@ -0,0 +1,248 @@
+package heritage.gen.modules.design.listener;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.DesignImageJobProperties;
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.design.model.GenerateDesignRequest;
+import heritage.gen.modules.design.model.ImageJobType;
+import heritage.gen.modules.design.model.ImageJobView;
+import heritage.gen.modules.design.service.AiDesignService;
+import heritage.gen.modules.design.service.DesignImageJobService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.stream.StreamMessageId;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 设计图片生成任务 Stream 消费者
+ * 每个 worker 为一个虚拟线程，独立的消费者名，每次只拉取一个任务并同步调用 DashScope 生成图片。
+ * 图片生成费用较高，失败不自动重试，直接标记失败由用户决定是否重新提交；
+ * 节点崩溃遗留在 PEL 中的任务由其他 worker 通过 XAUTOCLAIM 认领重做，处理中的任务定期刷新空闲时间避免误认领。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DesignImageJobConsumer {
+
+    private static final long BLOCK_TIMEOUT_MS = 2000;
+
+    private final RedisService redisService;
+    private final DesignImageJobService jobService;
+    private final AiDesignService designService;
+    private final ObjectMapper objectMapper;
+    private final DesignImageJobProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong queueDepth = new AtomicLong();
+    private ExecutorService workerExecutor;
+    private ScheduledExecutorService maintenanceScheduler;
+    private Counter reclaimCounter;
+    private String instanceName;
+
+    @PostConstruct
+    public void init() {
+        this.instanceName = AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_CONSUMER_PREFIX + UUID.randomUUID().toString().substring(0, 8);
+
+        try {
+            redisService.createStreamGroup(
+                AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY,
+                AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_GROUP_NAME
+            );
+        } catch (Exception e) {
+            log.warn("创建图片任务消费者组时发生异常（可能已存在）: {}", e.getMessage());
+        }
+
+        Gauge.builder("design.image.job.queue.depth", queueDepth, AtomicLong::get)
+            .description("图片任务 Stream 中尚未完成的任务数")
+            .register(meterRegistry);
+        this.reclaimCounter = Counter.builder("design.image.job.reclaimed")
+            .description("通过 XAUTOCLAIM 认领的遗留图片任务数")
+            .register(meterRegistry);
+
+        this.maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "image-job-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenanceScheduler.scheduleWithFixedDelay(this::refreshQueueDepth, 0, 10, TimeUnit.SECONDS);
+
+        this.workerExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("image-job-worker-", 0).factory());
+        running.set(true);
+        int workerCount = Math.max(1, properties.getWorkers());
+        for (int i = 0; i < workerCount; i++) {
+            String consumerName = instanceName + "-" + i;
+            workerExecutor.submit(() -> workerLoop(consumerName));
+        }
+        log.info("图片任务消费者已启动: instance={}, workers={}", instanceName, workerCount);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running.set(false);
+        if (workerExecutor != null) {
+            workerExecutor.shutdown();
+        }
+        if (maintenanceScheduler != null) {
+            maintenanceScheduler.shutdownNow();
+        }
+        log.info("图片任务消费者已关闭: instance={}", instanceName);
+    }
+
+    private void workerLoop(String consumerName) {
+        long nextClaimAt = 0;
+        while (running.get()) {
+            try {
+                long now = System.currentTimeMillis();
+                if (now >= nextClaimAt) {
+                    nextClaimAt = now + properties.getClaimIdleMs() / 2;
+                    Map<StreamMessageId, Map<String, String>> claimed = redisService.streamAutoClaim(
+                        AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY,
+                        AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_GROUP_NAME,
+                        consumerName, properties.getClaimIdleMs(), 1);
+                    if (!claimed.isEmpty()) {
+                        reclaimCounter.increment();
+                        claimed.forEach((messageId, data) -> {
+                            log.warn("认领遗留图片任务: messageId={}, consumer={}", messageId, consumerName);
+                            processMessage(consumerName, messageId, data);
+                        });
+                        continue;
+                    }
+                }
+
+                redisService.streamConsumeMessages(
+                    AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY,
+                    AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_GROUP_NAME,
+                    consumerName, 1, BLOCK_TIMEOUT_MS,
+                    (messageId, data) -> processMessage(consumerName, messageId, data));
+            } catch (Exception e) {
+                if (Thread.currentThread().isInterrupted() || !running.get()) {
+                    break;
+                }
+                log.error("消费图片任务时发生错误: consumer={}, error={}", consumerName, e.getMessage(), e);
+                try {
+                    Thread.sleep(AsyncTaskStreamConstants.POLL_INTERVAL_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理单个图片任务
+     */
+    private void processMessage(String consumerName, StreamMessageId messageId, Map<String, String> data) {
+        String jobId = data.get(AsyncTaskStreamConstants.FIELD_JOB_ID);
+        String typeName = data.get(DesignImageJobService.FIELD_TYPE);
+        if (jobId == null || typeName == null) {
+            log.warn("图片任务消息格式错误，跳过: messageId={}", messageId);
+            ackMessage(messageId);
+            return;
+        }
+
+        // 认领的任务可能已在崩溃前完成，只是未确认
+        ImageJobView current = jobService.read(jobId);
+        if (current == null || current.isTerminal()) {
+            ackMessage(messageId);
+            return;
+        }
+
+        ImageJobType type = ImageJobType.valueOf(typeName);
+        log.info("开始处理图片任务: jobId={}, type={}, consumer={}", jobId, type, consumerName);
+        long startNanos = System.nanoTime();
+        String outcome = "success";
+        ScheduledFuture<?> heartbeat = startHeartbeat(consumerName, messageId);
+        try {
+            jobService.markProcessing(jobId, "生成中");
+            Object result = execute(type, data);
+            jobService.markCompleted(jobId, result);
+            log.info("图片任务完成: jobId={}, type={}, 耗时={}ms",
+                jobId, type, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } catch (Exception e) {
+            outcome = "failure";
+            log.error("图片任务失败: jobId={}, type={}, error={}", jobId, type, e.getMessage(), e);
+            jobService.markFailed(jobId, e.getMessage());
+        } finally {
+            heartbeat.cancel(false);
+            Timer.builder("design.image.job.duration")
+                .description("图片任务处理耗时")
+                .tag("type", type.name().toLowerCase())
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            ackMessage(messageId);
+        }
+    }
+
+    private Object execute(ImageJobType type, Map<String, String> data) throws Exception {
+        Long userId = Long.parseLong(data.get(DesignImageJobService.FIELD_USER_ID));
+        return switch (type) {
+            case BLUEPRINT -> designService.generateBlueprintOnly(readRequest(data));
+            case RENDER -> designService.generateRenderOnly(readRequest(data));
+            case KV -> designService.generateAndSaveKvAssets(
+                Long.parseLong(data.get(DesignImageJobService.FIELD_DESIGN_ID)), userId);
+        };
+    }
+
+    private GenerateDesignRequest readRequest(Map<String, String> data) throws Exception {
+        return objectMapper.readValue(data.get(DesignImageJobService.FIELD_PAYLOAD), GenerateDesignRequest.class);
+    }
+
+    /**
+     * 处理期间定期刷新消息空闲时间，避免被其他 worker 当作遗留任务认领
+     */
+    private ScheduledFuture<?> startHeartbeat(String consumerName, StreamMessageId messageId) {
+        long interval = properties.getHeartbeatIntervalMs();
+        return maintenanceScheduler.scheduleAtFixedRate(() -> {
+            try {
+                redisService.streamTouchPending(
+                    AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY,
+                    AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_GROUP_NAME,
+                    consumerName, messageId);
+            } catch (Exception e) {
+                log.warn("刷新图片任务空闲时间失败: messageId={}, error={}", messageId, e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 确认并删除消息，Stream 长度即未完成任务数
+     */
+    private void ackMessage(StreamMessageId messageId) {
+        try {
+            redisService.streamAck(AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY,
+                AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_GROUP_NAME, messageId);
+            redisService.streamDelete(AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY, messageId);
+        } catch (Exception e) {
+            log.error("确认图片任务消息失败: messageId={}, error={}", messageId, e.getMessage(), e);
+        }
+    }
+
+    private void refreshQueueDepth() {
+        try {
+            queueDepth.set(redisService.streamLen(AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY));
+        } catch (Exception e) {
+            log.debug("刷新图片任务队列长度失败: {}", e.getMessage());
+        }
+    }
+}
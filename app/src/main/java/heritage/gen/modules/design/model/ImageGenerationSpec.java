@@ -0,0 +1,23 @@
+package heritage.gen.modules.design.model;
+
+import java.util.Map;
+
+/**
+ * 一次图像生成调用的完整参数，由 DashScopeImageGenerator 解析得到，同时作为生成缓存键的来源
+ *
+ * @param model             实际调用的模型
+ * @param prompt            正向提示词
+ * @param parameters        模型参数（含尺寸、负面提示词等）
+ * @param referenceImageUrl 参考图地址，纯文生图时为 null
+ */
+public record ImageGenerationSpec(
+    String model,
+    String prompt,
+    Map<String, Object> parameters,
+    String referenceImageUrl
+) {
+
+    public boolean hasReference() {
+        return referenceImageUrl != null && !referenceImageUrl.isBlank();
+    }
+}
@@ -0,0 +1,21 @@
+package heritage.gen.modules.design.model;
+
+/**
+ * 异步图片生成任务类型
+ */
+public enum ImageJobType {
+    /**
+     * 设计草图（对应 /generate/blueprint）
+     */
+    BLUEPRINT,
+
+    /**
+     * 产品效果图（对应 /generate/render）
+     */
+    RENDER,
+
+    /**
+     * KV 海报三件套（对应 /{id}/generate/kv）
+     */
+    KV
+}
@@ -0,0 +1,29 @@
+package heritage.gen.modules.design.model;
+
+/**
+ * 异步图片生成任务状态
+ *
+ * @param jobId     任务ID
+ * @param type      任务类型
+ * @param status    任务状态
+ * @param stage     当前阶段说明（排队中 / 生成中 / 已完成 / 失败）
+ * @param result    任务结果：BLUEPRINT/RENDER 为图片URL，KV 为 {@link KvGenerationResult}
+ * @param error     失败原因
+ * @param createdAt 提交时间（毫秒时间戳）
+ * @param updatedAt 最近更新时间（毫秒时间戳）
+ */
+public record ImageJobView(
+    String jobId,
+    ImageJobType type,
+    GenerationStatus status,
+    String stage,
+    Object result,
+    String error,
+    long createdAt,
+    long updatedAt
+) {
+
+    public boolean isTerminal() {
+        return status == GenerationStatus.COMPLETED || status == GenerationStatus.FAILED;
+    }
+}
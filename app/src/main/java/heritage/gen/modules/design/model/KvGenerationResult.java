@@ -2,10 +2,16 @@ package heritage.gen.modules.design.model;
 
 import lombok.Data;
 
+import java.util.Map;
+
 @Data
 public class KvGenerationResult {
     private String promptText;
     private String kvUrl;
     private String lifestyleUrl;
     private String detailUrl;
+    /**
+     * 各阶段耗时（毫秒）：refDownload、promptText、promptPack、{kv,lifestyle,detail}Image、{kv,lifestyle,detail}Upload、total
+     */
+    private Map<String, Long> stageTimings;
 }
@@ -1,14 +1,18 @@
 package heritage.gen.modules.design.service;
 
+import heritage.gen.common.config.DesignAnalysisProperties;
 import heritage.gen.common.exception.BusinessException;
 import heritage.gen.common.exception.ErrorCode;
 import heritage.gen.modules.design.model.ArtifactEntity;
 import heritage.gen.modules.design.model.DesignConcept;
 import heritage.gen.modules.design.model.DesignProject;
 import heritage.gen.modules.design.model.GenerateDesignRequest;
+import heritage.gen.modules.design.model.ImageGenerationSpec;
 import heritage.gen.modules.design.model.KvGenerationResult;
 import heritage.gen.modules.design.model.KvPromptPack;
+import heritage.gen.modules.design.service.ReferenceImageProvider.ReferenceImage;
 import heritage.gen.modules.knowledgebase.service.KnowledgeBaseVectorService;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.prompt.PromptTemplate;
@@ -16,16 +20,27 @@ import org.springframework.ai.document.Document;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
-import java.net.URI;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -36,6 +51,8 @@ import java.util.stream.Collectors;
 @Service
 public class AiDesignService {
 
+    private static final String PLACEHOLDER_IMAGE_URL = "https://via.placeholder.com/1024x1024?text=Image+Generation+Failed";
+
     private final ChatClient chatClient;
     private final KnowledgeBaseVectorService vectorService;
     private final DashScopeImageGenerator imageGenerator;
@@ -55,6 +72,15 @@ public class AiDesignService {
 
     private final heritage.gen.infrastructure.file.FileStorageService fileStorageService;
     private final com.fasterxml.jackson.databind.ObjectMapper objectMapper;
+    private final DesignAnalysisProperties analysisProperties;
+    private final ArtifactService artifactService;
+    private final ImageGenerationCache imageCache;
+    private final ReferenceImageProvider referenceImageProvider;
+
+    /**
+     * 分析报告、KV 生成中的并发模型调用均阻塞在 HTTP 响应上，使用虚拟线程
+     */
+    private final ExecutorService modelCallExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     public AiDesignService(
             ChatClient.Builder chatClientBuilder,
@@ -62,6 +88,10 @@ public class AiDesignService {
             DashScopeImageGenerator imageGenerator,
             heritage.gen.infrastructure.file.FileStorageService fileStorageService,
             com.fasterxml.jackson.databind.ObjectMapper objectMapper,
+            DesignAnalysisProperties analysisProperties,
+            ArtifactService artifactService,
+            ImageGenerationCache imageCache,
+            ReferenceImageProvider referenceImageProvider,
             @Value("classpath:prompts/design-concept-system.st") Resource systemPromptResource,
             @Value("classpath:prompts/design-concept-user.st") Resource userPromptResource,
             @Value("classpath:prompts/design-market-system.st") Resource marketSystemResource,
@@ -76,6 +106,10 @@ public class AiDesignService {
         this.imageGenerator = imageGenerator;
         this.fileStorageService = fileStorageService;
         this.objectMapper = objectMapper;
+        this.analysisProperties = analysisProperties;
+        this.artifactService = artifactService;
+        this.imageCache = imageCache;
+        this.referenceImageProvider = referenceImageProvider;
         this.systemPromptTemplate = new PromptTemplate(systemPromptResource.getContentAsString(StandardCharsets.UTF_8));
         this.userPromptTemplate = new PromptTemplate(userPromptResource.getContentAsString(StandardCharsets.UTF_8));
         
@@ -121,9 +155,7 @@ public class AiDesignService {
     public String generateBlueprintOnly(GenerateDesignRequest request) {
         log.info("开始生成草图: conceptName={}", request.getConcept().getConceptName());
         try {
-            String blueprintUrl = generateBlueprint(request.getConcept());
-            // 转存到MinIO
-            String storedUrl = getShortRefUrl(blueprintUrl);
+            String storedUrl = generateBlueprint(request.getConcept());
             log.info("草图已转存到MinIO: {}", storedUrl);
             return storedUrl;
         } catch (Exception e) {
@@ -152,9 +184,7 @@ public class AiDesignService {
             }
 
             // 如果提供了草图 URL，则使用图生图模式
-            String renderUrl = generateProductShot(request.getConcept(), storedBlueprintUrl);
-            // 转存到MinIO
-            String storedUrl = getShortRefUrl(renderUrl);
+            String storedUrl = generateProductShot(request.getConcept(), storedBlueprintUrl);
             log.info("效果图已转存到MinIO: {}", storedUrl);
             return storedUrl;
         } catch (Exception e) {
@@ -229,7 +259,7 @@ public class AiDesignService {
     }
 
     /**
-     * 生成设计草图 (Blueprint) - 使用 qwen-image-max（纯文生图）
+     * 生成设计草图 (Blueprint) - 使用 qwen-image-max（纯文生图），返回转存后的 URL
      */
     private String generateBlueprint(DesignConcept concept) {
         log.info("正在生成设计草图 (使用 qwen-image-max)...");
@@ -263,46 +293,27 @@ public class AiDesignService {
     }
 
     /**
-     * 从MinIO URL下载图片到临时文件，供DashScope图生图使用
+     * 获取参考图本地文件，供DashScope图生图使用；不合法或读取失败时返回 null
      */
-    private String downloadMinioImageToTemp(String minioUrl) {
-        if (minioUrl == null || minioUrl.isBlank()) {
+    private ReferenceImage acquireReference(String storedUrl) {
+        if (storedUrl == null || storedUrl.isBlank() || !fileStorageService.isStoredObjectUrl(storedUrl)) {
             return null;
         }
-
-        if (!fileStorageService.isStoredObjectUrl(minioUrl)) {
-            return null;
-        }
-
         try {
-            log.info("从MinIO下载参考图: {}", minioUrl);
-            Path tempFile = Files.createTempFile("minio_ref_", ".png");
-            java.net.URLConnection conn = URI.create(minioUrl).toURL().openConnection();
-            conn.setConnectTimeout(8000);
-            conn.setReadTimeout(15000);
-            try (var in = conn.getInputStream()) {
-                Files.copy(in, tempFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            }
-            String fileUri = tempFile.toUri().toString();
-            log.info("参考图下载成功: {}", fileUri);
-            return fileUri;
+            return referenceImageProvider.acquire(storedUrl);
         } catch (Exception e) {
-            log.error("从MinIO下载参考图失败", e);
+            log.error("读取参考图失败: {}", storedUrl, e);
             return null;
         }
     }
 
     /**
-     * 生成产品效果图 (Product Shot) - 使用 wan2.6-image 进行图生图
+     * 生成产品效果图 (Product Shot) - 使用 wan2.6-image 进行图生图，返回转存后的 URL
      */
     private String generateProductShot(DesignConcept concept, String blueprintUrl) {
         log.info("正在生成产品效果图 (使用 wan2.6-image 图生图, 参考图: {})...",
                 blueprintUrl != null ? "有" : "无");
 
-        // 下载到临时文件供DashScope使用
-        String tempFileUrl = null;
-        tempFileUrl = downloadMinioImageToTemp(blueprintUrl);
-
         String prompt = String.format(
                 "专业工业设计产品摄影，主体：%s，" +
                         "设计理念：%s，外观形态：%s，材质与工艺：%s，配色方案：%s，" +
@@ -317,8 +328,10 @@ public class AiDesignService {
         String negativePrompt = "模糊，低质量，畸形，蜡像感，AI生成痕迹，文字，水印，构图混乱，卡通风格，手绘风格，草图线条";
 
         // 显式调用 generateImageWithWanxImg2Img 来使用 wan2.6-image
-        // 传入临时文件URL供DashScope读取
-        return callImageGeneratorWanx(prompt, negativePrompt, tempFileUrl);
+        // 参考图经本地缓存文件传给DashScope，生成结束后释放
+        try (ReferenceImage reference = acquireReference(blueprintUrl)) {
+            return callImageGeneratorWanx(prompt, negativePrompt, reference != null ? reference.fileUri() : null);
+        }
     }
 
     // 用于草图和普通调用（默认 qwen-image-max）
@@ -327,10 +340,10 @@ public class AiDesignService {
             log.info("调用图像生成 (qwen-image-max): prompt前缀={}, ref={}",
                     prompt.substring(0, Math.min(60, prompt.length())),
                     refImageUrl != null ? "有" : "无");
-            return imageGenerator.generateImage(prompt, "1024*1024", negativePrompt, refImageUrl);
+            return generateStoredImage(prompt, "1024*1024", negativePrompt, refImageUrl, false);
         } catch (Exception e) {
             log.error("图像生成失败 (qwen-image-max)", e);
-            return "https://via.placeholder.com/1024x1024?text=Image+Generation+Failed";
+            return getShortRefUrl(PLACEHOLDER_IMAGE_URL);
         }
     }
 
@@ -340,10 +353,10 @@ public class AiDesignService {
             log.info("调用图像生成 (wan2.6-image 图生图): prompt前缀={}, ref={}",
                     prompt.substring(0, Math.min(60, prompt.length())),
                     refImageUrl != null ? "有" : "无");
-            return imageGenerator.generateImageWithWanxImg2Img(prompt, "1024*1024", negativePrompt, refImageUrl);
+            return generateStoredImage(prompt, "1024*1024", negativePrompt, refImageUrl, true);
         } catch (Exception e) {
             log.error("图像生成失败 (wan2.6-image)", e);
-            return "https://via.placeholder.com/1024x1024?text=Image+Generation+Failed";
+            return getShortRefUrl(PLACEHOLDER_IMAGE_URL);
         }
     }
 
@@ -352,6 +365,106 @@ public class AiDesignService {
         return callImageGenerator(prompt, negativePrompt, null);
     }
 
+    /**
+     * 生成图片并转存，相同参数与参考图的请求复用缓存中已转存的对象；
+     * 生成失败直接抛出，占位图由调用方回退，不会进入缓存
+     */
+    private String generateStoredImage(String prompt, String size, String negativePrompt,
+                                       String refImageUrl, boolean useWanx) {
+        ImageGenerationSpec spec = imageGenerator.describe(prompt, size, negativePrompt, refImageUrl, useWanx);
+        return imageCache.getOrGenerate(spec, () -> getShortRefUrl(imageGenerator.generateImage(spec)));
+    }
+
+    /**
+     * 单项分析结果
+     *
+     * @param section 分析项（marketAnalysis / technicalFeasibility / riskAssessment）
+     * @param content 分析内容，失败时为 null
+     * @param error   失败原因，成功时为 null
+     * @param elapsedMillis 耗时
+     */
+    public record AnalysisSection(String section, Map<String, Object> content, String error, long elapsedMillis) {
+
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    /**
+     * 并发生成分析报告（市场分析、技术可行性、风险评估）
+     * 三项分析互不依赖，并发调用后总耗时约等于最慢的一项；单项失败或超时只记录在 failedSections 中，
+     * 全部失败时抛出异常。
+     */
+    public Map<String, Object> generateAnalysis(DesignConcept concept) {
+        long startMillis = System.currentTimeMillis();
+        List<AnalysisSection> sections = startAnalysis(concept).stream()
+                .map(CompletableFuture::join)
+                .toList();
+
+        Map<String, Object> analysis = new HashMap<>();
+        List<Map<String, String>> failedSections = new ArrayList<>();
+        for (AnalysisSection section : sections) {
+            if (section.succeeded()) {
+                analysis.put(section.section(), section.content());
+            } else {
+                failedSections.add(Map.of("section", section.section(), "error", section.error()));
+            }
+        }
+        if (failedSections.size() == sections.size()) {
+            throw new BusinessException(ErrorCode.AI_SERVICE_ERROR, "分析报告生成失败: " + failedSections);
+        }
+        if (!failedSections.isEmpty()) {
+            analysis.put("failedSections", failedSections);
+        }
+
+        log.info("分析报告生成完成: conceptName={}, 总耗时={}ms, 各项耗时={}, 失败项={}",
+                concept.getConceptName(), System.currentTimeMillis() - startMillis,
+                sections.stream().map(s -> s.section() + "=" + s.elapsedMillis() + "ms").toList(),
+                failedSections.size());
+        return analysis;
+    }
+
+    /**
+     * 并发生成分析报告，每完成一项即发出一项（完成顺序）
+     */
+    public Flux<AnalysisSection> streamAnalysis(DesignConcept concept) {
+        return Flux.defer(() -> Flux.merge(startAnalysis(concept).stream().map(Mono::fromFuture).toList()));
+    }
+
+    private List<CompletableFuture<AnalysisSection>> startAnalysis(DesignConcept concept) {
+        return List.of(
+                runAnalysis("marketAnalysis", () -> generateMarketAnalysis(concept)),
+                runAnalysis("technicalFeasibility", () -> generateTechnicalFeasibility(concept)),
+                runAnalysis("riskAssessment", () -> generateRiskAssessment(concept)));
+    }
+
+    /**
+     * 在虚拟线程上执行单项分析，超时或异常时转为失败结果（超时的调用不再等待，其结果被丢弃）
+     */
+    private CompletableFuture<AnalysisSection> runAnalysis(String section, Supplier<Map<String, Object>> call) {
+        long startMillis = System.currentTimeMillis();
+        return CompletableFuture.supplyAsync(call, modelCallExecutor)
+                .orTimeout(analysisProperties.getTimeoutSeconds(), TimeUnit.SECONDS)
+                .handle((content, e) -> {
+                    long elapsedMillis = System.currentTimeMillis() - startMillis;
+                    if (e == null) {
+                        return new AnalysisSection(section, content, null, elapsedMillis);
+                    }
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    // 失败结果必须带非空 error，否则会被当作成功（如 NullPointerException 的 message 为 null）
+                    String error = cause instanceof TimeoutException
+                            ? "生成超时（" + analysisProperties.getTimeoutSeconds() + "秒）"
+                            : Objects.requireNonNullElse(cause.getMessage(), cause.getClass().getSimpleName());
+                    log.warn("分析项生成失败: section={}, 耗时={}ms, error={}", section, elapsedMillis, error);
+                    return new AnalysisSection(section, null, error, elapsedMillis);
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        modelCallExecutor.shutdownNow();
+    }
+
     /**
      * 生成市场分析报告
      */
@@ -469,6 +582,29 @@ public class AiDesignService {
         }
     }
 
+    /**
+     * 为指定设计生成 KV 三件套并保存到设计记录（同步接口与异步任务共用）
+     */
+    public KvGenerationResult generateAndSaveKvAssets(Long designId, Long userId) {
+        ArtifactEntity entity = artifactService.getDesignForWrite(designId, userId);
+        KvGenerationResult result = generateKvAssets(entity);
+        Map<String, Object> kvImageUrls = new HashMap<>();
+        kvImageUrls.put("kv", result.getKvUrl());
+        kvImageUrls.put("lifestyle", result.getLifestyleUrl());
+        kvImageUrls.put("detail", result.getDetailUrl());
+        artifactService.saveKvAssets(
+                designId,
+                userId,
+                result.getPromptText(),
+                result.getKvUrl(),
+                result.getLifestyleUrl(),
+                result.getDetailUrl(),
+                kvImageUrls,
+                result.getStageTimings()
+        );
+        return result;
+    }
+
     public KvGenerationResult generateKvAssets(ArtifactEntity entity) {
         if (entity == null) {
             throw new BusinessException(ErrorCode.NOT_FOUND, "设计不存在");
@@ -477,53 +613,96 @@ public class AiDesignService {
             throw new BusinessException(ErrorCode.BAD_REQUEST, "缺少产品参考图(productShotUrl)");
         }
 
-        log.info("开始生成KV: designId={}, productShotUrlPresent={}", entity.getId(), true);
-
-        String refFileUrl = downloadMinioImageToTemp(entity.getProductShotUrl());
-        if (refFileUrl == null || refFileUrl.isBlank()) {
+        if (!fileStorageService.isStoredObjectUrl(entity.getProductShotUrl())) {
             throw new BusinessException(ErrorCode.BAD_REQUEST, "参考图不合法或不可访问");
         }
 
-        log.info("KV参考图准备完成: designId={}, refFileUrl={}", entity.getId(), refFileUrl);
-
-        log.info("开始生成KV提示词系统文本: designId={}", entity.getId());
-        String promptText = generateKvPromptText(entity);
-        log.info("KV提示词系统文本生成完成: designId={}, length={}", entity.getId(), promptText != null ? promptText.length() : 0);
-        if (promptText != null && !promptText.isBlank()) {
-            log.info("KV提示词系统文本内容 (designId={}):\n{}", entity.getId(), promptText);
-        }
+        // 依赖关系：参考图下载、提示词系统文本、结构化提示词包三者并发；
+        // 三张图片各自在（参考图 + 提示词包）就绪后生成，生成完成即转存，互不等待
+        log.info("开始生成KV: designId={}", entity.getId());
+        long startMillis = System.currentTimeMillis();
+        Map<String, Long> stageTimings = new ConcurrentHashMap<>();
 
-        log.info("开始生成KV结构化提示词包: designId={}", entity.getId());
-        KvPromptPack pack = generateKvPromptPack(entity);
-        log.info("KV结构化提示词包生成完成: designId={}", entity.getId());
-        log.info("KV结构化提示词包内容 (designId={}):\n[KV]\n{}\n\n[Lifestyle]\n{}\n\n[Detail]\n{}\n\n[Negative]\n{}",
-                entity.getId(),
-                pack.getKvPrompt(),
-                pack.getLifestylePrompt(),
-                pack.getDetailPrompt(),
-                pack.getNegativePrompt());
-
-        String negative = pack.getNegativePrompt() != null ? pack.getNegativePrompt() : "";
-        log.info("开始生成商业KV图片(wan2.6 img2img): designId={}", entity.getId());
-        String kvRaw = imageGenerator.generateImageWithWanxImg2Img(pack.getKvPrompt(), "864*1536", negative, refFileUrl);
-        log.info("商业KV图片生成完成: designId={}", entity.getId());
-
-        log.info("开始生成场景应用图片(wan2.6 img2img): designId={}", entity.getId());
-        String lifestyleRaw = imageGenerator.generateImageWithWanxImg2Img(pack.getLifestylePrompt(), "864*1536", negative, refFileUrl);
-        log.info("场景应用图片生成完成: designId={}", entity.getId());
-
-        log.info("开始生成工艺细节图片(wan2.6 img2img): designId={}", entity.getId());
-        String detailRaw = imageGenerator.generateImageWithWanxImg2Img(pack.getDetailPrompt(), "864*1536", negative, refFileUrl);
-        log.info("工艺细节图片生成完成: designId={}", entity.getId());
+        CompletableFuture<ReferenceImage> refFileFuture = timedStage(stageTimings, "refDownload", () -> {
+            ReferenceImage reference = acquireReference(entity.getProductShotUrl());
+            if (reference == null) {
+                throw new BusinessException(ErrorCode.BAD_REQUEST, "参考图不合法或不可访问");
+            }
+            return reference;
+        });
+        CompletableFuture<String> promptTextFuture = timedStage(stageTimings, "promptText",
+                () -> generateKvPromptText(entity));
+        CompletableFuture<KvPromptPack> packFuture = timedStage(stageTimings, "promptPack", () -> {
+            KvPromptPack pack = generateKvPromptPack(entity);
+            log.info("KV结构化提示词包内容 (designId={}):\n[KV]\n{}\n\n[Lifestyle]\n{}\n\n[Detail]\n{}\n\n[Negative]\n{}",
+                    entity.getId(),
+                    pack.getKvPrompt(),
+                    pack.getLifestylePrompt(),
+                    pack.getDetailPrompt(),
+                    pack.getNegativePrompt());
+            return pack;
+        });
+
+        CompletableFuture<String> kvFuture = generateKvImage(stageTimings, "kv", refFileFuture, packFuture,
+                KvPromptPack::getKvPrompt);
+        CompletableFuture<String> lifestyleFuture = generateKvImage(stageTimings, "lifestyle", refFileFuture, packFuture,
+                KvPromptPack::getLifestylePrompt);
+        CompletableFuture<String> detailFuture = generateKvImage(stageTimings, "detail", refFileFuture, packFuture,
+                KvPromptPack::getDetailPrompt);
+
+        // 三张图片全部结束（含失败）后释放参考图；某张失败时其余仍可能在读取参考图文件
+        CompletableFuture.allOf(kvFuture, lifestyleFuture, detailFuture)
+                .whenComplete((ignored, error) -> refFileFuture.thenAccept(ReferenceImage::close));
 
         KvGenerationResult result = new KvGenerationResult();
-        result.setPromptText(promptText);
-        result.setKvUrl(getShortRefUrl(kvRaw));
-        result.setLifestyleUrl(getShortRefUrl(lifestyleRaw));
-        result.setDetailUrl(getShortRefUrl(detailRaw));
+        try {
+            CompletableFuture.allOf(promptTextFuture, kvFuture, lifestyleFuture, detailFuture).join();
+            result.setPromptText(promptTextFuture.join());
+            result.setKvUrl(kvFuture.join());
+            result.setLifestyleUrl(lifestyleFuture.join());
+            result.setDetailUrl(detailFuture.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof BusinessException businessException) {
+                throw businessException;
+            }
+            throw new BusinessException(ErrorCode.AI_SERVICE_ERROR, "KV生成失败: "
+                    + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+        }
+
+        stageTimings.put("total", System.currentTimeMillis() - startMillis);
+        result.setStageTimings(new TreeMap<>(stageTimings));
+        log.info("KV生成完成: designId={}, 阶段耗时(ms)={}", entity.getId(), result.getStageTimings());
         return result;
     }
 
+    /**
+     * KV 单张图片：等待参考图与提示词包就绪后图生图，生成完成立即转存（经图片生成缓存）
+     */
+    private CompletableFuture<String> generateKvImage(Map<String, Long> stageTimings, String name,
+                                                      CompletableFuture<ReferenceImage> refFileFuture,
+                                                      CompletableFuture<KvPromptPack> packFuture,
+                                                      Function<KvPromptPack, String> promptSelector) {
+        // 必须使用 Async 版本：同步回调会在最后完成的依赖线程上执行，三张图片将退化为串行
+        return refFileFuture.thenCombineAsync(packFuture, (reference, pack) -> {
+                    long startMillis = System.currentTimeMillis();
+                    String negative = pack.getNegativePrompt() != null ? pack.getNegativePrompt() : "";
+                    String url = generateStoredImage(promptSelector.apply(pack), "864*1536", negative,
+                            reference.fileUri(), true);
+                    // 含转存耗时，缓存命中时接近 0
+                    stageTimings.put(name + "Image", System.currentTimeMillis() - startMillis);
+                    return url;
+                }, modelCallExecutor);
+    }
+
+    private <T> CompletableFuture<T> timedStage(Map<String, Long> stageTimings, String stage, Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(() -> {
+            long startMillis = System.currentTimeMillis();
+            T value = supplier.get();
+            stageTimings.put(stage, System.currentTimeMillis() - startMillis);
+            return value;
+        }, modelCallExecutor);
+    }
+
     private String generateKvPromptText(ArtifactEntity entity) {
         String userPrompt = buildKvUserPrompt(entity);
         return chatClient.prompt()
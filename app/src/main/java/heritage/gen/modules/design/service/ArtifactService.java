@@ -129,7 +129,8 @@ public class ArtifactService {
             String kvUrl,
             String lifestyleUrl,
             String detailUrl,
-            Map<String, Object> kvImageUrls
+            Map<String, Object> kvImageUrls,
+            Map<String, Long> kvStageTimings
     ) {
         ArtifactEntity entity = getDesignForWrite(id, userId);
         entity.setKvUrl(kvUrl);
@@ -144,6 +145,9 @@ public class ArtifactService {
         if (kvImageUrls != null && !kvImageUrls.isEmpty()) {
             entity.getGenerationMetadata().put("kvImageUrls", kvImageUrls);
         }
+        if (kvStageTimings != null && !kvStageTimings.isEmpty()) {
+            entity.getGenerationMetadata().put("kvStageTimings", kvStageTimings);
+        }
         return artifactRepository.save(entity);
     }
 
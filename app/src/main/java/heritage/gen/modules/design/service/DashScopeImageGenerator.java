@@ -8,6 +8,7 @@ import com.alibaba.dashscope.common.Role;
 import com.alibaba.dashscope.exception.ApiException;
 import com.alibaba.dashscope.exception.NoApiKeyException;
 import com.alibaba.dashscope.exception.UploadFileException;
+import heritage.gen.modules.design.model.ImageGenerationSpec;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -36,6 +37,54 @@ public class DashScopeImageGenerator {
         // com.alibaba.dashscope.utils.Constants.baseHttpApiUrl = "https://dashscope-intl.aliyuncs.com/api/v1";
     }
 
+    /**
+     * 解析一次生成调用实际使用的模型与参数
+     *
+     * @param prompt               正向提示词
+     * @param size                 尺寸，例如 "1024*1024"
+     * @param negativePrompt       负面提示词
+     * @param referenceImageUrl    参考图 URL（传 null 或空字符串则为纯文生图）
+     * @param useWanxForImg2Img    是否在有参考图时使用 wan2.6-image（true=wan2.6，false=仍用 qwen-image-max）
+     */
+    public ImageGenerationSpec describe(String prompt, String size, String negativePrompt,
+                                        String referenceImageUrl, boolean useWanxForImg2Img) {
+        // 决定使用哪个模型
+        String model;
+        boolean hasReference = referenceImageUrl != null && !referenceImageUrl.isBlank();
+        if (hasReference && useWanxForImg2Img) {
+            model = "wan2.6-image";
+        } else {
+            model = "qwen-image-max";  // 文生图 或 不想用 wan 的图生图 都用这个
+        }
+
+        // 参数配置
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("watermark", false);
+        parameters.put("prompt_extend", true);
+        parameters.put("size", size);
+        parameters.put("style", "<professional>");
+
+        // 负面提示
+        String finalNegative = negativePrompt != null && !negativePrompt.isBlank()
+                ? negativePrompt
+                : "模糊，低质量，畸形，肢体畸形，手指畸形，蜡像感，AI生成痕迹，文字，水印，logo，构图混乱，卡通，动漫风格";
+        parameters.put("negative_prompt", finalNegative);
+
+        // 根据模型和模式设置关键参数
+        if (hasReference && model.equals("wan2.6-image")) {
+            // wan2.6-image 图生图模式必须设置
+            parameters.put("enable_interleave", false);
+            parameters.put("ref_strength", 0.6f);   // 0.0~1.0，建议 0.4~0.7
+            parameters.put("ref_mode", "repaint");  // repaint / style / subject 等
+        } else if (!hasReference && model.equals("wan2.6-image")) {
+            // wan2.6-image 纯文生图建议开启 interleave
+            parameters.put("enable_interleave", true);
+        }
+        // qwen-image-max 不需要这些参数，也不会报错
+
+        return new ImageGenerationSpec(model, prompt, Map.copyOf(parameters), hasReference ? referenceImageUrl : null);
+    }
+
     /**
      * 生成图像（支持文本生成和图生图）
      *
@@ -48,17 +97,23 @@ public class DashScopeImageGenerator {
      */
     public String generateImage(String prompt, String size, String negativePrompt,
                                 String referenceImageUrl, boolean useWanxForImg2Img) {
+        return generateImage(describe(prompt, size, negativePrompt, referenceImageUrl, useWanxForImg2Img));
+    }
+
+    /**
+     * 按解析好的参数生成图像
+     *
+     * @return 生成的图像 URL（DashScope 临时地址）
+     */
+    public String generateImage(ImageGenerationSpec spec) {
+        String model = spec.model();
+        String prompt = spec.prompt();
+        String referenceImageUrl = spec.referenceImageUrl();
+        String downloadedTempFile = null;
         try {
             MultiModalConversation conv = new MultiModalConversation();
 
-            // 决定使用哪个模型
-            String model;
-            boolean hasReference = referenceImageUrl != null && !referenceImageUrl.isBlank();
-            if (hasReference && useWanxForImg2Img) {
-                model = "wan2.6-image";
-            } else {
-                model = "qwen-image-max";  // 文生图 或 不想用 wan 的图生图 都用这个
-            }
+            boolean hasReference = spec.hasReference();
             log.info("图像生成调用模型: {}, 是否图生图: {}", model, hasReference);
 
             // 构建用户消息
@@ -66,7 +121,10 @@ public class DashScopeImageGenerator {
                     .role(Role.USER.getValue());
 
             if (hasReference) {
-                String localFilePath = downloadImageToTempFile(referenceImageUrl);
+                // 调用方已提供本地文件（ReferenceImageProvider）时直接使用，不再重复下载
+                String localFilePath = referenceImageUrl.startsWith("file:")
+                        ? referenceImageUrl
+                        : (downloadedTempFile = downloadImageToTempFile(referenceImageUrl));
                 Map<String, Object> imageMap = new HashMap<>();
 
                 if (localFilePath != null) {
@@ -90,31 +148,7 @@ public class DashScopeImageGenerator {
             }
 
             MultiModalMessage userMessage = userMessageBuilder.build();
-
-            // 参数配置
-            Map<String, Object> parameters = new HashMap<>();
-            parameters.put("watermark", false);
-            parameters.put("prompt_extend", true);
-            parameters.put("size", size);
-            parameters.put("style", "<professional>");
-
-            // 负面提示
-            String finalNegative = negativePrompt != null && !negativePrompt.isBlank()
-                    ? negativePrompt
-                    : "模糊，低质量，畸形，肢体畸形，手指畸形，蜡像感，AI生成痕迹，文字，水印，logo，构图混乱，卡通，动漫风格";
-            parameters.put("negative_prompt", finalNegative);
-
-            // 根据模型和模式设置关键参数
-            if (hasReference && model.equals("wan2.6-image")) {
-                // wan2.6-image 图生图模式必须设置
-                parameters.put("enable_interleave", false);
-                parameters.put("ref_strength", 0.6f);   // 0.0~1.0，建议 0.4~0.7
-                parameters.put("ref_mode", "repaint");  // repaint / style / subject 等
-            } else if (!hasReference && model.equals("wan2.6-image")) {
-                // wan2.6-image 纯文生图建议开启 interleave
-                parameters.put("enable_interleave", true);
-            }
-            // qwen-image-max 不需要这些参数，也不会报错
+            Map<String, Object> parameters = new HashMap<>(spec.parameters());
 
             MultiModalConversationParam param = MultiModalConversationParam.builder()
                     .apiKey(apiKey)
@@ -151,9 +185,20 @@ public class DashScopeImageGenerator {
 
         } catch (Exception e) {
             log.error("DashScope 图像生成异常, model={}, prompt前缀={}",
-                    (referenceImageUrl != null && useWanxForImg2Img) ? "wan2.6-image" : "qwen-image-max",
-                    prompt.substring(0, Math.min(50, prompt.length())), e);
+                    model, prompt.substring(0, Math.min(50, prompt.length())), e);
             throw new RuntimeException("图像生成失败: " + e.getMessage(), e);
+        } finally {
+            if (downloadedTempFile != null) {
+                deleteTempFile(downloadedTempFile);
+            }
+        }
+    }
+
+    private void deleteTempFile(String fileUri) {
+        try {
+            java.nio.file.Files.deleteIfExists(java.nio.file.Path.of(java.net.URI.create(fileUri)));
+        } catch (Exception e) {
+            log.warn("删除参考图临时文件失败: {}, error={}", fileUri, e.getMessage());
         }
     }
 
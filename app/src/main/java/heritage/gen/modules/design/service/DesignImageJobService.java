@@ -0,0 +1,282 @@
+package heritage.gen.modules.design.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.DesignImageJobProperties;
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.design.model.ArtifactEntity;
+import heritage.gen.modules.design.model.GenerateDesignRequest;
+import heritage.gen.modules.design.model.GenerationStatus;
+import heritage.gen.modules.design.model.ImageJobType;
+import heritage.gen.modules.design.model.ImageJobView;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * 设计图片异步生成任务服务
+ * 提交时写入状态 Hash（design:image-job:status:{jobId}）并把任务发送到 Redis Stream，立即返回任务ID；
+ * 由 {@link heritage.gen.modules.design.listener.DesignImageJobConsumer} 执行生成并回写状态。
+ * 客户端可轮询任务状态或通过 SSE 订阅状态变化。携带幂等键的重复提交返回同一个任务，避免重试导致重复生成。
+ */
+@Slf4j
+@Service
+public class DesignImageJobService {
+
+    public static final String FIELD_TYPE = "type";
+    public static final String FIELD_USER_ID = "userId";
+    public static final String FIELD_DESIGN_ID = "designId";
+    public static final String FIELD_PAYLOAD = "payload";
+
+    private static final String FIELD_STATUS = "status";
+    private static final String FIELD_STAGE = "stage";
+    private static final String FIELD_RESULT = "result";
+    private static final String FIELD_ERROR = "error";
+    private static final String FIELD_CREATED_AT = "createdAt";
+    private static final String FIELD_UPDATED_AT = "updatedAt";
+
+    private final RedisService redisService;
+    private final ArtifactService artifactService;
+    private final ObjectMapper objectMapper;
+    private final DesignImageJobProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Counter deduplicatedCounter;
+
+    public DesignImageJobService(RedisService redisService, ArtifactService artifactService, ObjectMapper objectMapper,
+                                 DesignImageJobProperties properties, MeterRegistry meterRegistry) {
+        this.redisService = redisService;
+        this.artifactService = artifactService;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.deduplicatedCounter = Counter.builder("design.image.job.deduplicated")
+            .description("因幂等键命中而复用已有任务的提交次数")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 提交图片生成任务
+     *
+     * @param type           任务类型
+     * @param userId         提交用户
+     * @param designId       设计ID（仅 KV 任务）
+     * @param request        生成参数（BLUEPRINT / RENDER 任务）
+     * @param idempotencyKey 幂等键（可选），有效期内重复提交返回同一任务
+     */
+    public ImageJobView submit(ImageJobType type, Long userId, Long designId, GenerateDesignRequest request,
+                               String idempotencyKey) {
+        validate(type, userId, designId, request);
+
+        String jobId = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        Map<String, String> status = new HashMap<>();
+        status.put(AsyncTaskStreamConstants.FIELD_JOB_ID, jobId);
+        status.put(FIELD_TYPE, type.name());
+        status.put(FIELD_USER_ID, userId.toString());
+        status.put(FIELD_STATUS, GenerationStatus.PENDING.name());
+        status.put(FIELD_STAGE, "排队中");
+        status.put(FIELD_CREATED_AT, String.valueOf(now));
+        status.put(FIELD_UPDATED_AT, String.valueOf(now));
+        // 先写状态再占用幂等键：并发的重复提交读到幂等键时，对应任务的状态一定已经存在
+        writeStatus(jobId, status);
+
+        if (idempotencyKey != null && !idempotencyKey.isBlank()) {
+            String idempotencyRedisKey = AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_IDEMPOTENCY_PREFIX
+                + userId + ":" + type.name().toLowerCase() + ":" + idempotencyKey;
+            ImageJobView existing = claimIdempotencyKey(idempotencyRedisKey, jobId, type, now);
+            if (existing != null) {
+                redisService.delete(statusKey(jobId));
+                deduplicatedCounter.increment();
+                log.info("幂等键命中，返回已有图片任务: jobId={}, type={}, userId={}", existing.jobId(), type, userId);
+                return existing;
+            }
+        }
+
+        try {
+            Map<String, String> message = new HashMap<>();
+            message.put(AsyncTaskStreamConstants.FIELD_JOB_ID, jobId);
+            message.put(FIELD_TYPE, type.name());
+            message.put(FIELD_USER_ID, userId.toString());
+            if (designId != null) {
+                message.put(FIELD_DESIGN_ID, designId.toString());
+            }
+            if (request != null) {
+                message.put(FIELD_PAYLOAD, objectMapper.writeValueAsString(request));
+            }
+            String messageId = redisService.streamAdd(AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY, message);
+            log.info("图片任务已提交: jobId={}, type={}, userId={}, messageId={}", jobId, type, userId, messageId);
+        } catch (Exception e) {
+            log.error("图片任务入队失败: jobId={}, error={}", jobId, e.getMessage(), e);
+            markFailed(jobId, "任务入队失败: " + e.getMessage());
+            throw new BusinessException(ErrorCode.INTERNAL_ERROR, "图片任务提交失败");
+        }
+
+        Counter.builder("design.image.job.submitted")
+            .description("提交的图片生成任务数")
+            .tag("type", type.name().toLowerCase())
+            .register(meterRegistry)
+            .increment();
+        return read(jobId);
+    }
+
+    /**
+     * 占用幂等键
+     * 只有幂等键不存在时才创建新任务；幂等键存在但任务状态已不存在（状态先于幂等键过期）时，
+     * 仍视为同一任务处理中，不再重复入队
+     *
+     * @return 幂等键已被占用时返回已有任务，占用成功返回 null
+     */
+    private ImageJobView claimIdempotencyKey(String idempotencyRedisKey, String jobId, ImageJobType type, long now) {
+        // 幂等键不能比任务状态活得更久，否则会指向一个查不到的任务
+        Duration ttl = Duration.ofHours(Math.min(properties.getIdempotencyTtlHours(), properties.getStatusTtlHours()));
+        while (true) {
+            if (redisService.setIfAbsentString(idempotencyRedisKey, jobId, ttl)) {
+                return null;
+            }
+            String existingJobId = redisService.getString(idempotencyRedisKey);
+            if (existingJobId == null) {
+                // 两次调用之间幂等键恰好过期，重新占用
+                continue;
+            }
+            ImageJobView existing = read(existingJobId);
+            return existing != null ? existing
+                : new ImageJobView(existingJobId, type, GenerationStatus.PENDING, "排队中", null, null, now, now);
+        }
+    }
+
+    /**
+     * 查询任务状态（仅任务提交者可见）
+     */
+    public ImageJobView get(String jobId, Long userId) {
+        Map<String, String> fields = redisService.hGetAllString(statusKey(jobId));
+        if (fields == null || fields.isEmpty()) {
+            throw new BusinessException(ErrorCode.NOT_FOUND, "任务不存在或已过期");
+        }
+        if (!Objects.equals(fields.get(FIELD_USER_ID), String.valueOf(userId))) {
+            throw new BusinessException(ErrorCode.FORBIDDEN, "无权限查看该任务");
+        }
+        return toView(fields);
+    }
+
+    /**
+     * 订阅任务状态：立即发出当前状态，之后每次状态变化发出一次，进入终态或超时后结束
+     */
+    public Flux<ImageJobView> watch(String jobId, Long userId) {
+        ImageJobView initial = get(jobId, userId);
+        if (initial.isTerminal()) {
+            return Flux.just(initial);
+        }
+        Flux<ImageJobView> updates = Flux.interval(Duration.ofMillis(properties.getSsePollIntervalMs()))
+            .onBackpressureDrop()
+            .concatMap(tick -> Mono.fromCallable(() -> read(jobId)).subscribeOn(Schedulers.boundedElastic()))
+            .takeUntil(ImageJobView::isTerminal);
+        return Flux.concat(Flux.just(initial), updates)
+            .distinctUntilChanged(view -> view.status() + "|" + view.updatedAt())
+            .take(Duration.ofSeconds(properties.getSseTimeoutSeconds()));
+    }
+
+    /**
+     * 读取任务状态（不校验归属），不存在时返回 null
+     */
+    public ImageJobView read(String jobId) {
+        Map<String, String> fields = redisService.hGetAllString(statusKey(jobId));
+        return fields == null || fields.isEmpty() ? null : toView(fields);
+    }
+
+    public void markProcessing(String jobId, String stage) {
+        updateStatus(jobId, Map.of(FIELD_STATUS, GenerationStatus.PROCESSING.name(), FIELD_STAGE, stage));
+    }
+
+    public void markCompleted(String jobId, Object result) {
+        String resultJson;
+        try {
+            resultJson = objectMapper.writeValueAsString(result);
+        } catch (Exception e) {
+            markFailed(jobId, "结果序列化失败: " + e.getMessage());
+            return;
+        }
+        updateStatus(jobId, Map.of(
+            FIELD_STATUS, GenerationStatus.COMPLETED.name(),
+            FIELD_STAGE, "已完成",
+            FIELD_RESULT, resultJson));
+    }
+
+    public void markFailed(String jobId, String error) {
+        String message = error == null ? "未知错误" : (error.length() > 500 ? error.substring(0, 500) : error);
+        updateStatus(jobId, Map.of(
+            FIELD_STATUS, GenerationStatus.FAILED.name(),
+            FIELD_STAGE, "失败",
+            FIELD_ERROR, message));
+    }
+
+    /**
+     * 提交前校验参数与权限，避免无效任务进入队列
+     */
+    private void validate(ImageJobType type, Long userId, Long designId, GenerateDesignRequest request) {
+        switch (type) {
+            case BLUEPRINT, RENDER -> {
+                if (request == null || request.getConcept() == null) {
+                    throw new BusinessException(ErrorCode.BAD_REQUEST, "缺少 concept 参数");
+                }
+                if (type == ImageJobType.RENDER
+                        && (request.getBlueprintUrl() == null || request.getBlueprintUrl().isBlank())) {
+                    throw new BusinessException(ErrorCode.BAD_REQUEST, "缺少 blueprintUrl");
+                }
+            }
+            case KV -> {
+                ArtifactEntity entity = artifactService.getDesignForWrite(designId, userId);
+                if (entity.getProductShotUrl() == null || entity.getProductShotUrl().isBlank()) {
+                    throw new BusinessException(ErrorCode.BAD_REQUEST, "缺少产品参考图(productShotUrl)");
+                }
+            }
+        }
+    }
+
+    private void updateStatus(String jobId, Map<String, String> fields) {
+        Map<String, String> update = new HashMap<>(fields);
+        update.put(FIELD_UPDATED_AT, String.valueOf(System.currentTimeMillis()));
+        writeStatus(jobId, update);
+    }
+
+    private void writeStatus(String jobId, Map<String, String> fields) {
+        redisService.hSetAllString(statusKey(jobId), fields, Duration.ofHours(properties.getStatusTtlHours()));
+    }
+
+    private ImageJobView toView(Map<String, String> fields) {
+        ImageJobType type = ImageJobType.valueOf(fields.get(FIELD_TYPE));
+        Object result = null;
+        String resultJson = fields.get(FIELD_RESULT);
+        if (resultJson != null) {
+            try {
+                result = objectMapper.readValue(resultJson, Object.class);
+            } catch (Exception e) {
+                log.warn("解析图片任务结果失败: jobId={}", fields.get(AsyncTaskStreamConstants.FIELD_JOB_ID));
+            }
+        }
+        return new ImageJobView(
+            fields.get(AsyncTaskStreamConstants.FIELD_JOB_ID),
+            type,
+            GenerationStatus.valueOf(fields.get(FIELD_STATUS)),
+            fields.get(FIELD_STAGE),
+            result,
+            fields.get(FIELD_ERROR),
+            Long.parseLong(fields.getOrDefault(FIELD_CREATED_AT, "0")),
+            Long.parseLong(fields.getOrDefault(FIELD_UPDATED_AT, "0")));
+    }
+
+    private static String statusKey(String jobId) {
+        return AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STATUS_PREFIX + jobId;
+    }
+}
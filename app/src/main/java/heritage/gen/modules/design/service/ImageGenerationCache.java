@@ -0,0 +1,269 @@
+package heritage.gen.modules.design.service;
+
+import heritage.gen.common.config.DesignImageCacheProperties;
+import heritage.gen.infrastructure.file.FileStorageService;
+import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.design.model.ImageGenerationSpec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 设计图片生成缓存
+ * 以 SHA-256(模型, 提示词, 模型参数, 参考图内容哈希) 为键，值为已转存到对象存储的图片 URL（DashScope 临时地址会过期，不缓存）。
+ * 条目带 TTL，另以有序集合记录最近使用时间，超出上限时淘汰最久未使用的条目。
+ * 相同请求并发到达时只发起一次上游调用：本节点内通过进行中 Future 合并，跨节点通过分布式锁合并，拿到锁后再查一次缓存。
+ * 生成失败不写缓存；缓存读写失败只记录日志，按未命中处理。
+ */
+@Slf4j
+@Service
+public class ImageGenerationCache {
+
+    private static final String ENTRY_PREFIX = "design:image-cache:entry:";
+    private static final String LOCK_PREFIX = "design:image-cache:lock:";
+    private static final String INDEX_KEY = "design:image-cache:index";
+
+    private final RedisService redisService;
+    private final FileStorageService fileStorageService;
+    private final DesignImageCacheProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter coalescedCounter;
+    private final Counter errorCounter;
+
+    public ImageGenerationCache(RedisService redisService, FileStorageService fileStorageService,
+                                DesignImageCacheProperties properties, MeterRegistry meterRegistry) {
+        this.redisService = redisService;
+        this.fileStorageService = fileStorageService;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.hitCounter = requestCounter("hit");
+        this.missCounter = requestCounter("miss");
+        this.coalescedCounter = requestCounter("coalesced");
+        this.errorCounter = requestCounter("error");
+        Gauge.builder("design.image.cache.inflight", inFlight, Map::size)
+            .description("本节点进行中的图片生成（已合并的相同请求只计一次）")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 查询缓存，未命中时调用 generator 生成并转存，返回对象存储中的图片 URL
+     *
+     * @param spec      生成参数
+     * @param generator 生成并转存图片，返回对象存储 URL
+     */
+    public String getOrGenerate(ImageGenerationSpec spec, Supplier<String> generator) {
+        if (!properties.isEnabled()) {
+            return generator.get();
+        }
+        String key = cacheKey(spec);
+        if (key == null) {
+            errorCounter.increment();
+            return generator.get();
+        }
+
+        String cached = lookup(key);
+        if (cached != null) {
+            hitCounter.increment();
+            log.info("图片生成缓存命中: model={}, key={}", spec.model(), key);
+            return cached;
+        }
+
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalescedCounter.increment();
+            log.info("相同图片生成请求进行中，等待其结果: model={}, key={}", spec.model(), key);
+            return await(existing);
+        }
+
+        try {
+            String url = generateOnce(key, spec, generator);
+            created.complete(url);
+            return url;
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * 跨节点合并：持锁期间其他节点的相同请求等待，拿到锁后先查缓存
+     */
+    private String generateOnce(String key, ImageGenerationSpec spec, Supplier<String> generator) {
+        String lockKey = LOCK_PREFIX + key;
+        boolean locked = tryLock(lockKey);
+        try {
+            if (locked) {
+                String cached = lookup(key);
+                if (cached != null) {
+                    coalescedCounter.increment();
+                    log.info("其他节点已生成相同图片，复用结果: model={}, key={}", spec.model(), key);
+                    return cached;
+                }
+            }
+            missCounter.increment();
+            String url = generator.get();
+            store(key, url);
+            return url;
+        } finally {
+            if (locked) {
+                try {
+                    redisService.unlock(lockKey);
+                } catch (Exception e) {
+                    log.warn("释放图片生成缓存锁失败: key={}, error={}", key, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean tryLock(String lockKey) {
+        try {
+            // leaseTime = -1 启用看门狗续期，生成耗时不可预估
+            return redisService.tryLock(lockKey, properties.getLockWaitSeconds(), -1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("获取图片生成缓存锁失败，直接生成: key={}, error={}", lockKey, e.getMessage());
+            return false;
+        }
+    }
+
+    private String lookup(String key) {
+        try {
+            String url = redisService.getString(ENTRY_PREFIX + key);
+            if (url == null) {
+                return null;
+            }
+            if (properties.isVerifyStoredObject() && !fileStorageService.storedObjectExists(url)) {
+                evict(key, "stale");
+                log.info("缓存的图片对象已不存在，作废缓存: key={}, url={}", key, url);
+                return null;
+            }
+            // 记录最近使用时间，容量淘汰按 LRU
+            redisService.zAdd(INDEX_KEY, System.currentTimeMillis(), key);
+            return url;
+        } catch (Exception e) {
+            errorCounter.increment();
+            log.warn("图片生成缓存查询失败，按未命中处理: key={}, error={}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void store(String key, String url) {
+        if (url == null || !fileStorageService.isStoredObjectUrl(url)) {
+            return;
+        }
+        try {
+            redisService.setString(ENTRY_PREFIX + key, url, Duration.ofHours(properties.getTtlHours()));
+            redisService.zAdd(INDEX_KEY, System.currentTimeMillis(), key);
+            int overflow = redisService.zCard(INDEX_KEY) - properties.getMaxEntries();
+            if (overflow > 0) {
+                Collection<String> evicted = redisService.zPopMin(INDEX_KEY, overflow);
+                evicted.forEach(evictedKey -> redisService.delete(ENTRY_PREFIX + evictedKey));
+                recordEvictions("capacity", evicted.size());
+            }
+        } catch (Exception e) {
+            errorCounter.increment();
+            log.warn("图片生成缓存写入失败: key={}, error={}", key, e.getMessage());
+        }
+    }
+
+    private void evict(String key, String reason) {
+        redisService.delete(ENTRY_PREFIX + key);
+        redisService.zRemove(INDEX_KEY, key);
+        recordEvictions(reason, 1);
+    }
+
+    private static String await(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 计算缓存键；参考图内容无法读取时返回 null（不走缓存）
+     * 参考图为本地临时文件时按文件内容计算哈希，同一张图每次下载得到的临时文件名不同但内容相同；
+     * 其他地址按 URL 本身计算（对象存储的键不复用，URL 相同即内容相同）。
+     */
+    static String cacheKey(ImageGenerationSpec spec) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, spec.model());
+            update(digest, spec.prompt());
+            update(digest, new TreeMap<>(spec.parameters()).toString());
+            update(digest, spec.hasReference() ? referenceHash(spec.referenceImageUrl()) : "");
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (Exception e) {
+            log.warn("计算图片生成缓存键失败，跳过缓存: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static String referenceHash(String referenceImageUrl) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        if (referenceImageUrl.startsWith("file:")) {
+            Path file = Path.of(URI.create(referenceImageUrl));
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        } else {
+            digest.update(referenceImageUrl.getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        // 长度前缀，避免字段拼接产生歧义
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+
+    private Counter requestCounter(String result) {
+        return Counter.builder("design.image.cache.requests")
+            .description("图片生成缓存查询次数")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    private void recordEvictions(String reason, int count) {
+        Counter.builder("design.image.cache.evictions")
+            .description("图片生成缓存淘汰条数")
+            .tag("reason", reason)
+            .register(meterRegistry)
+            .increment(count);
+    }
+}
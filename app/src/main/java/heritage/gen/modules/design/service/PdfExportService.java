@@ -2,30 +2,32 @@ package heritage.gen.modules.design.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.itextpdf.html2pdf.HtmlConverter;
-import com.itextpdf.html2pdf.ConverterProperties;
-import com.itextpdf.html2pdf.resolver.font.DefaultFontProvider;
-import com.itextpdf.io.font.FontProgram;
-import com.itextpdf.io.font.FontProgramFactory;
-import com.itextpdf.layout.font.FontProvider;
+import heritage.gen.common.config.PdfExportProperties;
 import heritage.gen.common.exception.BusinessException;
 import heritage.gen.common.exception.ErrorCode;
 import heritage.gen.infrastructure.file.FileStorageService;
+import heritage.gen.infrastructure.pdf.PdfRenderEngine;
 import heritage.gen.modules.design.model.ArtifactEntity;
 import heritage.gen.modules.design.model.DesignConcept;
 import lombok.Data;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URLConnection;
 import java.util.Base64;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -37,15 +39,42 @@ public class PdfExportService {
     private final TemplateEngine templateEngine;
     private final ObjectMapper objectMapper;
     private final FileStorageService fileStorageService;
+    private final PdfExportProperties properties;
 
-    public PdfExportService(TemplateEngine templateEngine, ObjectMapper objectMapper, FileStorageService fileStorageService) {
+    private final Timer renderTimer;
+    private final DistributionSummary allocationSummary;
+    private final Counter allocationSkippedCounter;
+    private final DistributionSummary sizeSummary;
+
+    /**
+     * 字体解析结果在所有导出之间共享，首次导出时初始化（字体缺失只影响导出，不影响应用启动）
+     */
+    private volatile PdfRenderEngine renderEngine;
+
+    public PdfExportService(TemplateEngine templateEngine, ObjectMapper objectMapper, FileStorageService fileStorageService,
+                            PdfExportProperties properties, MeterRegistry meterRegistry) {
         this.templateEngine = templateEngine;
         this.objectMapper = objectMapper;
         this.fileStorageService = fileStorageService;
+        this.properties = properties;
+        this.renderTimer = Timer.builder("pdf.export.render")
+                .description("设计提案 PDF 渲染耗时（模板 + HTML 转 PDF，不含图片下载）")
+                .register(meterRegistry);
+        this.allocationSummary = DistributionSummary.builder("pdf.export.allocated")
+                .description("单次 PDF 渲染在当前线程上的堆分配量（仅平台线程上的导出）")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.allocationSkippedCounter = Counter.builder("pdf.export.allocated.skipped")
+                .description("无法统计堆分配量的 PDF 导出次数（虚拟线程或 JVM 不支持）")
+                .register(meterRegistry);
+        this.sizeSummary = DistributionSummary.builder("pdf.export.size")
+                .description("导出的 PDF 大小")
+                .baseUnit("bytes")
+                .register(meterRegistry);
     }
 
     public byte[] generateDesignPdf(ArtifactEntity entity) {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+        try {
             Context context = new Context();
             context.setVariable("entity", entity);
             context.setVariable("conceptData", entity.getConceptData());
@@ -55,33 +84,60 @@ public class PdfExportService {
 
             prepareContextData(context, entity);
 
+            PdfRenderEngine engine = getRenderEngine();
+            long startNanos = System.nanoTime();
+            long startAllocated = currentThreadAllocatedBytes();
+
+            // 模板解析结果由 Thymeleaf 模板缓存复用（spring.thymeleaf.cache）
             String html = templateEngine.process("design-export", context);
+            byte[] pdf = engine.render(html);
 
-            // 1: 创建转换属性
-            ConverterProperties properties = new ConverterProperties();
-            // 2: 创建字体提供者
-            FontProvider fontProvider = new DefaultFontProvider(false, false, false);
-            // 3: 加载字体文件 (确保 src/main/resources/fonts/SimSun.ttf 存在)
-            // 也可以使用绝对路径测试: "C:/Windows/Fonts/simsun.ttc"
-            // 生产环境建议读取流:
-            InputStream fontStream = this.getClass().getClassLoader().getResourceAsStream("fonts/NotoSansSC-VariableFont_wght.ttf");
-            if (fontStream == null) {
-                throw new BusinessException(ErrorCode.EXPORT_PDF_FAILED, "字体资源缺失");
+            renderTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            if (startAllocated >= 0) {
+                allocationSummary.record(currentThreadAllocatedBytes() - startAllocated);
+            } else {
+                allocationSkippedCounter.increment();
             }
-            byte[] fontBytes = fontStream.readAllBytes();
-            FontProgram fontProgram = FontProgramFactory.createFont(fontBytes);
-            fontProvider.addFont(fontProgram);
-            properties.setFontProvider(fontProvider);
-            
-            HtmlConverter.convertToPdf(html, baos, properties);
-
-            return baos.toByteArray();
+            sizeSummary.record(pdf.length);
+            return pdf;
         } catch (Exception e) {
             log.error("PDF生成失败", e);
             throw new RuntimeException("PDF生成失败: " + e.getMessage(), e);
         }
     }
 
+    private PdfRenderEngine getRenderEngine() throws IOException {
+        PdfRenderEngine engine = renderEngine;
+        if (engine != null) {
+            return engine;
+        }
+        synchronized (this) {
+            if (renderEngine == null) {
+                try (InputStream fontStream = getClass().getClassLoader().getResourceAsStream(properties.getFontPath())) {
+                    if (fontStream == null) {
+                        throw new BusinessException(ErrorCode.EXPORT_PDF_FAILED, "字体资源缺失");
+                    }
+                    renderEngine = new PdfRenderEngine(fontStream.readAllBytes(), properties.isSubsetFonts());
+                    log.info("PDF 渲染引擎已初始化: font={}, subset={}", properties.getFontPath(), properties.isSubsetFonts());
+                }
+            }
+            return renderEngine;
+        }
+    }
+
+    /**
+     * 当前线程累计堆分配字节数，JVM 不支持或当前为虚拟线程时返回 -1
+     * 开启虚拟线程（spring.threads.virtual.enabled）后请求都在虚拟线程上处理，pdf.export.allocated 不会有数据，
+     * 跳过次数记在 pdf.export.allocated.skipped；此时每次导出的分配量以 PdfRenderBenchmark 的 gc.alloc.rate.norm 为准
+     */
+    private static long currentThreadAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean
+                && threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+            return threadMXBean.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
     private void prepareContextData(Context context, ArtifactEntity entity) {
         context.setVariable("blueprintSrc", toPdfImageSrc(entity.getBlueprintUrl()));
         context.setVariable("productShotSrc", toPdfImageSrc(entity.getProductShotUrl()));
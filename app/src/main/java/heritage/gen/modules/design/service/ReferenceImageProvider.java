@@ -0,0 +1,273 @@
+package heritage.gen.modules.design.service;
+
+import heritage.gen.common.config.DesignReferenceCacheProperties;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.infrastructure.file.FileStorageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * 设计参考图提供者
+ * 通过 S3Client 直接读取本服务存储的图片，落到本地磁盘缓存目录，交给 DashScope 图生图使用同一个文件。
+ * 存储对象的键不复用（UUID 命名），按文件键缓存即可；缓存按总大小做 LRU 淘汰，
+ * 正在被使用的文件（未关闭的 {@link ReferenceImage}）不会被删除，淘汰推迟到最后一个使用者关闭时。
+ * 每个进程在缓存根目录下使用自己独立的临时子目录（同一根目录可被多个进程共享），关闭时只删除该子目录。
+ */
+@Slf4j
+@Service
+public class ReferenceImageProvider {
+
+    private static final String DEFAULT_DIRECTORY = "heritage-ref-cache";
+
+    private final FileStorageService fileStorageService;
+    private final DesignReferenceCacheProperties properties;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Object lock = new Object();
+    private long totalBytes;
+    private Path directory;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+    private final DistributionSummary downloadBytes;
+
+    public ReferenceImageProvider(FileStorageService fileStorageService, DesignReferenceCacheProperties properties,
+                                  MeterRegistry meterRegistry) {
+        this.fileStorageService = fileStorageService;
+        this.properties = properties;
+        this.hitCounter = requestCounter(meterRegistry, "hit");
+        this.missCounter = requestCounter(meterRegistry, "miss");
+        this.evictionCounter = Counter.builder("design.reference.cache.evictions")
+            .description("参考图磁盘缓存淘汰的文件数")
+            .register(meterRegistry);
+        this.downloadBytes = DistributionSummary.builder("design.reference.download.bytes")
+            .description("从对象存储读取的参考图大小")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("design.reference.cache.size", this, ReferenceImageProvider::cachedBytes)
+            .description("参考图磁盘缓存当前占用")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 一次参考图使用，关闭后才允许缓存淘汰对应文件
+     */
+    public final class ReferenceImage implements AutoCloseable {
+
+        private final Entry entry;
+        private boolean closed;
+
+        private ReferenceImage(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * 本地文件 URI（file:/...），可直接作为 DashScope 图生图的参考图
+         */
+        public String fileUri() {
+            return entry.path.toUri().toString();
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                entry.refCount--;
+                if (entry.evicted && entry.refCount == 0) {
+                    deleteQuietly(entry.path);
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Path path;
+        private final long size;
+        private int refCount;
+        private boolean evicted;
+
+        private Entry(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path base = properties.getDirectory() != null && !properties.getDirectory().isBlank()
+            ? Path.of(properties.getDirectory())
+            : Path.of(System.getProperty("java.io.tmpdir"), DEFAULT_DIRECTORY);
+        Files.createDirectories(base);
+        // 根目录可能被同机其他进程共享，不能清空，只使用本进程创建的子目录
+        this.directory = Files.createTempDirectory(base, "node-");
+        log.info("参考图磁盘缓存目录: {}, 上限: {}MB", directory, properties.getMaxSizeMb());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (lock) {
+            entries.clear();
+            totalBytes = 0;
+        }
+        clearDirectory();
+    }
+
+    /**
+     * 获取参考图本地文件，调用方用完后必须关闭
+     *
+     * @param storedUrl 本服务存储的图片 URL
+     */
+    public ReferenceImage acquire(String storedUrl) {
+        String fileKey = fileStorageService.toFileKey(storedUrl);
+        if (fileKey == null) {
+            throw new BusinessException(ErrorCode.BAD_REQUEST, "参考图不合法或不可访问");
+        }
+
+        synchronized (lock) {
+            Entry entry = entries.get(fileKey);
+            if (entry != null) {
+                hitCounter.increment();
+                entry.refCount++;
+                return new ReferenceImage(entry);
+            }
+        }
+
+        missCounter.increment();
+        Path downloaded = download(fileKey);
+        long size;
+        try {
+            size = Files.size(downloaded);
+        } catch (IOException e) {
+            deleteQuietly(downloaded);
+            throw new BusinessException(ErrorCode.STORAGE_DOWNLOAD_FAILED, "参考图读取失败: " + e.getMessage());
+        }
+        downloadBytes.record(size);
+
+        List<Path> toDelete = new ArrayList<>();
+        ReferenceImage image;
+        synchronized (lock) {
+            Entry entry = entries.get(fileKey);
+            if (entry != null) {
+                // 并发下载了同一张图，保留先入缓存的文件
+                toDelete.add(downloaded);
+            } else {
+                entry = new Entry(downloaded, size);
+                entries.put(fileKey, entry);
+                totalBytes += size;
+            }
+            entry.refCount++;
+            image = new ReferenceImage(entry);
+            evictOverflow(toDelete);
+        }
+        toDelete.forEach(ReferenceImageProvider::deleteQuietly);
+        return image;
+    }
+
+    long cachedBytes() {
+        synchronized (lock) {
+            return totalBytes;
+        }
+    }
+
+    private Path download(String fileKey) {
+        Path target = directory.resolve(hashFileKey(fileKey) + "-" + UUID.randomUUID() + extensionOf(fileKey));
+        try (InputStream in = fileStorageService.openFileStream(fileKey)) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            log.debug("参考图已读取到本地缓存: {} -> {}", fileKey, target);
+            return target;
+        } catch (IOException e) {
+            deleteQuietly(target);
+            throw new BusinessException(ErrorCode.STORAGE_DOWNLOAD_FAILED, "参考图读取失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 超出容量时按最久未使用淘汰；被占用的文件先移出索引，由最后一个使用者关闭时删除
+     */
+    private void evictOverflow(List<Path> toDelete) {
+        long maxBytes = properties.getMaxSizeMb() * 1024 * 1024;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        // 至少保留最新加入的一项，避免单个大文件超过上限时立即被淘汰
+        while (totalBytes > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            totalBytes -= entry.size;
+            entry.evicted = true;
+            evictionCounter.increment();
+            if (entry.refCount == 0) {
+                toDelete.add(entry.path);
+            }
+        }
+    }
+
+    private void clearDirectory() {
+        if (directory == null || !Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(ReferenceImageProvider::deleteQuietly);
+        } catch (IOException e) {
+            log.warn("清空参考图缓存目录失败: {}, error={}", directory, e.getMessage());
+        }
+        deleteQuietly(directory);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("删除参考图缓存文件失败: {}, error={}", path, e.getMessage());
+        }
+    }
+
+    private static String hashFileKey(String fileKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(fileKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String extensionOf(String fileKey) {
+        int slash = fileKey.lastIndexOf('/');
+        int dot = fileKey.lastIndexOf('.');
+        return dot > slash && fileKey.length() - dot <= 6 ? fileKey.substring(dot) : ".png";
+    }
+
+    private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("design.reference.cache.requests")
+            .description("参考图磁盘缓存查询次数")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+}
@@ -1,14 +1,18 @@
 package heritage.gen.modules.knowledgebase;
 
+import cn.dev33.satoken.annotation.SaCheckRole;
+import heritage.gen.common.concurrency.AiEndpoint;
 import heritage.gen.common.result.Result;
 import heritage.gen.modules.knowledgebase.model.KnowledgeBaseListItemDTO;
 import heritage.gen.modules.knowledgebase.model.KnowledgeBaseStatsDTO;
 import heritage.gen.modules.knowledgebase.model.QueryRequest;
 import heritage.gen.modules.knowledgebase.model.QueryResponse;
+import heritage.gen.modules.knowledgebase.model.RagStreamEvent;
 import heritage.gen.modules.knowledgebase.service.KnowledgeBaseDeleteService;
 import heritage.gen.modules.knowledgebase.service.KnowledgeBaseListService;
 import heritage.gen.modules.knowledgebase.service.KnowledgeBaseQueryService;
 import heritage.gen.modules.knowledgebase.service.KnowledgeBaseUploadService;
+import heritage.gen.modules.knowledgebase.service.SemanticAnswerCache;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -36,6 +40,7 @@ public class KnowledgeBaseController {
     private final KnowledgeBaseQueryService queryService;
     private final KnowledgeBaseListService listService;
     private final KnowledgeBaseDeleteService deleteService;
+    private final SemanticAnswerCache answerCache;
 
     /**
      * 获取所有知识库列表
@@ -71,6 +76,7 @@ public class KnowledgeBaseController {
     /**
      * 基于知识库回答问题（支持多知识库）
      */
+    @AiEndpoint("kb.query")
     @PostMapping("/api/knowledgebase/query")
     public Result<QueryResponse> queryKnowledgeBase(@Valid @RequestBody QueryRequest request) {
         return Result.success(queryService.queryKnowledgeBase(request));
@@ -79,10 +85,14 @@ public class KnowledgeBaseController {
     /**
      * 基于知识库回答问题（流式SSE，支持多知识库）
      */
+    @AiEndpoint("kb.query-stream")
     @PostMapping(value = "/api/knowledgebase/query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<String> queryKnowledgeBaseStream(@Valid @RequestBody QueryRequest request) {
         log.info("收到知识库流式查询请求: kbIds={}, question={}", request.knowledgeBaseIds(), request.question());
-        return queryService.answerQuestionStream(request.knowledgeBaseIds(), request.question());
+        // 该接口只下发回答文本，忽略检索元数据事件
+        return queryService.answerQuestionStream(request.knowledgeBaseIds(), request.question())
+                .ofType(RagStreamEvent.Token.class)
+                .map(RagStreamEvent.Token::text);
     }
 
     // ========== 分类管理 API ==========
@@ -124,13 +134,15 @@ public class KnowledgeBaseController {
 
     /**
      * 上传知识库文件
+     * bulk=true 表示批量导入，向量化任务进入低优先级通道
      */
     @PostMapping(value = "/api/knowledgebase/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public Result<Map<String, Object>> uploadKnowledgeBase(
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "category", required = false) String category) {
-        return Result.success(uploadService.uploadKnowledgeBase(file, name, category));
+            @RequestParam(value = "category", required = false) String category,
+            @RequestParam(value = "bulk", defaultValue = "false") boolean bulk) {
+        return Result.success(uploadService.uploadKnowledgeBase(file, name, category, bulk));
     }
 
     /**
@@ -186,4 +198,19 @@ public class KnowledgeBaseController {
         return Result.success(null);
     }
 
+    /**
+     * 清除问答语义缓存（管理员）
+     * 指定 knowledgeBaseId 时只清除涉及该知识库的缓存，否则清空全部
+     *
+     * @return 删除的缓存条数
+     */
+    @SaCheckRole("admin")
+    @DeleteMapping("/api/admin/knowledgebase/answer-cache")
+    public Result<Integer> purgeAnswerCache(@RequestParam(required = false) Long knowledgeBaseId) {
+        int deleted = knowledgeBaseId != null
+            ? answerCache.invalidate(knowledgeBaseId, "purge")
+            : answerCache.purgeAll();
+        return Result.success(deleted);
+    }
+
 }
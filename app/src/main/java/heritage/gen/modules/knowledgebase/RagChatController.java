@@ -1,10 +1,14 @@
 package heritage.gen.modules.knowledgebase;
 
 import cn.dev33.satoken.stp.StpUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.concurrency.AiEndpoint;
 import heritage.gen.common.result.Result;
 import heritage.gen.modules.knowledgebase.model.RagChatDTO.*;
-import heritage.gen.modules.knowledgebase.service.KnowledgeBaseQueryService;
+import heritage.gen.modules.knowledgebase.model.RagStreamEvent;
 import heritage.gen.modules.knowledgebase.service.RagChatSessionService;
+import heritage.gen.modules.knowledgebase.service.RagChatSessionService.StreamTurn;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -14,6 +18,7 @@ import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * RAG 聊天控制器
@@ -24,7 +29,7 @@ import java.util.List;
 public class RagChatController {
 
     private final RagChatSessionService sessionService;
-    private final KnowledgeBaseQueryService queryService;  // 新增注入，用于访问 ThreadLocal
+    private final ObjectMapper objectMapper;
 
     /**
      * 创建新会话
@@ -45,7 +50,7 @@ public class RagChatController {
     }
 
     /**
-     * 获取会话详情（包含消息历史）
+     * 获取会话详情（包含最近的消息，更早的消息通过分页接口加载）
      */
     @GetMapping("/api/rag-chat/sessions/{sessionId}")
     public Result<SessionDetailDTO> getSessionDetail(@PathVariable Long sessionId) {
@@ -53,6 +58,28 @@ public class RagChatController {
         return Result.success(sessionService.getSessionDetail(userId, sessionId));
     }
 
+    /**
+     * 获取会话摘要（不含消息）
+     */
+    @GetMapping("/api/rag-chat/sessions/{sessionId}/summary")
+    public Result<SessionSummaryDTO> getSessionSummary(@PathVariable Long sessionId) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        return Result.success(sessionService.getSessionSummary(userId, sessionId));
+    }
+
+    /**
+     * 游标分页获取消息（before / after 为消息顺序 messageOrder，二选一）
+     */
+    @GetMapping("/api/rag-chat/sessions/{sessionId}/messages")
+    public Result<MessagePageDTO> getMessages(
+            @PathVariable Long sessionId,
+            @RequestParam(required = false) Integer before,
+            @RequestParam(required = false) Integer after,
+            @RequestParam(required = false) Integer limit) {
+        Long userId = StpUtil.getLoginIdAsLong();
+        return Result.success(sessionService.getMessages(userId, sessionId, before, after, limit));
+    }
+
     /**
      * 更新会话标题
      */
@@ -100,10 +127,11 @@ public class RagChatController {
     /**
      * 发送消息（流式 SSE）
      * 流式响应设计：
-     * 1. 先同步保存用户消息和创建 AI 消息占位
+     * 1. 先把用户消息和 AI 消息占位写入消息日志（异步批量落库）
      * 2. 返回流式响应
      * 3. 流式完成后通过回调更新消息，并保存实际检索到的知识库来源
      */
+    @AiEndpoint("rag-chat.stream")
     @PostMapping(value = "/api/rag-chat/sessions/{sessionId}/messages/stream",
                  produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<ServerSentEvent<String>> sendMessageStream(
@@ -113,33 +141,36 @@ public class RagChatController {
         Long userId = StpUtil.getLoginIdAsLong();
         log.info("收到 RAG 聊天流式请求: sessionId={}, userId={}, question={}", sessionId, userId, request.question());
 
-        // 1. 准备消息（保存用户消息，创建 AI 消息占位）
-        Long messageId = sessionService.prepareStreamMessage(userId, sessionId, request.question());
+        // 1. 准备消息（记录用户消息，创建 AI 消息占位）
+        StreamTurn turn = sessionService.prepareStreamMessage(userId, sessionId, request.question());
 
-        // 2. 获取流式响应
+        // 2. 获取流式响应：元数据事件以 event:metadata 下发，回答片段作为普通 data 事件
         StringBuilder fullContent = new StringBuilder();
-
-        return sessionService.getStreamAnswer(userId, sessionId, request.question())
-                .doOnNext(chunk -> {
-                    fullContent.append(chunk);
-                    // 可选：如果未来恢复逐字 streaming，这里可以做更细粒度的处理
+        AtomicReference<List<Long>> sourceKbIds = new AtomicReference<>();
+
+        return sessionService.getStreamAnswer(turn, request.question())
+                .map(event -> switch (event) {
+                    case RagStreamEvent.Metadata metadata -> {
+                        sourceKbIds.set(metadata.sourceKbIds());
+                        yield ServerSentEvent.<String>builder()
+                                .event("metadata")
+                                .data(toJson(metadata))
+                                .build();
+                    }
+                    case RagStreamEvent.Token token -> {
+                        fullContent.append(token.text());
+                        // 转义换行符避免破坏 SSE 格式
+                        yield ServerSentEvent.<String>builder()
+                                .data(token.text().replace("\n", "\\n").replace("\r", "\\r"))
+                                .build();
+                    }
                 })
-                // 使用 ServerSentEvent 包装，转义换行符避免破坏 SSE 格式
-                .map(chunk -> ServerSentEvent.<String>builder()
-                        .data(chunk.replace("\n", "\\n").replace("\r", "\\r"))
-                        .build())
                 .doOnComplete(() -> {
                     // 3. 流式完成后更新消息内容 + 来源知识库
-                    List<Long> sourceKbIds = KnowledgeBaseQueryService.SOURCE_KB_IDS.get();
-                    String finalContent = fullContent.toString();
-
-                    sessionService.completeStreamMessage(messageId, finalContent, sourceKbIds);
+                    sessionService.completeStreamMessage(turn, fullContent.toString(), sourceKbIds.get());
 
-                    // 清理 ThreadLocal，防止线程复用污染
-                    KnowledgeBaseQueryService.SOURCE_KB_IDS.remove();
-
-                    log.info("RAG 聊天流式完成: sessionId={}, messageId={}, sourceKbIds={}",
-                            sessionId, messageId, sourceKbIds);
+                    log.info("RAG 聊天流式完成: sessionId={}, answerOrder={}, sourceKbIds={}",
+                            sessionId, turn.answerOrder(), sourceKbIds.get());
                 })
                 .doOnError(e -> {
                     // 错误时也尽量保存已接收的内容和来源（如果有）
@@ -147,15 +178,30 @@ public class RagChatController {
                             ? fullContent.toString()
                             : "【错误】回答生成失败：" + e.getMessage();
 
-                    List<Long> sourceKbIds = KnowledgeBaseQueryService.SOURCE_KB_IDS.get();
+                    sessionService.completeStreamMessage(turn, content, sourceKbIds.get());
 
-                    sessionService.completeStreamMessage(messageId, content, sourceKbIds);
+                    log.error("RAG 聊天流式错误: sessionId={}, answerOrder={}, sourceKbIds={}",
+                            sessionId, turn.answerOrder(), sourceKbIds.get(), e);
+                })
+                .doOnCancel(() -> {
+                    // 客户端断开时 complete/error 都不会触发，保存已生成的部分回答，避免占位消息等待超时回收
+                    String content = !fullContent.isEmpty()
+                            ? fullContent.toString()
+                            : "【错误】回答生成中断，请重新提问";
 
-                    // 同样清理
-                    KnowledgeBaseQueryService.SOURCE_KB_IDS.remove();
+                    sessionService.completeStreamMessage(turn, content, sourceKbIds.get());
 
-                    log.error("RAG 聊天流式错误: sessionId={}, messageId={}, sourceKbIds={}",
-                            sessionId, messageId, sourceKbIds, e);
+                    log.info("RAG 聊天流式被客户端取消: sessionId={}, answerOrder={}, 已保存 {} 字符",
+                            sessionId, turn.answerOrder(), fullContent.length());
                 });
     }
-}
\ No newline at end of file
+
+    private String toJson(RagStreamEvent.Metadata metadata) {
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            log.warn("序列化检索元数据失败: {}", e.getMessage());
+            return "{}";
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package heritage.gen.modules.knowledgebase.listener;
+
+import heritage.gen.common.config.RagChatJournalProperties;
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.knowledgebase.model.RagChatJournalEvent;
+import heritage.gen.modules.knowledgebase.repository.RagChatJournalRepository;
+import heritage.gen.modules.knowledgebase.service.RagChatMessageJournal;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.stream.StreamMessageId;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RAG 聊天消息日志落库线程
+ * 每个节点一个消费者，按 Stream 顺序批量读取事件，在一个事务内以批量 JDBC 语句落库，成功后确认并删除事件。
+ * 落库失败时保留整批事件退避重试；只有单条事件违反约束（数据本身有问题）时才丢弃该事件，避免阻塞后续事件。
+ * 节点崩溃或重启前未确认的事件，空闲超过 claimIdleMs 后由任一节点通过 XAUTOCLAIM 认领重放，
+ * 落库语句幂等且与顺序无关，重放与跨节点并发落库都不会产生重复消息或回退状态。
+ */
+@Slf4j
+@Component
+public class RagChatJournalFlusher {
+
+    private final RedisService redisService;
+    private final RagChatJournalRepository journalRepository;
+    private final RagChatMessageJournal journal;
+    private final RagChatJournalProperties properties;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong backlog = new AtomicLong();
+    private final Timer flushTimer;
+    private final DistributionSummary batchSize;
+    private final Counter failureCounter;
+    private final Counter droppedCounter;
+    private final Counter reclaimCounter;
+    private String consumerName;
+    private Thread flusherThread;
+
+    public RagChatJournalFlusher(RedisService redisService, RagChatJournalRepository journalRepository,
+                                 RagChatMessageJournal journal, RagChatJournalProperties properties,
+                                 MeterRegistry meterRegistry) {
+        this.redisService = redisService;
+        this.journalRepository = journalRepository;
+        this.journal = journal;
+        this.properties = properties;
+        this.flushTimer = Timer.builder("rag.chat.journal.flush")
+            .description("一批消息日志事件落库耗时")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("rag.chat.journal.batch.size")
+            .description("每批落库的消息日志事件数")
+            .register(meterRegistry);
+        this.failureCounter = Counter.builder("rag.chat.journal.flush.failures")
+            .description("消息日志批量落库失败次数（整批保留重试）")
+            .register(meterRegistry);
+        this.droppedCounter = Counter.builder("rag.chat.journal.dropped")
+            .description("因数据错误被丢弃的消息日志事件数")
+            .register(meterRegistry);
+        this.reclaimCounter = Counter.builder("rag.chat.journal.reclaimed")
+            .description("通过 XAUTOCLAIM 认领的遗留消息日志事件数")
+            .register(meterRegistry);
+        Gauge.builder("rag.chat.journal.backlog", backlog, AtomicLong::get)
+            .description("消息日志中尚未落库的事件数")
+            .register(meterRegistry);
+    }
+
+    /**
+     * rag_chat_messages 由 JPA 建表，应用就绪后再建唯一索引并启动落库线程；索引创建失败时启动失败
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        try {
+            journalRepository.ensureSchema();
+        } catch (Exception e) {
+            // 没有唯一索引时 upsert 每批都会失败且无法区分数据错误，事件只会无限重试堆积，不能带病启动
+            throw new IllegalStateException("创建消息唯一索引 uk_rag_message_session_order 失败，消息日志无法落库"
+                + "（请检查 rag_chat_messages 是否存在重复的 session_id + message_order）", e);
+        }
+        try {
+            redisService.createStreamGroup(
+                AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_STREAM_KEY,
+                AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_GROUP_NAME
+            );
+        } catch (Exception e) {
+            log.warn("创建消息日志消费者组时发生异常（可能已存在）: {}", e.getMessage());
+        }
+
+        this.consumerName = AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_CONSUMER_PREFIX
+            + UUID.randomUUID().toString().substring(0, 8);
+        running.set(true);
+        this.flusherThread = Thread.ofVirtual().name("rag-chat-journal").start(this::flushLoop);
+        log.info("消息日志落库线程已启动: consumer={}", consumerName);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running.set(false);
+        if (flusherThread != null) {
+            try {
+                // 等待当前批次落库完成；未确认的事件由重启后的节点认领
+                flusherThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("消息日志落库线程已关闭: consumer={}", consumerName);
+    }
+
+    private void flushLoop() {
+        long nextClaimAt = 0;
+        while (running.get()) {
+            try {
+                Map<StreamMessageId, Map<String, String>> messages = Map.of();
+                long now = System.currentTimeMillis();
+                if (now >= nextClaimAt) {
+                    nextClaimAt = now + properties.getClaimIdleMs() / 2;
+                    messages = redisService.streamAutoClaim(
+                        AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_STREAM_KEY,
+                        AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_GROUP_NAME,
+                        consumerName, properties.getClaimIdleMs(), properties.getBatchSize());
+                    if (!messages.isEmpty()) {
+                        reclaimCounter.increment(messages.size());
+                        log.warn("认领遗留消息日志事件: count={}, consumer={}", messages.size(), consumerName);
+                    }
+                    backlog.set(redisService.streamLen(AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_STREAM_KEY));
+                }
+                if (messages.isEmpty()) {
+                    messages = redisService.streamReadGroup(
+                        AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_STREAM_KEY,
+                        AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_GROUP_NAME,
+                        consumerName, properties.getBatchSize(), properties.getFlushIntervalMs());
+                }
+                if (!messages.isEmpty()) {
+                    flushWithRetry(messages);
+                }
+            } catch (Exception e) {
+                if (!running.get()) {
+                    break;
+                }
+                log.error("读取消息日志失败: consumer={}, error={}", consumerName, e.getMessage(), e);
+                sleepQuietly(properties.getRetryBackoffMs());
+            }
+        }
+    }
+
+    /**
+     * 落库一批事件，失败时退避重试直到成功或节点关闭（关闭时未确认的事件留给其他节点认领）
+     */
+    private void flushWithRetry(Map<StreamMessageId, Map<String, String>> messages) {
+        Map<StreamMessageId, RagChatJournalEvent> events = parse(messages);
+        while (running.get() && !events.isEmpty()) {
+            long startNanos = System.nanoTime();
+            try {
+                journalRepository.applyBatch(new ArrayList<>(events.values()));
+                flushTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                batchSize.record(events.size());
+                acknowledge(events);
+                return;
+            } catch (DataIntegrityViolationException e) {
+                log.error("消息日志批量落库违反约束，改为逐条落库: size={}, error={}", events.size(), e.getMessage());
+                applyIndividually(events);
+                return;
+            } catch (Exception e) {
+                failureCounter.increment();
+                log.error("消息日志批量落库失败，稍后重试: size={}, error={}", events.size(), e.getMessage());
+                sleepQuietly(properties.getRetryBackoffMs());
+            }
+        }
+    }
+
+    private void applyIndividually(Map<StreamMessageId, RagChatJournalEvent> events) {
+        for (Map.Entry<StreamMessageId, RagChatJournalEvent> entry : events.entrySet()) {
+            Map<StreamMessageId, RagChatJournalEvent> single = Map.of(entry.getKey(), entry.getValue());
+            try {
+                journalRepository.applyBatch(List.of(entry.getValue()));
+            } catch (DataIntegrityViolationException e) {
+                droppedCounter.increment();
+                log.error("丢弃无法落库的消息日志事件: messageId={}, sessionId={}, order={}, error={}",
+                    entry.getKey(), entry.getValue().sessionId(), entry.getValue().order(), e.getMessage());
+            } catch (Exception e) {
+                // 非数据问题（如连接中断）：不确认，等待认领后重放
+                failureCounter.increment();
+                log.error("消息日志逐条落库失败，等待重放: messageId={}, error={}", entry.getKey(), e.getMessage());
+                continue;
+            }
+            acknowledge(single);
+        }
+    }
+
+    private Map<StreamMessageId, RagChatJournalEvent> parse(Map<StreamMessageId, Map<String, String>> messages) {
+        Map<StreamMessageId, RagChatJournalEvent> events = new LinkedHashMap<>();
+        List<StreamMessageId> malformed = new ArrayList<>();
+        messages.forEach((messageId, fields) -> {
+            try {
+                events.put(messageId, RagChatJournalEvent.fromFields(fields));
+            } catch (IllegalArgumentException e) {
+                log.warn("消息日志事件格式错误，跳过: messageId={}, error={}", messageId, e.getMessage());
+                malformed.add(messageId);
+            }
+        });
+        if (!malformed.isEmpty()) {
+            droppedCounter.increment(malformed.size());
+            ack(malformed.toArray(new StreamMessageId[0]));
+        }
+        return events;
+    }
+
+    /**
+     * 确认并删除已落库的事件，再清除对应的待落库消息
+     */
+    private void acknowledge(Map<StreamMessageId, RagChatJournalEvent> events) {
+        ack(events.keySet().toArray(new StreamMessageId[0]));
+        for (RagChatJournalEvent event : events.values()) {
+            try {
+                journal.markFlushed(event);
+            } catch (Exception e) {
+                log.warn("清除待落库消息失败: sessionId={}, order={}, error={}",
+                    event.sessionId(), event.order(), e.getMessage());
+            }
+        }
+    }
+
+    private void ack(StreamMessageId... ids) {
+        try {
+            redisService.streamAck(AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_STREAM_KEY,
+                AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_GROUP_NAME, ids);
+            redisService.streamDelete(AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_STREAM_KEY, ids);
+        } catch (Exception e) {
+            // 未确认的事件会被重放，落库幂等
+            log.error("确认消息日志事件失败: count={}, error={}", ids.length, e.getMessage(), e);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
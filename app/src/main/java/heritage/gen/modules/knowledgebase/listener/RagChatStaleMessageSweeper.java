@@ -0,0 +1,121 @@
+package heritage.gen.modules.knowledgebase.listener;
+
+import heritage.gen.common.config.RagChatRecoveryProperties;
+import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.knowledgebase.repository.RagChatRecoveryRepository;
+import heritage.gen.modules.knowledgebase.repository.RagChatRecoveryRepository.RecoveredMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RAG 聊天中断回答回收
+ * 节点在回答过程中崩溃时，AI 消息占位会一直停留在未完成状态，前端会持续等待。
+ * 各节点定期统计超时未完成的消息数并导出指标；持有扫描租约（Redis 锁，到期自动释放）的节点负责把它们标记为失败。
+ * 标记使用条件更新 + SKIP LOCKED，租约到期后其他节点接手也不会重复处理；之后若原回答仍然完成，完成事件会覆盖失败内容。
+ */
+@Slf4j
+@Component
+public class RagChatStaleMessageSweeper {
+
+    private static final String LEASE_KEY = "rag:chat:recovery:lease";
+
+    private static final String FAILED_CONTENT = "【错误】回答生成中断，请重新提问";
+
+    private final RedisService redisService;
+    private final RagChatRecoveryRepository recoveryRepository;
+    private final RagChatRecoveryProperties properties;
+
+    private final AtomicLong stuckMessages = new AtomicLong();
+    private final Counter recoveredCounter;
+    private ScheduledExecutorService scheduler;
+
+    public RagChatStaleMessageSweeper(RedisService redisService, RagChatRecoveryRepository recoveryRepository,
+                                      RagChatRecoveryProperties properties, MeterRegistry meterRegistry) {
+        this.redisService = redisService;
+        this.recoveryRepository = recoveryRepository;
+        this.properties = properties;
+        this.recoveredCounter = Counter.builder("rag.chat.messages.recovered")
+            .description("被标记为失败的中断回答数")
+            .register(meterRegistry);
+        Gauge.builder("rag.chat.messages.stuck", stuckMessages, AtomicLong::get)
+            .description("超时仍未完成的 AI 消息数")
+            .register(meterRegistry);
+    }
+
+    /**
+     * rag_chat_messages 由 JPA 建表，应用就绪后再建索引并开始扫描
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isEnabled()) {
+            log.info("中断回答回收未启用");
+            return;
+        }
+        try {
+            recoveryRepository.ensureSchema();
+        } catch (Exception e) {
+            log.warn("创建未完成消息索引失败，回收扫描将退化为全表扫描: {}", e.getMessage());
+        }
+
+        long interval = Math.max(1, properties.getSweepIntervalSeconds());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rag-chat-recovery");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.SECONDS);
+        log.info("中断回答回收已启动: staleAfter={}s, interval={}s", properties.getStaleAfterSeconds(), interval);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void sweep() {
+        // 异常不能抛出，否则定时任务会停止
+        try {
+            Timestamp staleBefore = new Timestamp(
+                System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(properties.getStaleAfterSeconds()));
+            stuckMessages.set(recoveryRepository.countStale(staleBefore));
+            if (stuckMessages.get() > 0) {
+                recover(staleBefore);
+            }
+        } catch (Exception e) {
+            log.error("回收中断回答失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void recover(Timestamp staleBefore) {
+        // 租约时长与扫描间隔一致：持有节点崩溃后，下一个周期由其他节点接手
+        if (!redisService.tryLock(LEASE_KEY, 0, properties.getSweepIntervalSeconds(), TimeUnit.SECONDS)) {
+            return;
+        }
+        try {
+            List<RecoveredMessage> recovered = recoveryRepository.failStale(
+                staleBefore, FAILED_CONTENT, properties.getBatchSize());
+            if (!recovered.isEmpty()) {
+                recoveredCounter.increment(recovered.size());
+                stuckMessages.addAndGet(-recovered.size());
+                log.warn("已将中断回答标记为失败: count={}, messages={}", recovered.size(), recovered);
+            }
+        } finally {
+            redisService.unlock(LEASE_KEY);
+        }
+    }
+}
@@ -1,10 +1,19 @@
 package heritage.gen.modules.knowledgebase.listener;
 
+import heritage.gen.common.config.VectorizeConsumerProperties;
 import heritage.gen.common.constant.AsyncTaskStreamConstants;
 import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.knowledgebase.listener.VectorizeTaskScheduler.VectorizeTask;
 import heritage.gen.modules.knowledgebase.model.VectorStatus;
+import heritage.gen.modules.knowledgebase.model.VectorizeLane;
 import heritage.gen.modules.knowledgebase.repository.KnowledgeBaseRepository;
+import heritage.gen.modules.knowledgebase.service.KnowledgeBaseContentStagingService;
 import heritage.gen.modules.knowledgebase.service.KnowledgeBaseVectorService;
+import heritage.gen.modules.knowledgebase.service.SemanticAnswerCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
@@ -12,33 +21,70 @@ import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.stream.StreamMessageId;
 import org.springframework.stereotype.Component;
 
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 知识库向量化 Stream 消费者
  * 负责从 Redis Stream 消费消息并执行向量化
+ * <p>
+ * 每个节点运行若干个 worker（虚拟线程），每个 worker 拥有独立的消费者名，每次只拉取一条消息，
+ * 慢文档不会阻塞其他任务。任务的拉取顺序（优先级通道、提交者公平）由 {@link VectorizeTaskScheduler} 决定，
+ * 批量通道不会占满全部 worker。worker 定期通过 XAUTOCLAIM 认领空闲超时的待确认消息，
+ * 接管崩溃节点遗留的任务；处理中的消息定期刷新空闲时间，避免被误认领。
+ * <p>
+ * 同一知识库的任务（上传与手动重试、重复点击、认领的慢任务）持有按 kbId 的租约串行执行，
+ * 否则两次运行各自按快照删除"旧"分块，会删掉对方刚写入的分块。拿不到租约的消息不确认，留在待确认列表中，
+ * 空闲超过 claim-idle-ms 后再被认领执行。
  */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class VectorizeStreamConsumer {
 
+    private static final long MIN_IDLE_BACKOFF_MS = 50;
+    private static final String LEGACY_SUBMITTER = "legacy";
+    private static final Set<VectorizeLane> ALL_LANES = EnumSet.allOf(VectorizeLane.class);
+    private static final Set<VectorizeLane> PRIORITY_LANES = EnumSet.of(VectorizeLane.INTERACTIVE, VectorizeLane.MANUAL);
+
     private final RedisService redisService;
+    private final VectorizeTaskScheduler taskScheduler;
     private final KnowledgeBaseVectorService vectorService;
     private final KnowledgeBaseRepository knowledgeBaseRepository;
+    private final KnowledgeBaseContentStagingService stagingService;
+    private final SemanticAnswerCache answerCache;
+    private final VectorizeConsumerProperties consumerProperties;
+    private final MeterRegistry meterRegistry;
 
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private ExecutorService executorService;
-    private String consumerName;
+    private final AtomicInteger backfillInFlight = new AtomicInteger();
+    private final Map<VectorizeLane, AtomicLong> laneDepths = new EnumMap<>(VectorizeLane.class);
+    private final List<Worker> workers = new ArrayList<>();
+    private ExecutorService workerExecutor;
+    private ScheduledExecutorService maintenanceScheduler;
+    private String instanceName;
 
     @PostConstruct
     public void init() {
-        // 生成唯一的消费者名称（支持多实例部署）
-        this.consumerName = AsyncTaskStreamConstants.KB_VECTORIZE_CONSUMER_PREFIX + UUID.randomUUID().toString().substring(0, 8);
+        // 生成唯一的实例名称（支持多实例部署），各 worker 的消费者名以此为前缀
+        this.instanceName = AsyncTaskStreamConstants.KB_VECTORIZE_CONSUMER_PREFIX + UUID.randomUUID().toString().substring(0, 8);
 
         // 创建消费者组（如果不存在）
         try {
@@ -51,83 +97,221 @@ public class VectorizeStreamConsumer {
             log.warn("创建消费者组时发生异常（可能已存在）: {}", e.getMessage());
         }
 
-        // 启动消费者线程
-        this.executorService = Executors.newSingleThreadExecutor(r -> {
-            Thread t = new Thread(r, "vectorize-consumer");
+        for (VectorizeLane lane : VectorizeLane.values()) {
+            AtomicLong depth = new AtomicLong();
+            laneDepths.put(lane, depth);
+            Gauge.builder("kb.vectorize.lane.depth", depth, AtomicLong::get)
+                .description("向量化通道中尚未完成（未投递 + 待确认）的任务数")
+                .tag("lane", lane.name().toLowerCase())
+                .register(meterRegistry);
+        }
+
+        int workerCount = Math.max(1, consumerProperties.getWorkers());
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(new Worker(i, instanceName + "-" + i));
+        }
+
+        this.maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vectorize-consumer-maintenance");
             t.setDaemon(true);
             return t;
         });
+        maintenanceScheduler.scheduleWithFixedDelay(this::refreshStreamMetrics,
+            0, consumerProperties.getMetricsIntervalMs(), TimeUnit.MILLISECONDS);
+
+        // 启动 worker（虚拟线程）
+        this.workerExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("vectorize-worker-", 0).factory());
 
         running.set(true);
-        executorService.submit(this::consumeLoop);
+        workers.forEach(worker -> workerExecutor.submit(() -> workerLoop(worker)));
 
-        log.info("向量化消费者已启动: consumerName={}", consumerName);
+        log.info("向量化消费者已启动: instance={}, workers={}", instanceName, workerCount);
     }
 
     @PreDestroy
     public void shutdown() {
         running.set(false);
-        if (executorService != null) {
-            executorService.shutdown();
+        if (workerExecutor != null) {
+            workerExecutor.shutdown();
         }
-        log.info("向量化消费者已关闭: consumerName={}", consumerName);
+        if (maintenanceScheduler != null) {
+            maintenanceScheduler.shutdownNow();
+        }
+        log.info("向量化消费者已关闭: instance={}", instanceName);
     }
 
     /**
-     * 消费循环
+     * worker 消费循环：先按间隔认领遗留任务，再按通道优先级拉取新任务，无任务时退避等待
      */
-    private void consumeLoop() {
+    private void workerLoop(Worker worker) {
+        long idleBackoffMs = MIN_IDLE_BACKOFF_MS;
         while (running.get()) {
             try {
-                redisService.streamConsumeMessages(
-                    AsyncTaskStreamConstants.KB_VECTORIZE_STREAM_KEY,
-                    AsyncTaskStreamConstants.KB_VECTORIZE_GROUP_NAME,
-                    consumerName,
-                    AsyncTaskStreamConstants.BATCH_SIZE,
-                    AsyncTaskStreamConstants.POLL_INTERVAL_MS,
-                    this::processMessage
-                );
+                // 批量通道最多占用 workers - reservedWorkers 个 worker，保证交互任务随时有空闲 worker
+                boolean backfillSlot = tryAcquireBackfillSlot();
+                Set<VectorizeLane> lanes = backfillSlot ? ALL_LANES : PRIORITY_LANES;
+                Optional<VectorizeTask> task = reclaimIfDue(worker, lanes)
+                    .or(() -> taskScheduler.poll(worker.consumerName, lanes));
+                boolean backfillTask = task.isPresent() && task.get().lane() == VectorizeLane.BACKFILL;
+                if (backfillSlot && !backfillTask) {
+                    backfillInFlight.decrementAndGet();
+                }
+
+                if (task.isEmpty()) {
+                    Thread.sleep(idleBackoffMs);
+                    idleBackoffMs = Math.min(idleBackoffMs * 2, AsyncTaskStreamConstants.POLL_INTERVAL_MS);
+                    continue;
+                }
+                idleBackoffMs = MIN_IDLE_BACKOFF_MS;
+                try {
+                    processMessage(worker, task.get());
+                } finally {
+                    if (backfillTask) {
+                        backfillInFlight.decrementAndGet();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.info("消费者线程被中断: consumer={}", worker.consumerName);
+                break;
             } catch (Exception e) {
                 if (Thread.currentThread().isInterrupted()) {
-                    log.info("消费者线程被中断");
+                    log.info("消费者线程被中断: consumer={}", worker.consumerName);
                     break;
                 }
-                log.error("消费消息时发生错误: {}", e.getMessage(), e);
+                log.error("消费消息时发生错误: consumer={}, error={}", worker.consumerName, e.getMessage(), e);
+            }
+        }
+    }
+
+    private boolean tryAcquireBackfillSlot() {
+        int limit = Math.max(1, workers.size() - consumerProperties.getReservedWorkers());
+        int current;
+        do {
+            current = backfillInFlight.get();
+            if (current >= limit) {
+                return false;
             }
+        } while (!backfillInFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * 认领空闲超过阈值的待确认任务（来自崩溃节点或已下线的消费者）
+     */
+    private Optional<VectorizeTask> reclaimIfDue(Worker worker, Set<VectorizeLane> lanes) {
+        long now = System.currentTimeMillis();
+        if (now < worker.nextClaimAt) {
+            return Optional.empty();
         }
+        worker.nextClaimAt = now + consumerProperties.getClaimIntervalMs();
+
+        Optional<VectorizeTask> claimed = taskScheduler.reclaim(
+            worker.consumerName, consumerProperties.getClaimIdleMs(), lanes);
+        claimed.ifPresent(task -> {
+            worker.reclaimCounter.increment();
+            log.warn("认领遗留向量化消息: queue={}, messageId={}, consumer={}",
+                task.queueKey(), task.messageId(), worker.consumerName);
+        });
+        return claimed;
+    }
+
+    /**
+     * 刷新各通道积压量与各 worker 的 PEL 大小
+     */
+    private void refreshStreamMetrics() {
+        try {
+            laneDepths.forEach((lane, depth) -> depth.set(taskScheduler.laneDepth(lane)));
+            Map<String, Long> pendingByConsumer = taskScheduler.pendingByConsumer();
+            workers.forEach(worker -> worker.pendingCount.set(pendingByConsumer.getOrDefault(worker.consumerName, 0L)));
+        } catch (Exception e) {
+            log.debug("刷新向量化 Stream 指标失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 处理期间定期刷新消息空闲时间，避免长任务被其他 worker 认领
+     */
+    private ScheduledFuture<?> startHeartbeat(Worker worker, VectorizeTask task) {
+        long interval = consumerProperties.getHeartbeatIntervalMs();
+        return maintenanceScheduler.scheduleAtFixedRate(() -> {
+            try {
+                taskScheduler.touch(task, worker.consumerName);
+            } catch (Exception e) {
+                log.warn("刷新消息空闲时间失败: messageId={}, error={}", task.messageId(), e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
     }
 
     /**
      * 处理单条消息
      */
-    private void processMessage(StreamMessageId messageId, Map<String, String> data) {
+    private void processMessage(Worker worker, VectorizeTask task) {
+        StreamMessageId messageId = task.messageId();
+        Map<String, String> data = task.data();
         String kbIdStr = data.get(AsyncTaskStreamConstants.FIELD_KB_ID);
-        String content = data.get(AsyncTaskStreamConstants.FIELD_CONTENT);
+        String storageKey = data.get(AsyncTaskStreamConstants.FIELD_STORAGE_KEY);
+        // 兼容升级前已入队的携带全文的旧消息
+        String legacyContent = data.get(AsyncTaskStreamConstants.FIELD_CONTENT);
         String retryCountStr = data.getOrDefault(AsyncTaskStreamConstants.FIELD_RETRY_COUNT, "0");
 
-        if (kbIdStr == null || content == null) {
+        if (kbIdStr == null || (storageKey == null && legacyContent == null)) {
             log.warn("消息格式错误，跳过: messageId={}", messageId);
-            ackMessage(messageId);
+            ackMessage(task);
             return;
         }
 
         Long kbId = Long.parseLong(kbIdStr);
         int retryCount = Integer.parseInt(retryCountStr);
 
-        log.info("开始处理向量化任务: kbId={}, messageId={}, retryCount={}", kbId, messageId, retryCount);
+        // 租约随 Redisson 看门狗续期，节点崩溃后自动过期
+        String lockKey = AsyncTaskStreamConstants.KB_VECTORIZE_LOCK_PREFIX + kbId;
+        if (!redisService.tryLock(lockKey, 0, -1, TimeUnit.MILLISECONDS)) {
+            worker.deferredCounter.increment();
+            log.info("知识库已有向量化任务在执行，消息留待稍后认领: kbId={}, messageId={}", kbId, messageId);
+            return;
+        }
+        try {
+            runMessage(worker, task, kbId, retryCount);
+        } finally {
+            redisService.unlock(lockKey);
+        }
+    }
 
+    /**
+     * 在持有知识库租约的情况下执行向量化
+     */
+    private void runMessage(Worker worker, VectorizeTask task, Long kbId, int retryCount) {
+        StreamMessageId messageId = task.messageId();
+        Map<String, String> data = task.data();
+        String storageKey = data.get(AsyncTaskStreamConstants.FIELD_STORAGE_KEY);
+        String contentHash = data.get(AsyncTaskStreamConstants.FIELD_CONTENT_HASH);
+        String legacyContent = data.get(AsyncTaskStreamConstants.FIELD_CONTENT);
+
+        log.info("开始处理向量化任务: kbId={}, lane={}, messageId={}, retryCount={}, consumer={}",
+            kbId, task.lane(), messageId, retryCount, worker.consumerName);
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        ScheduledFuture<?> heartbeat = startHeartbeat(worker, task);
         try {
             // 1. 更新状态为 PROCESSING
             updateVectorStatus(kbId, VectorStatus.PROCESSING, null);
 
-            // 2. 执行向量化
-            vectorService.vectorizeAndStore(kbId, content);
+            // 2. 从对象存储流式读取暂存文本并执行向量化
+            try (Reader content = storageKey != null
+                    ? stagingService.openReader(storageKey, contentHash)
+                    : new StringReader(legacyContent)) {
+                vectorService.vectorizeAndStore(kbId, content);
+            }
 
-            // 3. 更新状态为 COMPLETED
+            // 3. 更新状态为 COMPLETED，清理暂存文本，基于旧内容的问答缓存失效
             updateVectorStatus(kbId, VectorStatus.COMPLETED, null);
+            discardStagedContent(storageKey);
+            answerCache.invalidate(kbId, "revectorize");
 
             // 4. 确认消息
-            ackMessage(messageId);
+            ackMessage(task);
 
             log.info("向量化任务完成: kbId={}", kbId);
 
@@ -137,50 +321,68 @@ public class VectorizeStreamConsumer {
             // 判断是否需要重试
             if (retryCount < AsyncTaskStreamConstants.MAX_RETRY_COUNT) {
                 // 重新入队（增加重试计数）
-                retryMessage(kbId, content, retryCount + 1);
+                worker.retryCounter.increment();
+                retryMessage(kbId, task, retryCount + 1);
             } else {
                 // 超过最大重试次数，标记为失败
                 String errorMsg = truncateError("向量化失败(已重试" + retryCount + "次): " + e.getMessage());
                 updateVectorStatus(kbId, VectorStatus.FAILED, errorMsg);
+                discardStagedContent(storageKey);
             }
 
             // 确认原消息（无论成功失败都要确认，否则会重复消费）
-            ackMessage(messageId);
+            ackMessage(task);
+        } finally {
+            heartbeat.cancel(false);
+            sample.stop(worker.processingTimer);
         }
     }
 
     /**
-     * 重试消息（重新发送到 Stream）
+     * 重试消息（重新发送到原通道与提交者的队列）
+     * 沿用原消息的引用字段，只更新重试计数，不会把全文写回 Redis
      */
-    private void retryMessage(Long kbId, String content, int retryCount) {
+    private void retryMessage(Long kbId, VectorizeTask task, int retryCount) {
+        Map<String, String> message = new HashMap<>(task.data());
         try {
-            Map<String, String> message = Map.of(
-                AsyncTaskStreamConstants.FIELD_KB_ID, kbId.toString(),
-                AsyncTaskStreamConstants.FIELD_CONTENT, content,
-                AsyncTaskStreamConstants.FIELD_RETRY_COUNT, String.valueOf(retryCount)
-            );
+            String legacyContent = message.remove(AsyncTaskStreamConstants.FIELD_CONTENT);
+            if (legacyContent != null) {
+                var staged = stagingService.stage(legacyContent);
+                message.put(AsyncTaskStreamConstants.FIELD_STORAGE_KEY, staged.storageKey());
+                message.put(AsyncTaskStreamConstants.FIELD_CONTENT_HASH, staged.contentHash());
+            }
+            message.put(AsyncTaskStreamConstants.FIELD_RETRY_COUNT, String.valueOf(retryCount));
 
-            redisService.streamAdd(AsyncTaskStreamConstants.KB_VECTORIZE_STREAM_KEY, message);
-            log.info("向量化任务已重新入队: kbId={}, retryCount={}", kbId, retryCount);
+            String submitter = message.getOrDefault(AsyncTaskStreamConstants.FIELD_SUBMITTER, LEGACY_SUBMITTER);
+            taskScheduler.enqueue(task.lane(), submitter, message);
+            log.info("向量化任务已重新入队: kbId={}, lane={}, retryCount={}", kbId, task.lane(), retryCount);
 
         } catch (Exception e) {
             log.error("重试入队失败: kbId={}, error={}", kbId, e.getMessage(), e);
             updateVectorStatus(kbId, VectorStatus.FAILED, truncateError("重试入队失败: " + e.getMessage()));
+            // 任务已进入终态，删除原有或刚补暂存的文本
+            discardStagedContent(message.get(AsyncTaskStreamConstants.FIELD_STORAGE_KEY));
+        }
+    }
+
+    /**
+     * 任务进入终态后删除暂存文本
+     */
+    private void discardStagedContent(String storageKey) {
+        if (storageKey != null) {
+            stagingService.discard(storageKey);
         }
     }
 
     /**
      * 确认消息
      */
-    private void ackMessage(StreamMessageId messageId) {
+    private void ackMessage(VectorizeTask task) {
         try {
-            redisService.streamAck(
-                AsyncTaskStreamConstants.KB_VECTORIZE_STREAM_KEY,
-                AsyncTaskStreamConstants.KB_VECTORIZE_GROUP_NAME,
-                messageId
-            );
+            taskScheduler.ack(task);
         } catch (Exception e) {
-            log.error("确认消息失败: messageId={}, error={}", messageId, e.getMessage(), e);
+            log.error("确认消息失败: queue={}, messageId={}, error={}",
+                task.queueKey(), task.messageId(), e.getMessage(), e);
         }
     }
 
@@ -207,4 +409,42 @@ public class VectorizeStreamConsumer {
         if (error == null) return null;
         return error.length() > 500 ? error.substring(0, 500) : error;
     }
+
+    /**
+     * 消费 worker：独立的消费者名与指标
+     */
+    private final class Worker {
+        private final String consumerName;
+        private final Timer processingTimer;
+        private final Counter retryCounter;
+        private final Counter reclaimCounter;
+        private final Counter deferredCounter;
+        private final AtomicLong pendingCount = new AtomicLong();
+        private volatile long nextClaimAt;
+
+        private Worker(int index, String consumerName) {
+            this.consumerName = consumerName;
+            String workerTag = String.valueOf(index);
+            this.processingTimer = Timer.builder("kb.vectorize.consumer.processing")
+                .description("单条向量化消息的处理耗时")
+                .tag("worker", workerTag)
+                .register(meterRegistry);
+            this.retryCounter = Counter.builder("kb.vectorize.consumer.retries")
+                .description("失败后重新入队的向量化消息数")
+                .tag("worker", workerTag)
+                .register(meterRegistry);
+            this.reclaimCounter = Counter.builder("kb.vectorize.consumer.reclaimed")
+                .description("通过 XAUTOCLAIM 认领的遗留消息数")
+                .tag("worker", workerTag)
+                .register(meterRegistry);
+            this.deferredCounter = Counter.builder("kb.vectorize.consumer.deferred")
+                .description("因同一知识库已有任务在执行而暂缓的消息数")
+                .tag("worker", workerTag)
+                .register(meterRegistry);
+            Gauge.builder("kb.vectorize.consumer.pending", pendingCount, AtomicLong::get)
+                .description("worker 的待确认消息数（PEL 大小）")
+                .tag("worker", workerTag)
+                .register(meterRegistry);
+        }
+    }
 }
@@ -1,9 +1,11 @@
 package heritage.gen.modules.knowledgebase.listener;
 
 import heritage.gen.common.constant.AsyncTaskStreamConstants;
-import heritage.gen.infrastructure.redis.RedisService;
 import heritage.gen.modules.knowledgebase.model.VectorStatus;
+import heritage.gen.modules.knowledgebase.model.VectorizeLane;
 import heritage.gen.modules.knowledgebase.repository.KnowledgeBaseRepository;
+import heritage.gen.modules.knowledgebase.service.KnowledgeBaseContentStagingService;
+import heritage.gen.modules.knowledgebase.service.KnowledgeBaseContentStagingService.StagedContent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -13,38 +15,44 @@ import java.util.Map;
 /**
  * 向量化任务生产者
  * 负责发送向量化任务到 Redis Stream
+ * 文本先暂存到对象存储，消息只携带知识库ID、存储键和内容哈希
+ * 任务按优先级通道与提交者写入对应队列，由 {@link VectorizeTaskScheduler} 公平调度
  */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class VectorizeStreamProducer {
 
-    private final RedisService redisService;
+    private final VectorizeTaskScheduler taskScheduler;
     private final KnowledgeBaseRepository knowledgeBaseRepository;
+    private final KnowledgeBaseContentStagingService stagingService;
 
     /**
      * 发送向量化任务到 Redis Stream
      *
-     * @param kbId    知识库ID
-     * @param content 文档内容
+     * @param kbId      知识库ID
+     * @param staged    已暂存的解析文本
+     * @param lane      优先级通道
+     * @param submitter 提交者标识（同一通道内按提交者轮询调度）
      */
-    public void sendVectorizeTask(Long kbId, String content) {
+    public void sendVectorizeTask(Long kbId, StagedContent staged, VectorizeLane lane, String submitter) {
         try {
             Map<String, String> message = Map.of(
                 AsyncTaskStreamConstants.FIELD_KB_ID, kbId.toString(),
-                AsyncTaskStreamConstants.FIELD_CONTENT, content,
+                AsyncTaskStreamConstants.FIELD_STORAGE_KEY, staged.storageKey(),
+                AsyncTaskStreamConstants.FIELD_CONTENT_HASH, staged.contentHash(),
                 AsyncTaskStreamConstants.FIELD_RETRY_COUNT, "0"
             );
 
-            String messageId = redisService.streamAdd(
-                AsyncTaskStreamConstants.KB_VECTORIZE_STREAM_KEY,
-                message
-            );
+            String messageId = taskScheduler.enqueue(lane, submitter, message);
 
-            log.info("向量化任务已发送到Stream: kbId={}, messageId={}", kbId, messageId);
+            log.info("向量化任务已发送到Stream: kbId={}, lane={}, submitter={}, messageId={}",
+                kbId, lane, submitter, messageId);
         } catch (Exception e) {
             log.error("发送向量化任务失败: kbId={}, error={}", kbId, e.getMessage(), e);
             updateVectorStatus(kbId, VectorStatus.FAILED, "任务入队失败: " + e.getMessage());
+            // 任务未入队，暂存文本不会再被读取；手动重试会重新解析并暂存
+            stagingService.discard(staged.storageKey());
         }
     }
 
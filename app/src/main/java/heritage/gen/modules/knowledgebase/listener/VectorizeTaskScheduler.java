@@ -0,0 +1,283 @@
+package heritage.gen.modules.knowledgebase.listener;
+
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.knowledgebase.model.VectorizeLane;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.stream.PendingResult;
+import org.redisson.api.stream.StreamMessageId;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 向量化任务调度器
+ * 基于 RedisService 的 Stream 原语实现优先级通道与提交者公平调度：
+ * 1. 每个（通道, 提交者）对应一个独立的 Stream 队列，活跃队列登记在通道的集合中
+ * 2. 拉取时按通道权重做平滑加权轮询，选中的通道为空时依次尝试其他通道
+ * 3. 通道内按提交者轮询，一个提交者批量提交的任务不会排在其他提交者之前
+ * 4. 消息确认后即从 Stream 删除，队列为空时从活跃集合移除，并给空 Stream 设置过期时间，
+ *    不再提交的提交者不会留下永久的 Stream 与消费者组
+ * 升级前的单一 Stream（{@link AsyncTaskStreamConstants#KB_VECTORIZE_STREAM_KEY}）作为交互通道的一个队列继续消费
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VectorizeTaskScheduler {
+
+    /**
+     * 活跃队列列表的本地缓存时间（毫秒）
+     */
+    private static final long QUEUE_CACHE_MS = 1000;
+
+    /**
+     * 空队列（连同其消费者组）的保留时间，期间再次提交会清除过期时间继续使用
+     */
+    private static final Duration IDLE_QUEUE_TTL = Duration.ofHours(1);
+
+    private static final String GROUP_NAME = AsyncTaskStreamConstants.KB_VECTORIZE_GROUP_NAME;
+    private static final String LEGACY_QUEUE_KEY = AsyncTaskStreamConstants.KB_VECTORIZE_STREAM_KEY;
+
+    private static final VectorizeLane[] LANE_SCHEDULE = buildLaneSchedule();
+
+    private final RedisService redisService;
+
+    private final Map<VectorizeLane, AtomicInteger> laneCursors = new ConcurrentHashMap<>();
+    private final Map<VectorizeLane, CachedQueues> queueCache = new ConcurrentHashMap<>();
+    private final AtomicLong scheduleTick = new AtomicLong();
+
+    /**
+     * 拉取到的向量化任务
+     *
+     * @param queueKey  所在队列（Stream）Key，确认与心跳需使用该 Key
+     * @param lane      所属通道
+     * @param messageId 消息ID
+     * @param data      消息内容
+     */
+    public record VectorizeTask(String queueKey, VectorizeLane lane, StreamMessageId messageId,
+                                Map<String, String> data) {}
+
+    /**
+     * 提交任务到指定通道
+     *
+     * @param lane      通道
+     * @param submitter 提交者标识
+     * @param message   消息内容
+     * @return 消息ID
+     */
+    public String enqueue(VectorizeLane lane, String submitter, Map<String, String> message) {
+        String queueKey = queueKey(lane, submitter);
+        // 空队列可能已过期删除，每次提交都确保消费者组存在（已存在时为空操作）
+        redisService.createStreamGroup(queueKey, GROUP_NAME);
+
+        Map<String, String> payload = new HashMap<>(message);
+        payload.put(AsyncTaskStreamConstants.FIELD_LANE, lane.name());
+        payload.put(AsyncTaskStreamConstants.FIELD_SUBMITTER, submitter);
+        String messageId = redisService.streamAdd(queueKey, payload);
+
+        // 先写消息再登记队列、清除过期时间，与 retireIfEmpty 的"先移除再复查"配合，保证队列不会被遗漏或过期
+        if (redisService.sAdd(queuesKey(lane), queueKey)) {
+            queueCache.remove(lane);
+        }
+        redisService.persist(queueKey);
+        return messageId;
+    }
+
+    /**
+     * 按通道权重与提交者轮询拉取一条新任务（非阻塞）
+     *
+     * @param consumerName 消费者名
+     * @param lanes        本次允许拉取的通道
+     */
+    public Optional<VectorizeTask> poll(String consumerName, Set<VectorizeLane> lanes) {
+        for (VectorizeLane lane : laneOrder()) {
+            if (!lanes.contains(lane)) {
+                continue;
+            }
+            List<String> queues = activeQueues(lane);
+            if (queues.isEmpty()) {
+                continue;
+            }
+            int start = Math.floorMod(laneCursors.computeIfAbsent(lane, l -> new AtomicInteger()).getAndIncrement(),
+                queues.size());
+            for (int i = 0; i < queues.size(); i++) {
+                String queueKey = queues.get((start + i) % queues.size());
+                Optional<VectorizeTask> task = readOne(queueKey, lane, consumerName);
+                if (task.isPresent()) {
+                    return task;
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 认领一条空闲超时的待确认任务（XAUTOCLAIM）
+     */
+    public Optional<VectorizeTask> reclaim(String consumerName, long minIdleMs, Set<VectorizeLane> lanes) {
+        for (VectorizeLane lane : VectorizeLane.values()) {
+            if (!lanes.contains(lane)) {
+                continue;
+            }
+            for (String queueKey : activeQueues(lane)) {
+                Map<StreamMessageId, Map<String, String>> claimed =
+                    redisService.streamAutoClaim(queueKey, GROUP_NAME, consumerName, minIdleMs, 1);
+                if (!claimed.isEmpty()) {
+                    var entry = claimed.entrySet().iterator().next();
+                    return Optional.of(new VectorizeTask(queueKey, lane, entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 确认任务并从队列删除，队列为空时退出活跃集合
+     */
+    public void ack(VectorizeTask task) {
+        redisService.streamAck(task.queueKey(), GROUP_NAME, task.messageId());
+        redisService.streamDelete(task.queueKey(), task.messageId());
+        retireIfEmpty(task.queueKey(), task.lane());
+    }
+
+    /**
+     * 刷新处理中任务的空闲时间
+     */
+    public void touch(VectorizeTask task, String consumerName) {
+        redisService.streamTouchPending(task.queueKey(), GROUP_NAME, consumerName, task.messageId());
+    }
+
+    /**
+     * 通道中尚未完成（未投递 + 待确认）的任务数
+     */
+    public long laneDepth(VectorizeLane lane) {
+        long depth = 0;
+        for (String queueKey : activeQueues(lane)) {
+            depth += redisService.streamLen(queueKey);
+        }
+        return depth;
+    }
+
+    /**
+     * 汇总所有队列中各消费者的待确认消息数
+     */
+    public Map<String, Long> pendingByConsumer() {
+        Map<String, Long> result = new HashMap<>();
+        for (VectorizeLane lane : VectorizeLane.values()) {
+            for (String queueKey : activeQueues(lane)) {
+                PendingResult pending = redisService.streamPendingInfo(queueKey, GROUP_NAME);
+                if (pending.getConsumerNames() != null) {
+                    pending.getConsumerNames().forEach((consumer, count) -> result.merge(consumer, count, Long::sum));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Optional<VectorizeTask> readOne(String queueKey, VectorizeLane lane, String consumerName) {
+        try {
+            Map<StreamMessageId, Map<String, String>> messages =
+                redisService.streamReadGroup(queueKey, GROUP_NAME, consumerName, 1);
+            if (messages == null || messages.isEmpty()) {
+                return Optional.empty();
+            }
+            var entry = messages.entrySet().iterator().next();
+            return Optional.of(new VectorizeTask(queueKey, lane, entry.getKey(), entry.getValue()));
+        } catch (Exception e) {
+            // 消费者组可能尚未创建（例如 Redis 数据被清理），重建后下一轮再读
+            log.warn("读取向量化队列失败: queue={}, error={}", queueKey, e.getMessage());
+            redisService.createStreamGroup(queueKey, GROUP_NAME);
+            return Optional.empty();
+        }
+    }
+
+    private void retireIfEmpty(String queueKey, VectorizeLane lane) {
+        if (LEGACY_QUEUE_KEY.equals(queueKey) || redisService.streamLen(queueKey) > 0) {
+            return;
+        }
+        String queuesKey = queuesKey(lane);
+        redisService.sRemove(queuesKey, queueKey);
+        redisService.expire(queueKey, IDLE_QUEUE_TTL);
+        // 移除期间可能有新消息写入，复查后补回并清除过期时间
+        if (redisService.streamLen(queueKey) > 0) {
+            redisService.sAdd(queuesKey, queueKey);
+            redisService.persist(queueKey);
+        }
+        queueCache.remove(lane);
+    }
+
+    private List<String> activeQueues(VectorizeLane lane) {
+        long now = System.currentTimeMillis();
+        CachedQueues cached = queueCache.get(lane);
+        if (cached != null && now - cached.loadedAt() < QUEUE_CACHE_MS) {
+            return cached.queueKeys();
+        }
+        List<String> queueKeys = new ArrayList<>(redisService.sMembers(queuesKey(lane)));
+        queueKeys.sort(null);
+        if (lane == VectorizeLane.INTERACTIVE) {
+            queueKeys.add(LEGACY_QUEUE_KEY);
+        }
+        List<String> snapshot = List.copyOf(queueKeys);
+        queueCache.put(lane, new CachedQueues(snapshot, now));
+        return snapshot;
+    }
+
+    /**
+     * 本轮尝试的通道顺序：加权轮询选出的通道优先，其余按优先级兜底
+     */
+    private List<VectorizeLane> laneOrder() {
+        VectorizeLane primary = LANE_SCHEDULE[(int) (scheduleTick.getAndIncrement() % LANE_SCHEDULE.length)];
+        List<VectorizeLane> order = new ArrayList<>(VectorizeLane.values().length);
+        order.add(primary);
+        for (VectorizeLane lane : VectorizeLane.values()) {
+            if (lane != primary) {
+                order.add(lane);
+            }
+        }
+        return order;
+    }
+
+    private static String queueKey(VectorizeLane lane, String submitter) {
+        return AsyncTaskStreamConstants.KB_VECTORIZE_LANE_PREFIX + lane.name().toLowerCase() + ":" + submitter;
+    }
+
+    private static String queuesKey(VectorizeLane lane) {
+        return AsyncTaskStreamConstants.KB_VECTORIZE_LANE_PREFIX + lane.name().toLowerCase()
+            + AsyncTaskStreamConstants.KB_VECTORIZE_LANE_QUEUES_SUFFIX;
+    }
+
+    /**
+     * 平滑加权轮询序列，例如权重 6/3/1 时 10 次调度中各通道依次获得 6/3/1 次优先权且分布均匀
+     */
+    private static VectorizeLane[] buildLaneSchedule() {
+        VectorizeLane[] lanes = VectorizeLane.values();
+        int totalWeight = Arrays.stream(lanes).mapToInt(VectorizeLane::getWeight).sum();
+        int[] current = new int[lanes.length];
+        VectorizeLane[] schedule = new VectorizeLane[totalWeight];
+        for (int i = 0; i < totalWeight; i++) {
+            int best = 0;
+            for (int j = 0; j < lanes.length; j++) {
+                current[j] += lanes[j].getWeight();
+                if (current[j] > current[best]) {
+                    best = j;
+                }
+            }
+            current[best] -= totalWeight;
+            schedule[i] = lanes[best];
+        }
+        return schedule;
+    }
+
+    private record CachedQueues(List<String> queueKeys, long loadedAt) {}
+}
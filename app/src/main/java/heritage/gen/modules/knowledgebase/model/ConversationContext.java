@@ -0,0 +1,15 @@
+package heritage.gen.modules.knowledgebase.model;
+
+/**
+ * 多轮问答的会话上下文
+ *
+ * @param sessionId 会话ID
+ * @param turn      当前用户问题的消息顺序（messageOrder），同一会话内唯一
+ * @param history   对话历史（滚动摘要 + 最近若干轮），为空表示首轮提问
+ */
+public record ConversationContext(Long sessionId, int turn, String history) {
+
+    public boolean hasHistory() {
+        return history != null && !history.isBlank();
+    }
+}
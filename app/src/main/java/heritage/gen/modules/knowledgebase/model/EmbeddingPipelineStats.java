@@ -0,0 +1,60 @@
+package heritage.gen.modules.knowledgebase.model;
+
+/**
+ * 向量化流水线各阶段统计
+ * 各阶段耗时为该阶段实际工作时间的累计值（阶段之间相互重叠，因此总和可能大于总耗时）
+ *
+ * @param chunkCount         本次内容切出的 chunk 总数
+ * @param insertedChunkCount 新增（实际 Embedding 并写库）的 chunk 数
+ * @param deletedChunkCount  删除的旧 chunk 数
+ */
+public record EmbeddingPipelineStats(
+    int chunkCount,
+    int insertedChunkCount,
+    int deletedChunkCount,
+    int embeddingBatchCount,
+    long chunkingMillis,
+    long embeddingMillis,
+    long insertMillis,
+    long totalMillis
+) {
+
+    /**
+     * 沿用已有向量、无需重新 Embedding 的 chunk 数
+     */
+    public int reusedChunkCount() {
+        return chunkCount - insertedChunkCount;
+    }
+
+    /**
+     * 分块吞吐（chunks/s）
+     */
+    public double chunkingThroughput() {
+        return throughput(chunkCount, chunkingMillis);
+    }
+
+    /**
+     * 向量化吞吐（chunks/s，按请求累计耗时计算单通道吞吐）
+     */
+    public double embeddingThroughput() {
+        return throughput(insertedChunkCount, embeddingMillis);
+    }
+
+    /**
+     * 写库吞吐（rows/s）
+     */
+    public double insertThroughput() {
+        return throughput(insertedChunkCount, insertMillis);
+    }
+
+    /**
+     * 端到端吞吐（chunks/s）
+     */
+    public double overallThroughput() {
+        return throughput(chunkCount, totalMillis);
+    }
+
+    private static double throughput(int count, long millis) {
+        return millis <= 0 ? count : count * 1000.0 / millis;
+    }
+}
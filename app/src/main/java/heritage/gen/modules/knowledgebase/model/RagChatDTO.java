@@ -72,7 +72,7 @@ public class RagChatDTO {
     ) {}
 
     /**
-     * 会话详情（含消息）
+     * 会话详情（含最近的消息，更早的消息通过游标分页加载）
      */
     public record SessionDetailDTO(
         Long id,
@@ -80,9 +80,31 @@ public class RagChatDTO {
         List<KnowledgeBaseListItemDTO> knowledgeBases,
         List<MessageDTO> messages,
         LocalDateTime createdAt,
+        LocalDateTime updatedAt,
+        Boolean hasMoreMessages  // 是否还有更早的消息
+    ) {}
+
+    /**
+     * 会话摘要（不读取消息表）
+     */
+    public record SessionSummaryDTO(
+        Long id,
+        String title,
+        List<KnowledgeBaseListItemDTO> knowledgeBases,
+        Integer messageCount,
+        Boolean isPinned,
+        LocalDateTime createdAt,
         LocalDateTime updatedAt
     ) {}
 
+    /**
+     * 消息分页结果（消息按顺序正序排列）
+     */
+    public record MessagePageDTO(
+        List<MessageDTO> messages,
+        Boolean hasMore  // 按请求方向是否还有更多消息
+    ) {}
+
     /**
      * 消息 DTO
      */
@@ -91,6 +113,7 @@ public class RagChatDTO {
         String type,  // "user" | "assistant"
         String content,
         LocalDateTime createdAt,
-        List<Long> sourceKnowledgeBaseIds  // 引用的知识库ID列表（仅 assistant 消息）
+        List<Long> sourceKnowledgeBaseIds,  // 引用的知识库ID列表（仅 assistant 消息）
+        Integer messageOrder  // 消息顺序，用作分页游标
     ) {}
 }
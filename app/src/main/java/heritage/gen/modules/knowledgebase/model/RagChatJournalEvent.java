@@ -0,0 +1,83 @@
+package heritage.gen.modules.knowledgebase.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RAG 聊天消息日志事件
+ * 每个事件对（会话, 消息顺序）的落库都是幂等且与顺序无关的：TURN 只在消息不存在时插入，
+ * COMPLETE 覆盖为已完成，会话消息数取最大值。因此重放、跨节点并发落库都收敛到同一结果。
+ *
+ * @param type        事件类型
+ * @param sessionId   会话ID
+ * @param order       TURN 为用户问题的消息顺序（AI 消息为 order + 1），COMPLETE 为 AI 消息的消息顺序
+ * @param content     TURN 为用户问题，COMPLETE 为完整回答
+ * @param sourceKbIds 来源知识库ID（JSON 数组，仅 COMPLETE）
+ * @param at          事件发生时间（毫秒时间戳），作为消息的创建/更新时间
+ */
+public record RagChatJournalEvent(Type type, Long sessionId, int order, String content, String sourceKbIds, long at) {
+
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_SESSION_ID = "sessionId";
+    private static final String FIELD_ORDER = "order";
+    private static final String FIELD_CONTENT = "content";
+    private static final String FIELD_SOURCE_KB_IDS = "sourceKbIds";
+    private static final String FIELD_AT = "at";
+
+    public enum Type {
+        /**
+         * 一轮问答开始：写入用户问题与未完成的 AI 消息占位
+         */
+        TURN,
+        /**
+         * AI 回答完成
+         */
+        COMPLETE
+    }
+
+    public static RagChatJournalEvent turn(Long sessionId, int questionOrder, String question, long at) {
+        return new RagChatJournalEvent(Type.TURN, sessionId, questionOrder, question, null, at);
+    }
+
+    public static RagChatJournalEvent complete(Long sessionId, int answerOrder, String content, String sourceKbIds,
+                                               long at) {
+        return new RagChatJournalEvent(Type.COMPLETE, sessionId, answerOrder, content, sourceKbIds, at);
+    }
+
+    /**
+     * 事件写入后会话的消息总数下限
+     */
+    public int messageCountAfter() {
+        return type == Type.TURN ? order + 2 : order + 1;
+    }
+
+    public Map<String, String> toFields() {
+        Map<String, String> fields = new HashMap<>();
+        fields.put(FIELD_TYPE, type.name());
+        fields.put(FIELD_SESSION_ID, sessionId.toString());
+        fields.put(FIELD_ORDER, String.valueOf(order));
+        fields.put(FIELD_CONTENT, content != null ? content : "");
+        if (sourceKbIds != null) {
+            fields.put(FIELD_SOURCE_KB_IDS, sourceKbIds);
+        }
+        fields.put(FIELD_AT, String.valueOf(at));
+        return fields;
+    }
+
+    /**
+     * 从 Stream 消息字段解析事件，格式不正确时抛出 IllegalArgumentException
+     */
+    public static RagChatJournalEvent fromFields(Map<String, String> fields) {
+        try {
+            return new RagChatJournalEvent(
+                Type.valueOf(fields.get(FIELD_TYPE)),
+                Long.parseLong(fields.get(FIELD_SESSION_ID)),
+                Integer.parseInt(fields.get(FIELD_ORDER)),
+                fields.getOrDefault(FIELD_CONTENT, ""),
+                fields.get(FIELD_SOURCE_KB_IDS),
+                Long.parseLong(fields.get(FIELD_AT)));
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new IllegalArgumentException("消息日志事件格式错误: " + fields.keySet(), e);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.DynamicUpdate;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -14,8 +15,11 @@ import java.util.Set;
 /**
  * RAG 聊天会话实体
  * 一个会话可以关联多个知识库，包含多条消息
+ * 消息数与滚动摘要由落库线程和摘要任务以定向 SQL 并发更新，
+ * 实体保存只写入修改过的列（@DynamicUpdate），避免用加载时的旧值覆盖
  */
 @Entity
+@DynamicUpdate
 @Table(name = "rag_chat_sessions", indexes = {
     @Index(name = "idx_rag_session_updated", columnList = "updatedAt")
 })
@@ -78,10 +82,23 @@ public class RagChatSessionEntity {
     private LocalDateTime updatedAt;
 
     /**
-     * 消息数量（冗余字段，方便查询）
+     * 消息数量（冗余字段，方便查询），只由消息日志落库语句更新
      */
+    @Column(updatable = false)
     private Integer messageCount = 0;
 
+    /**
+     * 对话滚动摘要：最近若干轮之外的历史压缩成的摘要，作为对话记忆放入提示词
+     */
+    @Column(columnDefinition = "TEXT")
+    private String historySummary;
+
+    /**
+     * 滚动摘要已覆盖到的消息顺序（含），-1 表示尚未摘要
+     */
+    @Column(columnDefinition = "integer default -1")
+    private Integer summarizedUntilOrder = -1;
+
     /**
      * 是否置顶
      */
@@ -110,6 +127,9 @@ public class RagChatSessionEntity {
         if (isPinned == null) {
             isPinned = false;
         }
+        if (summarizedUntilOrder == null) {
+            summarizedUntilOrder = -1;
+        }
     }
 
     /**
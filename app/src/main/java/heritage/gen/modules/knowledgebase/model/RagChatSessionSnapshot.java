@@ -0,0 +1,21 @@
+package heritage.gen.modules.knowledgebase.model;
+
+import java.util.List;
+
+/**
+ * 流式问答热路径使用的会话快照（不是实体，不能保存）
+ *
+ * @param id                   会话ID
+ * @param userId               会话所属用户ID，用于校验归属
+ * @param knowledgeBaseIds     会话关联的知识库ID
+ * @param historySummary       滚动摘要，可为 null
+ * @param summarizedUntilOrder 摘要覆盖到的最后一条消息顺序，可为 null
+ */
+public record RagChatSessionSnapshot(Long id, Long userId, List<Long> knowledgeBaseIds,
+                                     String historySummary, Integer summarizedUntilOrder) {
+
+    public static RagChatSessionSnapshot of(RagChatSessionEntity session) {
+        return new RagChatSessionSnapshot(session.getId(), session.getUserId(), session.getKnowledgeBaseIds(),
+            session.getHistorySummary(), session.getSummarizedUntilOrder());
+    }
+}
@@ -0,0 +1,55 @@
+package heritage.gen.modules.knowledgebase.model;
+
+import java.util.List;
+
+/**
+ * 知识库流式问答事件
+ * 一次流式回答依次发出：一个 {@link Metadata}（检索结果元数据），随后若干 {@link Token}（回答片段）。
+ * 元数据随流下发而不是存放在线程上下文中，流可以在任意线程上订阅和消费。
+ */
+public sealed interface RagStreamEvent {
+
+    /**
+     * 检索元数据
+     *
+     * @param sourceKbIds 回答引用的知识库ID（去重）
+     * @param chunks      参与回答的文档片段
+     * @param timings     各阶段耗时
+     * @param cached      是否命中语义缓存（命中时 chunks 为空）
+     */
+    record Metadata(
+        List<Long> sourceKbIds,
+        List<SourceChunk> chunks,
+        Timings timings,
+        boolean cached
+    ) implements RagStreamEvent {
+
+        public static Metadata empty(Timings timings) {
+            return new Metadata(List.of(), List.of(), timings, false);
+        }
+    }
+
+    /**
+     * 回答片段
+     */
+    record Token(String text) implements RagStreamEvent {}
+
+    /**
+     * 检索到的文档片段
+     *
+     * @param chunkId         片段ID（向量表主键）
+     * @param knowledgeBaseId 所属知识库ID
+     * @param score           融合检索得分
+     */
+    record SourceChunk(String chunkId, Long knowledgeBaseId, Double score) {}
+
+    /**
+     * 生成首个 Token 之前各阶段的耗时（毫秒）
+     *
+     * @param retrievalMillis   缓存查询 + 混合检索耗时（不含重排）
+     * @param toolPrePassMillis 工具预查询耗时
+     * @param rewriteMillis     多轮问答检索改写耗时（跳过改写时为 0）
+     * @param rerankMillis      检索重排耗时（未重排时为 0）
+     */
+    record Timings(long retrievalMillis, long toolPrePassMillis, long rewriteMillis, long rerankMillis) {}
+}
@@ -0,0 +1,47 @@
+package heritage.gen.modules.knowledgebase.model;
+
+/**
+ * 向量化任务优先级通道
+ * 调度时按权重加权轮询各通道，空闲通道的份额让给其他通道
+ */
+public enum VectorizeLane {
+
+    /**
+     * 用户交互式上传（用户正在等待 COMPLETED）
+     */
+    INTERACTIVE(6),
+
+    /**
+     * 手动重新向量化
+     */
+    MANUAL(3),
+
+    /**
+     * 批量导入 / 回填
+     */
+    BACKFILL(1);
+
+    private final int weight;
+
+    VectorizeLane(int weight) {
+        this.weight = weight;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * 按名称解析通道，无法识别时归入交互通道（兼容未携带通道字段的旧消息）
+     */
+    public static VectorizeLane fromName(String name) {
+        if (name != null) {
+            for (VectorizeLane lane : values()) {
+                if (lane.name().equalsIgnoreCase(name)) {
+                    return lane;
+                }
+            }
+        }
+        return INTERACTIVE;
+    }
+}
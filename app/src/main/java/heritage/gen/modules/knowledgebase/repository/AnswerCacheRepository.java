@@ -0,0 +1,129 @@
+package heritage.gen.modules.knowledgebase.repository;
+
+import com.pgvector.PGvector;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Array;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 知识库问答语义缓存 Repository
+ * 每条缓存记录对应（知识库集合, 问题向量）→ 回答，查询时在同一知识库集合内取余弦距离最近的一条
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class AnswerCacheRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 最近邻缓存记录
+     *
+     * @param id          记录ID
+     * @param answer      缓存的回答
+     * @param sourceKbIds 回答引用的知识库ID
+     * @param similarity  与查询问题的余弦相似度
+     */
+    public record CachedAnswerRow(long id, String answer, List<Long> sourceKbIds, double similarity) {}
+
+    @PostConstruct
+    public void initSchema() {
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+            jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS kb_answer_cache (
+                    id            BIGSERIAL PRIMARY KEY,
+                    kb_key        VARCHAR(512) NOT NULL,
+                    kb_ids        BIGINT[] NOT NULL,
+                    question      TEXT NOT NULL,
+                    embedding     vector NOT NULL,
+                    answer        TEXT NOT NULL,
+                    source_kb_ids BIGINT[],
+                    hit_count     INT NOT NULL DEFAULT 0,
+                    created_at    TIMESTAMP NOT NULL DEFAULT now()
+                )
+                """);
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS kb_answer_cache_kb_key_idx ON kb_answer_cache (kb_key)");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS kb_answer_cache_kb_ids_idx ON kb_answer_cache USING gin (kb_ids)");
+        } catch (Exception e) {
+            log.warn("初始化 kb_answer_cache 表失败（语义缓存将不可用）: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 查找同一知识库集合下与问题向量最接近的未过期缓存
+     *
+     * @param kbKey     排序去重后的知识库ID集合键
+     * @param embedding 问题向量
+     * @param notBefore 早于该时间写入的记录视为过期
+     */
+    public Optional<CachedAnswerRow> findNearest(String kbKey, float[] embedding, Instant notBefore) {
+        PGvector vector = new PGvector(embedding);
+        List<CachedAnswerRow> rows = jdbcTemplate.query("""
+            SELECT id, answer, source_kb_ids, 1 - (embedding <=> ?) AS similarity
+            FROM kb_answer_cache
+            WHERE kb_key = ? AND created_at > ?
+            ORDER BY embedding <=> ?
+            LIMIT 1
+            """,
+            (rs, rowNum) -> new CachedAnswerRow(
+                rs.getLong("id"),
+                rs.getString("answer"),
+                toLongList(rs.getArray("source_kb_ids")),
+                rs.getDouble("similarity")),
+            vector, kbKey, Timestamp.from(notBefore), vector);
+        return rows.stream().findFirst();
+    }
+
+    public void insert(String kbKey, List<Long> kbIds, String question, float[] embedding,
+                       String answer, List<Long> sourceKbIds) {
+        jdbcTemplate.update("""
+            INSERT INTO kb_answer_cache (kb_key, kb_ids, question, embedding, answer, source_kb_ids)
+            VALUES (?, ?, ?, ?, ?, ?)
+            """, ps -> {
+            ps.setString(1, kbKey);
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", kbIds.toArray()));
+            ps.setString(3, question);
+            ps.setObject(4, new PGvector(embedding));
+            ps.setString(5, answer);
+            ps.setArray(6, ps.getConnection().createArrayOf("bigint", sourceKbIds.toArray()));
+        });
+    }
+
+    public void incrementHitCount(long id) {
+        jdbcTemplate.update("UPDATE kb_answer_cache SET hit_count = hit_count + 1 WHERE id = ?", id);
+    }
+
+    /**
+     * 删除涉及指定知识库的所有缓存（知识库集合中包含该ID即删除）
+     */
+    public int deleteByKnowledgeBaseId(Long knowledgeBaseId) {
+        return jdbcTemplate.update("DELETE FROM kb_answer_cache WHERE kb_ids @> ARRAY[?]::bigint[]", knowledgeBaseId);
+    }
+
+    public int deleteExpired(String kbKey, Instant notBefore) {
+        return jdbcTemplate.update("DELETE FROM kb_answer_cache WHERE kb_key = ? AND created_at <= ?",
+            kbKey, Timestamp.from(notBefore));
+    }
+
+    public int deleteAll() {
+        return jdbcTemplate.update("DELETE FROM kb_answer_cache");
+    }
+
+    private static List<Long> toLongList(Array array) throws SQLException {
+        if (array == null) {
+            return List.of();
+        }
+        return Arrays.stream((Long[]) array.getArray()).toList();
+    }
+}
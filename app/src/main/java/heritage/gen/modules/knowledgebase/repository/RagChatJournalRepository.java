@@ -0,0 +1,117 @@
+package heritage.gen.modules.knowledgebase.repository;
+
+import heritage.gen.modules.knowledgebase.model.RagChatJournalEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RAG 聊天消息日志落库 Repository
+ * 以批量 JDBC 语句把消息日志事件写入 rag_chat_messages / rag_chat_sessions。
+ * 消息以（session_id, message_order）唯一，插入与完成都是 upsert，会话已删除时跳过。
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class RagChatJournalRepository {
+
+    private static final String INSERT_IF_ABSENT = """
+        INSERT INTO rag_chat_messages
+            (session_id, type, content, message_order, created_at, updated_at, completed)
+        SELECT ?, ?, ?, ?, ?, ?, ?
+        WHERE EXISTS (SELECT 1 FROM rag_chat_sessions WHERE id = ?)
+        ON CONFLICT (session_id, message_order) DO NOTHING
+        """;
+
+    private static final String UPSERT_COMPLETED = """
+        INSERT INTO rag_chat_messages
+            (session_id, type, content, message_order, created_at, updated_at, completed, source_knowledge_base_ids)
+        SELECT ?, 'ASSISTANT', ?, ?, ?, ?, TRUE, ?
+        WHERE EXISTS (SELECT 1 FROM rag_chat_sessions WHERE id = ?)
+        ON CONFLICT (session_id, message_order) DO UPDATE SET
+            content = EXCLUDED.content,
+            completed = TRUE,
+            source_knowledge_base_ids = EXCLUDED.source_knowledge_base_ids,
+            updated_at = EXCLUDED.updated_at
+        """;
+
+    private static final String UPDATE_SESSION = """
+        UPDATE rag_chat_sessions
+        SET message_count = GREATEST(COALESCE(message_count, 0), ?),
+            updated_at = GREATEST(updated_at, ?)
+        WHERE id = ?
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 创建（session_id, message_order）唯一索引，upsert 依赖该索引
+     * rag_chat_messages 由 JPA 建表，需在应用就绪后调用
+     */
+    public void ensureSchema() {
+        jdbcTemplate.execute("""
+            CREATE UNIQUE INDEX IF NOT EXISTS uk_rag_message_session_order
+            ON rag_chat_messages (session_id, message_order)
+            """);
+    }
+
+    /**
+     * 会话已落库消息的下一个消息顺序（max(message_order) + 1，无消息时为 0），走唯一索引
+     */
+    public int nextMessageOrder(Long sessionId) {
+        Integer next = jdbcTemplate.queryForObject(
+            "SELECT COALESCE(MAX(message_order) + 1, 0) FROM rag_chat_messages WHERE session_id = ?",
+            Integer.class, sessionId);
+        return next != null ? next : 0;
+    }
+
+    /**
+     * 在一个事务内按批量语句落库一批事件
+     */
+    @Transactional
+    public void applyBatch(List<RagChatJournalEvent> events) {
+        List<Object[]> inserts = new ArrayList<>();
+        List<Object[]> completions = new ArrayList<>();
+        Map<Long, Object[]> sessionUpdates = new HashMap<>();
+
+        for (RagChatJournalEvent event : events) {
+            Timestamp at = new Timestamp(event.at());
+            switch (event.type()) {
+                case TURN -> {
+                    inserts.add(new Object[]{event.sessionId(), "USER", event.content(), event.order(),
+                        at, at, true, event.sessionId()});
+                    inserts.add(new Object[]{event.sessionId(), "ASSISTANT", "", event.order() + 1,
+                        at, at, false, event.sessionId()});
+                }
+                case COMPLETE -> completions.add(new Object[]{event.sessionId(), event.content(), event.order(),
+                    at, at, event.sourceKbIds(), event.sessionId()});
+            }
+            sessionUpdates.merge(event.sessionId(),
+                new Object[]{event.messageCountAfter(), at, event.sessionId()},
+                RagChatJournalRepository::laterSessionUpdate);
+        }
+
+        // 先插入再完成：同一批内同一条消息的 TURN 与 COMPLETE 无论先后都以完成状态结束
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, inserts);
+        }
+        if (!completions.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_COMPLETED, completions);
+        }
+        jdbcTemplate.batchUpdate(UPDATE_SESSION, new ArrayList<>(sessionUpdates.values()));
+    }
+
+    private static Object[] laterSessionUpdate(Object[] a, Object[] b) {
+        int count = Math.max((int) a[0], (int) b[0]);
+        Timestamp at = ((Timestamp) a[1]).after((Timestamp) b[1]) ? (Timestamp) a[1] : (Timestamp) b[1];
+        return new Object[]{count, at, a[2]};
+    }
+}
@@ -2,6 +2,7 @@ package heritage.gen.modules.knowledgebase.repository;
 
 import heritage.gen.modules.knowledgebase.model.RagChatMessageEntity;
 import heritage.gen.modules.knowledgebase.model.RagChatMessageEntity.MessageType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -21,6 +22,29 @@ public interface RagChatMessageRepository extends JpaRepository<RagChatMessageEn
      */
     List<RagChatMessageEntity> findBySessionIdOrderByMessageOrderAsc(Long sessionId);
 
+    /**
+     * 游标分页：获取指定顺序之前的消息（倒序，取最近的 limit 条）
+     */
+    List<RagChatMessageEntity> findBySessionIdAndMessageOrderLessThanOrderByMessageOrderDesc(
+        Long sessionId, Integer messageOrder, Limit limit);
+
+    /**
+     * 游标分页：获取指定顺序之后的消息（正序）
+     */
+    List<RagChatMessageEntity> findBySessionIdAndMessageOrderGreaterThanOrderByMessageOrderAsc(
+        Long sessionId, Integer messageOrder, Limit limit);
+
+    /**
+     * 获取会话最近的消息（倒序）
+     */
+    List<RagChatMessageEntity> findBySessionIdOrderByMessageOrderDesc(Long sessionId, Limit limit);
+
+    /**
+     * 获取顺序区间 [fromOrder, toOrder) 内的消息（正序），用于滚动摘要
+     */
+    List<RagChatMessageEntity> findBySessionIdAndMessageOrderGreaterThanEqualAndMessageOrderLessThanOrderByMessageOrderAsc(
+        Long sessionId, Integer fromOrder, Integer toOrder, Limit limit);
+
     /**
      * 获取会话的最后一条消息
      */
@@ -0,0 +1,77 @@
+package heritage.gen.modules.knowledgebase.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * RAG 聊天中断回答回收 Repository
+ * 未完成的 AI 消息通过部分索引（completed = false）按更新时间查找，扫描开销只与未完成消息数有关，与消息总量无关。
+ */
+@Repository
+@RequiredArgsConstructor
+public class RagChatRecoveryRepository {
+
+    private static final String COUNT_STALE = """
+        SELECT COUNT(*) FROM rag_chat_messages
+        WHERE completed = FALSE AND updated_at < ?
+        """;
+
+    /**
+     * 条件更新 + SKIP LOCKED：多个节点同时回收时不会重复处理，也不会覆盖刚刚完成的回答
+     */
+    private static final String FAIL_STALE = """
+        UPDATE rag_chat_messages
+        SET content = ?, completed = TRUE, updated_at = ?
+        WHERE id IN (
+            SELECT id FROM rag_chat_messages
+            WHERE completed = FALSE AND updated_at < ?
+            ORDER BY updated_at
+            LIMIT ?
+            FOR UPDATE SKIP LOCKED
+        )
+        AND completed = FALSE
+        RETURNING session_id, message_order
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 回收的消息
+     */
+    public record RecoveredMessage(Long sessionId, int messageOrder) {}
+
+    /**
+     * 创建未完成消息的部分索引
+     * rag_chat_messages 由 JPA 建表，需在应用就绪后调用
+     */
+    public void ensureSchema() {
+        jdbcTemplate.execute("""
+            CREATE INDEX IF NOT EXISTS idx_rag_message_incomplete
+            ON rag_chat_messages (updated_at)
+            WHERE completed = FALSE
+            """);
+    }
+
+    /**
+     * 统计更新时间早于 staleBefore 的未完成消息数
+     */
+    public long countStale(Timestamp staleBefore) {
+        Long count = jdbcTemplate.queryForObject(COUNT_STALE, Long.class, staleBefore);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * 将更新时间早于 staleBefore 的未完成消息标记为失败（写入错误内容并置为完成）
+     *
+     * @return 本次回收的消息
+     */
+    public List<RecoveredMessage> failStale(Timestamp staleBefore, String content, int limit) {
+        return jdbcTemplate.query(FAIL_STALE,
+            (rs, rowNum) -> new RecoveredMessage(rs.getLong("session_id"), rs.getInt("message_order")),
+            content, new Timestamp(System.currentTimeMillis()), staleBefore, limit);
+    }
+}
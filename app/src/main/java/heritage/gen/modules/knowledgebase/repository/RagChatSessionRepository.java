@@ -3,9 +3,11 @@ package heritage.gen.modules.knowledgebase.repository;
 import heritage.gen.modules.knowledgebase.model.RagChatSessionEntity;
 import heritage.gen.modules.knowledgebase.model.RagChatSessionEntity.SessionStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -50,4 +52,19 @@ public interface RagChatSessionRepository extends JpaRepository<RagChatSessionEn
      */
     @Query("SELECT s FROM RagChatSessionEntity s LEFT JOIN FETCH s.knowledgeBases WHERE s.id = :id")
     Optional<RagChatSessionEntity> findByIdWithKnowledgeBases(@Param("id") Long id);
+
+    /**
+     * 更新对话滚动摘要（乐观更新：仅当摘要进度仍为 expectedUntilOrder 时生效，避免并发刷新互相覆盖）
+     *
+     * @return 更新行数，0 表示摘要已被其他刷新推进
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE RagChatSessionEntity s SET s.historySummary = :summary, s.summarizedUntilOrder = :untilOrder " +
+           "WHERE s.id = :id AND (s.summarizedUntilOrder = :expectedUntilOrder " +
+           "OR (s.summarizedUntilOrder IS NULL AND :expectedUntilOrder = -1))")
+    int updateHistorySummary(@Param("id") Long id,
+                             @Param("summary") String summary,
+                             @Param("untilOrder") Integer untilOrder,
+                             @Param("expectedUntilOrder") Integer expectedUntilOrder);
 }
@@ -1,11 +1,25 @@
 package heritage.gen.modules.knowledgebase.repository;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
 /**
  * 向量存储Repository
  * 负责向量数据的增删改查操作
@@ -15,8 +29,200 @@ import org.springframework.transaction.annotation.Transactional;
 @RequiredArgsConstructor
 public class VectorRepository {
     
+    /**
+     * 按 ID 删除时单条 SQL 的最大 ID 数量
+     */
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    /**
+     * LIKE 模式能拆出三元组、从而可由 GIN 索引求值的最短查询词长度
+     */
+    private static final int MIN_TRIGRAM_TERM_LENGTH = 3;
+
     private final JdbcTemplate jdbcTemplate;
-    
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 批量写入已向量化的文档
+     * 直接使用 JDBC batch 写入 vector_store，表结构与 Spring AI PgVectorStore 保持一致
+     *
+     * @param documents  文档列表
+     * @param embeddings 与文档一一对应的向量
+     * @param batchSize  每个 JDBC 批次的行数
+     * @return 写入的行数
+     */
+    public int batchInsert(List<Document> documents, List<float[]> embeddings, int batchSize) {
+        if (documents.size() != embeddings.size()) {
+            throw new IllegalArgumentException("文档数量与向量数量不一致: "
+                + documents.size() + " != " + embeddings.size());
+        }
+        if (documents.isEmpty()) {
+            return 0;
+        }
+
+        String sql = """
+            INSERT INTO vector_store (id, content, metadata, embedding)
+            VALUES (?, ?, ?::json, ?)
+            ON CONFLICT (id) DO UPDATE
+            SET content = EXCLUDED.content, metadata = EXCLUDED.metadata, embedding = EXCLUDED.embedding
+            """;
+
+        List<Object[]> rows = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            rows.add(new Object[]{
+                UUID.fromString(document.getId()),
+                document.getText(),
+                toJson(document),
+                new PGvector(embeddings.get(i))
+            });
+        }
+
+        int inserted = 0;
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            List<Object[]> batch = rows.subList(from, Math.min(from + batchSize, rows.size()));
+            jdbcTemplate.batchUpdate(sql, batch);
+            inserted += batch.size();
+        }
+        log.debug("批量写入向量数据: rows={}, batchSize={}", inserted, batchSize);
+        return inserted;
+    }
+
+    private String toJson(Document document) {
+        try {
+            return objectMapper.writeValueAsString(document.getMetadata());
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("序列化向量元数据失败", e);
+        }
+    }
+
+    /**
+     * 创建关键词检索所需的 pg_trgm 扩展与 lower(content) 上的 GIN 索引（已存在时跳过）
+     * 索引服务于 {@link #lexicalSearch} 中以 OR 连接的 LIKE 预过滤，每个模式需能拆出三元组（查询词不少于 3 个字符）；
+     * 缺失时只影响速度，不影响结果
+     */
+    public void ensureLexicalIndex() {
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+        jdbcTemplate.execute("""
+            CREATE INDEX IF NOT EXISTS vector_store_content_trgm_idx
+            ON vector_store USING gin (lower(content) gin_trgm_ops)
+            """);
+    }
+
+    /**
+     * 关键词检索：按命中查询词的权重之和排序
+     * 查询词需为小写且不含 LIKE 通配符（由调用方提取，仅包含汉字与字母数字）。
+     * 预过滤把每个查询词展开为一个 {@code lower(content) LIKE ?}，以 OR 连接，可由三元组索引逐个求值后合并（BitmapOr）；
+     * {@code LIKE ANY (array)} 与不足 3 个字符的模式（如汉字二元组）都拆不出三元组，只能顺序扫描。
+     * 因此存在不少于 3 个字符的查询词时只用这些词预过滤，二元组只参与命中行的打分（部分命中由向量检索兜底）；
+     * 全部查询词都短于 3 个字符时才用全部词预过滤，此时为顺序扫描，耗时受混合检索的关键词超时约束
+     *
+     * @param termWeights      查询词到权重的映射
+     * @param knowledgeBaseIds 知识库ID列表（为空则检索全部）
+     * @param limit            返回条数上限
+     * @return 命中的 chunk，score 为命中权重之和
+     */
+    public List<Document> lexicalSearch(Map<String, Integer> termWeights, List<Long> knowledgeBaseIds, int limit) {
+        if (termWeights.isEmpty()) {
+            return List.of();
+        }
+        boolean filterByKb = knowledgeBaseIds != null && !knowledgeBaseIds.isEmpty();
+        List<String> filterTerms = prefilterTerms(termWeights.keySet());
+        String prefilter = String.join(" OR ", Collections.nCopies(filterTerms.size(), "lower(v.content) LIKE ?"));
+        String sql = """
+            SELECT v.id::text AS id, v.content, v.metadata::text AS metadata, SUM(t.weight) AS score
+            FROM vector_store v
+            JOIN unnest(?::text[], ?::int[]) AS t(term, weight) ON strpos(lower(v.content), t.term) > 0
+            """
+            + "WHERE (" + prefilter + ")\n"
+            + (filterByKb ? "  AND v.metadata->>'kb_id' = ANY (?::text[])\n" : "")
+            + """
+            GROUP BY v.id
+            ORDER BY score DESC, v.id
+            LIMIT ?
+            """;
+
+        String[] terms = termWeights.keySet().toArray(String[]::new);
+        Integer[] weights = termWeights.values().toArray(Integer[]::new);
+
+        return jdbcTemplate.query(sql, ps -> {
+            int index = 1;
+            ps.setArray(index++, ps.getConnection().createArrayOf("text", terms));
+            ps.setArray(index++, ps.getConnection().createArrayOf("int4", weights));
+            for (String term : filterTerms) {
+                ps.setString(index++, "%" + term + "%");
+            }
+            if (filterByKb) {
+                Object[] kbIds = knowledgeBaseIds.stream().map(String::valueOf).distinct().toArray();
+                ps.setArray(index++, ps.getConnection().createArrayOf("text", kbIds));
+            }
+            ps.setInt(index, limit);
+        }, (rs, rowNum) -> Document.builder()
+            .id(rs.getString("id"))
+            .text(rs.getString("content"))
+            .metadata(parseMetadata(rs.getString("metadata")))
+            .score(rs.getDouble("score"))
+            .build());
+    }
+
+    /**
+     * 选出用于 LIKE 预过滤的查询词：有能走三元组索引（不少于 3 个字符）的词时只用这些词，否则用全部词
+     */
+    static List<String> prefilterTerms(Collection<String> terms) {
+        List<String> indexable = terms.stream()
+            .filter(term -> term.codePointCount(0, term.length()) >= MIN_TRIGRAM_TERM_LENGTH)
+            .toList();
+        return indexable.isEmpty() ? List.copyOf(terms) : indexable;
+    }
+
+    private Map<String, Object> parseMetadata(String json) {
+        if (json == null || json.isBlank()) {
+            return Map.of();
+        }
+        try {
+            return objectMapper.readValue(json, new TypeReference<>() {});
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("解析向量元数据失败", e);
+        }
+    }
+
+    /**
+     * 查询指定知识库现有的所有 chunk ID（用于增量向量化时计算差异）
+     *
+     * @param knowledgeBaseId 知识库ID
+     * @return chunk ID 集合
+     */
+    public Set<String> findChunkIdsByKnowledgeBaseId(Long knowledgeBaseId) {
+        String sql = """
+            SELECT id::text FROM vector_store
+            WHERE metadata->>'kb_id' = ?
+               OR (metadata->>'kb_id_long' IS NOT NULL AND (metadata->>'kb_id_long')::bigint = ?)
+            """;
+        return new HashSet<>(jdbcTemplate.queryForList(sql, String.class, knowledgeBaseId.toString(), knowledgeBaseId));
+    }
+
+    /**
+     * 按 chunk ID 批量删除向量数据
+     *
+     * @param chunkIds chunk ID 集合
+     * @return 删除的行数
+     */
+    public int deleteByIds(Collection<String> chunkIds) {
+        if (chunkIds.isEmpty()) {
+            return 0;
+        }
+        List<UUID> ids = chunkIds.stream().map(UUID::fromString).toList();
+        int deletedRows = 0;
+        for (int from = 0; from < ids.size(); from += DELETE_BATCH_SIZE) {
+            List<UUID> batch = ids.subList(from, Math.min(from + DELETE_BATCH_SIZE, ids.size()));
+            deletedRows += jdbcTemplate.update(
+                "DELETE FROM vector_store WHERE id = ANY (?)",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", batch.toArray())));
+        }
+        log.debug("按ID删除向量数据: 请求={}, 删除行数={}", chunkIds.size(), deletedRows);
+        return deletedRows;
+    }
+
     /**
      * 删除指定知识库的所有向量数据
      * 使用 SQL 直接删除，利用数据库索引和删除能力
@@ -0,0 +1,438 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.EmbeddingConfigProperties;
+import heritage.gen.infrastructure.ai.EmbeddingRateLimiter;
+import heritage.gen.modules.knowledgebase.model.EmbeddingPipelineStats;
+import heritage.gen.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 向量化流水线服务
+ * 分块、并发 Embedding、批量写库三个阶段相互重叠执行：
+ * 1. 分块线程按内容锚定的边界切分文本并持续产出 Embedding 批次（受限流器背压）
+ * 2. 每个批次在虚拟线程中调用 Embedding 模型，在途请求数与 TPM 由 {@link EmbeddingRateLimiter} 约束
+ * 3. 调用线程收集已完成的批次并通过 JDBC batch 写入 vector_store（保证参与调用方事务）
+ * <p>
+ * 增量同步：chunk ID 由知识库ID、内容哈希及相同内容的出现序号确定性生成，
+ * 已存在的 chunk 直接跳过，仅对新增 chunk 做 Embedding，最后删除不再出现的旧 chunk。
+ */
+@Slf4j
+@Service
+public class EmbeddingPipelineService {
+
+    /**
+     * 文本段最小长度（字符），达到后才开始寻找内容锚定的切分点
+     */
+    private static final int MIN_SEGMENT_CHARS = 8 * 1024;
+
+    /**
+     * 文本段最大长度（字符），超过后在当前行末强制切分
+     */
+    private static final int MAX_SEGMENT_CHARS = 32 * 1024;
+
+    /**
+     * 行哈希对该值取模为 0 时视为切分点（平均约每 32 行一个候选切分点）
+     */
+    private static final int BOUNDARY_DIVISOR = 32;
+
+    /**
+     * chunk ID 命名空间前缀
+     */
+    private static final String CHUNK_ID_PREFIX = "kb-chunk:";
+
+    /**
+     * 写库线程等待 Embedding 结果的轮询间隔
+     */
+    private static final long RESULT_POLL_MS = 200;
+
+    private final EmbeddingModel embeddingModel;
+    private final VectorRepository vectorRepository;
+    private final EmbeddingRateLimiter rateLimiter;
+    private final EmbeddingConfigProperties embeddingConfig;
+    private final TextSplitter textSplitter;
+
+    private final Timer chunkingTimer;
+    private final Timer embeddingTimer;
+    private final Timer insertTimer;
+    private final Counter chunkCounter;
+
+    public EmbeddingPipelineService(EmbeddingModel embeddingModel,
+                                    VectorRepository vectorRepository,
+                                    EmbeddingRateLimiter rateLimiter,
+                                    EmbeddingConfigProperties embeddingConfig,
+                                    MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.vectorRepository = vectorRepository;
+        this.rateLimiter = rateLimiter;
+        this.embeddingConfig = embeddingConfig;
+        // 使用TokenTextSplitter，每个chunk约500 tokens，重叠50 tokens
+        this.textSplitter = new TokenTextSplitter();
+        this.chunkingTimer = stageTimer(meterRegistry, "chunk");
+        this.embeddingTimer = stageTimer(meterRegistry, "embed");
+        this.insertTimer = stageTimer(meterRegistry, "insert");
+        this.chunkCounter = Counter.builder("kb.vectorize.chunks")
+            .description("已写入 vector_store 的 chunk 数")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 执行向量化流水线，将知识库在 vector_store 中的 chunk 增量同步为 content 的分块结果
+     * 需在调用方事务中执行，插入与删除在提交时对查询方一次性可见
+     *
+     * @param knowledgeBaseId 知识库ID（写入 chunk metadata 的 kb_id）
+     * @param content         知识库文本内容（按段流式读取，调用方负责关闭）
+     * @return 各阶段统计信息
+     */
+    public EmbeddingPipelineStats run(Long knowledgeBaseId, Reader content) {
+        long startNanos = System.nanoTime();
+        Set<String> existingChunkIds = vectorRepository.findChunkIdsByKnowledgeBaseId(knowledgeBaseId);
+        Set<String> currentChunkIds = ConcurrentHashMap.newKeySet();
+        int deletedChunks;
+        BlockingQueue<EmbeddedBatch> completedBatches = new LinkedBlockingQueue<>();
+        AtomicLong chunkingNanos = new AtomicLong();
+        AtomicLong embeddingNanos = new AtomicLong();
+        long insertNanos = 0;
+        int writtenChunks = 0;
+        int writtenBatches = 0;
+
+        ExecutorService executor = newExecutor();
+        try {
+            Future<Integer> producer = executor.submit(() -> produceBatches(
+                knowledgeBaseId, content, existingChunkIds, currentChunkIds,
+                executor, completedBatches, chunkingNanos, embeddingNanos));
+
+            List<Document> pendingDocuments = new ArrayList<>();
+            List<float[]> pendingEmbeddings = new ArrayList<>();
+
+            while (!(producer.isDone() && writtenBatches == getSubmittedBatches(producer))) {
+                EmbeddedBatch batch = completedBatches.poll(RESULT_POLL_MS, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    continue;
+                }
+                if (batch.error() != null) {
+                    throw new RuntimeException("Embedding 调用失败: " + batch.error().getMessage(), batch.error());
+                }
+                writtenBatches++;
+                writtenChunks += batch.documents().size();
+                pendingDocuments.addAll(batch.documents());
+                pendingEmbeddings.addAll(batch.embeddings());
+
+                if (pendingDocuments.size() >= embeddingConfig.getInsertBatchSize()) {
+                    insertNanos += flush(pendingDocuments, pendingEmbeddings);
+                }
+            }
+            insertNanos += flush(pendingDocuments, pendingEmbeddings);
+
+            // 新 chunk 全部写入后再删除已不存在的旧 chunk
+            Set<String> staleChunkIds = new HashSet<>(existingChunkIds);
+            staleChunkIds.removeAll(currentChunkIds);
+            deletedChunks = vectorRepository.deleteByIds(staleChunkIds);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("向量化流水线被中断", e);
+        } finally {
+            // 出错时中断仍在进行的分块和 Embedding 任务
+            executor.shutdownNow();
+        }
+
+        EmbeddingPipelineStats stats = new EmbeddingPipelineStats(
+            currentChunkIds.size(),
+            writtenChunks,
+            deletedChunks,
+            writtenBatches,
+            TimeUnit.NANOSECONDS.toMillis(chunkingNanos.get()),
+            TimeUnit.NANOSECONDS.toMillis(embeddingNanos.get()),
+            TimeUnit.NANOSECONDS.toMillis(insertNanos),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+        );
+        chunkCounter.increment(writtenChunks);
+
+        log.info("向量化流水线完成: kbId={}, chunks={}, 新增={}, 复用={}, 删除={}, batches={}, 总耗时={}ms, " +
+                "分块={}ms({} chunks/s), 向量化={}ms({} chunks/s), 写库={}ms({} rows/s)",
+            knowledgeBaseId, stats.chunkCount(), stats.insertedChunkCount(), stats.reusedChunkCount(),
+            stats.deletedChunkCount(), stats.embeddingBatchCount(), stats.totalMillis(),
+            stats.chunkingMillis(), formatRate(stats.chunkingThroughput()),
+            stats.embeddingMillis(), formatRate(stats.embeddingThroughput()),
+            stats.insertMillis(), formatRate(stats.insertThroughput()));
+        return stats;
+    }
+
+    /**
+     * 分块并提交 Embedding 批次
+     * 每个批次提交前先获取限流许可，因此分块速度会被 Embedding 的并发与 TPM 背压；
+     * ID 已存在于 existingChunkIds 的 chunk 不再提交
+     *
+     * @return 提交的批次数
+     */
+    private int produceBatches(Long knowledgeBaseId, Reader content,
+                               Set<String> existingChunkIds, Set<String> currentChunkIds,
+                               ExecutorService executor, BlockingQueue<EmbeddedBatch> completedBatches,
+                               AtomicLong chunkingNanos, AtomicLong embeddingNanos)
+            throws InterruptedException, IOException {
+        int batchSize = Math.max(1, embeddingConfig.getBatchSize());
+        int submittedBatches = 0;
+        List<Document> batch = new ArrayList<>(batchSize);
+        Map<String, Integer> occurrences = new HashMap<>();
+
+        SegmentReader segments = new SegmentReader(content);
+        String segment;
+        while ((segment = segments.next()) != null) {
+            long segmentStart = System.nanoTime();
+            List<Document> chunks = textSplitter.apply(List.of(new Document(segment)));
+            long segmentNanos = System.nanoTime() - segmentStart;
+            chunkingNanos.addAndGet(segmentNanos);
+            chunkingTimer.record(segmentNanos, TimeUnit.NANOSECONDS);
+
+            for (Document chunk : chunks) {
+                String contentHash = sha256Hex(chunk.getText());
+                int occurrence = occurrences.merge(contentHash, 1, Integer::sum);
+                String chunkId = buildChunkId(knowledgeBaseId, contentHash, occurrence);
+                if (!currentChunkIds.add(chunkId) || existingChunkIds.contains(chunkId)) {
+                    continue;
+                }
+
+                Map<String, Object> metadata = new HashMap<>(chunk.getMetadata());
+                // 统一使用 String 类型存储，确保查询一致性
+                metadata.put("kb_id", knowledgeBaseId.toString());
+                metadata.put("chunk_hash", contentHash);
+                batch.add(new Document(chunkId, chunk.getText(), metadata));
+                if (batch.size() >= batchSize) {
+                    submitEmbedding(batch, executor, completedBatches, embeddingNanos);
+                    submittedBatches++;
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            submitEmbedding(batch, executor, completedBatches, embeddingNanos);
+            submittedBatches++;
+        }
+
+        log.debug("分块完成: kbId={}, 提交批次={}", knowledgeBaseId, submittedBatches);
+        return submittedBatches;
+    }
+
+    /**
+     * 获取限流许可后，在虚拟线程中执行一次 Embedding 调用
+     */
+    private void submitEmbedding(List<Document> batch, ExecutorService executor,
+                                 BlockingQueue<EmbeddedBatch> completedBatches,
+                                 AtomicLong embeddingNanos) throws InterruptedException {
+        List<String> texts = batch.stream().map(Document::getText).toList();
+        int estimatedTokens = texts.stream().mapToInt(EmbeddingRateLimiter::estimateTokens).sum();
+        rateLimiter.acquire(estimatedTokens);
+
+        try {
+            executor.execute(() -> {
+                long callStart = System.nanoTime();
+                EmbeddedBatch result;
+                try {
+                    result = new EmbeddedBatch(batch, embeddingModel.embed(texts), null);
+                } catch (Exception e) {
+                    result = new EmbeddedBatch(batch, null, e);
+                } finally {
+                    long callNanos = System.nanoTime() - callStart;
+                    embeddingNanos.addAndGet(callNanos);
+                    embeddingTimer.record(callNanos, TimeUnit.NANOSECONDS);
+                    rateLimiter.release();
+                }
+                // 先计时并归还许可再交给写库线程：最后一个批次被收集时统计已完整、许可已归还
+                completedBatches.add(result);
+            });
+        } catch (RejectedExecutionException e) {
+            // 任务未能提交，不会执行 finally 中的归还，这里归还并发许可
+            rateLimiter.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 单次流水线使用的执行器：分块任务与每个 Embedding 批次各占一个虚拟线程
+     */
+    ExecutorService newExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * 将累积的向量写入数据库
+     *
+     * @return 写库耗时（纳秒）
+     */
+    private long flush(List<Document> documents, List<float[]> embeddings) {
+        if (documents.isEmpty()) {
+            return 0;
+        }
+        long flushStart = System.nanoTime();
+        vectorRepository.batchInsert(documents, embeddings, embeddingConfig.getInsertBatchSize());
+        long flushNanos = System.nanoTime() - flushStart;
+        insertTimer.record(flushNanos, TimeUnit.NANOSECONDS);
+        documents.clear();
+        embeddings.clear();
+        return flushNanos;
+    }
+
+    /**
+     * 将文本切为若干段（测试与调试用，生产路径通过 {@link SegmentReader} 流式读取）
+     */
+    static List<String> splitIntoSegments(String content) {
+        List<String> segments = new ArrayList<>();
+        try {
+            SegmentReader reader = new SegmentReader(new StringReader(content));
+            String segment;
+            while ((segment = reader.next()) != null) {
+                segments.add(segment);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return segments;
+    }
+
+    /**
+     * 生成确定性的 chunk ID：相同知识库中相同内容的第 N 次出现总是映射到同一个 UUID
+     */
+    static String buildChunkId(Long knowledgeBaseId, String contentHash, int occurrence) {
+        String name = CHUNK_ID_PREFIX + knowledgeBaseId + ":" + contentHash + ":" + occurrence;
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static String sha256Hex(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private int getSubmittedBatches(Future<Integer> producer) throws InterruptedException {
+        try {
+            return producer.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new RuntimeException("文本分块失败: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static Timer stageTimer(MeterRegistry meterRegistry, String stage) {
+        return Timer.builder("kb.vectorize.stage")
+            .description("向量化流水线各阶段耗时")
+            .tag("stage", stage)
+            .register(meterRegistry);
+    }
+
+    private static String formatRate(double rate) {
+        return String.format("%.1f", rate);
+    }
+
+    /**
+     * 流式文本分段器，使分块可以边读边向量化，内存占用以单段大小为上界
+     * 切分点由行内容决定（行哈希命中 BOUNDARY_DIVISOR）而非固定偏移，
+     * 文档局部修改只影响所在段的分块，其余段的 chunk 保持不变，增量同步才能复用
+     */
+    static final class SegmentReader {
+
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        private boolean eof;
+
+        SegmentReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * 读取下一个非空白段
+         *
+         * @return 段文本（包含行尾换行），读完时返回 null
+         */
+        String next() throws IOException {
+            String segment;
+            while ((segment = readSegment()) != null) {
+                if (!segment.isBlank()) {
+                    return segment;
+                }
+            }
+            return null;
+        }
+
+        private String readSegment() throws IOException {
+            StringBuilder segment = new StringBuilder(MIN_SEGMENT_CHARS * 2);
+            int lineHash = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                segment.append((char) c);
+                lineHash = 31 * lineHash + c;
+                if (c == '\n') {
+                    int length = segment.length();
+                    if (length >= MAX_SEGMENT_CHARS
+                        || (length >= MIN_SEGMENT_CHARS && Math.floorMod(lineHash, BOUNDARY_DIVISOR) == 0)) {
+                        return segment.toString();
+                    }
+                    lineHash = 0;
+                } else if (segment.length() >= MAX_SEGMENT_CHARS * 2) {
+                    // 没有换行的超长行强制切分，保证单段大小有上界
+                    return segment.toString();
+                }
+            }
+            return segment.isEmpty() ? null : segment.toString();
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                if (eof) {
+                    return -1;
+                }
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    eof = true;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+    }
+
+    /**
+     * 已完成 Embedding 的批次
+     */
+    private record EmbeddedBatch(List<Document> documents, List<float[]> embeddings, Exception error) {}
+}
@@ -0,0 +1,221 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.infrastructure.file.FileStorageService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 知识库解析文本暂存服务
+ * 向量化任务不再携带全文，解析后的文本以 gzip 压缩存入对象存储，
+ * Stream 消息只保存存储键和内容哈希，每个排队任务占用的 Redis 内存为常量。
+ * 写入与读取均为流式：写入经本地临时文件上传，读取时边解压边校验哈希，堆内存占用与文本长度无关
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class KnowledgeBaseContentStagingService {
+
+    private static final String STAGING_PREFIX = "kb-parsed";
+    private static final String CONTENT_TYPE = "application/gzip";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileStorageService storageService;
+
+    /**
+     * 暂存后的解析文本引用
+     *
+     * @param storageKey    对象存储键（文本为空时为 null，不上传）
+     * @param contentHash   解压后文本（UTF-8）的 SHA-256
+     * @param contentLength 文本长度（字符）
+     */
+    public record StagedContent(String storageKey, String contentHash, long contentLength) {
+
+        public boolean isEmpty() {
+            return contentLength == 0;
+        }
+    }
+
+    /**
+     * 文本来源：把文本写入给定 Writer，返回写入的字符数
+     */
+    @FunctionalInterface
+    public interface TextSource {
+        long writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * 流式写出、压缩并暂存文本
+     *
+     * @param source 文本来源（例如流式解析的文档）
+     * @return 暂存引用
+     */
+    public StagedContent stage(TextSource source) {
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(STAGING_PREFIX + "-", ".txt.gz");
+            MessageDigest digest = newDigest();
+            long contentLength;
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new DigestOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE), digest),
+                    StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                contentLength = source.writeTo(writer);
+            }
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+            if (contentLength == 0) {
+                return new StagedContent(null, contentHash, 0);
+            }
+
+            String storageKey = String.format("%s/%s.txt.gz", STAGING_PREFIX, UUID.randomUUID());
+            storageService.uploadLocalFile(storageKey, tempFile, CONTENT_TYPE);
+            log.info("解析文本已暂存: key={}, 文本长度={} 字符, 压缩后={} bytes",
+                storageKey, contentLength, Files.size(tempFile));
+            return new StagedContent(storageKey, contentHash, contentLength);
+
+        } catch (IOException e) {
+            throw new BusinessException(ErrorCode.KNOWLEDGE_BASE_UPLOAD_FAILED, "解析文本暂存失败: " + e.getMessage());
+        } finally {
+            deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * 暂存内存中的文本（用于兼容旧消息的重试）
+     */
+    public StagedContent stage(String content) {
+        return stage(writer -> {
+            writer.write(content);
+            return content.length();
+        });
+    }
+
+    /**
+     * 以流的方式读取暂存文本，读到末尾时校验内容哈希（不一致时抛出 IOException）
+     * 调用方负责关闭
+     *
+     * @param storageKey  对象存储键
+     * @param contentHash 期望的内容哈希（为空时不校验）
+     * @return 文本 Reader
+     */
+    public Reader openReader(String storageKey, String contentHash) {
+        InputStream raw = storageService.openFileStream(storageKey);
+        try {
+            InputStream verified = new HashVerifyingInputStream(
+                new GZIPInputStream(raw, BUFFER_SIZE), contentHash, storageKey);
+            return new BufferedReader(new InputStreamReader(verified, StandardCharsets.UTF_8), BUFFER_SIZE);
+        } catch (IOException e) {
+            closeQuietly(raw);
+            throw new BusinessException(ErrorCode.STORAGE_DOWNLOAD_FAILED, "读取暂存文本失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 删除暂存文本（任务进入终态后调用，失败只记录日志）
+     */
+    public void discard(String storageKey) {
+        try {
+            storageService.deleteParsedContent(storageKey);
+        } catch (Exception e) {
+            log.warn("删除暂存文本失败: key={}, error={}", storageKey, e.getMessage());
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除临时文件失败: {}", file);
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // 忽略
+        }
+    }
+
+    /**
+     * 边读边计算 SHA-256，到达流末尾时与期望值比对
+     */
+    private static final class HashVerifyingInputStream extends FilterInputStream {
+
+        private final MessageDigest digest = newDigest();
+        private final String expectedHash;
+        private final String storageKey;
+        private boolean verified;
+
+        private HashVerifyingInputStream(InputStream in, String expectedHash, String storageKey) {
+            super(in);
+            this.expectedHash = expectedHash;
+            this.storageKey = storageKey;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                verify();
+            } else {
+                digest.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            int n = super.read(buffer, off, len);
+            if (n < 0) {
+                verify();
+            } else {
+                digest.update(buffer, off, n);
+            }
+            return n;
+        }
+
+        private void verify() throws IOException {
+            if (verified || expectedHash == null) {
+                return;
+            }
+            verified = true;
+            String actualHash = HexFormat.of().formatHex(digest.digest());
+            if (!expectedHash.equals(actualHash)) {
+                throw new IOException("暂存文本哈希不一致: key=" + storageKey);
+            }
+        }
+    }
+}
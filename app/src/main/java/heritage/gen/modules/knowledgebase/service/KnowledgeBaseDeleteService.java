@@ -27,6 +27,8 @@ public class KnowledgeBaseDeleteService {
     private final RagChatSessionRepository sessionRepository;
     private final KnowledgeBaseVectorService vectorService;
     private final FileStorageService storageService;
+    private final SemanticAnswerCache answerCache;
+    private final RagChatSessionCache sessionCache;
     
     /**
      * 删除知识库
@@ -43,6 +45,7 @@ public class KnowledgeBaseDeleteService {
         for (RagChatSessionEntity session : sessions) {
             session.getKnowledgeBases().removeIf(kbEntity -> kbEntity.getId().equals(id));
             sessionRepository.save(session);
+            sessionCache.evict(session.getId());
             log.debug("已从会话中移除知识库关联: sessionId={}, kbId={}", session.getId(), id);
         }
         if (!sessions.isEmpty()) {
@@ -56,14 +59,17 @@ public class KnowledgeBaseDeleteService {
             log.warn("删除向量数据失败，继续删除知识库: kbId={}, error={}", id, e.getMessage());
         }
         
-        // 4. 删除RustFS中的文件（FileStorageService 已内置存在性检查）
+        // 4. 清除涉及该知识库的问答缓存
+        answerCache.invalidate(id, "delete");
+
+        // 5. 删除RustFS中的文件（FileStorageService 已内置存在性检查）
         try {
             storageService.deleteKnowledgeBase(kb.getStorageKey());
         } catch (Exception e) {
             log.warn("删除RustFS文件失败，继续删除知识库记录: kbId={}, error={}", id, e.getMessage());
         }
         
-        // 5. 删除知识库记录（在事务中）
+        // 6. 删除知识库记录（在事务中）
         knowledgeBaseRepository.deleteById(id);
         log.info("知识库已删除: id={}", id);
     }
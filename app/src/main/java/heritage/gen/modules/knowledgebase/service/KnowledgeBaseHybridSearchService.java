@@ -0,0 +1,194 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.HybridSearchProperties;
+import heritage.gen.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 知识库混合检索服务
+ * 向量检索对项目名、地名、传承人等专有名词的召回不稳定，这里并行执行两路检索：
+ * 1. 向量检索：{@link KnowledgeBaseVectorService#similaritySearch}
+ * 2. 关键词检索：{@link LexicalQueryParser} 提取查询词，在 vector_store.content 上按命中权重排序
+ * 两路结果按 RRF 融合，只用排名不用原始分数，无需对余弦相似度与命中权重做归一化。
+ * 关键词检索失败或超时时降级为纯向量结果。
+ */
+@Slf4j
+@Service
+public class KnowledgeBaseHybridSearchService {
+
+    private static final String LEG_VECTOR = "vector";
+    private static final String LEG_LEXICAL = "lexical";
+
+    private final KnowledgeBaseVectorService vectorService;
+    private final VectorRepository vectorRepository;
+    private final HybridSearchProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService lexicalExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public KnowledgeBaseHybridSearchService(KnowledgeBaseVectorService vectorService,
+                                            VectorRepository vectorRepository,
+                                            HybridSearchProperties properties,
+                                            MeterRegistry meterRegistry) {
+        this.vectorService = vectorService;
+        this.vectorRepository = vectorRepository;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * vector_store 由 PgVectorStore 在初始化时建表，应用就绪后再创建关键词索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initLexicalIndex() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        try {
+            vectorRepository.ensureLexicalIndex();
+        } catch (Exception e) {
+            log.warn("创建关键词检索索引失败（关键词检索将退化为顺序扫描）: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lexicalExecutor.shutdownNow();
+    }
+
+    /**
+     * 混合检索
+     *
+     * @param query            查询文本
+     * @param knowledgeBaseIds 知识库ID列表（为空则检索全部）
+     * @param topK             返回条数
+     * @return 融合排序后的文档，score 为 RRF 得分
+     */
+    public List<Document> search(String query, List<Long> knowledgeBaseIds, int topK) {
+        if (!properties.isEnabled()) {
+            return vectorService.similaritySearch(query, knowledgeBaseIds, topK);
+        }
+
+        long startNanos = System.nanoTime();
+        int candidates = Math.max(topK, topK * properties.getCandidateMultiplier());
+        Map<String, Integer> terms = LexicalQueryParser.parse(query, properties.getMaxTerms());
+
+        CompletableFuture<List<Document>> lexicalFuture = terms.isEmpty()
+            ? CompletableFuture.completedFuture(List.of())
+            : CompletableFuture.supplyAsync(
+                () -> timed(LEG_LEXICAL, () -> vectorRepository.lexicalSearch(terms, knowledgeBaseIds, candidates)),
+                lexicalExecutor);
+
+        List<Document> vectorResults;
+        try {
+            vectorResults = timed(LEG_VECTOR,
+                () -> vectorService.similaritySearch(query, knowledgeBaseIds, candidates));
+        } catch (RuntimeException e) {
+            lexicalFuture.cancel(true);
+            throw e;
+        }
+        List<Document> lexicalResults = awaitLexical(lexicalFuture, startNanos);
+
+        List<Document> fused = fuse(List.of(vectorResults, lexicalResults), properties.getRrfK(), topK);
+        log.info("混合检索完成: kbIds={}, terms={}, vector={}, lexical={}, fused={}, 耗时={}ms",
+            knowledgeBaseIds, terms.keySet(), vectorResults.size(), lexicalResults.size(), fused.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        return fused;
+    }
+
+    /**
+     * RRF 融合：文档得分为其在各路结果中 1 / (k + rank) 之和（rank 从 1 开始），按 ID 去重
+     * 同分时保持先出现的顺序（即向量检索优先）
+     *
+     * @param rankedLists 各路检索结果（按相关度降序）
+     * @param k           平滑常数
+     * @param topK        返回条数
+     * @return 融合后的文档，score 为 RRF 得分
+     */
+    static List<Document> fuse(List<List<Document>> rankedLists, int k, int topK) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<Document> ranked : rankedLists) {
+            for (int i = 0; i < ranked.size(); i++) {
+                Document document = ranked.get(i);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (k + i + 1), Double::sum);
+            }
+        }
+
+        List<String> ids = new ArrayList<>(scores.keySet());
+        // List.sort 为稳定排序，同分保持首次出现顺序
+        ids.sort(Comparator.comparingDouble((String id) -> scores.get(id)).reversed());
+
+        List<Document> fused = new ArrayList<>(Math.min(topK, ids.size()));
+        for (String id : ids.subList(0, Math.min(topK, ids.size()))) {
+            fused.add(documents.get(id).mutate().score(scores.get(id)).build());
+        }
+        return fused;
+    }
+
+    private List<Document> awaitLexical(CompletableFuture<List<Document>> lexicalFuture, long startNanos) {
+        long remainingMillis = properties.getLexicalTimeoutMs()
+            - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        try {
+            return lexicalFuture.get(Math.max(0, remainingMillis), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            lexicalFuture.cancel(true);
+            degraded("timeout");
+            log.warn("关键词检索超时（{}ms），仅使用向量结果", properties.getLexicalTimeoutMs());
+        } catch (ExecutionException e) {
+            degraded("error");
+            log.warn("关键词检索失败，仅使用向量结果: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            degraded("interrupted");
+        }
+        return List.of();
+    }
+
+    private <T> T timed(String leg, Supplier<T> call) {
+        long startNanos = System.nanoTime();
+        String outcome = "success";
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            outcome = "error";
+            throw e;
+        } finally {
+            Timer.builder("kb.retrieval.leg")
+                .description("混合检索各路检索耗时")
+                .tag("leg", leg)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void degraded(String reason) {
+        Counter.builder("kb.retrieval.lexical.degraded")
+            .description("关键词检索未参与融合的次数")
+            .tag("reason", reason)
+            .register(meterRegistry)
+            .increment();
+    }
+}
@@ -3,11 +3,14 @@ package heritage.gen.modules.knowledgebase.service;
 import heritage.gen.infrastructure.file.ContentTypeDetectionService;
 import heritage.gen.infrastructure.file.DocumentParseService;
 import heritage.gen.infrastructure.file.FileStorageService;
+import heritage.gen.modules.knowledgebase.service.KnowledgeBaseContentStagingService.StagedContent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+
 /**
  * 知识库解析服务
  * 委托给通用的 DocumentParseService 处理
@@ -20,40 +23,37 @@ public class KnowledgeBaseParseService {
     private final DocumentParseService documentParseService;
     private final ContentTypeDetectionService contentTypeDetectionService;
     private final FileStorageService storageService;
+    private final KnowledgeBaseContentStagingService stagingService;
 
     /**
-     * 解析上传的知识库文件，提取文本内容
-     *
-     * @param file 上传的文件（支持PDF、DOCX、DOC、TXT、MD等）
-     * @return 提取的文本内容
-     */
-    public String parseContent(MultipartFile file) {
-        log.info("开始解析知识库文件: {}", file.getOriginalFilename());
-        return documentParseService.parseContent(file);
-    }
-
-    /**
-     * 解析字节数组形式的文件内容
+     * 流式解析上传的知识库文件并暂存解析文本（不在内存中保留全文）
      *
-     * @param fileBytes 文件字节数组
-     * @param fileName  原始文件名（用于日志）
-     * @return 提取的文本内容
+     * @param file 上传的文件
+     * @return 暂存引用（文本为空时 isEmpty() 为 true）
      */
-    public String parseContent(byte[] fileBytes, String fileName) {
-        log.info("开始解析知识库文件（从字节数组）: {}", fileName);
-        return documentParseService.parseContent(fileBytes, fileName);
+    public StagedContent parseAndStage(MultipartFile file) {
+        log.info("开始流式解析知识库文件: {}", file.getOriginalFilename());
+        return stagingService.stage(writer -> {
+            try (InputStream inputStream = file.getInputStream()) {
+                return documentParseService.parseTo(inputStream, writer);
+            }
+        });
     }
 
     /**
-     * 从存储下载文件并解析内容
+     * 从存储流式读取知识库文件，解析并暂存解析文本
      *
      * @param storageKey       存储键
      * @param originalFilename 原始文件名
-     * @return 提取的文本内容
+     * @return 暂存引用（文本为空时 isEmpty() 为 true）
      */
-    public String downloadAndParseContent(String storageKey, String originalFilename) {
-        log.info("从存储下载并解析知识库文件: {}", originalFilename);
-        return documentParseService.downloadAndParseContent(storageService, storageKey, originalFilename);
+    public StagedContent downloadParseAndStage(String storageKey, String originalFilename) {
+        log.info("从存储流式解析知识库文件: {}", originalFilename);
+        return stagingService.stage(writer -> {
+            try (InputStream inputStream = storageService.openFileStream(storageKey)) {
+                return documentParseService.parseTo(inputStream, writer);
+            }
+        });
     }
 
     /**
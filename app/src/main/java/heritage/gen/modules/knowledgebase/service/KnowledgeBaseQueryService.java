@@ -2,61 +2,90 @@ package heritage.gen.modules.knowledgebase.service;
 
 import heritage.gen.common.exception.BusinessException;
 import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.modules.knowledgebase.model.ConversationContext;
 import heritage.gen.modules.knowledgebase.model.QueryRequest;
 import heritage.gen.modules.knowledgebase.model.QueryResponse;
-import heritage.gen.modules.knowledgebase.tool.HeritageDataTool;
+import heritage.gen.modules.knowledgebase.model.RagStreamEvent;
+import heritage.gen.modules.knowledgebase.tool.HeritageToolPrePass;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
+import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * 知识库查询服务
- * 基于向量搜索的RAG问答
+ * 基于混合检索（向量 + 关键词）的RAG问答
  */
 @Slf4j
 @Service
 public class KnowledgeBaseQueryService {
 
+    /**
+     * 放入提示词的文档片段数
+     */
+    private static final int TOP_K = 5;
+
     private final ChatClient chatClient;
-    private final KnowledgeBaseVectorService vectorService;
+    private final KnowledgeBaseHybridSearchService hybridSearchService;
+    private final KnowledgeBaseRerankService rerankService;
+    private final SemanticAnswerCache answerCache;
     private final KnowledgeBaseListService listService;
     private final KnowledgeBaseCountService countService;
-    private final HeritageDataTool heritageDataTool;
+    private final HeritageToolPrePass toolPrePass;
+    private final RagQueryRewriter queryRewriter;
+    private final Timer firstTokenTimer;
+    private final DistributionSummary tokensPerSecond;
     private final PromptTemplate systemPromptTemplate;
     private final PromptTemplate userPromptTemplate;
 
-    /**
-     * ThreadLocal 用于存储当前查询的来源知识库ID列表
-     * 在 answerQuestionStream 中设置，在 Controller 中获取后清除
-     */
-    public static final ThreadLocal<List<Long>> SOURCE_KB_IDS = new ThreadLocal<>();
-
     public KnowledgeBaseQueryService(
             ChatClient.Builder chatClientBuilder,
-            KnowledgeBaseVectorService vectorService,
+            KnowledgeBaseHybridSearchService hybridSearchService,
+            KnowledgeBaseRerankService rerankService,
+            SemanticAnswerCache answerCache,
             KnowledgeBaseListService listService,
             KnowledgeBaseCountService countService,
-            HeritageDataTool heritageDataTool,
+            HeritageToolPrePass toolPrePass,
+            RagQueryRewriter queryRewriter,
+            MeterRegistry meterRegistry,
             @Value("classpath:prompts/knowledgebase-query-system.st") Resource systemPromptResource,
             @Value("classpath:prompts/knowledgebase-query-user.st") Resource userPromptResource) throws IOException {
         this.chatClient = chatClientBuilder.build();
-        this.vectorService = vectorService;
+        this.hybridSearchService = hybridSearchService;
+        this.rerankService = rerankService;
+        this.answerCache = answerCache;
         this.listService = listService;
         this.countService = countService;
-        this.heritageDataTool = heritageDataTool;
+        this.toolPrePass = toolPrePass;
+        this.queryRewriter = queryRewriter;
+        this.firstTokenTimer = Timer.builder("kb.answer.stream.first_token")
+                .description("流式问答从收到请求到下发首个 Token 的耗时")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.tokensPerSecond = DistributionSummary.builder("kb.answer.stream.tokens_per_second")
+                .description("流式问答生成速率（首个 Token 之后）")
+                .baseUnit("tokens/s")
+                .register(meterRegistry);
         this.systemPromptTemplate = new PromptTemplate(systemPromptResource.getContentAsString(StandardCharsets.UTF_8));
         this.userPromptTemplate = new PromptTemplate(userPromptResource.getContentAsString(StandardCharsets.UTF_8));
     }
@@ -85,26 +114,32 @@ public class KnowledgeBaseQueryService {
         // 1. 验证知识库是否存在并更新问题计数（合并数据库操作）
         countService.updateQuestionCounts(knowledgeBaseIds);
 
-        // 2. 使用向量搜索检索相关文档（RAG）
-        List<Document> relevantDocs = vectorService.similaritySearch(question, knowledgeBaseIds, 5);
+        // 2. 语义缓存：相同知识库集合下的近似问题直接返回缓存回答
+        SemanticAnswerCache.Lookup cacheLookup = answerCache.lookup(knowledgeBaseIds, question);
+        if (cacheLookup.isHit()) {
+            return cacheLookup.hit().answer();
+        }
+
+        // 3. 混合检索候选文档，重排后保留最相关的片段（RAG）
+        List<Document> relevantDocs = retrieve(question, knowledgeBaseIds).documents();
 
         if (relevantDocs.isEmpty()) {
             return "抱歉，在选定的知识库中没有找到相关信息。请尝试调整问题或选择其他知识库。";
         }
 
-        // 3. 构建上下文（合并检索到的文档）
+        // 4. 构建上下文（合并检索到的文档）
         String context = relevantDocs.stream()
                 .map(Document::getText)
                 .collect(Collectors.joining("\n\n---\n\n"));
 
         log.debug("检索到 {} 个相关文档片段", relevantDocs.size());
 
-        // 4. 构建提示词
+        // 5. 构建提示词
         String systemPrompt = buildSystemPrompt();
-        String userPrompt = buildUserPrompt(context, question, knowledgeBaseIds);
+        String userPrompt = buildUserPrompt(context, question, null, null);
 
         try {
-            // 5. 调用AI生成回答
+            // 6. 调用AI生成回答
             String answer = chatClient.prompt()
                     .system(systemPrompt)
                     .user(userPrompt)
@@ -112,6 +147,7 @@ public class KnowledgeBaseQueryService {
                     .content();
 
             log.info("知识库问答完成: kbIds={}", knowledgeBaseIds);
+            answerCache.put(cacheLookup, question, answer, extractSourceKbIds(relevantDocs));
             return answer;
 
         } catch (Exception e) {
@@ -120,6 +156,42 @@ public class KnowledgeBaseQueryService {
         }
     }
 
+    /**
+     * 混合检索多召回候选，再由重排服务保留最相关的 {@link #TOP_K} 个片段
+     */
+    private KnowledgeBaseRerankService.Result retrieve(String query, List<Long> knowledgeBaseIds) {
+        List<Document> candidates = hybridSearchService.search(
+                query, knowledgeBaseIds, rerankService.candidateCount(TOP_K));
+        return rerankService.rerank(query, candidates, TOP_K);
+    }
+
+    /**
+     * 提取检索到的文档所属的知识库ID（去重）
+     */
+    private List<Long> extractSourceKbIds(List<Document> documents) {
+        return documents.stream()
+                .map(doc -> doc.getMetadata().get("kb_id"))
+                .filter(Objects::nonNull)
+                .map(kbId -> kbId instanceof Long ? (Long) kbId : Long.parseLong(kbId.toString()))
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 转换为流式元数据中的文档片段信息
+     */
+    private List<RagStreamEvent.SourceChunk> toSourceChunks(List<Document> documents) {
+        return documents.stream()
+                .map(doc -> {
+                    Object kbId = doc.getMetadata().get("kb_id");
+                    return new RagStreamEvent.SourceChunk(
+                            doc.getId(),
+                            kbId == null ? null : (kbId instanceof Long ? (Long) kbId : Long.parseLong(kbId.toString())),
+                            doc.getScore());
+                })
+                .toList();
+    }
+
     /**
      * 构建系统提示词
      */
@@ -127,13 +199,29 @@ public class KnowledgeBaseQueryService {
         return systemPromptTemplate.render();
     }
 
+    /**
+     * 提取流式响应片段中的文本
+     */
+    private String extractText(ChatResponse response) {
+        if (response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        String text = response.getResult().getOutput().getText();
+        return text != null ? text : "";
+    }
+
     /**
      * 构建用户提示词
+     *
+     * @param toolResults 工具预查询结果，为空时填“无”
+     * @param history     对话历史（滚动摘要 + 最近若干轮），为空时填“无”
      */
-    private String buildUserPrompt(String context, String question, List<Long> knowledgeBaseIds) {
+    private String buildUserPrompt(String context, String question, String toolResults, String history) {
         Map<String, Object> variables = new HashMap<>();
         variables.put("context", context);
         variables.put("question", question);
+        variables.put("history", history == null || history.isBlank() ? "无" : history);
+        variables.put("toolResults", toolResults == null || toolResults.isBlank() ? "无" : toolResults);
         return userPromptTemplate.render(variables);
     }
 
@@ -158,65 +246,156 @@ public class KnowledgeBaseQueryService {
      *
      * @param knowledgeBaseIds 知识库ID列表
      * @param question 用户问题
-     * @return 流式响应
+     * @return 事件流：先发出一个 {@link RagStreamEvent.Metadata}，随后是回答片段 {@link RagStreamEvent.Token}；
+     *         检索在订阅时执行，不依赖调用线程
      */
-    public Flux<String> answerQuestionStream(List<Long> knowledgeBaseIds, String question) {
+    public Flux<RagStreamEvent> answerQuestionStream(List<Long> knowledgeBaseIds, String question) {
+        return answerQuestionStream(knowledgeBaseIds, question, null);
+    }
+
+    /**
+     * 流式查询知识库（SSE），多轮会话
+     * 依赖上文的追问先由 {@link RagQueryRewriter} 改写为独立问题，检索、语义缓存与工具预查询使用改写后的问题，
+     * 回答生成仍使用原问题 + 对话历史
+     *
+     * @param conversation 会话上下文（对话历史由 {@link RagConversationMemory} 构建，长度有上限），为 null 表示单轮问答
+     */
+    public Flux<RagStreamEvent> answerQuestionStream(List<Long> knowledgeBaseIds, String question,
+                                                     ConversationContext conversation) {
+        return Flux.defer(() -> streamAnswer(knowledgeBaseIds, question, conversation));
+    }
+
+    private Flux<RagStreamEvent> streamAnswer(List<Long> knowledgeBaseIds, String question,
+                                              ConversationContext conversation) {
         log.info("收到知识库流式提问: kbIds={}, question={}", knowledgeBaseIds, question);
+        long startMillis = System.currentTimeMillis();
+        long rewriteMillis = 0;
+        long rerankMillis = 0;
 
         try {
             // 1. 验证知识库是否存在并更新问题计数
             countService.updateQuestionCounts(knowledgeBaseIds);
 
-            // 2. 使用向量搜索检索相关文档
-            List<Document> relevantDocs = vectorService.similaritySearch(question, knowledgeBaseIds, 5);
+            // 2. 多轮追问改写为独立的检索问题（单独计时，不计入检索耗时）
+            RagQueryRewriter.Result rewrite = queryRewriter.rewrite(conversation, question);
+            rewriteMillis = rewrite.elapsedMillis();
+            String retrievalQuery = rewrite.query();
+            long retrievalStartMillis = System.currentTimeMillis();
+            String history = conversation != null ? conversation.history() : null;
+
+            // 3. 语义缓存命中时直接返回缓存回答及其来源知识库
+            // 改写失败时检索问题仍依赖上文（如“它的传承人是谁”），同一文本在不同会话含义不同，不读写缓存
+            SemanticAnswerCache.Lookup cacheLookup = rewrite.standalone()
+                    ? answerCache.lookup(knowledgeBaseIds, retrievalQuery) : null;
+            if (cacheLookup != null && cacheLookup.isHit()) {
+                RagStreamEvent.Timings timings = new RagStreamEvent.Timings(
+                        System.currentTimeMillis() - retrievalStartMillis, 0, rewriteMillis, 0);
+                return Flux.just(
+                        new RagStreamEvent.Metadata(cacheLookup.hit().sourceKbIds(), List.of(), timings, true),
+                        new RagStreamEvent.Token(cacheLookup.hit().answer()));
+            }
+
+            // 4. 混合检索候选文档，重排后保留最相关的片段（重排单独计时，不计入检索耗时）
+            KnowledgeBaseRerankService.Result rerank = retrieve(retrievalQuery, knowledgeBaseIds);
+            rerankMillis = rerank.elapsedMillis();
+            List<Document> relevantDocs = rerank.documents();
 
             if (relevantDocs.isEmpty()) {
-                return Flux.just("抱歉，在选定的知识库中没有找到相关信息。请尝试调整问题或选择其他知识库。");
+                RagStreamEvent.Timings timings = new RagStreamEvent.Timings(
+                        System.currentTimeMillis() - retrievalStartMillis - rerankMillis, 0, rewriteMillis, rerankMillis);
+                return Flux.just(
+                        RagStreamEvent.Metadata.empty(timings),
+                        new RagStreamEvent.Token("抱歉，在选定的知识库中没有找到相关信息。请尝试调整问题或选择其他知识库。"));
             }
 
-            // 3. 提取实际检索到的文档所属的知识库ID（去重）
-            List<Long> sourceKbIds = relevantDocs.stream()
-                    .map(doc -> doc.getMetadata().get("kb_id"))
-                    .filter(Objects::nonNull)
-                    .map(kbId -> kbId instanceof Long ? (Long) kbId : Long.parseLong(kbId.toString()))
-                    .distinct()
-                    .collect(Collectors.toList());
-
-            // 存储到 ThreadLocal 供 Controller 使用
-            SOURCE_KB_IDS.set(sourceKbIds);
+            // 5. 提取实际检索到的文档所属的知识库ID（去重）
+            List<Long> sourceKbIds = extractSourceKbIds(relevantDocs);
             log.debug("检索到的文档来源知识库: {}", sourceKbIds);
 
-            // 4. 构建上下文
+            // 6. 构建上下文
             String context = relevantDocs.stream()
                     .map(Document::getText)
                     .collect(Collectors.joining("\n\n---\n\n"));
 
             log.debug("检索到 {} 个相关文档片段", relevantDocs.size());
 
-            // 4. 构建提示词
-            String systemPrompt = buildSystemPrompt();
-            String userPrompt = buildUserPrompt(context, question, knowledgeBaseIds);
-
+            long retrievalMillis = System.currentTimeMillis() - retrievalStartMillis - rerankMillis;
 
-            // 5. 调用AI生成回答（注册工具）
-            // 注意：由于 Spring AI 2.0.0-M1 在 streaming 模式下处理 Qwen 模型的 tool calling 有 bug
-            // （toolName 在后续 chunk 中为空，导致 IllegalArgumentException），暂时使用非流式调用
-            log.info("开始调用AI生成回答: kbIds={}", knowledgeBaseIds);
+            // 7. 工具预查询：流式调用不注册工具，需要数据库信息时先以非流式调度执行工具
+            HeritageToolPrePass.Result toolResult = toolPrePass.resolve(retrievalQuery);
 
-            String fullAnswer = chatClient.prompt()
+            // 8. 构建提示词
+            String systemPrompt = buildSystemPrompt();
+            String userPrompt = buildUserPrompt(context, question, toolResult.toolResults(), history);
+
+            // 9. 流式生成回答，逐 Token 下发
+            log.info("开始流式生成回答: kbIds={}, 改写耗时={}ms, 检索耗时={}ms, 重排耗时={}ms, 工具预查询耗时={}ms",
+                    knowledgeBaseIds, rewriteMillis, retrievalMillis, rerankMillis, toolResult.elapsedMillis());
+            RagStreamEvent.Metadata metadata = new RagStreamEvent.Metadata(
+                    sourceKbIds,
+                    toSourceChunks(relevantDocs),
+                    new RagStreamEvent.Timings(retrievalMillis, toolResult.elapsedMillis(), rewriteMillis, rerankMillis),
+                    false);
+            StringBuilder fullAnswer = new StringBuilder();
+            AtomicLong firstTokenAt = new AtomicLong();
+            AtomicLong completionTokens = new AtomicLong();
+            AtomicLong chunkCount = new AtomicLong();
+
+            Flux<String> answerTokens = chatClient.prompt()
                     .system(systemPrompt)
                     .user(userPrompt)
-                    .tools(heritageDataTool)  // ✅ 传递工具实例
-                    .call()
-                    .content();
-            log.info("完成知识库回答: kbIds={}, answerLength={}", knowledgeBaseIds, fullAnswer.length());
-
-            // 将完整回答包装成 Flux 以兼容 SSE 接口
-            return Flux.just(fullAnswer);
+                    .options(OpenAiChatOptions.builder().streamUsage(true).build())
+                    .stream()
+                    .chatResponse()
+                    .doOnNext(response -> {
+                        if (response.getMetadata() != null && response.getMetadata().getUsage() != null
+                                && response.getMetadata().getUsage().getCompletionTokens() != null) {
+                            completionTokens.set(response.getMetadata().getUsage().getCompletionTokens());
+                        }
+                    })
+                    .map(this::extractText)
+                    .filter(token -> !token.isEmpty())
+                    .doOnNext(token -> {
+                        if (firstTokenAt.compareAndSet(0, System.currentTimeMillis())) {
+                            firstTokenTimer.record(Duration.ofMillis(firstTokenAt.get() - startMillis));
+                        }
+                        chunkCount.incrementAndGet();
+                        fullAnswer.append(token);
+                    })
+                    .doOnComplete(() -> {
+                        long endMillis = System.currentTimeMillis();
+                        long generationMillis = firstTokenAt.get() > 0 ? endMillis - firstTokenAt.get() : 0;
+                        long tokens = completionTokens.get() > 0 ? completionTokens.get() : chunkCount.get();
+                        if (generationMillis > 0) {
+                            tokensPerSecond.record(tokens * 1000.0 / generationMillis);
+                        }
+                        log.info("完成知识库流式回答: kbIds={}, answerLength={}, 首Token={}ms, 生成耗时={}ms, tokens={}",
+                                knowledgeBaseIds, fullAnswer.length(),
+                                firstTokenAt.get() > 0 ? firstTokenAt.get() - startMillis : -1,
+                                generationMillis, tokens);
+                        // 缓存写入涉及数据库与向量计算，放到弹性线程池执行，不阻塞流的完成
+                        if (cacheLookup != null) {
+                            Schedulers.boundedElastic().schedule(() ->
+                                    answerCache.put(cacheLookup, retrievalQuery, fullAnswer.toString(), sourceKbIds));
+                        }
+                    })
+                    .onErrorResume(e -> {
+                        // 已下发的部分回答保留，不写入缓存
+                        log.error("知识库流式生成中断: kbIds={}, error={}", knowledgeBaseIds, e.getMessage(), e);
+                        return Flux.just("\n\n【错误】回答生成中断：" + e.getMessage());
+                    });
+
+            return Flux.concat(
+                    Flux.just(metadata),
+                    answerTokens.map(RagStreamEvent.Token::new));
 
         } catch (Exception e) {
             log.error("知识库流式问答失败: {}", e.getMessage(), e);
-            return Flux.just("【错误】知识库查询失败：" + e.getMessage());
+            RagStreamEvent.Timings timings = new RagStreamEvent.Timings(
+                    System.currentTimeMillis() - startMillis - rewriteMillis - rerankMillis, 0, rewriteMillis, rerankMillis);
+            return Flux.just(
+                    RagStreamEvent.Metadata.empty(timings),
+                    new RagStreamEvent.Token("【错误】知识库查询失败：" + e.getMessage()));
         }
     }
 
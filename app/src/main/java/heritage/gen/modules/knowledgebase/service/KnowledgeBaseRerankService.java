@@ -0,0 +1,143 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.RerankProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+/**
+ * 知识库检索重排服务
+ * 原先直接把混合检索的前 5 个片段放入提示词，想提高命中只能加大 topK，提示词随之变长、生成变慢。
+ * 这里让混合检索多召回一些候选（默认 30 个），由可替换的 {@link RerankScorer} 打分后只保留 topK 个，
+ * 提示词保持短小而相关。召回成本随候选数增长：向量检索走 HNSW 索引，关键词检索只有不少于 3 个字的查询词
+ * 能由三元组索引预过滤，查询词全是短词时退化为顺序扫描。
+ * 重排有硬性时间预算，超时或失败时按混合检索顺序取前 topK 个，不影响回答。
+ * 超时只是放弃等待：{@code future.cancel(true)} 不会中断打分器内部的阻塞调用，llm 打分器的模型请求会继续跑完。
+ */
+@Slf4j
+@Service
+public class KnowledgeBaseRerankService {
+
+    private final RerankProperties properties;
+    private final RerankScorer scorer;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService rerankExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * 重排结果
+     *
+     * @param documents     放入提示词的片段
+     * @param outcome       reranked / skipped / timeout / failed
+     * @param elapsedMillis 重排耗时
+     */
+    public record Result(List<Document> documents, String outcome, long elapsedMillis) {}
+
+    public KnowledgeBaseRerankService(RerankProperties properties,
+                                      List<RerankScorer> scorers,
+                                      MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.scorer = scorers.stream()
+            .filter(candidate -> candidate.name().equalsIgnoreCase(properties.getScorer()))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("未知的重排打分器: " + properties.getScorer()
+                + "，可选: " + scorers.stream().map(RerankScorer::name).toList()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rerankExecutor.shutdownNow();
+    }
+
+    /**
+     * 混合检索应召回的候选数
+     */
+    public int candidateCount(int topK) {
+        return properties.isEnabled() ? Math.max(topK, properties.getCandidates()) : topK;
+    }
+
+    /**
+     * 重排并保留 topK 个片段
+     *
+     * @param query      检索问题
+     * @param candidates 混合检索的候选（按融合得分降序）
+     */
+    public Result rerank(String query, List<Document> candidates, int topK) {
+        if (!properties.isEnabled() || candidates.size() <= topK) {
+            return new Result(head(candidates, topK), "skipped", 0);
+        }
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<double[]> future = CompletableFuture.supplyAsync(
+            () -> scorer.score(query, candidates), rerankExecutor);
+        String outcome;
+        List<Document> documents;
+        try {
+            double[] scores = future.get(properties.getTimeoutMs(), TimeUnit.MILLISECONDS);
+            documents = selectTop(candidates, scores, topK);
+            outcome = "reranked";
+        } catch (TimeoutException e) {
+            // 只放弃结果，不会中断打分器中的阻塞调用
+            future.cancel(true);
+            documents = head(candidates, topK);
+            outcome = "timeout";
+            log.warn("检索重排超时（{}ms），按混合检索顺序取前 {} 个", properties.getTimeoutMs(), topK);
+        } catch (ExecutionException | RuntimeException e) {
+            documents = head(candidates, topK);
+            outcome = "failed";
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            log.warn("检索重排失败，按混合检索顺序取前 {} 个: {}", topK, cause.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            documents = head(candidates, topK);
+            outcome = "failed";
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Timer.builder("kb.retrieval.rerank")
+            .description("检索重排耗时（含超时与失败）")
+            .tag("scorer", scorer.name())
+            .tag("outcome", outcome)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry)
+            .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        log.info("检索重排完成: scorer={}, outcome={}, candidates={}, kept={}, 耗时={}ms",
+            scorer.name(), outcome, candidates.size(), documents.size(), elapsedMillis);
+        return new Result(documents, outcome, elapsedMillis);
+    }
+
+    /**
+     * 按得分降序取前 topK 个；同分保持混合检索的先后顺序
+     */
+    static List<Document> selectTop(List<Document> candidates, double[] scores, int topK) {
+        if (scores == null || scores.length != candidates.size()) {
+            throw new IllegalArgumentException("重排得分数量与候选数不一致");
+        }
+        return IntStream.range(0, candidates.size())
+            .boxed()
+            .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+            .limit(topK)
+            .map(candidates::get)
+            .toList();
+    }
+
+    private static List<Document> head(List<Document> candidates, int topK) {
+        return candidates.size() <= topK ? candidates : new ArrayList<>(candidates.subList(0, topK));
+    }
+}
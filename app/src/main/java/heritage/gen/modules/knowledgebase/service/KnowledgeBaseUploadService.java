@@ -1,5 +1,6 @@
 package heritage.gen.modules.knowledgebase.service;
 
+import cn.dev33.satoken.stp.StpUtil;
 import heritage.gen.common.exception.BusinessException;
 import heritage.gen.common.exception.ErrorCode;
 import heritage.gen.infrastructure.file.FileHashService;
@@ -8,7 +9,9 @@ import heritage.gen.infrastructure.file.FileValidationService;
 import heritage.gen.modules.knowledgebase.listener.VectorizeStreamProducer;
 import heritage.gen.modules.knowledgebase.model.KnowledgeBaseEntity;
 import heritage.gen.modules.knowledgebase.model.VectorStatus;
+import heritage.gen.modules.knowledgebase.model.VectorizeLane;
 import heritage.gen.modules.knowledgebase.repository.KnowledgeBaseRepository;
+import heritage.gen.modules.knowledgebase.service.KnowledgeBaseContentStagingService.StagedContent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -34,6 +37,7 @@ public class KnowledgeBaseUploadService {
     private final FileValidationService fileValidationService;
     private final FileHashService fileHashService;
     private final VectorizeStreamProducer vectorizeStreamProducer;
+    private final KnowledgeBaseContentStagingService stagingService;
 
     private static final long MAX_FILE_SIZE = 50 * 1024 * 1024; // 50MB
 
@@ -43,9 +47,10 @@ public class KnowledgeBaseUploadService {
      * @param file     知识库文件
      * @param name     知识库名称（可选，如果为空则从文件名提取）
      * @param category 分类（可选）
+     * @param bulk     是否为批量导入（批量导入走低优先级通道，不影响交互上传）
      * @return 上传结果和存储信息（包含duplicate字段，表示是否为重复上传）
      */
-    public Map<String, Object> uploadKnowledgeBase(MultipartFile file, String name, String category) {
+    public Map<String, Object> uploadKnowledgeBase(MultipartFile file, String name, String category, boolean bulk) {
         // 1. 验证文件
         fileValidationService.validateFile(file, MAX_FILE_SIZE, "知识库");
 
@@ -64,23 +69,33 @@ public class KnowledgeBaseUploadService {
             return handleDuplicateKnowledgeBase(existingKb.get(), fileHash);
         }
 
-        // 4. 解析知识库文本（用于向量化）
-        String content = parseService.parseContent(file);
-        if (content == null || content.trim().isEmpty()) {
+        // 4. 流式解析知识库文本并暂存（用于向量化）
+        StagedContent staged = parseService.parseAndStage(file);
+        if (staged.isEmpty()) {
             throw new BusinessException(ErrorCode.INTERNAL_ERROR, "无法从文件中提取文本内容，请确保文件格式正确");
         }
 
         // 5. 保存文件到存储服务
-        var uploadResult = storageService.uploadKnowledgeBase(file);
-        String fileKey = uploadResult.storageKey();
-        String fileUrl = uploadResult.storageUrl();
-        log.info("知识库已存储: {}", fileKey);
-
-        // 6. 保存知识库元数据到数据库（状态为 PENDING）
-        KnowledgeBaseEntity savedKb = saveKnowledgeBase(file, name, category, fileKey, fileUrl, fileHash);
+        String fileKey;
+        String fileUrl;
+        KnowledgeBaseEntity savedKb;
+        try {
+            var uploadResult = storageService.uploadKnowledgeBase(file);
+            fileKey = uploadResult.storageKey();
+            fileUrl = uploadResult.storageUrl();
+            log.info("知识库已存储: {}", fileKey);
+
+            // 6. 保存知识库元数据到数据库（状态为 PENDING）
+            savedKb = saveKnowledgeBase(file, name, category, fileKey, fileUrl, fileHash);
+        } catch (RuntimeException e) {
+            // 没有任务会引用这份暂存文本，直接删除
+            stagingService.discard(staged.storageKey());
+            throw e;
+        }
 
         // 7. 发送向量化任务到 Redis Stream（异步处理）
-        vectorizeStreamProducer.sendVectorizeTask(savedKb.getId(), content);
+        VectorizeLane lane = bulk ? VectorizeLane.BACKFILL : VectorizeLane.INTERACTIVE;
+        vectorizeStreamProducer.sendVectorizeTask(savedKb.getId(), staged, lane, currentSubmitter());
 
         log.info("知识库上传完成，向量化任务已入队: {}, kbId={}", fileName, savedKb.getId());
 
@@ -91,7 +106,7 @@ public class KnowledgeBaseUploadService {
                         "name", savedKb.getName(),
                         "category", savedKb.getCategory() != null ? savedKb.getCategory() : "",
                         "fileSize", savedKb.getFileSize(),
-                        "contentLength", content.length(),
+                        "contentLength", staged.contentLength(),
                         "vectorStatus", VectorStatus.PENDING.name()),
                 "storage", Map.of(
                         "fileKey", fileKey,
@@ -164,6 +179,13 @@ public class KnowledgeBaseUploadService {
         }
     }
 
+    /**
+     * 当前提交者标识（用于向量化任务的公平调度），未登录时归为匿名
+     */
+    private String currentSubmitter() {
+        return StpUtil.isLogin() ? "user-" + StpUtil.getLoginIdAsLong() : "anonymous";
+    }
+
     /**
      * 从文件名提取知识库名称（去除扩展名）
      */
@@ -191,19 +213,24 @@ public class KnowledgeBaseUploadService {
 
         log.info("开始重新向量化知识库: kbId={}, name={}", kbId, kb.getName());
 
-        // 1. 下载文件并解析内容
-        String content = parseService.downloadAndParseContent(kb.getStorageKey(), kb.getOriginalFilename());
-        if (content == null || content.trim().isEmpty()) {
+        // 1. 流式读取文件、解析并暂存内容
+        StagedContent staged = parseService.downloadParseAndStage(kb.getStorageKey(), kb.getOriginalFilename());
+        if (staged.isEmpty()) {
             throw new BusinessException(ErrorCode.INTERNAL_ERROR, "无法从文件中提取文本内容");
         }
 
         // 2. 更新状态为 PENDING
         kb.setVectorStatus(VectorStatus.PENDING);
         kb.setVectorError(null);
-        knowledgeBaseRepository.save(kb);
+        try {
+            knowledgeBaseRepository.save(kb);
+        } catch (RuntimeException e) {
+            stagingService.discard(staged.storageKey());
+            throw e;
+        }
 
         // 3. 发送向量化任务到 Stream
-        vectorizeStreamProducer.sendVectorizeTask(kbId, content);
+        vectorizeStreamProducer.sendVectorizeTask(kbId, staged, VectorizeLane.MANUAL, currentSubmitter());
 
         log.info("重新向量化任务已发送: kbId={}", kbId);
     }
@@ -1,16 +1,19 @@
 package heritage.gen.modules.knowledgebase.service;
 
+import heritage.gen.modules.knowledgebase.model.EmbeddingPipelineStats;
 import heritage.gen.modules.knowledgebase.repository.VectorRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.transformer.splitter.TextSplitter;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.Reader;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Objects;
 
 /**
  * 知识库向量存储服务
@@ -21,62 +24,34 @@ import java.util.stream.Collectors;
 public class KnowledgeBaseVectorService {
     
     private final VectorStore vectorStore;
-    private final TextSplitter textSplitter;
     private final VectorRepository vectorRepository;
+    private final EmbeddingPipelineService embeddingPipelineService;
     
-    public KnowledgeBaseVectorService(VectorStore vectorStore, VectorRepository vectorRepository) {
+    public KnowledgeBaseVectorService(VectorStore vectorStore, VectorRepository vectorRepository,
+                                      EmbeddingPipelineService embeddingPipelineService) {
         this.vectorStore = vectorStore;
         this.vectorRepository = vectorRepository;
-        // 使用TokenTextSplitter，每个chunk约500 tokens，重叠50 tokens
-        this.textSplitter = new TokenTextSplitter();
+        this.embeddingPipelineService = embeddingPipelineService;
     }
     
     /**
      * 将知识库内容向量化并存储
+     * 内容以流的方式边读边分块，不要求全文驻留内存
      *
      * @param knowledgeBaseId 知识库ID
-     * @param content 知识库文本内容
+     * @param content 知识库文本内容（调用方负责关闭）
      */
     @Transactional
-    public void vectorizeAndStore(Long knowledgeBaseId, String content) {
-        log.info("开始向量化知识库: kbId={}, contentLength={}", knowledgeBaseId, content.length());
+    public void vectorizeAndStore(Long knowledgeBaseId, Reader content) {
+        log.info("开始向量化知识库: kbId={}", knowledgeBaseId);
 
         try {
-            // 1. 先删除该知识库的旧向量数据
-            deleteByKnowledgeBaseId(knowledgeBaseId);
+            // 分块后与已有向量比对：仅向量化新增 chunk，删除已移除的 chunk（旧向量在事务提交前持续可查）
+            EmbeddingPipelineStats stats = embeddingPipelineService.run(knowledgeBaseId, content);
 
-            // 2. 将文本分块
-            List<Document> chunks = textSplitter.apply(
-                List.of(new Document(content))
-            );
-
-            log.info("文本分块完成: {} 个chunks", chunks.size());
-
-            // 3. 为每个chunk添加metadata（知识库ID）
-            // 统一使用 String 类型存储，确保查询一致性
-            chunks.forEach(chunk -> chunk.getMetadata().put("kb_id", knowledgeBaseId.toString()));
-
-            // 4. 向量化并存储（分批处理，每批最多10个，避免超过API限制）
-            int batchSize = 10;
-            int totalChunks = chunks.size();
-            int processedChunks = 0;
-
-            for (int i = 0; i < totalChunks; i += batchSize) {
-                int endIndex = Math.min(i + batchSize, totalChunks);
-                List<Document> batch = chunks.subList(i, endIndex);
-
-                log.info("处理批次 {}/{}: 向量化 {} 个chunks",
-                    (i / batchSize + 1),
-                    (totalChunks + batchSize - 1) / batchSize,
-                    batch.size());
-
-                vectorStore.add(batch);
-                processedChunks += batch.size();
-
-                log.debug("已处理 {}/{} 个chunks", processedChunks, totalChunks);
-            }
-
-            log.info("知识库向量化完成: kbId={}, totalChunks={}", knowledgeBaseId, chunks.size());
+            log.info("知识库向量化完成: kbId={}, totalChunks={}, inserted={}, deleted={}, 耗时={}ms",
+                knowledgeBaseId, stats.chunkCount(), stats.insertedChunkCount(),
+                stats.deletedChunkCount(), stats.totalMillis());
 
         } catch (Exception e) {
             log.error("向量化知识库失败: kbId={}, error={}", knowledgeBaseId, e.getMessage(), e);
@@ -85,53 +60,81 @@ public class KnowledgeBaseVectorService {
     }
     
     /**
-     * 基于多个知识库进行相似度搜索
-     * 
+     * 基于多个知识库进行相似度搜索（不设相似度阈值）
+     *
      * @param query 查询文本
      * @param knowledgeBaseIds 知识库ID列表（如果为空则搜索所有）
      * @param topK 返回top K个结果
      * @return 相关文档列表
      */
     public List<Document> similaritySearch(String query, List<Long> knowledgeBaseIds, int topK) {
-        log.info("向量相似度搜索: query={}, kbIds={}, topK={}", query, knowledgeBaseIds, topK);
-        
+        return similaritySearch(query, knowledgeBaseIds, topK, null);
+    }
+
+    /**
+     * 基于多个知识库进行相似度搜索
+     * kb_id 过滤条件和 topK 会下推到 pgvector 查询中执行，避免全库检索后再在内存中过滤
+     *
+     * @param query 查询文本
+     * @param knowledgeBaseIds 知识库ID列表（如果为空则搜索所有）
+     * @param topK 返回top K个结果
+     * @param similarityThreshold 相似度阈值（0~1，为空则不过滤）
+     * @return 相关文档列表
+     */
+    public List<Document> similaritySearch(String query, List<Long> knowledgeBaseIds, int topK,
+                                           Double similarityThreshold) {
+        log.info("向量相似度搜索: query={}, kbIds={}, topK={}, threshold={}",
+            query, knowledgeBaseIds, topK, similarityThreshold);
+
         try {
-            // 使用VectorStore的similaritySearch方法（只接受查询字符串）
-            List<Document> allResults = vectorStore.similaritySearch(query);
-            
-            // 如果指定了知识库ID，进行过滤
-            if (knowledgeBaseIds != null && !knowledgeBaseIds.isEmpty()) {
-                allResults = allResults.stream()
-                    .filter(doc -> {
-                        Object kbId = doc.getMetadata().get("kb_id");
-                        if (kbId == null) return false;
-                        // 支持 String 和 Long 两种格式（向后兼容）
-                        try {
-                            Long kbIdLong = kbId instanceof Long 
-                                ? (Long) kbId 
-                                : Long.parseLong(kbId.toString());
-                            return knowledgeBaseIds.contains(kbIdLong);
-                        } catch (NumberFormatException e) {
-                            return false;
-                        }
-                    })
-                    .collect(Collectors.toList());
-                log.debug("使用metadata过滤，找到 {} 个相关文档", allResults.size());
+            SearchRequest.Builder requestBuilder = SearchRequest.builder()
+                .query(query)
+                .topK(topK);
+
+            if (similarityThreshold != null) {
+                requestBuilder.similarityThreshold(similarityThreshold);
+            } else {
+                requestBuilder.similarityThresholdAll();
+            }
+
+            // 如果指定了知识库ID，将 kb_id IN (...) 过滤条件下推到数据库
+            Filter.Expression kbFilter = buildKnowledgeBaseFilter(knowledgeBaseIds);
+            if (kbFilter != null) {
+                requestBuilder.filterExpression(kbFilter);
             }
-            
-            // 限制返回数量
-            List<Document> results = allResults.stream()
-                .limit(topK)
-                .collect(Collectors.toList());
-            
+
+            List<Document> results = vectorStore.similaritySearch(requestBuilder.build());
+
             log.info("搜索完成: 找到 {} 个相关文档", results.size());
             return results;
-            
+
         } catch (Exception e) {
             log.error("向量搜索失败: {}", e.getMessage(), e);
             throw new RuntimeException("向量搜索失败: " + e.getMessage(), e);
         }
     }
+
+    /**
+     * 构建知识库ID过滤表达式
+     * kb_id 在 metadata 中统一以 String 类型存储，这里同样转为 String 比较
+     *
+     * @param knowledgeBaseIds 知识库ID列表
+     * @return 过滤表达式（未指定知识库时返回 null）
+     */
+    private Filter.Expression buildKnowledgeBaseFilter(List<Long> knowledgeBaseIds) {
+        if (knowledgeBaseIds == null || knowledgeBaseIds.isEmpty()) {
+            return null;
+        }
+        List<Object> kbIdValues = knowledgeBaseIds.stream()
+            .filter(Objects::nonNull)
+            .distinct()
+            .map(id -> (Object) id.toString())
+            .toList();
+        if (kbIdValues.isEmpty()) {
+            return null;
+        }
+        return new FilterExpressionBuilder().in("kb_id", kbIdValues).build();
+    }
     
     /**
      * 删除指定知识库的所有向量数据
@@ -0,0 +1,78 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 关键词检索的查询词提取
+ * 数据库侧没有中文分词扩展，这里采用 CJK 检索常用的"短语 + 二元组"切分：
+ * 1. 汉字串按常见虚词（的、是、哪些……）断开，得到候选短语，例如"景德镇的瓷器"→"景德镇"、"瓷器"
+ * 2. 短语整体作为一个词，权重为其长度；长度大于 2 时再拆出二元组，权重为 1，兼顾部分命中
+ * 3. 字母数字串（如 "UNESCO"、"2006"）转小写后整体作为一个词
+ * 单个汉字不作为查询词，专有名词（项目名、地名、传承人）整词命中时得分最高
+ */
+final class LexicalQueryParser {
+
+    private static final String STOP_CHARS = "的了是在有和与及或吗呢吧啊么什怎哪些如何请问为这那个也都就被把对从";
+
+    private LexicalQueryParser() {
+    }
+
+    /**
+     * 提取查询词
+     *
+     * @param query    用户问题
+     * @param maxTerms 查询词数量上限
+     * @return 查询词（小写）到权重的映射，按出现顺序排列
+     */
+    static Map<String, Integer> parse(String query, int maxTerms) {
+        Map<String, Integer> terms = new LinkedHashMap<>();
+        if (query == null || query.isBlank()) {
+            return terms;
+        }
+        String text = query.toLowerCase(Locale.ROOT);
+        int i = 0;
+        int n = text.length();
+        while (i < n && terms.size() < maxTerms) {
+            char c = text.charAt(i);
+            if (isHan(c) && STOP_CHARS.indexOf(c) < 0) {
+                int end = i;
+                while (end < n && isHan(text.charAt(end)) && STOP_CHARS.indexOf(text.charAt(end)) < 0) {
+                    end++;
+                }
+                addHanPhrase(terms, text.substring(i, end), maxTerms);
+                i = end;
+            } else if (Character.isLetterOrDigit(c) && !isHan(c)) {
+                int end = i;
+                while (end < n && Character.isLetterOrDigit(text.charAt(end)) && !isHan(text.charAt(end))) {
+                    end++;
+                }
+                if (end - i >= 2) {
+                    terms.merge(text.substring(i, end), end - i, Math::max);
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return terms;
+    }
+
+    private static void addHanPhrase(Map<String, Integer> terms, String phrase, int maxTerms) {
+        if (phrase.length() < 2) {
+            return;
+        }
+        terms.merge(phrase, phrase.length(), Math::max);
+        if (phrase.length() == 2) {
+            return;
+        }
+        for (int i = 0; i + 2 <= phrase.length() && terms.size() < maxTerms; i++) {
+            terms.merge(phrase.substring(i, i + 2), 1, Math::max);
+        }
+    }
+
+    private static boolean isHan(char c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+}
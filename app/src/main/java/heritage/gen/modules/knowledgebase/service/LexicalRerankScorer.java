@@ -0,0 +1,43 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 关键词覆盖度打分器
+ * 按 {@link LexicalQueryParser} 的查询词权重累计片段命中的词，不调用模型，耗时可以忽略；
+ * 适合没有可用重排模型或对延迟极敏感的部署。
+ */
+@Component
+public class LexicalRerankScorer implements RerankScorer {
+
+    private static final int MAX_TERMS = 16;
+
+    @Override
+    public String name() {
+        return "lexical";
+    }
+
+    @Override
+    public double[] score(String query, List<Document> candidates) {
+        Map<String, Integer> terms = LexicalQueryParser.parse(query, MAX_TERMS);
+        double[] scores = new double[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            String text = candidates.get(i).getText();
+            if (text == null) {
+                continue;
+            }
+            String content = text.toLowerCase(Locale.ROOT);
+            for (Map.Entry<String, Integer> term : terms.entrySet()) {
+                if (content.contains(term.getKey())) {
+                    scores[i] += term.getValue();
+                }
+            }
+        }
+        return scores;
+    }
+}
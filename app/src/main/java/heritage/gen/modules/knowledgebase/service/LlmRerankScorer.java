@@ -0,0 +1,107 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.RerankProperties;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 大模型打分器
+ * 一次调用对全部候选逐段打分（输出“编号:分数”，每段只需几个 Token），
+ * 片段截断到 maxPassageChars，输入长度与候选数成正比、与原文长度无关。
+ */
+@Component
+public class LlmRerankScorer implements RerankScorer {
+
+    private static final Pattern SCORE_LINE = Pattern.compile("(\\d{1,4})\\s*[:：]\\s*(\\d+(?:\\.\\d+)?)");
+
+    /**
+     * 模型漏评的片段得分，排在所有已评分片段之后
+     */
+    private static final double UNSCORED = -1;
+
+    private final ChatClient chatClient;
+    private final RerankProperties properties;
+    private final String systemPrompt;
+
+    public LlmRerankScorer(ChatClient.Builder chatClientBuilder,
+                           RerankProperties properties,
+                           @Value("classpath:prompts/knowledgebase-rerank.st") Resource systemPromptResource)
+            throws IOException {
+        this.chatClient = chatClientBuilder.build();
+        this.properties = properties;
+        this.systemPrompt = systemPromptResource.getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String name() {
+        return "llm";
+    }
+
+    @Override
+    public double[] score(String query, List<Document> candidates) {
+        StringBuilder user = new StringBuilder("## 问题\n").append(query).append("\n\n## 候选片段\n");
+        for (int i = 0; i < candidates.size(); i++) {
+            user.append('[').append(i + 1).append("] ")
+                .append(passage(candidates.get(i).getText(), properties.getMaxPassageChars()))
+                .append('\n');
+        }
+
+        String output = chatClient.prompt()
+            .system(systemPrompt)
+            .user(user.toString())
+            .options(OpenAiChatOptions.builder()
+                .temperature(0.0)
+                .maxTokens(properties.getMaxTokens())
+                .build())
+            .call()
+            .content();
+
+        double[] scores = parseScores(output, candidates.size());
+        if (scores == null) {
+            throw new IllegalStateException("重排打分结果无法解析");
+        }
+        return scores;
+    }
+
+    /**
+     * 解析“编号:分数”格式的输出（编号从 1 开始），越界编号忽略，漏评的片段记为最低分
+     *
+     * @return 一个分数都没有解析出来时返回 null
+     */
+    static double[] parseScores(String output, int size) {
+        if (output == null) {
+            return null;
+        }
+        double[] scores = new double[size];
+        Arrays.fill(scores, UNSCORED);
+        boolean parsed = false;
+        Matcher matcher = SCORE_LINE.matcher(output);
+        while (matcher.find()) {
+            int index = Integer.parseInt(matcher.group(1)) - 1;
+            if (index >= 0 && index < size) {
+                scores[index] = Double.parseDouble(matcher.group(2));
+                parsed = true;
+            }
+        }
+        return parsed ? scores : null;
+    }
+
+    private static String passage(String text, int maxChars) {
+        if (text == null) {
+            return "";
+        }
+        String passage = text.replaceAll("\\s+", " ").strip();
+        return maxChars > 0 && passage.length() > maxChars ? passage.substring(0, maxChars) + "…" : passage;
+    }
+}
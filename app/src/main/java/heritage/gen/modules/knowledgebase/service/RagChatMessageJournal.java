@@ -0,0 +1,269 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.RagChatJournalProperties;
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.knowledgebase.model.RagChatJournalEvent;
+import heritage.gen.modules.knowledgebase.model.RagChatMessageEntity;
+import heritage.gen.modules.knowledgebase.repository.RagChatJournalRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * RAG 聊天消息日志（写后持久化）
+ * 流式问答的热路径不再同步写数据库：消息顺序由 Redis 计数器原子分配，事件追加到 Redis Stream，
+ * 由 {@link heritage.gen.modules.knowledgebase.listener.RagChatJournalFlusher} 批量落库。
+ * 尚未落库的消息同时记录在会话的待落库 Hash 中，读取消息与构建对话记忆时叠加，保证写后立即可读；
+ * 落库后按值比较删除，避免删掉之后写入的新状态。Stream 与 Hash 都在 Redis 中持久化，进程重启不丢事件。
+ */
+@Slf4j
+@Service
+public class RagChatMessageJournal {
+
+    private final RedisService redisService;
+    private final RagChatJournalRepository journalRepository;
+    private final ObjectMapper objectMapper;
+    private final RagChatJournalProperties properties;
+    private final Timer appendTimer;
+
+    /**
+     * 待落库消息（Hash 值），字段顺序固定，落库后按相同编码比较删除
+     */
+    record PendingMessage(int order, String type, String content, boolean completed, String sourceKbIds, long at) {}
+
+    public RagChatMessageJournal(RedisService redisService, RagChatJournalRepository journalRepository,
+                                 ObjectMapper objectMapper, RagChatJournalProperties properties,
+                                 MeterRegistry meterRegistry) {
+        this.redisService = redisService;
+        this.journalRepository = journalRepository;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.appendTimer = Timer.builder("rag.chat.journal.append")
+            .description("消息日志追加耗时（流式问答热路径上的全部持久化开销）")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+    }
+
+    /**
+     * 开始一轮问答：分配消息顺序并记录用户问题与 AI 消息占位
+     *
+     * @return 用户问题的消息顺序，AI 消息为其 + 1
+     */
+    public int appendTurn(Long sessionId, String question) {
+        long startNanos = System.nanoTime();
+        RagChatJournalEvent event = null;
+        try {
+            long next = allocateOrder(sessionId);
+            event = RagChatJournalEvent.turn(sessionId, (int) next - 2, question, System.currentTimeMillis());
+
+            // 先写待落库消息再追加事件：事件落库后一定能按值清除对应的待落库消息
+            String pendingKey = pendingKey(sessionId);
+            redisService.hSetString(pendingKey, String.valueOf(event.order()), encode(userMessage(event)), stateTtl());
+            redisService.hSetString(pendingKey, String.valueOf(event.order() + 1),
+                encode(placeholder(event)), stateTtl());
+            redisService.streamAdd(AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_STREAM_KEY, event.toFields());
+            return event.order();
+        } catch (Exception e) {
+            log.error("写入消息日志失败: sessionId={}, error={}", sessionId, e.getMessage(), e);
+            if (event != null) {
+                discardPending(event);
+            }
+            throw new BusinessException(ErrorCode.INTERNAL_ERROR, "消息保存失败，请稍后重试");
+        } finally {
+            appendTimer.record(Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * 分配一轮问答的两个消息顺序，返回分配后的计数器值
+     * 计数器存在时只做一次原子自增，热路径上不访问数据库；
+     * 计数器不存在（首次提问或已过期）时，从已落库消息与待落库消息的最大顺序之后开始。
+     * 会话的 message_count 由落库线程异步更新，会滞后于日志，不能作为起点；
+     * 并发的首次提问可能都计算起点，起点在分配脚本内原子地"不存在才使用"，只有一个生效
+     */
+    private long allocateOrder(Long sessionId) {
+        Long allocated = redisService.incrementIfExists(orderKey(sessionId), 2, stateTtl());
+        if (allocated != null) {
+            return allocated;
+        }
+        return redisService.allocateSequence(orderKey(sessionId), nextOrder(sessionId), 2, stateTtl());
+    }
+
+    private long nextOrder(Long sessionId) {
+        int next = journalRepository.nextMessageOrder(sessionId);
+        for (RagChatMessageEntity pending : pendingMessages(sessionId)) {
+            next = Math.max(next, pending.getMessageOrder() + 1);
+        }
+        return next;
+    }
+
+    /**
+     * 记录 AI 回答完成
+     *
+     * @param sourceKbIds 来源知识库ID（JSON 数组），可为 null
+     */
+    public void appendCompletion(Long sessionId, int answerOrder, String content, String sourceKbIds) {
+        long startNanos = System.nanoTime();
+        RagChatJournalEvent event = RagChatJournalEvent.complete(
+            sessionId, answerOrder, content, sourceKbIds, System.currentTimeMillis());
+        try {
+            redisService.hSetString(pendingKey(sessionId), String.valueOf(answerOrder),
+                encode(completedMessage(event)), stateTtl());
+            redisService.streamAdd(AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_STREAM_KEY, event.toFields());
+        } catch (Exception e) {
+            log.error("写入回答完成日志失败: sessionId={}, order={}, error={}", sessionId, answerOrder, e.getMessage(), e);
+            discardPending(event);
+            throw new BusinessException(ErrorCode.INTERNAL_ERROR, "回答保存失败");
+        } finally {
+            appendTimer.record(Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * 会话中尚未落库的消息（按消息顺序正序），读取失败时返回空列表
+     */
+    public List<RagChatMessageEntity> pendingMessages(Long sessionId) {
+        Map<String, String> entries;
+        try {
+            entries = redisService.hGetAllString(pendingKey(sessionId));
+        } catch (Exception e) {
+            log.warn("读取未落库消息失败: sessionId={}, error={}", sessionId, e.getMessage());
+            return List.of();
+        }
+        if (entries == null || entries.isEmpty()) {
+            return List.of();
+        }
+        List<RagChatMessageEntity> messages = new ArrayList<>(entries.size());
+        for (String value : entries.values()) {
+            try {
+                messages.add(toEntity(objectMapper.readValue(value, PendingMessage.class)));
+            } catch (JsonProcessingException e) {
+                log.warn("解析未落库消息失败: sessionId={}, error={}", sessionId, e.getMessage());
+            }
+        }
+        messages.sort((a, b) -> Integer.compare(a.getMessageOrder(), b.getMessageOrder()));
+        return messages;
+    }
+
+    /**
+     * 事件落库后清除对应的待落库消息（值已被更新的状态覆盖时保留）
+     */
+    public void markFlushed(RagChatJournalEvent event) {
+        String pendingKey = pendingKey(event.sessionId());
+        switch (event.type()) {
+            case TURN -> {
+                redisService.hRemoveIfEquals(pendingKey, String.valueOf(event.order()), encode(userMessage(event)));
+                redisService.hRemoveIfEquals(pendingKey, String.valueOf(event.order() + 1), encode(placeholder(event)));
+            }
+            case COMPLETE -> redisService.hRemoveIfEquals(pendingKey, String.valueOf(event.order()),
+                encode(completedMessage(event)));
+        }
+    }
+
+    /**
+     * 会话删除后清理计数器与待落库消息；日志中剩余的事件落库时因会话不存在被跳过
+     */
+    public void discardSession(Long sessionId) {
+        try {
+            redisService.delete(pendingKey(sessionId));
+            redisService.delete(orderKey(sessionId));
+        } catch (Exception e) {
+            log.warn("清理会话消息日志状态失败: sessionId={}, error={}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 合并已落库与未落库的消息：同一消息顺序以未落库的（更新的）状态为准，结果按消息顺序正序
+     */
+    public static List<RagChatMessageEntity> overlay(Collection<RagChatMessageEntity> persisted,
+                                                     Collection<RagChatMessageEntity> pending) {
+        TreeMap<Integer, RagChatMessageEntity> merged = new TreeMap<>();
+        for (RagChatMessageEntity message : persisted) {
+            merged.put(message.getMessageOrder(), message);
+        }
+        for (RagChatMessageEntity message : pending) {
+            RagChatMessageEntity existing = merged.get(message.getMessageOrder());
+            // 已落库为完成状态时，不用未落库的占位覆盖
+            if (existing != null && Boolean.TRUE.equals(existing.getCompleted())
+                    && !Boolean.TRUE.equals(message.getCompleted())) {
+                continue;
+            }
+            if (existing != null) {
+                message.setId(existing.getId());
+                message.setCreatedAt(existing.getCreatedAt());
+            }
+            merged.put(message.getMessageOrder(), message);
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    private void discardPending(RagChatJournalEvent event) {
+        try {
+            markFlushed(event);
+        } catch (Exception e) {
+            log.warn("清理未追加事件的待落库消息失败: sessionId={}, error={}", event.sessionId(), e.getMessage());
+        }
+    }
+
+    private static PendingMessage userMessage(RagChatJournalEvent turn) {
+        return new PendingMessage(turn.order(), "USER", turn.content(), true, null, turn.at());
+    }
+
+    private static PendingMessage placeholder(RagChatJournalEvent turn) {
+        return new PendingMessage(turn.order() + 1, "ASSISTANT", "", false, null, turn.at());
+    }
+
+    private static PendingMessage completedMessage(RagChatJournalEvent completion) {
+        return new PendingMessage(completion.order(), "ASSISTANT", completion.content(), true,
+            completion.sourceKbIds(), completion.at());
+    }
+
+    private static RagChatMessageEntity toEntity(PendingMessage pending) {
+        RagChatMessageEntity message = new RagChatMessageEntity();
+        message.setType(RagChatMessageEntity.MessageType.valueOf(pending.type()));
+        message.setContent(pending.content());
+        message.setMessageOrder(pending.order());
+        message.setCompleted(pending.completed());
+        message.setSourceKnowledgeBaseIds(pending.sourceKbIds());
+        LocalDateTime at = LocalDateTime.ofInstant(Instant.ofEpochMilli(pending.at()), ZoneId.systemDefault());
+        message.setCreatedAt(at);
+        message.setUpdatedAt(at);
+        return message;
+    }
+
+    private String encode(PendingMessage message) {
+        try {
+            return objectMapper.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Duration stateTtl() {
+        return Duration.ofHours(properties.getStateTtlHours());
+    }
+
+    private static String pendingKey(Long sessionId) {
+        return AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_PENDING_PREFIX + sessionId;
+    }
+
+    private static String orderKey(Long sessionId) {
+        return AsyncTaskStreamConstants.RAG_CHAT_ORDER_PREFIX + sessionId;
+    }
+}
@@ -0,0 +1,97 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.RagChatProperties;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.knowledgebase.model.RagChatSessionSnapshot;
+import heritage.gen.modules.knowledgebase.repository.RagChatSessionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+
+/**
+ * RAG 聊天会话快照缓存
+ * 流式问答每条消息都要校验会话归属、读取知识库与滚动摘要，快照缓存在 Redis 中，
+ * 命中时热路径上不再执行会话 + 知识库的关联查询。
+ * 知识库关联变更、会话删除、摘要刷新时清除缓存（有事务时在提交后清除）；
+ * 清除与并发回填之间仍可能写回旧快照，最多保留缓存时长，期间使用的是变更前的知识库或摘要。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RagChatSessionCache {
+
+    private static final String CACHE_PREFIX = "rag:chat:session:";
+
+    private final RagChatSessionRepository sessionRepository;
+    private final RedisService redisService;
+    private final ObjectMapper objectMapper;
+    private final RagChatProperties properties;
+
+    /**
+     * 获取会话快照，未命中时查询数据库并回填
+     *
+     * @throws BusinessException 会话不存在
+     */
+    public RagChatSessionSnapshot get(Long sessionId) {
+        RagChatSessionSnapshot cached = read(sessionId);
+        if (cached != null) {
+            return cached;
+        }
+        RagChatSessionSnapshot snapshot = sessionRepository.findByIdWithKnowledgeBases(sessionId)
+            .map(RagChatSessionSnapshot::of)
+            .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "会话不存在"));
+        write(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 清除会话快照；在事务中调用时等事务提交后再清除，避免并发请求在提交前回填旧数据
+     */
+    public void evict(Long sessionId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    delete(sessionId);
+                }
+            });
+        } else {
+            delete(sessionId);
+        }
+    }
+
+    private RagChatSessionSnapshot read(Long sessionId) {
+        try {
+            String json = redisService.getString(CACHE_PREFIX + sessionId);
+            return json != null ? objectMapper.readValue(json, RagChatSessionSnapshot.class) : null;
+        } catch (Exception e) {
+            log.warn("读取会话快照缓存失败: sessionId={}, error={}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    private void write(RagChatSessionSnapshot snapshot) {
+        try {
+            redisService.setString(CACHE_PREFIX + snapshot.id(), objectMapper.writeValueAsString(snapshot),
+                Duration.ofMinutes(properties.getSessionCacheTtlMinutes()));
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("写入会话快照缓存失败: sessionId={}, error={}", snapshot.id(), e.getMessage());
+        }
+    }
+
+    private void delete(Long sessionId) {
+        try {
+            redisService.delete(CACHE_PREFIX + sessionId);
+        } catch (Exception e) {
+            log.warn("清除会话快照缓存失败: sessionId={}, error={}", sessionId, e.getMessage());
+        }
+    }
+}
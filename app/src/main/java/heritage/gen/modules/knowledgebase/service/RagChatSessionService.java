@@ -1,19 +1,26 @@
 package heritage.gen.modules.knowledgebase.service;
 
+import heritage.gen.common.config.RagChatProperties;
 import heritage.gen.common.exception.BusinessException;
 import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.modules.knowledgebase.model.ConversationContext;
 import heritage.gen.modules.knowledgebase.model.KnowledgeBaseEntity;
 import heritage.gen.modules.knowledgebase.model.RagChatDTO.CreateSessionRequest;
+import heritage.gen.modules.knowledgebase.model.RagChatDTO.MessagePageDTO;
 import heritage.gen.modules.knowledgebase.model.RagChatDTO.SessionDTO;
 import heritage.gen.modules.knowledgebase.model.RagChatDTO.SessionDetailDTO;
 import heritage.gen.modules.knowledgebase.model.RagChatDTO.SessionListItemDTO;
+import heritage.gen.modules.knowledgebase.model.RagChatDTO.SessionSummaryDTO;
 import heritage.gen.modules.knowledgebase.model.RagChatMessageEntity;
 import heritage.gen.modules.knowledgebase.model.RagChatSessionEntity;
+import heritage.gen.modules.knowledgebase.model.RagChatSessionSnapshot;
+import heritage.gen.modules.knowledgebase.model.RagStreamEvent;
 import heritage.gen.modules.knowledgebase.repository.KnowledgeBaseRepository;
 import heritage.gen.modules.knowledgebase.repository.RagChatMessageRepository;
 import heritage.gen.modules.knowledgebase.repository.RagChatSessionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Flux;
@@ -37,7 +44,23 @@ public class RagChatSessionService {
     private final RagChatMessageRepository messageRepository;
     private final KnowledgeBaseRepository knowledgeBaseRepository;
     private final KnowledgeBaseQueryService queryService;
+    private final RagConversationMemory conversationMemory;
+    private final RagChatProperties chatProperties;
+    private final RagChatMessageJournal journal;
+    private final RagChatSessionCache sessionCache;
 
+    /**
+     * 一轮流式问答
+     *
+     * @param session       会话快照
+     * @param questionOrder 用户问题的消息顺序，AI 回答为其 + 1
+     */
+    public record StreamTurn(RagChatSessionSnapshot session, int questionOrder) {
+
+        public int answerOrder() {
+            return questionOrder + 1;
+        }
+    }
 
     /**
      * 创建新会话
@@ -83,8 +106,8 @@ public class RagChatSessionService {
     }
 
     /**
-     * 获取会话详情（包含消息）
-     * 分两次查询避免笛卡尔积问题
+     * 获取会话详情（包含最近的消息）
+     * 分两次查询避免笛卡尔积问题；只返回最近一页消息，更早的消息通过 {@link #getMessages} 按游标加载
      */
     public SessionDetailDTO getSessionDetail(Long userId, Long sessionId) {
         // 先加载会话和知识库
@@ -93,91 +116,144 @@ public class RagChatSessionService {
         
         checkSessionOwner(session, userId);
 
-        // 再加载消息
-        List<RagChatMessageEntity> messages = messageRepository.findBySessionIdOrderByMessageOrderAsc(sessionId);
+        // 再加载最近的消息（多取一条判断是否还有更早的消息），叠加尚未落库的消息
+        int limit = Math.max(1, chatProperties.getInitialMessages());
+        List<RagChatMessageEntity> persisted = messageRepository.findBySessionIdOrderByMessageOrderDesc(
+            sessionId, Limit.of(limit + 1));
+        List<RagChatMessageEntity> merged = RagChatMessageJournal.overlay(persisted, journal.pendingMessages(sessionId));
+        boolean hasMore = merged.size() > limit;
+        List<RagChatMessageEntity> latest = hasMore ? merged.subList(merged.size() - limit, merged.size()) : merged;
 
-        return toSessionDetailDTO(session, messages);
+        return toSessionDetailDTO(session, latest, hasMore);
     }
 
     /**
-     * 准备流式消息（保存用户消息，创建 AI 消息占位）
-     *
-     * @return AI 消息的 ID
+     * 获取会话摘要（会话信息与知识库，不读取消息表）
      */
-    @Transactional
-    public Long prepareStreamMessage(Long userId, Long sessionId, String question) {
+    public SessionSummaryDTO getSessionSummary(Long userId, Long sessionId) {
         RagChatSessionEntity session = sessionRepository.findByIdWithKnowledgeBases(sessionId)
             .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "会话不存在"));
-            
+
         checkSessionOwner(session, userId);
 
-        // 获取当前消息数量作为起始顺序
-        int nextOrder = session.getMessageCount();
-
-        // 保存用户消息
-        RagChatMessageEntity userMessage = new RagChatMessageEntity();
-        userMessage.setSession(session);
-        userMessage.setType(RagChatMessageEntity.MessageType.USER);
-        userMessage.setContent(question);
-        userMessage.setMessageOrder(nextOrder);
-        userMessage.setCompleted(true);
-        messageRepository.save(userMessage);
-
-        // 创建 AI 消息占位（未完成）
-        RagChatMessageEntity assistantMessage = new RagChatMessageEntity();
-        assistantMessage.setSession(session);
-        assistantMessage.setType(RagChatMessageEntity.MessageType.ASSISTANT);
-        assistantMessage.setContent("");
-        assistantMessage.setMessageOrder(nextOrder + 1);
-        assistantMessage.setCompleted(false);
-        assistantMessage = messageRepository.save(assistantMessage);
-
-        // 更新会话消息数量
-        session.setMessageCount(nextOrder + 2);
-        sessionRepository.save(session);
+        return new SessionSummaryDTO(
+            session.getId(),
+            session.getTitle(),
+            session.getKnowledgeBases().stream().map(this::toKnowledgeBaseDTO).toList(),
+            session.getMessageCount(),
+            session.getIsPinned(),
+            session.getCreatedAt(),
+            session.getUpdatedAt()
+        );
+    }
 
-        log.info("准备流式消息: sessionId={}, messageId={}", sessionId, assistantMessage.getId());
+    /**
+     * 游标分页获取消息
+     * 指定 before 时返回该顺序之前最近的 limit 条，指定 after 时返回该顺序之后的 limit 条，都不指定时返回最近的 limit 条；
+     * 结果均按消息顺序正序排列
+     *
+     * @param before 消息顺序游标（不含），向更早方向翻页
+     * @param after  消息顺序游标（不含），向更新方向翻页
+     * @param limit  单页条数，为空时使用默认值
+     */
+    public MessagePageDTO getMessages(Long userId, Long sessionId, Integer before, Integer after, Integer limit) {
+        if (before != null && after != null) {
+            throw new BusinessException(ErrorCode.BAD_REQUEST, "before 与 after 不能同时指定");
+        }
+        RagChatSessionEntity session = sessionRepository.findById(sessionId)
+            .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "会话不存在"));
 
-        return assistantMessage.getId();
+        checkSessionOwner(session, userId);
+
+        int pageSize = limit == null || limit <= 0
+            ? chatProperties.getInitialMessages()
+            : Math.min(limit, chatProperties.getMaxPageSize());
+        Limit fetchLimit = Limit.of(pageSize + 1);
+
+        List<RagChatMessageEntity> persisted;
+        if (after != null) {
+            persisted = messageRepository
+                .findBySessionIdAndMessageOrderGreaterThanOrderByMessageOrderAsc(sessionId, after, fetchLimit);
+        } else if (before != null) {
+            persisted = messageRepository
+                .findBySessionIdAndMessageOrderLessThanOrderByMessageOrderDesc(sessionId, before, fetchLimit);
+        } else {
+            persisted = messageRepository.findBySessionIdOrderByMessageOrderDesc(sessionId, fetchLimit);
+        }
+
+        // 叠加尚未落库的消息（流式回答刚完成时按 after 拉取的新消息多半还在消息日志中）
+        List<RagChatMessageEntity> pending = journal.pendingMessages(sessionId).stream()
+            .filter(message -> after == null || message.getMessageOrder() > after)
+            .filter(message -> before == null || message.getMessageOrder() < before)
+            .toList();
+        List<RagChatMessageEntity> merged = RagChatMessageJournal.overlay(persisted, pending);
+
+        boolean hasMore = merged.size() > pageSize;
+        List<RagChatMessageEntity> messages;
+        if (!hasMore) {
+            messages = merged;
+        } else if (after != null) {
+            messages = merged.subList(0, pageSize);
+        } else {
+            messages = merged.subList(merged.size() - pageSize, merged.size());
+        }
+
+        return new MessagePageDTO(messages.stream().map(this::toMessageDTO).toList(), hasMore);
     }
 
     /**
-     * 流式响应完成后更新消息
+     * 准备流式消息（记录用户消息与 AI 消息占位）
+     * 消息写入消息日志后异步批量落库；会话归属、知识库与摘要读取缓存的会话快照，
+     * 计数器与快照都命中时热路径上不访问数据库
+     *
+     * @return 本轮问答，用于获取流式回答与回答完成后回写
      */
-    @Transactional
-    public void completeStreamMessage(Long messageId, String content, List<Long> sourceKnowledgeBaseIds) {
-        RagChatMessageEntity message = messageRepository.findById(messageId)
-            .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "消息不存在"));
+    public StreamTurn prepareStreamMessage(Long userId, Long sessionId, String question) {
+        RagChatSessionSnapshot session = sessionCache.get(sessionId);
+        if (!userId.equals(session.userId())) {
+            throw new BusinessException(ErrorCode.FORBIDDEN, "无权访问此会话");
+        }
+
+        int questionOrder = journal.appendTurn(sessionId, question);
 
-        message.setContent(content);
-        message.setCompleted(true);
+        log.info("准备流式消息: sessionId={}, questionOrder={}", sessionId, questionOrder);
 
+        return new StreamTurn(session, questionOrder);
+    }
+
+    /**
+     * 流式响应完成后记录回答，并按需刷新会话的滚动摘要
+     */
+    public void completeStreamMessage(StreamTurn turn, String content, List<Long> sourceKnowledgeBaseIds) {
         // 保存来源知识库ID列表（JSON格式）
+        String json = null;
         if (sourceKnowledgeBaseIds != null && !sourceKnowledgeBaseIds.isEmpty()) {
-            String json = sourceKnowledgeBaseIds.stream()
+            json = sourceKnowledgeBaseIds.stream()
                 .map(String::valueOf)
                 .collect(Collectors.joining(",", "[", "]"));
-            message.setSourceKnowledgeBaseIds(json);
         }
 
-        messageRepository.save(message);
+        Long sessionId = turn.session().id();
+        journal.appendCompletion(sessionId, turn.answerOrder(), content, json);
+
+        log.info("完成流式消息: sessionId={}, answerOrder={}, contentLength={}, sourceKbIds={}",
+            sessionId, turn.answerOrder(), content.length(), sourceKnowledgeBaseIds);
 
-        log.info("完成流式消息: messageId={}, contentLength={}, sourceKbIds={}",
-            messageId, content.length(), sourceKnowledgeBaseIds);
+        conversationMemory.refreshSummaryAsync(sessionId, turn.answerOrder() + 1);
     }
 
     /**
-     * 获取流式回答
+     * 获取流式回答（检索元数据 + 回答片段事件流）
+     * 对话记忆只取本轮问题之前的消息
      */
-    public Flux<String> getStreamAnswer(Long userId, Long sessionId, String question) {
-        RagChatSessionEntity session = sessionRepository.findByIdWithKnowledgeBases(sessionId)
-            .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "会话不存在"));
-        
-        checkSessionOwner(session, userId);
+    public Flux<RagStreamEvent> getStreamAnswer(StreamTurn turn, String question) {
+        RagChatSessionSnapshot session = turn.session();
 
-        List<Long> kbIds = session.getKnowledgeBaseIds();
+        // 对话记忆：滚动摘要 + 最近若干轮，不加载完整历史
+        String history = conversationMemory.buildHistory(session, turn.questionOrder());
 
-        return queryService.answerQuestionStream(kbIds, question);
+        return queryService.answerQuestionStream(session.knowledgeBaseIds(), question,
+            new ConversationContext(session.id(), turn.questionOrder(), history));
     }
 
     /**
@@ -229,6 +305,7 @@ public class RagChatSessionService {
 
         session.setKnowledgeBases(new HashSet<>(knowledgeBases));
         sessionRepository.save(session);
+        sessionCache.evict(sessionId);
 
         log.info("更新会话知识库: sessionId={}, kbIds={}", sessionId, knowledgeBaseIds);
     }
@@ -244,6 +321,8 @@ public class RagChatSessionService {
         checkSessionOwner(session, userId);
         
         sessionRepository.delete(session);
+        journal.discardSession(sessionId);
+        sessionCache.evict(sessionId);
 
         log.info("删除会话: sessionId={}", sessionId);
     }
@@ -287,7 +366,8 @@ public class RagChatSessionService {
     /**
      * 转换会话实体和消息列表为详情DTO
      */
-    private SessionDetailDTO toSessionDetailDTO(RagChatSessionEntity session, List<RagChatMessageEntity> messages) {
+    private SessionDetailDTO toSessionDetailDTO(RagChatSessionEntity session, List<RagChatMessageEntity> messages,
+                                                boolean hasMoreMessages) {
         // 转换知识库列表
         List<heritage.gen.modules.knowledgebase.model.KnowledgeBaseListItemDTO> kbDTOs = session.getKnowledgeBases().stream()
             .map(this::toKnowledgeBaseDTO)
@@ -304,7 +384,8 @@ public class RagChatSessionService {
             kbDTOs,
             messageDTOs,
             session.getCreatedAt(),
-            session.getUpdatedAt()
+            session.getUpdatedAt(),
+            hasMoreMessages
         );
     }
 
@@ -337,7 +418,8 @@ public class RagChatSessionService {
             message.getTypeString(),
             message.getContent(),
             message.getCreatedAt(),
-            sourceKbIds
+            sourceKbIds,
+            message.getMessageOrder()
         );
     }
 
@@ -0,0 +1,265 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.RagChatProperties;
+import heritage.gen.modules.knowledgebase.model.RagChatMessageEntity;
+import heritage.gen.modules.knowledgebase.model.RagChatSessionEntity;
+import heritage.gen.modules.knowledgebase.model.RagChatSessionSnapshot;
+import heritage.gen.modules.knowledgebase.repository.RagChatMessageRepository;
+import heritage.gen.modules.knowledgebase.repository.RagChatSessionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * RAG 聊天对话记忆
+ * 提示词中只放入滚动摘要 + 最近 N 轮原文，历史消息通过 (session_id, messageOrder) 索引按游标读取，
+ * 提示词长度和查询开销不随会话变长而增长。
+ * 窗口之外累计的对话在回答完成后异步合并进滚动摘要，摘要失败只影响记忆的完整性，不影响回答。
+ */
+@Slf4j
+@Service
+public class RagConversationMemory {
+
+    private final RagChatMessageRepository messageRepository;
+    private final RagChatSessionRepository sessionRepository;
+    private final RagChatMessageJournal journal;
+    private final RagChatSessionCache sessionCache;
+    private final RagChatProperties properties;
+    private final ChatClient chatClient;
+    private final PromptTemplate summaryPromptTemplate;
+    private final DistributionSummary historyChars;
+    private final Counter summarySuccessCounter;
+    private final Counter summaryFailureCounter;
+    private final Set<Long> refreshingSessions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService summaryExecutor = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("rag-chat-summary-", 0).factory());
+
+    public RagConversationMemory(RagChatMessageRepository messageRepository,
+                                 RagChatSessionRepository sessionRepository,
+                                 RagChatMessageJournal journal,
+                                 RagChatSessionCache sessionCache,
+                                 RagChatProperties properties,
+                                 ChatClient.Builder chatClientBuilder,
+                                 MeterRegistry meterRegistry,
+                                 @Value("classpath:prompts/rag-chat-summary.st") Resource summaryPromptResource)
+            throws IOException {
+        this.messageRepository = messageRepository;
+        this.sessionRepository = sessionRepository;
+        this.journal = journal;
+        this.sessionCache = sessionCache;
+        this.properties = properties;
+        this.chatClient = chatClientBuilder.build();
+        this.summaryPromptTemplate = new PromptTemplate(summaryPromptResource.getContentAsString(StandardCharsets.UTF_8));
+        this.historyChars = DistributionSummary.builder("rag.chat.memory.chars")
+            .description("放入提示词的对话历史长度（摘要 + 最近若干轮）")
+            .baseUnit("chars")
+            .register(meterRegistry);
+        this.summarySuccessCounter = summaryCounter(meterRegistry, "success");
+        this.summaryFailureCounter = summaryCounter(meterRegistry, "failure");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summaryExecutor.shutdown();
+    }
+
+    /**
+     * 构建对话历史文本
+     * 有可用摘要时，原文从摘要覆盖位置的下一条开始，摘要 + 原文连续覆盖全部历史；
+     * 摘要异步刷新有滞后，原文因此可能多于窗口，但最多 {@link #maxRawMessages} 条。
+     * 摘要长期失败、积压超过该上限时，摘要与原文之间会缺少中间的若干轮（摘要按批次追赶后恢复）。
+     *
+     * @param session     会话快照（只读取摘要字段）
+     * @param beforeOrder 当前用户问题的消息顺序，只取其之前的消息
+     * @return 对话历史，没有历史时返回空字符串
+     */
+    public String buildHistory(RagChatSessionSnapshot session, int beforeOrder) {
+        int windowMessages = Math.max(0, properties.getMemoryWindowTurns()) * 2;
+        int summarizedUntil = session.summarizedUntilOrder() != null ? session.summarizedUntilOrder() : -1;
+        String summary = session.historySummary();
+        // 摘要覆盖到当前问题之后时不使用（例如重新生成较早的回答）
+        boolean useSummary = summary != null && !summary.isBlank()
+            && summarizedUntil >= 0 && summarizedUntil < beforeOrder;
+        int rawMessages = useSummary
+            ? Math.min(Math.max(windowMessages, beforeOrder - summarizedUntil - 1), maxRawMessages())
+            : windowMessages;
+
+        List<RagChatMessageEntity> recent = rawMessages > 0
+            ? messageRepository.findBySessionIdAndMessageOrderLessThanOrderByMessageOrderDesc(
+                session.id(), beforeOrder, Limit.of(rawMessages))
+            : List.of();
+        // 上一轮的问答可能还在消息日志中未落库，叠加后再取窗口
+        List<RagChatMessageEntity> pending = rawMessages > 0
+            ? journal.pendingMessages(session.id()).stream()
+                .filter(message -> message.getMessageOrder() < beforeOrder)
+                .toList()
+            : List.of();
+        List<RagChatMessageEntity> window = RagChatMessageJournal.overlay(recent, pending).stream()
+            .filter(message -> !useSummary || message.getMessageOrder() > summarizedUntil)
+            .toList();
+        if (window.size() > rawMessages) {
+            window = window.subList(window.size() - rawMessages, window.size());
+        }
+
+        String history = formatHistory(useSummary ? summary : null, window, properties.getMemoryMessageMaxChars());
+        historyChars.record(history.length());
+        return history;
+    }
+
+    /**
+     * 有摘要时原文条数上限：窗口 + 摘要刷新前最多积压的两个批次
+     */
+    private int maxRawMessages() {
+        return (Math.max(0, properties.getMemoryWindowTurns()) + Math.max(1, properties.getSummaryBatchTurns()) * 2) * 2;
+    }
+
+    /**
+     * 回答完成后按需刷新滚动摘要（异步执行，同一会话同时只有一个刷新）
+     *
+     * @param sessionId    会话ID
+     * @param messageCount 当前会话消息总数
+     */
+    public void refreshSummaryAsync(Long sessionId, int messageCount) {
+        if (!properties.isSummaryEnabled()) {
+            return;
+        }
+        if (!refreshingSessions.add(sessionId)) {
+            return;
+        }
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    refreshSummary(sessionId, messageCount);
+                } finally {
+                    refreshingSessions.remove(sessionId);
+                }
+            });
+        } catch (Exception e) {
+            refreshingSessions.remove(sessionId);
+            log.warn("提交对话摘要刷新失败: sessionId={}, error={}", sessionId, e.getMessage());
+        }
+    }
+
+    private void refreshSummary(Long sessionId, int messageCount) {
+        RagChatSessionEntity session = sessionRepository.findById(sessionId).orElse(null);
+        if (session == null) {
+            return;
+        }
+        int summarizedUntil = summarizedUntil(session);
+        int[] range = pendingSummaryRange(summarizedUntil, messageCount,
+            properties.getMemoryWindowTurns(), properties.getSummaryBatchTurns());
+        if (range == null) {
+            return;
+        }
+
+        try {
+            List<RagChatMessageEntity> persisted = messageRepository
+                .findBySessionIdAndMessageOrderGreaterThanEqualAndMessageOrderLessThanOrderByMessageOrderAsc(
+                    sessionId, range[0], range[1], Limit.of(range[1] - range[0]));
+            List<RagChatMessageEntity> messages = RagChatMessageJournal.overlay(persisted,
+                journal.pendingMessages(sessionId).stream()
+                    .filter(message -> message.getMessageOrder() >= range[0] && message.getMessageOrder() < range[1])
+                    .toList());
+            String newSummary = summarize(session.getHistorySummary(), messages);
+            int updated = sessionRepository.updateHistorySummary(sessionId, newSummary, range[1] - 1, summarizedUntil);
+            if (updated > 0) {
+                sessionCache.evict(sessionId);
+                summarySuccessCounter.increment();
+                log.info("对话摘要已更新: sessionId={}, 覆盖至 messageOrder={}, 摘要长度={}",
+                    sessionId, range[1] - 1, newSummary.length());
+            }
+        } catch (Exception e) {
+            summaryFailureCounter.increment();
+            log.warn("对话摘要刷新失败: sessionId={}, error={}", sessionId, e.getMessage());
+        }
+    }
+
+    private String summarize(String previousSummary, List<RagChatMessageEntity> messages) {
+        int maxChars = properties.getSummaryMaxChars();
+        String systemPrompt = summaryPromptTemplate.render(Map.of("maxChars", maxChars));
+        String userPrompt = "## 已有摘要\n"
+            + (previousSummary == null || previousSummary.isBlank() ? "无" : previousSummary)
+            + "\n\n## 新增对话\n"
+            + formatHistory(null, messages, properties.getMemoryMessageMaxChars() * 2);
+        String summary = chatClient.prompt()
+            .system(systemPrompt)
+            .user(userPrompt)
+            .call()
+            .content();
+        if (summary == null || summary.isBlank()) {
+            throw new IllegalStateException("摘要结果为空");
+        }
+        summary = summary.strip();
+        return summary.length() > maxChars ? summary.substring(0, maxChars) : summary;
+    }
+
+    /**
+     * 计算待摘要的消息顺序区间 [from, to)
+     * 最近 windowTurns 轮保留原文不摘要；窗口之外累计满 batchTurns 轮才刷新一次。
+     * 从上次摘要的下一条开始，单次最多摘要 2 * batchTurns 轮，积压较多时（例如启用摘要前的长会话）
+     * 后续每次刷新继续向后追赶，摘要始终连续覆盖会话开头以来的对话。
+     *
+     * @return 无需刷新时返回 null
+     */
+    static int[] pendingSummaryRange(int summarizedUntil, int messageCount, int windowTurns, int batchTurns) {
+        int windowStart = messageCount - Math.max(0, windowTurns) * 2;
+        int from = summarizedUntil + 1;
+        int batchMessages = Math.max(1, batchTurns) * 2;
+        if (windowStart - from < batchMessages) {
+            return null;
+        }
+        return new int[]{from, Math.min(windowStart, from + batchMessages * 2)};
+    }
+
+    /**
+     * 格式化对话历史：摘要在前，最近的消息按顺序在后；未完成或为空的消息跳过，过长的消息截断
+     */
+    static String formatHistory(String summary, List<RagChatMessageEntity> messages, int messageMaxChars) {
+        StringBuilder sb = new StringBuilder();
+        if (summary != null && !summary.isBlank()) {
+            sb.append("【较早对话摘要】").append(summary.strip()).append("\n\n");
+        }
+        for (RagChatMessageEntity message : messages) {
+            String content = message.getContent();
+            if (!Boolean.TRUE.equals(message.getCompleted()) || content == null || content.isBlank()) {
+                continue;
+            }
+            content = content.strip();
+            if (messageMaxChars > 0 && content.length() > messageMaxChars) {
+                content = content.substring(0, messageMaxChars) + "…";
+            }
+            sb.append(message.getType() == RagChatMessageEntity.MessageType.USER ? "用户：" : "助手：")
+                .append(content)
+                .append('\n');
+        }
+        return sb.toString().strip();
+    }
+
+    private static int summarizedUntil(RagChatSessionEntity session) {
+        return session.getSummarizedUntilOrder() != null ? session.getSummarizedUntilOrder() : -1;
+    }
+
+    private static Counter summaryCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("rag.chat.summary.refresh")
+            .description("对话滚动摘要刷新次数")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+}
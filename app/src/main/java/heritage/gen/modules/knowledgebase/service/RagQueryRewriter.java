@@ -0,0 +1,212 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.RagChatProperties;
+import heritage.gen.infrastructure.redis.RedisService;
+import heritage.gen.modules.knowledgebase.model.ConversationContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多轮问答检索改写
+ * 追问中的指代（如“它的传承人有哪些”）直接向量化会检索到无关内容，检索前结合对话历史改写为独立的检索问题。
+ * 问题本身已完整（无指代、不过短）或没有对话历史时跳过改写；改写结果按（会话, 轮次）缓存在 Redis，
+ * 同一轮重试时不重复调用大模型。改写失败时退回原问题，不影响回答。
+ */
+@Slf4j
+@Service
+public class RagQueryRewriter {
+
+    private static final String CACHE_PREFIX = "rag:query-rewrite:";
+
+    /**
+     * 依赖上文的指代词与省略表达
+     */
+    private static final List<String> CONTEXT_MARKERS = List.of(
+        "它", "他", "她", "其", "该", "此", "这", "那", "上述", "上面", "前面", "刚才", "之前", "以上", "后者", "前者",
+        "还有", "另外", "另一", "同样", "一样", "区别", "对比", "比较");
+
+    /**
+     * 不超过该长度的问题通常是省略了主语的追问（如“为什么”“具体讲讲”）
+     */
+    private static final int SHORT_QUESTION_CHARS = 6;
+
+    /**
+     * 改写结果超过该长度视为模型没有按要求输出，退回原问题
+     */
+    private static final int MAX_REWRITE_CHARS = 200;
+
+    private final ChatClient chatClient;
+    private final RedisService redisService;
+    private final RagChatProperties properties;
+    private final String systemPrompt;
+    private final Timer rewrittenTimer;
+    private final Timer cachedTimer;
+    private final Timer failedTimer;
+    private final Counter skippedCounter;
+
+    /**
+     * 改写结果
+     *
+     * @param query         用于检索（以及语义缓存、工具预查询）的问题
+     * @param standalone    query 是否可以脱离对话历史理解；改写失败退回原问题时为 false
+     * @param outcome       rewritten / cached / skipped / failed
+     * @param elapsedMillis 改写耗时
+     */
+    public record Result(String query, boolean standalone, String outcome, long elapsedMillis) {
+
+        static Result skipped(String question) {
+            return new Result(question, true, "skipped", 0);
+        }
+    }
+
+    public RagQueryRewriter(ChatClient.Builder chatClientBuilder,
+                            RedisService redisService,
+                            RagChatProperties properties,
+                            MeterRegistry meterRegistry,
+                            @Value("classpath:prompts/knowledgebase-query-rewrite.st") Resource systemPromptResource)
+            throws IOException {
+        this.chatClient = chatClientBuilder.build();
+        this.redisService = redisService;
+        this.properties = properties;
+        this.systemPrompt = systemPromptResource.getContentAsString(StandardCharsets.UTF_8);
+        this.rewrittenTimer = rewriteTimer(meterRegistry, "rewritten");
+        this.cachedTimer = rewriteTimer(meterRegistry, "cached");
+        this.failedTimer = rewriteTimer(meterRegistry, "failed");
+        this.skippedCounter = Counter.builder("rag.query.rewrite.skipped")
+            .description("问题已完整或没有对话历史而跳过检索改写的次数")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 把当前问题改写为独立的检索问题
+     *
+     * @param conversation 会话上下文，为 null 表示单轮问答
+     * @param question     用户原问题
+     */
+    public Result rewrite(ConversationContext conversation, String question) {
+        if (!properties.isRewriteEnabled() || conversation == null || !conversation.hasHistory()
+                || !needsRewrite(question)) {
+            skippedCounter.increment();
+            return Result.skipped(question);
+        }
+
+        long startNanos = System.nanoTime();
+        String cacheKey = CACHE_PREFIX + conversation.sessionId() + ":" + conversation.turn();
+        String cached = readCache(cacheKey);
+        if (cached != null) {
+            long elapsed = record(cachedTimer, startNanos);
+            return new Result(cached, true, "cached", elapsed);
+        }
+
+        try {
+            String rewritten = sanitize(chatClient.prompt()
+                .system(systemPrompt)
+                .user("## 对话历史\n" + conversation.history() + "\n\n## 当前问题\n" + question)
+                .options(OpenAiChatOptions.builder().maxTokens(properties.getRewriteMaxTokens()).build())
+                .call()
+                .content());
+            if (rewritten == null) {
+                throw new IllegalStateException("改写结果为空或过长");
+            }
+            writeCache(cacheKey, rewritten);
+            long elapsed = record(rewrittenTimer, startNanos);
+            log.info("检索问题已改写: sessionId={}, turn={}, 耗时={}ms, {} -> {}",
+                conversation.sessionId(), conversation.turn(), elapsed, question, rewritten);
+            return new Result(rewritten, true, "rewritten", elapsed);
+        } catch (Exception e) {
+            long elapsed = record(failedTimer, startNanos);
+            log.warn("检索问题改写失败，使用原问题: sessionId={}, turn={}, error={}",
+                conversation.sessionId(), conversation.turn(), e.getMessage());
+            return new Result(question, false, "failed", elapsed);
+        }
+    }
+
+    /**
+     * 判断问题是否依赖上文：过短或包含指代、省略、比较类表达
+     */
+    static boolean needsRewrite(String question) {
+        if (question == null) {
+            return false;
+        }
+        String text = question.strip();
+        if (text.isEmpty()) {
+            return false;
+        }
+        if (text.length() <= SHORT_QUESTION_CHARS) {
+            return true;
+        }
+        for (String marker : CONTEXT_MARKERS) {
+            if (text.contains(marker)) {
+                return true;
+            }
+        }
+        // “那苗族古歌呢”这类以“呢”结尾的省略问句
+        return text.endsWith("呢") || text.endsWith("呢？") || text.endsWith("呢?");
+    }
+
+    /**
+     * 清理模型输出：去掉首尾空白、引号与多余的行，不符合要求时返回 null
+     */
+    static String sanitize(String output) {
+        if (output == null) {
+            return null;
+        }
+        String text = output.strip();
+        int newline = text.indexOf('\n');
+        if (newline >= 0) {
+            text = text.substring(0, newline).strip();
+        }
+        while (text.length() >= 2 && isQuote(text.charAt(0)) && isQuote(text.charAt(text.length() - 1))) {
+            text = text.substring(1, text.length() - 1).strip();
+        }
+        return text.isEmpty() || text.length() > MAX_REWRITE_CHARS ? null : text;
+    }
+
+    private static boolean isQuote(char c) {
+        return c == '"' || c == '\'' || c == '“' || c == '”' || c == '「' || c == '」';
+    }
+
+    private String readCache(String cacheKey) {
+        try {
+            return redisService.getString(cacheKey);
+        } catch (Exception e) {
+            log.warn("读取检索改写缓存失败: key={}, error={}", cacheKey, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeCache(String cacheKey, String rewritten) {
+        try {
+            redisService.setString(cacheKey, rewritten, Duration.ofHours(properties.getRewriteCacheTtlHours()));
+        } catch (Exception e) {
+            log.warn("写入检索改写缓存失败: key={}, error={}", cacheKey, e.getMessage());
+        }
+    }
+
+    private static long record(Timer timer, long startNanos) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        timer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    private static Timer rewriteTimer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("rag.query.rewrite")
+            .description("多轮问答检索改写耗时（不含回答生成）")
+            .tag("result", result)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+    }
+}
@@ -0,0 +1,26 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * 检索重排打分器
+ * 实现类注册为 Spring Bean，通过 app.retrieval.rerank.scorer 按 {@link #name()} 选择
+ */
+public interface RerankScorer {
+
+    /**
+     * 打分器名称
+     */
+    String name();
+
+    /**
+     * 对候选片段打分
+     *
+     * @param query      检索问题
+     * @param candidates 候选片段（按混合检索排序）
+     * @return 与 candidates 等长的得分，越大越相关
+     */
+    double[] score(String query, List<Document> candidates);
+}
@@ -0,0 +1,180 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.AnswerCacheProperties;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.modules.knowledgebase.repository.AnswerCacheRepository;
+import heritage.gen.modules.knowledgebase.repository.AnswerCacheRepository.CachedAnswerRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * 知识库问答语义缓存
+ * 以（排序去重后的知识库ID集合, 问题向量）为键：同一知识库集合下，问题向量的余弦相似度达到阈值即视为同一问题，
+ * 直接返回缓存回答，省去检索与大模型调用。问题向量经 CachingEmbeddingModel 计算，随后的向量检索会命中 Embedding 缓存。
+ * 知识库重新向量化或删除时清除涉及该知识库的缓存；缓存读写失败只记录日志，不影响问答。
+ */
+@Slf4j
+@Service
+public class SemanticAnswerCache {
+
+    private final AnswerCacheRepository repository;
+    private final EmbeddingModel embeddingModel;
+    private final AnswerCacheProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter errorCounter;
+
+    /**
+     * 一次缓存查询的结果，未命中时由调用方在生成回答后通过 {@link #put} 写回
+     *
+     * @param kbKey     知识库集合键
+     * @param kbIds     排序去重后的知识库ID
+     * @param embedding 问题向量（查询失败时为 null，此时不写回）
+     * @param hit       命中的缓存回答（未命中时为 null）
+     */
+    public record Lookup(String kbKey, List<Long> kbIds, float[] embedding, CachedAnswerRow hit) {
+
+        public boolean isHit() {
+            return hit != null;
+        }
+    }
+
+    public SemanticAnswerCache(AnswerCacheRepository repository, EmbeddingModel embeddingModel,
+                               AnswerCacheProperties properties, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.embeddingModel = embeddingModel;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.hitCounter = requestCounter("hit");
+        this.missCounter = requestCounter("miss");
+        this.errorCounter = requestCounter("error");
+    }
+
+    /**
+     * 查询语义缓存
+     *
+     * @param knowledgeBaseIds 知识库ID列表
+     * @param question         用户问题
+     */
+    public Lookup lookup(List<Long> knowledgeBaseIds, String question) {
+        List<Long> kbIds = normalizeKbIds(knowledgeBaseIds);
+        String kbKey = buildKbKey(kbIds);
+        if (!properties.isEnabled()) {
+            return new Lookup(kbKey, kbIds, null, null);
+        }
+
+        try {
+            float[] embedding = embeddingModel.embed(question);
+            Optional<CachedAnswerRow> nearest = repository.findNearest(kbKey, embedding, expiryThreshold())
+                .filter(row -> row.similarity() >= properties.getSimilarityThreshold());
+            if (nearest.isPresent()) {
+                hitCounter.increment();
+                repository.incrementHitCount(nearest.get().id());
+                log.info("语义缓存命中: kbIds={}, similarity={}", kbIds, String.format("%.4f", nearest.get().similarity()));
+            } else {
+                missCounter.increment();
+            }
+            return new Lookup(kbKey, kbIds, embedding, nearest.orElse(null));
+        } catch (Exception e) {
+            errorCounter.increment();
+            log.warn("语义缓存查询失败，按未命中处理: kbIds={}, error={}", kbIds, e.getMessage());
+            return new Lookup(kbKey, kbIds, null, null);
+        }
+    }
+
+    /**
+     * 写入回答（仅在查询未命中且问题向量可用时写入）
+     */
+    public void put(Lookup lookup, String question, String answer, List<Long> sourceKbIds) {
+        if (!properties.isEnabled() || lookup.isHit() || lookup.embedding() == null
+                || answer == null || answer.isBlank()) {
+            return;
+        }
+        try {
+            repository.deleteExpired(lookup.kbKey(), expiryThreshold());
+            repository.insert(lookup.kbKey(), lookup.kbIds(), question, lookup.embedding(), answer,
+                sourceKbIds != null ? sourceKbIds : List.of());
+        } catch (Exception e) {
+            log.warn("语义缓存写入失败: kbIds={}, error={}", lookup.kbIds(), e.getMessage());
+        }
+    }
+
+    /**
+     * 清除涉及指定知识库的缓存
+     *
+     * @param knowledgeBaseId 知识库ID
+     * @param reason          清除原因（revectorize / delete / purge），用于指标标签
+     * @return 删除的条数
+     */
+    public int invalidate(Long knowledgeBaseId, String reason) {
+        try {
+            int deleted = repository.deleteByKnowledgeBaseId(knowledgeBaseId);
+            recordEvictions(reason, deleted);
+            if (deleted > 0) {
+                log.info("已清除知识库问答缓存: kbId={}, reason={}, 条数={}", knowledgeBaseId, reason, deleted);
+            }
+            return deleted;
+        } catch (Exception e) {
+            log.warn("清除知识库问答缓存失败: kbId={}, error={}", knowledgeBaseId, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * 清空全部缓存（管理操作，失败时抛出异常告知调用方，而不是返回 0 条）
+     */
+    public int purgeAll() {
+        try {
+            int deleted = repository.deleteAll();
+            recordEvictions("purge", deleted);
+            log.info("已清空知识库问答缓存: 条数={}", deleted);
+            return deleted;
+        } catch (Exception e) {
+            log.error("清空知识库问答缓存失败: {}", e.getMessage(), e);
+            throw new BusinessException(ErrorCode.INTERNAL_ERROR, "清空问答缓存失败");
+        }
+    }
+
+    static List<Long> normalizeKbIds(List<Long> knowledgeBaseIds) {
+        if (knowledgeBaseIds == null) {
+            return List.of();
+        }
+        return knowledgeBaseIds.stream().filter(Objects::nonNull).distinct().sorted().toList();
+    }
+
+    static String buildKbKey(List<Long> sortedKbIds) {
+        return sortedKbIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private Instant expiryThreshold() {
+        return Instant.now().minus(Duration.ofMinutes(properties.getTtlMinutes()));
+    }
+
+    private Counter requestCounter(String result) {
+        return Counter.builder("kb.answer.cache.requests")
+            .description("知识库问答语义缓存查询次数")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    private void recordEvictions(String reason, int count) {
+        Counter.builder("kb.answer.cache.evictions")
+            .description("知识库问答语义缓存清除条数")
+            .tag("reason", reason)
+            .register(meterRegistry)
+            .increment(count);
+    }
+}
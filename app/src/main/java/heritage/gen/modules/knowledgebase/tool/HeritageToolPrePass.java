@@ -0,0 +1,133 @@
+package heritage.gen.modules.knowledgebase.tool;
+
+import heritage.gen.common.config.RagStreamProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.support.ToolCallbacks;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 非遗数据库工具预查询
+ * Spring AI 2.0.0-M1 在流式模式下处理 Qwen 的 tool calling 有 bug（后续 chunk 中 toolName 为空），
+ * 因此流式回答不注册工具，改为在生成前做一次非流式的工具调度：
+ * 1. 以 internalToolExecutionEnabled=false 调用模型，只取回模型请求的工具调用（或 NONE）
+ * 2. 由本类直接执行 {@link HeritageDataTool} 的工具方法，结果以文本形式并入回答的提示词
+ * 调度调用的输出很短，远快于完整回答；失败时返回空结果，回答仅基于知识库检索内容。
+ */
+@Slf4j
+@Component
+public class HeritageToolPrePass {
+
+    private final ChatClient chatClient;
+    private final RagStreamProperties properties;
+    private final String routerPrompt;
+    private final List<ToolCallback> toolCallbacks;
+    private final Map<String, ToolCallback> toolCallbacksByName;
+
+    /**
+     * 预查询结果
+     *
+     * @param toolResults   工具调用及结果的文本（未调用工具时为空字符串）
+     * @param toolCallCount 执行的工具调用数
+     * @param elapsedMillis 预查询耗时
+     */
+    public record Result(String toolResults, int toolCallCount, long elapsedMillis) {
+
+        public static Result empty(long elapsedMillis) {
+            return new Result("", 0, elapsedMillis);
+        }
+    }
+
+    public HeritageToolPrePass(ChatClient.Builder chatClientBuilder,
+                               HeritageDataTool heritageDataTool,
+                               RagStreamProperties properties,
+                               @Value("classpath:prompts/knowledgebase-tool-router.st") Resource routerPromptResource)
+            throws IOException {
+        this.chatClient = chatClientBuilder.build();
+        this.properties = properties;
+        this.routerPrompt = routerPromptResource.getContentAsString(StandardCharsets.UTF_8);
+        this.toolCallbacks = Arrays.asList(ToolCallbacks.from(heritageDataTool));
+        this.toolCallbacksByName = toolCallbacks.stream()
+            .collect(Collectors.toMap(callback -> callback.getToolDefinition().name(), Function.identity()));
+    }
+
+    /**
+     * 判断问题是否需要查询数据库，需要时执行工具调用
+     *
+     * @param question 用户问题
+     * @return 预查询结果
+     */
+    public Result resolve(String question) {
+        long startMillis = System.currentTimeMillis();
+        if (!properties.isToolPrePassEnabled()) {
+            return Result.empty(0);
+        }
+
+        try {
+            ChatResponse response = chatClient.prompt()
+                .system(routerPrompt)
+                .user(question)
+                .options(OpenAiChatOptions.builder()
+                    .toolCallbacks(toolCallbacks)
+                    .internalToolExecutionEnabled(false)
+                    .maxTokens(properties.getToolPrePassMaxTokens())
+                    .build())
+                .call()
+                .chatResponse();
+
+            if (response == null || !response.hasToolCalls()) {
+                return Result.empty(System.currentTimeMillis() - startMillis);
+            }
+
+            List<AssistantMessage.ToolCall> toolCalls = response.getResults().stream()
+                .flatMap(generation -> generation.getOutput().getToolCalls().stream())
+                .toList();
+
+            StringBuilder toolResults = new StringBuilder();
+            int executed = 0;
+            Set<String> seen = new HashSet<>();
+            for (AssistantMessage.ToolCall toolCall : toolCalls) {
+                if (executed >= properties.getMaxToolCalls()) {
+                    break;
+                }
+                // 同名同参数的调用只执行一次
+                if (!seen.add(toolCall.name() + toolCall.arguments())) {
+                    continue;
+                }
+                ToolCallback callback = toolCallbacksByName.get(toolCall.name());
+                if (callback == null) {
+                    log.warn("模型请求了未知工具: {}", toolCall.name());
+                    continue;
+                }
+                String output = callback.call(toolCall.arguments());
+                toolResults.append("### ").append(toolCall.name()).append(' ').append(toolCall.arguments())
+                    .append('\n').append(output).append("\n\n");
+                executed++;
+            }
+
+            long elapsedMillis = System.currentTimeMillis() - startMillis;
+            log.info("工具预查询完成: toolCalls={}, 耗时={}ms", executed, elapsedMillis);
+            return new Result(toolResults.toString().strip(), executed, elapsedMillis);
+
+        } catch (Exception e) {
+            log.warn("工具预查询失败，回答将仅基于知识库内容: {}", e.getMessage());
+            return Result.empty(System.currentTimeMillis() - startMillis);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package heritage.gen.common.concurrency;
+
+import heritage.gen.common.config.AiConcurrencyProperties;
+import heritage.gen.common.exception.BusinessException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AI 接口并发隔离拦截器测试：同步请求结束释放、流式请求在异步处理完成后释放
+ */
+class AiConcurrencyInterceptorTest {
+
+    private final AiConcurrencyInterceptor interceptor;
+    private final HandlerMethod aiHandler;
+    private final HandlerMethod plainHandler;
+
+    AiConcurrencyInterceptorTest() throws NoSuchMethodException {
+        AiConcurrencyProperties properties = new AiConcurrencyProperties();
+        properties.setDefaultLimit(1);
+        interceptor = new AiConcurrencyInterceptor(
+            new AiEndpointBulkhead(properties, new SimpleMeterRegistry(), false));
+        aiHandler = new HandlerMethod(new Handlers(), Handlers.class.getMethod("stream"));
+        plainHandler = new HandlerMethod(new Handlers(), Handlers.class.getMethod("list"));
+    }
+
+    @Test
+    void permitIsHeldUntilTheRequestCompletes() {
+        MockHttpServletRequest first = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(first, response, aiHandler));
+
+        // 平台线程下不排队，第二个请求立即被拒绝，不阻塞请求线程
+        assertThrows(BusinessException.class,
+            () -> interceptor.preHandle(new MockHttpServletRequest(), response, aiHandler));
+        // 未标注的接口不受影响
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), response, plainHandler));
+
+        interceptor.afterCompletion(first, response, aiHandler, null);
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), response, aiHandler));
+    }
+
+    @Test
+    void streamingPermitIsReleasedWhenAsyncProcessingCompletes() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(request, response, aiHandler));
+        request.startAsync();
+        interceptor.afterConcurrentHandlingStarted(request, response, aiHandler);
+
+        // 控制器方法返回后，流式响应仍在进行，许可未释放
+        assertThrows(BusinessException.class,
+            () -> interceptor.preHandle(new MockHttpServletRequest(), response, aiHandler));
+
+        // 异步分派再次进入拦截器时不重复获取许可
+        request.setDispatcherType(DispatcherType.ASYNC);
+        assertTrue(interceptor.preHandle(request, response, aiHandler));
+        request.getAsyncContext().complete();
+        interceptor.afterCompletion(request, response, aiHandler, null);
+
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), response, aiHandler));
+        assertThrows(BusinessException.class,
+            () -> interceptor.preHandle(new MockHttpServletRequest(), response, aiHandler));
+    }
+
+    @Test
+    void clientDisconnectWithoutAsyncDispatchStillReleases() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        interceptor.preHandle(request, response, aiHandler);
+        request.startAsync();
+        interceptor.afterConcurrentHandlingStarted(request, response, aiHandler);
+
+        // 只有容器的异步回调，没有异步分派的 afterCompletion
+        request.getAsyncContext().complete();
+
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), response, aiHandler));
+    }
+
+    static class Handlers {
+
+        @AiEndpoint("rag-chat.stream")
+        public void stream() {
+        }
+
+        public void list() {
+        }
+    }
+}
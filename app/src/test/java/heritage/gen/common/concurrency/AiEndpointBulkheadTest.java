@@ -0,0 +1,73 @@
+package heritage.gen.common.concurrency;
+
+import heritage.gen.common.config.AiConcurrencyProperties;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AI 接口并发隔离测试
+ */
+class AiEndpointBulkheadTest {
+
+    @Test
+    void rejectsWhenLimitReachedAndAdmitsAfterRelease() {
+        AiConcurrencyProperties properties = new AiConcurrencyProperties();
+        properties.setLimits(Map.of("design.render", 1));
+        properties.setAcquireTimeoutMs(10);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AiEndpointBulkhead bulkhead = new AiEndpointBulkhead(properties, registry, true);
+
+        AiEndpointBulkhead.Permit permit = bulkhead.acquire("design.render");
+        BusinessException e = assertThrows(BusinessException.class, () -> bulkhead.acquire("design.render"));
+        assertEquals(ErrorCode.AI_RATE_LIMIT_EXCEEDED.getCode(), e.getCode());
+        assertEquals(1.0, registry.get("ai.endpoint.rejected").tag("reason", "timeout").counter().count());
+
+        // 重复释放只归还一个许可
+        permit.release();
+        permit.release();
+        bulkhead.acquire("design.render");
+        assertThrows(BusinessException.class, () -> bulkhead.acquire("design.render"));
+        assertEquals(0, bulkhead.queueDepth("design.render"));
+    }
+
+    @Test
+    void rejectsImmediatelyWhenQueueIsFull() {
+        AiConcurrencyProperties properties = new AiConcurrencyProperties();
+        properties.setDefaultLimit(1);
+        properties.setMaxQueueDepth(0);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AiEndpointBulkhead bulkhead = new AiEndpointBulkhead(properties, registry, true);
+
+        bulkhead.acquire("kb.query");
+        assertThrows(BusinessException.class, () -> bulkhead.acquire("kb.query"));
+        assertEquals(1.0, registry.get("ai.endpoint.rejected").tag("reason", "queue_full").counter().count());
+        // 其他接口不受影响
+        bulkhead.acquire("rag-chat.stream");
+    }
+
+    @Test
+    void platformThreadsAreRejectedWithoutQueueing() {
+        // 默认配置：排队 64、等待 30 秒
+        AiConcurrencyProperties properties = new AiConcurrencyProperties();
+        properties.setDefaultLimit(1);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AiEndpointBulkhead bulkhead = new AiEndpointBulkhead(properties, registry, false);
+
+        bulkhead.acquire("design.kv");
+        long startNanos = System.nanoTime();
+        assertThrows(BusinessException.class, () -> bulkhead.acquire("design.kv"));
+
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1.0, registry.get("ai.endpoint.rejected").tag("reason", "queue_full").counter().count());
+        assertEquals(0, bulkhead.queueDepth("design.kv"));
+    }
+}
@@ -0,0 +1,99 @@
+package heritage.gen.infrastructure.ai;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Embedding 缓存测试（使用本地伪模型，离线运行）
+ */
+class CachingEmbeddingModelTest {
+
+    private FakeEmbeddingModel fakeModel;
+    private InMemoryEmbeddingCacheStore cacheStore;
+    private MeterRegistry meterRegistry;
+    private CachingEmbeddingModel cachingModel;
+
+    @BeforeEach
+    void setUp() {
+        fakeModel = new FakeEmbeddingModel(8);
+        cacheStore = new InMemoryEmbeddingCacheStore();
+        meterRegistry = new SimpleMeterRegistry();
+        cachingModel = new CachingEmbeddingModel(fakeModel, cacheStore, "fake-model", 8, meterRegistry);
+    }
+
+    @Test
+    void reusesCachedEmbeddingsForIdenticalChunks() {
+        List<float[]> first = cachingModel.embed(List.of("昆曲起源于元末明初", "苏绣是苏州地区的刺绣"));
+        List<float[]> second = cachingModel.embed(List.of("昆曲起源于元末明初", "景德镇制瓷技艺"));
+
+        // 第二次只有新文本需要计算
+        assertEquals(3, fakeModel.getEmbeddedTexts());
+        assertArrayEquals(first.get(0), second.get(0));
+        assertEquals(1.0, countOf("hit"));
+        assertEquals(3.0, countOf("miss"));
+    }
+
+    @Test
+    void normalizesWhitespaceBeforeHashing() {
+        cachingModel.embed("昆曲  起源\n于元末明初 ");
+        cachingModel.embed("昆曲 起源 于元末明初");
+
+        assertEquals(1, fakeModel.getEmbeddedTexts());
+    }
+
+    @Test
+    void deduplicatesTextsWithinOneRequest() {
+        List<float[]> vectors = cachingModel.embed(List.of("苏绣", "苏绣", "苏绣"));
+
+        assertEquals(1, fakeModel.getEmbeddedTexts());
+        assertEquals(3, vectors.size());
+        assertArrayEquals(vectors.get(0), vectors.get(2));
+    }
+
+    @Test
+    void cacheKeyDependsOnModelAndDimensions() {
+        String key = CachingEmbeddingModel.buildCacheKey("text-embedding-v3", 1024, "苏绣");
+
+        assertNotEquals(key, CachingEmbeddingModel.buildCacheKey("text-embedding-v4", 1024, "苏绣"));
+        assertNotEquals(key, CachingEmbeddingModel.buildCacheKey("text-embedding-v3", 512, "苏绣"));
+    }
+
+    private double countOf(String result) {
+        return meterRegistry.get("embedding.cache.requests").tag("result", result).counter().count();
+    }
+
+    /**
+     * 内存版缓存存储
+     */
+    private static class InMemoryEmbeddingCacheStore implements EmbeddingCacheStore {
+
+        private final Map<String, float[]> entries = new HashMap<>();
+
+        @Override
+        public Map<String, float[]> getAll(Collection<String> contentHashes) {
+            Map<String, float[]> result = new HashMap<>();
+            contentHashes.forEach(hash -> {
+                if (entries.containsKey(hash)) {
+                    result.put(hash, entries.get(hash));
+                }
+            });
+            return result;
+        }
+
+        @Override
+        public void putAll(Map<String, float[]> embeddings, String model, int dimensions) {
+            embeddings.forEach(entries::putIfAbsent);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package heritage.gen.infrastructure.ai;
+
+import heritage.gen.common.config.EmbeddingConfigProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Embedding 限流器测试：假时钟下的 Token 预算恢复、预算耗尽时等待、并发槽位阻塞
+ */
+class EmbeddingRateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    /**
+     * 每次等待的时长；等待即推进假时钟，不真正休眠
+     */
+    private final List<Long> sleeps = new CopyOnWriteArrayList<>();
+
+    @Test
+    void budgetRefillsInProportionToElapsedTime() throws Exception {
+        EmbeddingRateLimiter limiter = limiter(4, 600);
+
+        acquireAndRelease(limiter, 600);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        acquireAndRelease(limiter, 300);
+        assertTrue(sleeps.isEmpty());
+
+        // 空闲再久也不超过整分钟预算
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(10));
+        acquireAndRelease(limiter, 600);
+        assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    void exhaustedBudgetWaitsUntilEnoughTokensRefill() throws Exception {
+        EmbeddingRateLimiter limiter = limiter(4, 600);
+        acquireAndRelease(limiter, 600);
+
+        // 600 TPM 即每秒 10 个 Token，300 个需要等待 30 秒
+        acquireAndRelease(limiter, 300);
+
+        assertEquals(List.of(TimeUnit.SECONDS.toNanos(30)), sleeps);
+    }
+
+    @Test
+    void requestLargerThanTheBudgetWaitsForAFullBucketOnly() throws Exception {
+        EmbeddingRateLimiter limiter = limiter(4, 600);
+        acquireAndRelease(limiter, 1);
+
+        acquireAndRelease(limiter, 5000);
+
+        assertEquals(List.of(TimeUnit.MILLISECONDS.toNanos(100)), sleeps);
+    }
+
+    @Test
+    void acquireBlocksWhileAllSlotsAreInFlight() throws Exception {
+        EmbeddingRateLimiter limiter = limiter(1, 1_000_000);
+        limiter.acquire(10);
+        assertEquals(1, limiter.getInFlightCount());
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                limiter.acquire(10);
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlightCount());
+        waiter.join();
+    }
+
+    @Test
+    void interruptedWaitReturnsTheSlot() throws Exception {
+        EmbeddingRateLimiter limiter = new EmbeddingRateLimiter(properties(1, 600), clock::get, nanos -> {
+            throw new InterruptedException();
+        });
+        acquireAndRelease(limiter, 600);
+
+        // 预算等待被中断时归还并发槽位
+        assertThrows(InterruptedException.class, () -> limiter.acquire(600));
+        assertEquals(0, limiter.getInFlightCount());
+    }
+
+    private EmbeddingRateLimiter limiter(int maxInFlight, long tokensPerMinute) {
+        return new EmbeddingRateLimiter(properties(maxInFlight, tokensPerMinute), clock::get, nanos -> {
+            sleeps.add(nanos);
+            clock.addAndGet(nanos);
+        });
+    }
+
+    private static EmbeddingConfigProperties properties(int maxInFlight, long tokensPerMinute) {
+        EmbeddingConfigProperties properties = new EmbeddingConfigProperties();
+        properties.setMaxInFlight(maxInFlight);
+        properties.setTokensPerMinute(tokensPerMinute);
+        return properties;
+    }
+
+    private static void acquireAndRelease(EmbeddingRateLimiter limiter, int tokens) throws InterruptedException {
+        limiter.acquire(tokens);
+        limiter.release();
+    }
+}
@@ -0,0 +1,118 @@
+package heritage.gen.infrastructure.ai;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import reactor.core.publisher.Flux;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * 桩 ChatClient（离线测试用）
+ * 只支持 prompt().system(String).user(String)...call()/stream() 的链式调用，其他链式方法原样返回；
+ * call().content() 与 stream().content()/chatResponse() 的结果由测试提供，并记录每次请求
+ */
+public class StubChatClient {
+
+    /**
+     * 一次模型请求
+     */
+    public record Request(String system, String user) {}
+
+    private final Function<Request, String> callResponder;
+    private final Function<Request, Flux<String>> streamResponder;
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+    public StubChatClient(Function<Request, String> callResponder) {
+        this(callResponder, request -> Flux.error(new UnsupportedOperationException("stream")));
+    }
+
+    public StubChatClient(Function<Request, String> callResponder, Function<Request, Flux<String>> streamResponder) {
+        this.callResponder = callResponder;
+        this.streamResponder = streamResponder;
+    }
+
+    /**
+     * 构建出本桩的 ChatClient.Builder（被测服务在构造函数中调用 build()）
+     */
+    public ChatClient.Builder builder() {
+        ChatClient client = proxy(ChatClient.class, (proxy, method, args) ->
+            method.getName().equals("prompt") && method.getParameterCount() == 0
+                ? requestSpec(new String[2])
+                : unsupported(method));
+        return proxy(ChatClient.Builder.class, (proxy, method, args) -> switch (method.getName()) {
+            case "build" -> client;
+            default -> method.getReturnType().isInstance(proxy) ? proxy : unsupported(method);
+        });
+    }
+
+    public List<Request> requests() {
+        return List.copyOf(requests);
+    }
+
+    private ChatClient.ChatClientRequestSpec requestSpec(String[] prompt) {
+        return proxy(ChatClient.ChatClientRequestSpec.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "call" -> {
+                    Request request = record(prompt);
+                    return proxy(ChatClient.CallResponseSpec.class, (p, m, a) -> switch (m.getName()) {
+                        case "content" -> callResponder.apply(request);
+                        case "chatResponse" -> chatResponse(callResponder.apply(request));
+                        default -> unsupported(m);
+                    });
+                }
+                case "stream" -> {
+                    Request request = record(prompt);
+                    return proxy(ChatClient.StreamResponseSpec.class, (p, m, a) -> switch (m.getName()) {
+                        case "content" -> streamResponder.apply(request);
+                        case "chatResponse" -> streamResponder.apply(request).map(StubChatClient::chatResponse);
+                        default -> unsupported(m);
+                    });
+                }
+                case "system", "user" -> {
+                    if (args.length == 1 && args[0] instanceof String text) {
+                        prompt[method.getName().equals("system") ? 0 : 1] = text;
+                    }
+                    return proxy;
+                }
+                default -> {
+                    return method.getReturnType().isInstance(proxy) ? proxy : unsupported(method);
+                }
+            }
+        });
+    }
+
+    private Request record(String[] prompt) {
+        Request request = new Request(prompt[0], prompt[1]);
+        requests.add(request);
+        return request;
+    }
+
+    private static ChatResponse chatResponse(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static Object unsupported(Method method) {
+        throw new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "." + method.getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> type.getSimpleName() + "Stub";
+                };
+            }
+            return handler.invoke(proxy, method, args == null ? new Object[0] : args);
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package heritage.gen.infrastructure.file;
+
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存版 FileStorageService（离线测试用）
+ * 只覆盖知识库文件上传、按键上传本地文件、流式读取与删除，对象内容保存在内存中
+ */
+public class InMemoryFileStorageService extends FileStorageService {
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+    public InMemoryFileStorageService() {
+        super(null, null);
+    }
+
+    @Override
+    public FileUploadResult uploadKnowledgeBase(MultipartFile file) {
+        String fileKey = "knowledgebases/" + UUID.randomUUID();
+        try {
+            objects.put(fileKey, file.getBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new FileUploadResult(fileKey, "memory://" + fileKey, file.getOriginalFilename(),
+            file.getContentType(), file.getSize());
+    }
+
+    @Override
+    public void uploadLocalFile(String fileKey, Path file, String contentType) {
+        try {
+            objects.put(fileKey, Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream openFileStream(String fileKey) {
+        byte[] bytes = objects.get(fileKey);
+        if (bytes == null) {
+            throw new BusinessException(ErrorCode.STORAGE_DOWNLOAD_FAILED, "文件不存在: " + fileKey);
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public void deleteParsedContent(String fileKey) {
+        objects.remove(fileKey);
+    }
+
+    @Override
+    public void deleteKnowledgeBase(String fileKey) {
+        objects.remove(fileKey);
+    }
+
+    /**
+     * 直接写入对象内容（模拟存储中的对象被替换或损坏）
+     */
+    public void put(String fileKey, byte[] bytes) {
+        objects.put(fileKey, bytes);
+    }
+
+    public byte[] get(String fileKey) {
+        return objects.get(fileKey);
+    }
+
+    public Set<String> keys() {
+        return Set.copyOf(objects.keySet());
+    }
+}
@@ -0,0 +1,97 @@
+package heritage.gen.infrastructure.file;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 流式 / 单次扫描文本清理与旧版正则实现（{@link LegacyTextCleaning}）的等价性测试
+ */
+class StreamingTextCleanerTest {
+
+    private final TextCleaningService textCleaningService = new TextCleaningService();
+
+    @Test
+    void matchesCleanTextOnEdgeCases() throws IOException {
+        String[] samples = {
+            "",
+            "   ",
+            "\n\n\n",
+            "单行文本",
+            "  前后空白  ",
+            "a\r\nb\rc\nd",
+            "a\n\n\n\nb",
+            "a\n \n \nb",
+            "a\r\r\nb",
+            "a\n\r\n\r\nb",
+            "\t缩进行\t\n  第二行  \n\n\n\n  第三行 ",
+            "行内  多个   空格\u3000保留\n",
+            "结尾换行\n",
+            "\n\n开头换行",
+            "a\u000B\u000Cb\n\u001F\n\n\nc"
+        };
+        for (String sample : samples) {
+            String expected = LegacyTextCleaning.cleanText(sample);
+            assertEquals(expected, streamClean(sample, 1), "sample=" + escape(sample));
+            assertEquals(expected, textCleaningService.cleanText(sample), "sample=" + escape(sample));
+        }
+    }
+
+    @Test
+    void matchesCleanTextOnRandomInput() throws IOException {
+        Random random = new Random(20261018L);
+        String[] alphabet = {"a", "非", "遗", " ", "\t", "\n", "\r", "\u3000", "\u000B", "."};
+        for (int round = 0; round < 500; round++) {
+            String sample = randomText(random, alphabet, 200);
+            int chunkSize = 1 + random.nextInt(16);
+            String expected = LegacyTextCleaning.cleanText(sample);
+            assertEquals(expected, streamClean(sample, chunkSize), "sample=" + escape(sample));
+            assertEquals(expected, textCleaningService.cleanText(sample), "sample=" + escape(sample));
+        }
+    }
+
+    @Test
+    void matchesSingleLineAndStripHtmlOnRandomInput() {
+        Random random = new Random(20261019L);
+        String[] alphabet = {
+            "a", "非", " ", "\t", "\n", "\r", "\u3000", "\u000B", "\f", "\u001C",
+            "<", ">", "<p>", "</b >", "&", ";", "&nbsp;", "&amp;", "&lt;", "&gt;", "&quot;",
+            "amp;", "lt;", "gt;", "quot;", "nbsp;"
+        };
+        for (int round = 0; round < 2000; round++) {
+            String sample = randomText(random, alphabet, 40);
+            assertEquals(LegacyTextCleaning.cleanToSingleLine(sample), textCleaningService.cleanToSingleLine(sample),
+                "sample=" + escape(sample));
+            assertEquals(LegacyTextCleaning.stripHtml(sample), textCleaningService.stripHtml(sample),
+                "sample=" + escape(sample));
+        }
+    }
+
+    private static String randomText(Random random, String[] alphabet, int maxTokens) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(maxTokens);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String streamClean(String text, int chunkSize) throws IOException {
+        StringWriter out = new StringWriter();
+        try (StreamingTextCleaner cleaner = new StreamingTextCleaner(out)) {
+            // 按小块写入，覆盖 \r\n 跨块等边界情况
+            for (int i = 0; i < text.length(); i += chunkSize) {
+                cleaner.write(text, i, Math.min(chunkSize, text.length() - i));
+            }
+        }
+        return out.toString();
+    }
+
+    private static String escape(String text) {
+        return text.replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t");
+    }
+}
@@ -0,0 +1,325 @@
+package heritage.gen.infrastructure.redis;
+
+import org.redisson.api.stream.StreamMessageId;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存版 RedisService（离线测试用）
+ * 覆盖字符串、Hash、Set、计数器、锁与 Stream 消费者组的常用操作，所有操作串行执行以模拟 Redis 的单命令原子性；
+ * 过期时间只记录不生效（可通过 {@link #ttl} 查看），测试通过 {@link #delete} 模拟键过期或丢失。
+ */
+public class InMemoryRedisService extends RedisService {
+
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private final Map<String, Duration> ttls = new HashMap<>();
+    private final Map<String, Stream> streams = new HashMap<>();
+    private final Set<String> locks = new HashSet<>();
+    private long nextStreamId = 1;
+
+    public InMemoryRedisService() {
+        super(null);
+    }
+
+    /**
+     * 单个 Stream：条目按 ID 排序，每个消费者组记录已投递位置与待确认条目
+     */
+    private static final class Stream {
+        final TreeMap<StreamMessageId, Map<String, String>> entries =
+            new TreeMap<>((a, b) -> Long.compare(a.getId0(), b.getId0()));
+        final Map<String, Group> groups = new HashMap<>();
+    }
+
+    private static final class Group {
+        long lastDelivered;
+        final Map<StreamMessageId, Long> pendingSince = new LinkedHashMap<>();
+    }
+
+    // ==================== 字符串 ====================
+
+    @Override
+    public synchronized boolean delete(String key) {
+        boolean removed = strings.remove(key) != null;
+        removed |= hashes.remove(key) != null;
+        removed |= sets.remove(key) != null;
+        removed |= streams.remove(key) != null;
+        ttls.remove(key);
+        return removed;
+    }
+
+    @Override
+    public synchronized boolean exists(String key) {
+        return strings.containsKey(key) || hashes.containsKey(key) || sets.containsKey(key)
+            || streams.containsKey(key);
+    }
+
+    @Override
+    public synchronized boolean expire(String key, Duration ttl) {
+        if (!exists(key)) {
+            return false;
+        }
+        ttls.put(key, ttl);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean persist(String key) {
+        return ttls.remove(key) != null;
+    }
+
+    @Override
+    public synchronized boolean setIfAbsentString(String key, String value, Duration ttl) {
+        return strings.putIfAbsent(key, value) == null;
+    }
+
+    @Override
+    public synchronized String getString(String key) {
+        return strings.get(key);
+    }
+
+    @Override
+    public synchronized void setString(String key, String value, Duration ttl) {
+        strings.put(key, value);
+    }
+
+    @Override
+    public synchronized long allocateSequence(String key, long initialValue, long delta, Duration ttl) {
+        long value = (strings.containsKey(key) ? Long.parseLong(strings.get(key)) : initialValue) + delta;
+        strings.put(key, String.valueOf(value));
+        return value;
+    }
+
+    @Override
+    public synchronized Long incrementIfExists(String key, long delta, Duration ttl) {
+        if (!strings.containsKey(key)) {
+            return null;
+        }
+        long value = Long.parseLong(strings.get(key)) + delta;
+        strings.put(key, String.valueOf(value));
+        return value;
+    }
+
+    // ==================== Hash ====================
+
+    @Override
+    public synchronized void hSetAllString(String key, Map<String, String> fields, Duration ttl) {
+        hashes.computeIfAbsent(key, k -> new HashMap<>()).putAll(fields);
+    }
+
+    @Override
+    public synchronized void hSetString(String key, String field, String value, Duration ttl) {
+        hashes.computeIfAbsent(key, k -> new HashMap<>()).put(field, value);
+    }
+
+    @Override
+    public synchronized boolean hRemoveIfEquals(String key, String field, String expected) {
+        Map<String, String> hash = hashes.get(key);
+        if (hash == null || !hash.remove(field, expected)) {
+            return false;
+        }
+        if (hash.isEmpty()) {
+            hashes.remove(key);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized Map<String, String> hGetAllString(String key) {
+        Map<String, String> hash = hashes.get(key);
+        return hash == null ? new HashMap<>() : new HashMap<>(hash);
+    }
+
+    // ==================== Set ====================
+
+    @Override
+    public synchronized boolean sAdd(String key, String member) {
+        return sets.computeIfAbsent(key, k -> new HashSet<>()).add(member);
+    }
+
+    @Override
+    public synchronized boolean sRemove(String key, String member) {
+        Set<String> set = sets.get(key);
+        if (set == null || !set.remove(member)) {
+            return false;
+        }
+        if (set.isEmpty()) {
+            sets.remove(key);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized Set<String> sMembers(String key) {
+        Set<String> set = sets.get(key);
+        return set == null ? new HashSet<>() : new HashSet<>(set);
+    }
+
+    // ==================== 锁 ====================
+
+    @Override
+    public synchronized boolean tryLock(String lockKey, long waitTime, long leaseTime, TimeUnit unit) {
+        return locks.add(lockKey);
+    }
+
+    @Override
+    public synchronized void unlock(String lockKey) {
+        locks.remove(lockKey);
+    }
+
+    // ==================== Stream ====================
+
+    @Override
+    public synchronized void createStreamGroup(String streamKey, String groupName) {
+        streams.computeIfAbsent(streamKey, k -> new Stream()).groups.putIfAbsent(groupName, new Group());
+    }
+
+    @Override
+    public synchronized String streamAdd(String streamKey, Map<String, String> message) {
+        StreamMessageId id = new StreamMessageId(nextStreamId++, 0);
+        streams.computeIfAbsent(streamKey, k -> new Stream()).entries.put(id, new HashMap<>(message));
+        return id.toString();
+    }
+
+    @Override
+    public synchronized Map<StreamMessageId, Map<String, String>> streamReadGroup(
+            String streamKey, String groupName, String consumerName, int count) {
+        Stream stream = streams.get(streamKey);
+        Map<StreamMessageId, Map<String, String>> delivered = new LinkedHashMap<>();
+        if (stream == null || !stream.groups.containsKey(groupName)) {
+            return delivered;
+        }
+        Group group = stream.groups.get(groupName);
+        for (Map.Entry<StreamMessageId, Map<String, String>> entry : stream.entries.entrySet()) {
+            if (delivered.size() >= count) {
+                break;
+            }
+            if (entry.getKey().getId0() > group.lastDelivered) {
+                delivered.put(entry.getKey(), new HashMap<>(entry.getValue()));
+                group.lastDelivered = entry.getKey().getId0();
+                group.pendingSince.put(entry.getKey(), System.currentTimeMillis());
+            }
+        }
+        return delivered;
+    }
+
+    @Override
+    public Map<StreamMessageId, Map<String, String>> streamReadGroup(
+            String streamKey, String groupName, String consumerName, int count, long blockTimeoutMs) {
+        Map<StreamMessageId, Map<String, String>> messages = streamReadGroup(streamKey, groupName, consumerName, count);
+        if (messages.isEmpty() && blockTimeoutMs > 0) {
+            try {
+                Thread.sleep(Math.min(blockTimeoutMs, 20));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public synchronized void streamAck(String streamKey, String groupName, StreamMessageId... ids) {
+        Stream stream = streams.get(streamKey);
+        if (stream != null && stream.groups.containsKey(groupName)) {
+            for (StreamMessageId id : ids) {
+                stream.groups.get(groupName).pendingSince.remove(id);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void streamTouchPending(String streamKey, String groupName, String consumerName,
+                                                StreamMessageId... ids) {
+        Stream stream = streams.get(streamKey);
+        if (stream != null && stream.groups.containsKey(groupName)) {
+            Group group = stream.groups.get(groupName);
+            long now = System.currentTimeMillis();
+            for (StreamMessageId id : ids) {
+                group.pendingSince.computeIfPresent(id, (k, since) -> now);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Map<StreamMessageId, Map<String, String>> streamAutoClaim(
+            String streamKey, String groupName, String consumerName, long minIdleMs, int count) {
+        Stream stream = streams.get(streamKey);
+        Map<StreamMessageId, Map<String, String>> claimed = new LinkedHashMap<>();
+        if (stream == null || !stream.groups.containsKey(groupName)) {
+            return claimed;
+        }
+        long now = System.currentTimeMillis();
+        Group group = stream.groups.get(groupName);
+        for (StreamMessageId id : new ArrayList<>(group.pendingSince.keySet())) {
+            if (claimed.size() >= count) {
+                break;
+            }
+            if (now - group.pendingSince.get(id) < minIdleMs) {
+                continue;
+            }
+            Map<String, String> entry = stream.entries.get(id);
+            if (entry == null) {
+                group.pendingSince.remove(id);
+                continue;
+            }
+            claimed.put(id, new HashMap<>(entry));
+            group.pendingSince.put(id, now);
+        }
+        return claimed;
+    }
+
+    @Override
+    public synchronized long streamDelete(String streamKey, StreamMessageId... ids) {
+        Stream stream = streams.get(streamKey);
+        if (stream == null) {
+            return 0;
+        }
+        long removed = 0;
+        for (StreamMessageId id : ids) {
+            if (stream.entries.remove(id) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized long streamLen(String streamKey) {
+        Stream stream = streams.get(streamKey);
+        return stream == null ? 0 : stream.entries.size();
+    }
+
+    /**
+     * 通过 {@link #expire} 设置且尚未清除的过期时间，没有时返回 null
+     */
+    public synchronized Duration ttl(String key) {
+        return ttls.get(key);
+    }
+
+    /**
+     * 消费者组中已投递未确认的条目数
+     */
+    public synchronized int pendingCount(String streamKey, String groupName) {
+        Stream stream = streams.get(streamKey);
+        return stream == null || !stream.groups.containsKey(groupName)
+            ? 0 : stream.groups.get(groupName).pendingSince.size();
+    }
+
+    /**
+     * Stream 中全部条目（按 ID 顺序）
+     */
+    public synchronized List<Map<String, String>> streamEntries(String streamKey) {
+        Stream stream = streams.get(streamKey);
+        return stream == null ? List.of() : new ArrayList<>(stream.entries.values());
+    }
+}
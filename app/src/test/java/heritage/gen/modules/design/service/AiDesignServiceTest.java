@@ -0,0 +1,398 @@
+package heritage.gen.modules.design.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.DesignAnalysisProperties;
+import heritage.gen.common.config.DesignImageCacheProperties;
+import heritage.gen.common.config.DesignReferenceCacheProperties;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.infrastructure.ai.StubChatClient;
+import heritage.gen.infrastructure.file.InMemoryFileStorageService;
+import heritage.gen.modules.design.model.ArtifactEntity;
+import heritage.gen.modules.design.model.DesignConcept;
+import heritage.gen.modules.design.model.ImageGenerationSpec;
+import heritage.gen.modules.design.model.KvGenerationResult;
+import heritage.gen.modules.design.repository.ArtifactRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 设计服务并发编排测试（桩 ChatClient 与图像生成器）：
+ * 分析报告三项并发、单项失败或超时保留其余结果；KV 三张图片各自在参考图与提示词包就绪后并发生成，
+ * 阶段耗时写入 generation_metadata
+ */
+class AiDesignServiceTest {
+
+    private static final String STORED_PREFIX = "memory://heritage/";
+    private static final String PRODUCT_SHOT_URL = STORED_PREFIX + "designs/shot.png";
+    private static final Set<String> KV_STAGES = Set.of(
+        "refDownload", "promptText", "promptPack", "kvImage", "lifestyleImage", "detailImage", "total");
+    private static final String KV_PACK = """
+        {"kvPrompt":"kv prompt","lifestylePrompt":"lifestyle prompt","detailPrompt":"detail prompt","negativePrompt":"blurry"}
+        """;
+
+    @TempDir
+    Path cacheDir;
+
+    private final DesignAnalysisProperties analysisProperties = new DesignAnalysisProperties();
+    private final DesignStorage storage = new DesignStorage();
+    private final Map<Long, ArtifactEntity> artifacts = new HashMap<>();
+    private final List<ArtifactEntity> saved = new CopyOnWriteArrayList<>();
+    /**
+     * 阻塞中的桩调用在测试结束时放行，避免超时用例留下等待中的线程
+     */
+    private final CountDownLatch released = new CountDownLatch(1);
+    private AiDesignService service;
+
+    @AfterEach
+    void tearDown() {
+        released.countDown();
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void analysisSectionsCallTheModelConcurrently() throws Exception {
+        CountDownLatch allStarted = new CountDownLatch(3);
+        service = service(request -> {
+            allStarted.countDown();
+            // 串行调用时第一项会一直等不到另外两项
+            if (!await(allStarted)) {
+                throw new IllegalStateException("分析项未并发调用");
+            }
+            return "{\"section\":\"" + section(request) + "\"}";
+        }, new StubImageGenerator(spec -> "https://dashscope.example/unused"));
+
+        Map<String, Object> analysis = service.generateAnalysis(concept());
+
+        assertEquals(Set.of("marketAnalysis", "technicalFeasibility", "riskAssessment"), analysis.keySet());
+        assertEquals(Map.of("section", "market"), analysis.get("marketAnalysis"));
+        assertEquals(Map.of("section", "risk"), analysis.get("riskAssessment"));
+    }
+
+    @Test
+    void failedAndTimedOutSectionsKeepTheRemainingResults() throws Exception {
+        analysisProperties.setTimeoutSeconds(1);
+        service = service(request -> switch (section(request)) {
+            case "market" -> "```json\n{\"score\":8}\n```";
+            case "technical" -> throw new IllegalStateException("quota exceeded");
+            default -> {
+                await(released);
+                yield "{\"late\":true}";
+            }
+        }, new StubImageGenerator(spec -> "https://dashscope.example/unused"));
+
+        long startNanos = System.nanoTime();
+        Map<String, Object> analysis = service.generateAnalysis(concept());
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - startNanos).toSeconds() < 5);
+        assertEquals(Map.of("score", 8), analysis.get("marketAnalysis"));
+        assertFalse(analysis.containsKey("technicalFeasibility"));
+        assertFalse(analysis.containsKey("riskAssessment"));
+        Map<String, String> failed = failedSections(analysis);
+        assertEquals(Set.of("technicalFeasibility", "riskAssessment"), failed.keySet());
+        assertTrue(failed.get("technicalFeasibility").contains("quota exceeded"));
+        assertEquals("生成超时（1秒）", failed.get("riskAssessment"));
+    }
+
+    @Test
+    void allSectionsFailingIsAnError() throws Exception {
+        service = service(request -> {
+            throw new IllegalStateException("model down");
+        }, new StubImageGenerator(spec -> "https://dashscope.example/unused"));
+
+        BusinessException e = assertThrows(BusinessException.class, () -> service.generateAnalysis(concept()));
+
+        assertEquals(ErrorCode.AI_SERVICE_ERROR.getCode(), e.getCode());
+    }
+
+    @Test
+    void streamedAnalysisEmitsSectionsInCompletionOrder() throws Exception {
+        CountDownLatch riskDone = new CountDownLatch(1);
+        CountDownLatch technicalDone = new CountDownLatch(1);
+        service = service(request -> switch (section(request)) {
+            case "risk" -> "{}";
+            case "technical" -> {
+                await(riskDone);
+                yield "{}";
+            }
+            default -> {
+                await(technicalDone);
+                yield "{}";
+            }
+        }, new StubImageGenerator(spec -> "https://dashscope.example/unused"));
+
+        List<String> order = service.streamAnalysis(concept())
+            .doOnNext(section -> {
+                if (section.section().equals("riskAssessment")) {
+                    riskDone.countDown();
+                } else if (section.section().equals("technicalFeasibility")) {
+                    technicalDone.countDown();
+                }
+            })
+            .map(AiDesignService.AnalysisSection::section)
+            .collectList()
+            .block(Duration.ofSeconds(10));
+
+        assertEquals(List.of("riskAssessment", "technicalFeasibility", "marketAnalysis"), order);
+    }
+
+    @Test
+    void kvImagesStartTogetherWithoutWaitingForThePromptText() throws Exception {
+        CountDownLatch imagesStarted = new CountDownLatch(3);
+        List<ImageGenerationSpec> specs = new CopyOnWriteArrayList<>();
+        service = service(request -> {
+            if (!section(request).equals("kvText")) {
+                return KV_PACK;
+            }
+            // 提示词系统文本只用于展示，图片不应等待它
+            if (!await(imagesStarted)) {
+                throw new IllegalStateException("图片等待了提示词文本");
+            }
+            return "KV prompt system";
+        }, new StubImageGenerator(spec -> {
+            specs.add(spec);
+            imagesStarted.countDown();
+            if (!await(imagesStarted)) {
+                throw new IllegalStateException("图片未并发生成");
+            }
+            return "https://dashscope.example/" + spec.prompt().replace(' ', '-');
+        }));
+
+        KvGenerationResult result = service.generateKvAssets(artifact(1L));
+
+        assertEquals("KV prompt system", result.getPromptText());
+        assertEquals("https://dashscope.example/kv-prompt", uploadedFrom(result.getKvUrl()));
+        assertEquals("https://dashscope.example/lifestyle-prompt", uploadedFrom(result.getLifestyleUrl()));
+        assertEquals("https://dashscope.example/detail-prompt", uploadedFrom(result.getDetailUrl()));
+        assertEquals(KV_STAGES, result.getStageTimings().keySet());
+        // 三张图都使用同一个本地参考图文件图生图
+        assertEquals(1, specs.stream().map(ImageGenerationSpec::referenceImageUrl).distinct().count());
+        assertTrue(specs.get(0).referenceImageUrl().startsWith("file:"));
+        assertTrue(specs.stream().allMatch(spec -> spec.model().equals("wan2.6-image")
+            && "blurry".equals(spec.parameters().get("negative_prompt"))));
+    }
+
+    @Test
+    void oneFailedImageFailsTheKvButOthersStillFinish() throws Exception {
+        List<String> finished = new CopyOnWriteArrayList<>();
+        service = service(request -> section(request).equals("kvPack") ? KV_PACK : "text",
+            new StubImageGenerator(spec -> {
+                if (spec.prompt().equals("detail prompt")) {
+                    throw new IllegalStateException("content moderation");
+                }
+                finished.add(spec.prompt());
+                return "https://dashscope.example/" + UUID.randomUUID();
+            }));
+
+        BusinessException e = assertThrows(BusinessException.class, () -> service.generateKvAssets(artifact(1L)));
+
+        assertEquals(ErrorCode.AI_SERVICE_ERROR.getCode(), e.getCode());
+        assertTrue(e.getMessage().contains("content moderation"));
+        assertEquals(Set.of("kv prompt", "lifestyle prompt"), Set.copyOf(finished));
+    }
+
+    @Test
+    void savedKvRecordsStageTimingsInGenerationMetadata() throws Exception {
+        service = service(request -> section(request).equals("kvPack") ? KV_PACK : "KV prompt system",
+            new StubImageGenerator(spec -> "https://dashscope.example/" + UUID.randomUUID()));
+        ArtifactEntity entity = artifact(7L);
+        artifacts.put(7L, entity);
+
+        KvGenerationResult result = service.generateAndSaveKvAssets(7L, entity.getUserId());
+
+        assertEquals(List.of(entity), saved);
+        Map<String, Object> metadata = entity.getGenerationMetadata();
+        assertEquals(result.getStageTimings(), metadata.get("kvStageTimings"));
+        assertEquals(KV_STAGES, result.getStageTimings().keySet());
+        assertEquals("KV prompt system", metadata.get("kvPromptText"));
+        assertEquals(Map.of("kv", result.getKvUrl(), "lifestyle", result.getLifestyleUrl(),
+            "detail", result.getDetailUrl()), metadata.get("kvImageUrls"));
+        assertEquals(result.getKvUrl(), entity.getKvUrl());
+    }
+
+    private AiDesignService service(Function<StubChatClient.Request, String> responder,
+                                    DashScopeImageGenerator imageGenerator) throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DesignReferenceCacheProperties referenceProperties = new DesignReferenceCacheProperties();
+        referenceProperties.setDirectory(cacheDir.toString());
+        ReferenceImageProvider referenceImageProvider = new ReferenceImageProvider(storage, referenceProperties, registry);
+        referenceImageProvider.init();
+        DesignImageCacheProperties imageCacheProperties = new DesignImageCacheProperties();
+        imageCacheProperties.setEnabled(false);
+        storage.put("designs/shot.png", new byte[]{1, 2, 3});
+
+        return new AiDesignService(
+            new StubChatClient(responder).builder(),
+            null,
+            imageGenerator,
+            storage,
+            new ObjectMapper(),
+            analysisProperties,
+            new ArtifactService(artifactRepository(), new ObjectMapper()),
+            new ImageGenerationCache(null, storage, imageCacheProperties, registry),
+            referenceImageProvider,
+            prompt("design-concept-system.st"),
+            prompt("design-concept-user.st"),
+            prompt("design-market-system.st"),
+            prompt("design-market-user.st"),
+            prompt("design-technical-system.st"),
+            prompt("design-technical-user.st"),
+            prompt("design-risk-system.st"),
+            prompt("design-risk-user.st"),
+            prompt("design-KV-system.st"));
+    }
+
+    /**
+     * 按系统提示词区分请求属于哪一项
+     */
+    private static String section(StubChatClient.Request request) {
+        if (request.system().equals(rendered("design-market-system.st"))) {
+            return "market";
+        }
+        if (request.system().equals(rendered("design-technical-system.st"))) {
+            return "technical";
+        }
+        if (request.system().equals(rendered("design-risk-system.st"))) {
+            return "risk";
+        }
+        if (request.system().equals(rendered("design-KV-system.st"))) {
+            return request.user().contains("仅输出严格JSON") ? "kvPack" : "kvText";
+        }
+        throw new IllegalArgumentException("未知请求: " + request.system());
+    }
+
+    private static String rendered(String name) {
+        try {
+            return new PromptTemplate(prompt(name).getContentAsString(StandardCharsets.UTF_8)).render();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ClassPathResource prompt(String name) {
+        return new ClassPathResource("prompts/" + name);
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> failedSections(Map<String, Object> analysis) {
+        return ((List<Map<String, String>>) analysis.get("failedSections")).stream()
+            .collect(Collectors.toMap(failed -> failed.get("section"), failed -> failed.get("error")));
+    }
+
+    private String uploadedFrom(String storedUrl) {
+        return new String(storage.get(storedUrl.substring(STORED_PREFIX.length())), StandardCharsets.UTF_8);
+    }
+
+    private static DesignConcept concept() {
+        DesignConcept.Material material = new DesignConcept.Material();
+        material.setName("紫砂");
+        material.setFinish("哑光");
+        DesignConcept concept = new DesignConcept();
+        concept.setConceptName("紫砂香插");
+        concept.setDesignPhilosophy("器以载道");
+        concept.setFormFactor("圆柱");
+        concept.setDimensions("80x80x120mm");
+        concept.setUserInteraction("旋转开合");
+        concept.setMaterials(List.of(material));
+        concept.setKeyFeatures(List.of("防烫", "可拆洗"));
+        return concept;
+    }
+
+    private static ArtifactEntity artifact(Long id) {
+        ArtifactEntity entity = new ArtifactEntity();
+        entity.setId(id);
+        entity.setUserId(42L);
+        entity.setDesignName("紫砂香插");
+        entity.setProductShotUrl(PRODUCT_SHOT_URL);
+        entity.setConceptData(Map.of("conceptName", "紫砂香插"));
+        return entity;
+    }
+
+    private ArtifactRepository artifactRepository() {
+        return (ArtifactRepository) Proxy.newProxyInstance(ArtifactRepository.class.getClassLoader(),
+            new Class<?>[]{ArtifactRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "findByIdActive" -> artifacts.get((Long) args[0]);
+                case "save" -> {
+                    saved.add((ArtifactEntity) args[0]);
+                    yield args[0];
+                }
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    /**
+     * 图像生成桩：参数解析走真实实现，生成结果由测试提供
+     */
+    private static final class StubImageGenerator extends DashScopeImageGenerator {
+
+        private final Function<ImageGenerationSpec, String> generator;
+
+        private StubImageGenerator(Function<ImageGenerationSpec, String> generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public String generateImage(ImageGenerationSpec spec) {
+            return generator.apply(spec);
+        }
+    }
+
+    /**
+     * 对象 URL 为 memory://heritage/{fileKey}；转存时把原图 URL 作为对象内容保存，便于断言
+     */
+    private static final class DesignStorage extends InMemoryFileStorageService {
+
+        @Override
+        public boolean isStoredObjectUrl(String url) {
+            return url != null && url.startsWith(STORED_PREFIX);
+        }
+
+        @Override
+        public String toFileKey(String url) {
+            return isStoredObjectUrl(url) ? url.substring(STORED_PREFIX.length()) : null;
+        }
+
+        @Override
+        public String uploadFromUrl(String imageUrl, String prefix) {
+            String fileKey = prefix + "/" + UUID.randomUUID() + ".png";
+            put(fileKey, imageUrl.getBytes(StandardCharsets.UTF_8));
+            return STORED_PREFIX + fileKey;
+        }
+    }
+}
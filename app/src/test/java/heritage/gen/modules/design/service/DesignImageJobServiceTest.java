@@ -0,0 +1,131 @@
+package heritage.gen.modules.design.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.DesignImageJobProperties;
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.design.model.DesignConcept;
+import heritage.gen.modules.design.model.GenerateDesignRequest;
+import heritage.gen.modules.design.model.GenerationStatus;
+import heritage.gen.modules.design.model.ImageJobType;
+import heritage.gen.modules.design.model.ImageJobView;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 图片任务提交与状态流转测试
+ */
+class DesignImageJobServiceTest {
+
+    private static final Long USER_ID = 7L;
+
+    private final InMemoryRedisService redis = new InMemoryRedisService();
+    private final DesignImageJobService service = new DesignImageJobService(
+        redis, null, new ObjectMapper(), new DesignImageJobProperties(), new SimpleMeterRegistry());
+
+    @Test
+    void concurrentSubmitsWithSameKeyEnqueueOnce() throws Exception {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ImageJobView>> futures = new java.util.ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return service.submit(ImageJobType.BLUEPRINT, USER_ID, null, request(), "retry-1");
+                }));
+            }
+            start.countDown();
+            Set<String> jobIds = new java.util.HashSet<>();
+            for (Future<ImageJobView> future : futures) {
+                ImageJobView view = future.get();
+                jobIds.add(view.jobId());
+                assertEquals(GenerationStatus.PENDING, view.status());
+            }
+
+            assertEquals(1, jobIds.size());
+            assertEquals(1, redis.streamEntries(AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY).size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void replayReturnsExistingJobEvenWhenItsStatusIsGone() {
+        String key = AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_IDEMPOTENCY_PREFIX + USER_ID + ":blueprint:retry-2";
+        redis.setString(key, "job-in-flight", Duration.ofHours(1));
+
+        ImageJobView view = service.submit(ImageJobType.BLUEPRINT, USER_ID, null, request(), "retry-2");
+
+        assertEquals("job-in-flight", view.jobId());
+        assertEquals(GenerationStatus.PENDING, view.status());
+        assertTrue(redis.streamEntries(AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY).isEmpty());
+    }
+
+    @Test
+    void completedJobIsReturnedOnReplayAndDistinctKeysCreateNewJobs() {
+        ImageJobView first = service.submit(ImageJobType.BLUEPRINT, USER_ID, null, request(), "retry-3");
+        service.markCompleted(first.jobId(), "https://oss/blueprint.png");
+
+        ImageJobView replay = service.submit(ImageJobType.BLUEPRINT, USER_ID, null, request(), "retry-3");
+        ImageJobView other = service.submit(ImageJobType.BLUEPRINT, USER_ID, null, request(), "retry-4");
+
+        assertEquals(first.jobId(), replay.jobId());
+        assertEquals(GenerationStatus.COMPLETED, replay.status());
+        assertNotEquals(first.jobId(), other.jobId());
+        // 失败的重复提交不会留下多余的状态
+        Set<String> queued = redis.streamEntries(AsyncTaskStreamConstants.DESIGN_IMAGE_JOB_STREAM_KEY).stream()
+            .map(entry -> entry.get(AsyncTaskStreamConstants.FIELD_JOB_ID))
+            .collect(Collectors.toSet());
+        assertEquals(Set.of(first.jobId(), other.jobId()), queued);
+    }
+
+    @Test
+    void statusTransitionsThroughProcessingToTerminal() {
+        ImageJobView submitted = service.submit(ImageJobType.BLUEPRINT, USER_ID, null, request(), null);
+        assertEquals(GenerationStatus.PENDING, submitted.status());
+        assertFalse(submitted.isTerminal());
+
+        service.markProcessing(submitted.jobId(), "生成中");
+        ImageJobView processing = service.read(submitted.jobId());
+        assertEquals(GenerationStatus.PROCESSING, processing.status());
+        assertEquals("生成中", processing.stage());
+        assertEquals(submitted.createdAt(), processing.createdAt());
+
+        service.markCompleted(submitted.jobId(), "https://oss/blueprint.png");
+        ImageJobView completed = service.read(submitted.jobId());
+        assertTrue(completed.isTerminal());
+        assertEquals("https://oss/blueprint.png", completed.result());
+        assertNull(completed.error());
+
+        ImageJobView failing = service.submit(ImageJobType.BLUEPRINT, USER_ID, null, request(), null);
+        service.markFailed(failing.jobId(), null);
+        ImageJobView failed = service.read(failing.jobId());
+        assertEquals(GenerationStatus.FAILED, failed.status());
+        assertEquals("未知错误", failed.error());
+    }
+
+    private static GenerateDesignRequest request() {
+        GenerateDesignRequest request = new GenerateDesignRequest();
+        DesignConcept concept = new DesignConcept();
+        concept.setConceptName("青花茶具");
+        request.setConcept(concept);
+        return request;
+    }
+}
@@ -0,0 +1,48 @@
+package heritage.gen.modules.design.service;
+
+import heritage.gen.modules.design.model.ImageGenerationSpec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 图片生成缓存键测试
+ */
+class ImageGenerationCacheTest {
+
+    private static final Map<String, Object> PARAMETERS = Map.of("size", "864*1536", "ref_strength", 0.6f);
+
+    @Test
+    void referenceFilesWithSameContentShareKey(@TempDir Path dir) throws Exception {
+        Path first = Files.write(dir.resolve("ref_a.png"), new byte[]{1, 2, 3});
+        Path second = Files.write(dir.resolve("ref_b.png"), new byte[]{1, 2, 3});
+        Path other = Files.write(dir.resolve("ref_c.png"), new byte[]{1, 2, 4});
+
+        String key = ImageGenerationCache.cacheKey(spec("prompt", PARAMETERS, first.toUri().toString()));
+
+        assertEquals(key, ImageGenerationCache.cacheKey(spec("prompt", PARAMETERS, second.toUri().toString())));
+        assertNotEquals(key, ImageGenerationCache.cacheKey(spec("prompt", PARAMETERS, other.toUri().toString())));
+        // 参考图读取失败时不走缓存
+        assertNull(ImageGenerationCache.cacheKey(spec("prompt", PARAMETERS, dir.resolve("missing.png").toUri().toString())));
+    }
+
+    @Test
+    void promptAndParametersAffectKey() {
+        String key = ImageGenerationCache.cacheKey(spec("prompt", PARAMETERS, null));
+
+        assertEquals(key, ImageGenerationCache.cacheKey(spec("prompt", Map.of("ref_strength", 0.6f, "size", "864*1536"), null)));
+        assertNotEquals(key, ImageGenerationCache.cacheKey(spec("prompt!", PARAMETERS, null)));
+        assertNotEquals(key, ImageGenerationCache.cacheKey(spec("prompt", Map.of("size", "1024*1024", "ref_strength", 0.6f), null)));
+    }
+
+    private static ImageGenerationSpec spec(String prompt, Map<String, Object> parameters, String referenceImageUrl) {
+        return new ImageGenerationSpec("wan2.6-image", prompt, parameters, referenceImageUrl);
+    }
+}
@@ -0,0 +1,74 @@
+package heritage.gen.modules.design.service;
+
+import heritage.gen.common.config.DesignReferenceCacheProperties;
+import heritage.gen.infrastructure.file.FileStorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 参考图磁盘缓存测试
+ */
+class ReferenceImageProviderTest {
+
+    private static final int ONE_MB = 1024 * 1024;
+
+    @Test
+    void reusesCachedFileAndDefersEvictionWhileInUse(@TempDir Path dir) throws Exception {
+        DesignReferenceCacheProperties properties = new DesignReferenceCacheProperties();
+        properties.setDirectory(dir.toString());
+        properties.setMaxSizeMb(1);
+        Path foreign = Files.write(dir.resolve("other-process.png"), new byte[]{1});
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ReferenceImageProvider provider = new ReferenceImageProvider(new StubStorage(), properties, registry);
+        provider.init();
+
+        ReferenceImageProvider.ReferenceImage first = provider.acquire("stub://a.png");
+        try (ReferenceImageProvider.ReferenceImage again = provider.acquire("stub://a.png")) {
+            assertEquals(first.fileUri(), again.fileUri());
+        }
+        assertEquals(1.0, registry.get("design.reference.cache.requests").tag("result", "hit").counter().count());
+
+        // 第二张图超出容量，第一张被淘汰，但仍被占用，关闭后才删除
+        Path firstFile = Path.of(URI.create(first.fileUri()));
+        provider.acquire("stub://b.png").close();
+        assertTrue(Files.exists(firstFile));
+        first.close();
+        assertFalse(Files.exists(firstFile));
+
+        // 关闭时只删除本进程的子目录，共享根目录中的其他文件保留
+        provider.shutdown();
+        assertFalse(Files.exists(firstFile.getParent()));
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(foreign), files.toList());
+        }
+    }
+
+    private static final class StubStorage extends FileStorageService {
+
+        private StubStorage() {
+            super(null, null);
+        }
+
+        @Override
+        public String toFileKey(String url) {
+            return url.substring("stub://".length());
+        }
+
+        @Override
+        public InputStream openFileStream(String fileKey) {
+            return new ByteArrayInputStream(new byte[ONE_MB - 1024]);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package heritage.gen.modules.knowledgebase.listener;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.RagChatJournalProperties;
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.knowledgebase.model.RagChatJournalEvent;
+import heritage.gen.modules.knowledgebase.repository.InMemoryRagChatJournalRepository;
+import heritage.gen.modules.knowledgebase.repository.InMemoryRagChatJournalRepository.Row;
+import heritage.gen.modules.knowledgebase.service.RagChatMessageJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 消息日志落库线程测试
+ */
+class RagChatJournalFlusherTest {
+
+    private static final String STREAM = AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_STREAM_KEY;
+    private static final String GROUP = AsyncTaskStreamConstants.RAG_CHAT_JOURNAL_GROUP_NAME;
+
+    private final InMemoryRedisService redis = new InMemoryRedisService();
+    private final InMemoryRagChatJournalRepository repository = new InMemoryRagChatJournalRepository();
+    private final RagChatJournalProperties properties = new RagChatJournalProperties();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RagChatMessageJournal journal =
+        new RagChatMessageJournal(redis, repository, new ObjectMapper(), properties, registry);
+    private RagChatJournalFlusher flusher;
+
+    RagChatJournalFlusherTest() {
+        properties.setFlushIntervalMs(10);
+        properties.setRetryBackoffMs(10);
+        properties.setClaimIdleMs(100);
+        repository.createSession(1L);
+    }
+
+    @AfterEach
+    void stop() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+    }
+
+    @Test
+    void flushesTurnsAndCompletionsInOrderAndClearsPendingMessages() {
+        int first = journal.appendTurn(1L, "景德镇瓷器有什么特点");
+        journal.appendCompletion(1L, first + 1, "白如玉、明如镜", "[3]");
+        int second = journal.appendTurn(1L, "传承人有哪些");
+
+        start(repository);
+        awaitFlushed();
+
+        Map<Integer, Row> rows = repository.messages(1L);
+        assertEquals(List.of(0, 1, 2, 3), List.copyOf(rows.keySet()));
+        assertEquals(new Row("ASSISTANT", "白如玉、明如镜", true, "[3]"), rows.get(first + 1));
+        assertEquals(new Row("ASSISTANT", "", false, null), rows.get(second + 1));
+        assertEquals(4, repository.messageCount(1L));
+        // 确认之后清除待落库消息
+        await(() -> journal.pendingMessages(1L).isEmpty());
+    }
+
+    @Test
+    void reclaimsEventsLeftUnacknowledgedByACrashedNode() {
+        int order = journal.appendTurn(1L, "苏绣的针法");
+        journal.appendCompletion(1L, order + 1, "平针、套针、抢针", null);
+        // 崩溃节点读取后未确认
+        redis.createStreamGroup(STREAM, GROUP);
+        assertEquals(2, redis.streamReadGroup(STREAM, GROUP, "crashed", 10).size());
+
+        start(repository);
+        awaitFlushed();
+
+        assertEquals(new Row("ASSISTANT", "平针、套针、抢针", true, null), repository.messages(1L).get(order + 1));
+        assertTrue(registry.get("rag.chat.journal.reclaimed").counter().count() >= 2);
+    }
+
+    @Test
+    void keepsBatchOnTransientFailureAndDropsOnlyInvalidEvents() {
+        AtomicInteger transientFailures = new AtomicInteger(2);
+        repository.failNextBatches(events -> {
+            if (transientFailures.getAndDecrement() > 0) {
+                throw new IllegalStateException("connection reset");
+            }
+            if (events.stream().anyMatch(event -> event.content().equals("坏数据"))) {
+                throw new DataIntegrityViolationException("value too long");
+            }
+        });
+        journal.appendTurn(1L, "坏数据");
+        int valid = journal.appendTurn(1L, "湘绣的特点");
+
+        start(repository);
+        awaitFlushed();
+
+        assertEquals(Map.of(valid, new Row("USER", "湘绣的特点", true, null),
+            valid + 1, new Row("ASSISTANT", "", false, null)), repository.messages(1L));
+        assertEquals(2.0, registry.get("rag.chat.journal.flush.failures").counter().count());
+        assertEquals(1.0, registry.get("rag.chat.journal.dropped").counter().count());
+    }
+
+    @Test
+    void replayedEventsDoNotRevertCompletedAnswers() {
+        RagChatJournalEvent turn = RagChatJournalEvent.turn(1L, 0, "问题", 1L);
+        repository.applyBatch(List.of(turn, RagChatJournalEvent.complete(1L, 1, "回答", null, 2L)));
+        // 完成事件之后重放更早的 TURN
+        redis.streamAdd(STREAM, turn.toFields());
+
+        start(repository);
+        awaitFlushed();
+
+        assertEquals(new Row("ASSISTANT", "回答", true, null), repository.messages(1L).get(1));
+        assertEquals(2, repository.messageCount(1L));
+    }
+
+    @Test
+    void failsStartupWhenUniqueIndexCannotBeCreated() {
+        InMemoryRagChatJournalRepository broken = new InMemoryRagChatJournalRepository() {
+            @Override
+            public void ensureSchema() {
+                throw new IllegalStateException("could not create unique index");
+            }
+        };
+
+        assertThrows(IllegalStateException.class, () -> start(broken));
+    }
+
+    private void start(InMemoryRagChatJournalRepository journalRepository) {
+        flusher = new RagChatJournalFlusher(redis, journalRepository, journal, properties, registry);
+        flusher.start();
+    }
+
+    private void awaitFlushed() {
+        await(() -> redis.streamLen(STREAM) == 0 && redis.pendingCount(STREAM, GROUP) == 0);
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待落库超时");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
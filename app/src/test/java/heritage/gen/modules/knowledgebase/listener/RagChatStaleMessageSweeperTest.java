@@ -0,0 +1,126 @@
+package heritage.gen.modules.knowledgebase.listener;
+
+import heritage.gen.common.config.RagChatRecoveryProperties;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.knowledgebase.model.RagChatJournalEvent;
+import heritage.gen.modules.knowledgebase.repository.InMemoryRagChatJournalRepository;
+import heritage.gen.modules.knowledgebase.repository.InMemoryRagChatJournalRepository.Row;
+import heritage.gen.modules.knowledgebase.repository.InMemoryRagChatRecoveryRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 中断回答回收测试（内存版消息表与 Redis）：
+ * 超时未完成的回答被标记为失败并导出卡住数；未持有扫描租约的节点只统计不回收；回收后到达的完成事件覆盖失败内容
+ */
+class RagChatStaleMessageSweeperTest {
+
+    private static final String LEASE_KEY = "rag:chat:recovery:lease";
+    private static final String FAILED = "【错误】回答生成中断，请重新提问";
+
+    private final InMemoryRedisService redis = new InMemoryRedisService();
+    private final InMemoryRagChatJournalRepository messages = new InMemoryRagChatJournalRepository();
+    private final InMemoryRagChatRecoveryRepository recovery = new InMemoryRagChatRecoveryRepository(messages);
+    private final RagChatRecoveryProperties properties = new RagChatRecoveryProperties();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RagChatStaleMessageSweeper sweeper =
+        new RagChatStaleMessageSweeper(redis, recovery, properties, registry);
+    private final long now = System.currentTimeMillis();
+
+    RagChatStaleMessageSweeperTest() {
+        properties.setStaleAfterSeconds(600);
+        messages.createSession(1L);
+        messages.createSession(2L);
+    }
+
+    @Test
+    void failsOnlyStaleAnswersAndReleasesTheLease() {
+        turn(1L, 0, 20);
+        turn(2L, 0, 1);
+
+        sweeper.sweep();
+
+        assertEquals(new Row("ASSISTANT", FAILED, true, null), messages.messages(1L).get(1));
+        // 未超时的回答仍在生成中
+        assertEquals(new Row("ASSISTANT", "", false, null), messages.messages(2L).get(1));
+        assertEquals(0.0, stuck());
+        assertEquals(1.0, recovered());
+        assertTrue(redis.tryLock(LEASE_KEY, 0, 60, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void nodeWithoutTheLeaseOnlyExportsTheStuckCount() {
+        turn(1L, 0, 20);
+        turn(2L, 0, 30);
+        // 另一节点持有租约
+        assertTrue(redis.tryLock(LEASE_KEY, 0, 60, TimeUnit.SECONDS));
+
+        sweeper.sweep();
+
+        assertEquals(2.0, stuck());
+        assertEquals(0, recovery.sweeps());
+        assertFalse(messages.messages(1L).get(1).completed());
+        // 没有释放别人的租约
+        assertFalse(redis.tryLock(LEASE_KEY, 0, 60, TimeUnit.SECONDS));
+
+        // 租约到期后由本节点接手
+        redis.unlock(LEASE_KEY);
+        sweeper.sweep();
+
+        assertEquals(0.0, stuck());
+        assertEquals(2.0, recovered());
+    }
+
+    @Test
+    void batchesOldestFirstAndStuckCountTracksTheRemainder() {
+        properties.setBatchSize(1);
+        turn(1L, 0, 20);
+        turn(2L, 0, 30);
+
+        sweeper.sweep();
+
+        assertEquals(1.0, stuck());
+        assertTrue(messages.messages(2L).get(1).completed());
+        assertFalse(messages.messages(1L).get(1).completed());
+
+        sweeper.sweep();
+
+        assertEquals(0.0, stuck());
+        assertEquals(2.0, recovered());
+        assertEquals(2, recovery.sweeps());
+    }
+
+    @Test
+    void lateCompletionOverwritesTheFailure() {
+        turn(1L, 0, 20);
+        sweeper.sweep();
+        assertEquals(FAILED, messages.messages(1L).get(1).content());
+
+        // 原节点只是很慢，回答最终完成，完成事件落库时覆盖失败内容
+        messages.applyBatch(List.of(RagChatJournalEvent.complete(1L, 1, "南京云锦用通经断纬织造", "[1]", now)));
+
+        assertEquals(new Row("ASSISTANT", "南京云锦用通经断纬织造", true, "[1]"), messages.messages(1L).get(1));
+        sweeper.sweep();
+        assertEquals(1.0, recovered());
+    }
+
+    private void turn(Long sessionId, int order, int minutesAgo) {
+        messages.applyBatch(List.of(RagChatJournalEvent.turn(sessionId, order, "云锦的织造工艺",
+            now - TimeUnit.MINUTES.toMillis(minutesAgo))));
+    }
+
+    private double stuck() {
+        return registry.get("rag.chat.messages.stuck").gauge().value();
+    }
+
+    private double recovered() {
+        return registry.get("rag.chat.messages.recovered").counter().count();
+    }
+}
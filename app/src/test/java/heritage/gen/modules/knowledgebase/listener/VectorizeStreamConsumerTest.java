@@ -0,0 +1,258 @@
+package heritage.gen.modules.knowledgebase.listener;
+
+import heritage.gen.common.config.AnswerCacheProperties;
+import heritage.gen.common.config.VectorizeConsumerProperties;
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.infrastructure.file.InMemoryFileStorageService;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.knowledgebase.model.KnowledgeBaseEntity;
+import heritage.gen.modules.knowledgebase.model.VectorStatus;
+import heritage.gen.modules.knowledgebase.model.VectorizeLane;
+import heritage.gen.modules.knowledgebase.repository.KnowledgeBaseRepository;
+import heritage.gen.modules.knowledgebase.service.KnowledgeBaseContentStagingService;
+import heritage.gen.modules.knowledgebase.service.KnowledgeBaseVectorService;
+import heritage.gen.modules.knowledgebase.service.SemanticAnswerCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 向量化消费者测试：同一知识库串行执行、遗留消息认领、批量通道预留 worker、重试时补暂存
+ */
+class VectorizeStreamConsumerTest {
+
+    private static final String GROUP = AsyncTaskStreamConstants.KB_VECTORIZE_GROUP_NAME;
+
+    private final InMemoryRedisService redis = new InMemoryRedisService();
+    private final InMemoryFileStorageService storage = new InMemoryFileStorageService();
+    private final VectorizeTaskScheduler scheduler = new VectorizeTaskScheduler(redis);
+    private final VectorizeConsumerProperties properties = new VectorizeConsumerProperties();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Map<Long, KnowledgeBaseEntity> knowledgeBases = new ConcurrentHashMap<>();
+    private final RecordingVectorService vectorService = new RecordingVectorService();
+    private VectorizeStreamConsumer consumer;
+
+    VectorizeStreamConsumerTest() {
+        properties.setWorkers(2);
+        properties.setReservedWorkers(1);
+        properties.setClaimIdleMs(200);
+        properties.setClaimIntervalMs(20);
+        properties.setHeartbeatIntervalMs(50);
+        properties.setMetricsIntervalMs(1000);
+    }
+
+    @AfterEach
+    void stop() {
+        vectorService.release.countDown();
+        if (consumer != null) {
+            consumer.shutdown();
+        }
+    }
+
+    @Test
+    void runsForTheSameKnowledgeBaseNeverOverlap() {
+        knowledgeBase(1L);
+        vectorService.blockNext.set(true);
+        scheduler.enqueue(VectorizeLane.INTERACTIVE, "user-1", legacyMessage(1L, "v1"));
+        scheduler.enqueue(VectorizeLane.MANUAL, "user-1", legacyMessage(1L, "v2"));
+
+        start();
+        // 第二条消息拿不到租约，留在待确认列表中
+        await(() -> counterSum("kb.vectorize.consumer.deferred") >= 1 && !vectorService.contents().isEmpty());
+        assertEquals(1, vectorService.contents().size());
+
+        vectorService.release.countDown();
+        await(() -> vectorService.contents().size() == 2 && redis.streamLen(queueKey(VectorizeLane.MANUAL)) == 0);
+
+        assertEquals(Set.of("v1", "v2"), Set.copyOf(vectorService.contents()));
+        assertEquals(1, vectorService.maxConcurrent.get());
+        assertEquals(VectorStatus.COMPLETED, knowledgeBases.get(1L).getVectorStatus());
+    }
+
+    @Test
+    void reclaimsMessageLeftPendingByACrashedConsumer() {
+        knowledgeBase(2L);
+        scheduler.enqueue(VectorizeLane.INTERACTIVE, "user-1", legacyMessage(2L, "遗留任务"));
+        // 崩溃的消费者读取后未确认
+        String queueKey = queueKey(VectorizeLane.INTERACTIVE);
+        assertEquals(1, redis.streamReadGroup(queueKey, GROUP, "crashed", 1).size());
+
+        start();
+        await(() -> redis.streamLen(queueKey) == 0);
+
+        assertEquals(List.of("遗留任务"), vectorService.contents());
+        assertEquals(0, redis.pendingCount(queueKey, GROUP));
+        assertEquals(1.0, counterSum("kb.vectorize.consumer.reclaimed"));
+        assertEquals(VectorStatus.COMPLETED, knowledgeBases.get(2L).getVectorStatus());
+    }
+
+    @Test
+    void backfillNeverTakesTheReservedWorker() {
+        knowledgeBase(3L);
+        knowledgeBase(4L);
+        knowledgeBase(5L);
+        vectorService.blockNext.set(true);
+        scheduler.enqueue(VectorizeLane.BACKFILL, "user-1", legacyMessage(3L, "批量1"));
+        scheduler.enqueue(VectorizeLane.BACKFILL, "user-1", legacyMessage(4L, "批量2"));
+
+        start();
+        await(() -> vectorService.running.get() == 1);
+        scheduler.enqueue(VectorizeLane.INTERACTIVE, "user-1", legacyMessage(5L, "交互"));
+
+        // 一个 worker 被批量任务阻塞时，另一个 worker 只处理交互任务
+        await(() -> vectorService.contents().contains("交互"));
+        assertEquals(List.of("批量1", "交互"), vectorService.contents());
+        assertEquals(1, redis.pendingCount(queueKey(VectorizeLane.BACKFILL), GROUP));
+
+        vectorService.release.countDown();
+        await(() -> vectorService.contents().size() == 3);
+        assertEquals(List.of("批量1", "交互", "批量2"), vectorService.contents());
+    }
+
+    @Test
+    void retryRestagesLegacyContentAndDiscardsItOnCompletion() {
+        knowledgeBase(6L);
+        vectorService.failNext.set(true);
+        scheduler.enqueue(VectorizeLane.INTERACTIVE, "user-1", legacyMessage(6L, "旧消息全文"));
+
+        start();
+        await(() -> vectorService.contents().size() == 2 && redis.streamLen(queueKey(VectorizeLane.INTERACTIVE)) == 0);
+
+        // 重试消息改为引用暂存文本，读取时校验哈希；完成后暂存文本被删除
+        assertEquals(List.of("旧消息全文", "旧消息全文"), vectorService.contents());
+        assertEquals(1.0, counterSum("kb.vectorize.consumer.retries"));
+        assertTrue(storage.keys().isEmpty());
+        assertEquals(VectorStatus.COMPLETED, knowledgeBases.get(6L).getVectorStatus());
+    }
+
+    private void start() {
+        KnowledgeBaseContentStagingService stagingService = new KnowledgeBaseContentStagingService(storage);
+        SemanticAnswerCache answerCache = new SemanticAnswerCache(null, null, new AnswerCacheProperties(), registry) {
+            @Override
+            public int invalidate(Long knowledgeBaseId, String reason) {
+                return 0;
+            }
+        };
+        consumer = new VectorizeStreamConsumer(redis, scheduler, vectorService, knowledgeBaseRepository(),
+            stagingService, answerCache, properties, registry);
+        consumer.init();
+    }
+
+    private void knowledgeBase(Long id) {
+        KnowledgeBaseEntity kb = new KnowledgeBaseEntity();
+        kb.setId(id);
+        knowledgeBases.put(id, kb);
+    }
+
+    /**
+     * JPA 仓库桩：只响应 findById 与 save
+     */
+    private KnowledgeBaseRepository knowledgeBaseRepository() {
+        return (KnowledgeBaseRepository) Proxy.newProxyInstance(KnowledgeBaseRepository.class.getClassLoader(),
+            new Class<?>[]{KnowledgeBaseRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "findById" -> Optional.ofNullable(knowledgeBases.get((Long) args[0]));
+                case "save" -> args[0];
+                default -> null;
+            });
+    }
+
+    private static Map<String, String> legacyMessage(Long kbId, String content) {
+        return Map.of(AsyncTaskStreamConstants.FIELD_KB_ID, kbId.toString(),
+            AsyncTaskStreamConstants.FIELD_CONTENT, content,
+            AsyncTaskStreamConstants.FIELD_RETRY_COUNT, "0");
+    }
+
+    private static String queueKey(VectorizeLane lane) {
+        return AsyncTaskStreamConstants.KB_VECTORIZE_LANE_PREFIX + lane.name().toLowerCase() + ":user-1";
+    }
+
+    private double counterSum(String name) {
+        return registry.find(name).counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待向量化超时");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * 记录每次向量化读到的文本与并发数；blockNext 置位后的下一次调用阻塞到 release，failNext 置位后的下一次调用失败
+     */
+    private static final class RecordingVectorService extends KnowledgeBaseVectorService {
+
+        private final List<String> contents = new CopyOnWriteArrayList<>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicBoolean blockNext = new AtomicBoolean();
+        private final AtomicBoolean failNext = new AtomicBoolean();
+
+        private RecordingVectorService() {
+            super(null, null, null);
+        }
+
+        @Override
+        public void vectorizeAndStore(Long knowledgeBaseId, Reader content) {
+            maxConcurrent.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                String text = read(content);
+                contents.add(text);
+                if (blockNext.compareAndSet(true, false)) {
+                    assertTrue(release.await(5, TimeUnit.SECONDS));
+                }
+                if (failNext.compareAndSet(true, false)) {
+                    throw new IllegalStateException("embedding 服务不可用");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        private List<String> contents() {
+            return List.copyOf(contents);
+        }
+
+        private static String read(Reader reader) {
+            StringWriter writer = new StringWriter();
+            try {
+                reader.transferTo(writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return writer.toString();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package heritage.gen.modules.knowledgebase.listener;
+
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.knowledgebase.listener.VectorizeTaskScheduler.VectorizeTask;
+import heritage.gen.modules.knowledgebase.model.VectorizeLane;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 向量化任务调度器空闲队列清理测试
+ */
+class VectorizeTaskSchedulerTest {
+
+    private static final String QUEUE = AsyncTaskStreamConstants.KB_VECTORIZE_LANE_PREFIX + "backfill:user-1";
+    private static final String QUEUES = AsyncTaskStreamConstants.KB_VECTORIZE_LANE_PREFIX + "backfill"
+        + AsyncTaskStreamConstants.KB_VECTORIZE_LANE_QUEUES_SUFFIX;
+    private static final Set<VectorizeLane> LANES = Set.of(VectorizeLane.BACKFILL);
+
+    private final InMemoryRedisService redis = new InMemoryRedisService();
+    private final VectorizeTaskScheduler scheduler = new VectorizeTaskScheduler(redis);
+
+    @Test
+    void drainedQueueIsRetiredWithExpiryAndRevivedByNextSubmit() {
+        scheduler.enqueue(VectorizeLane.BACKFILL, "user-1", Map.of(AsyncTaskStreamConstants.FIELD_KB_ID, "1"));
+        assertEquals(Set.of(QUEUE), redis.sMembers(QUEUES));
+        assertNull(redis.ttl(QUEUE));
+
+        scheduler.ack(scheduler.poll("c1", LANES).orElseThrow());
+
+        assertTrue(redis.sMembers(QUEUES).isEmpty());
+        assertEquals(Duration.ofHours(1), redis.ttl(QUEUE));
+
+        scheduler.enqueue(VectorizeLane.BACKFILL, "user-1", Map.of(AsyncTaskStreamConstants.FIELD_KB_ID, "2"));
+
+        assertEquals(Set.of(QUEUE), redis.sMembers(QUEUES));
+        assertNull(redis.ttl(QUEUE));
+        assertEquals("2", scheduler.poll("c1", LANES).orElseThrow().data().get(AsyncTaskStreamConstants.FIELD_KB_ID));
+    }
+
+    @Test
+    void expiredQueueIsRecreatedWithItsGroup() {
+        scheduler.enqueue(VectorizeLane.BACKFILL, "user-1", Map.of(AsyncTaskStreamConstants.FIELD_KB_ID, "1"));
+        scheduler.ack(scheduler.poll("c1", LANES).orElseThrow());
+        // 空队列到期，Stream 与消费者组一并删除
+        redis.delete(QUEUE);
+
+        scheduler.enqueue(VectorizeLane.BACKFILL, "user-1", Map.of(AsyncTaskStreamConstants.FIELD_KB_ID, "2"));
+        VectorizeTask task = scheduler.poll("c1", LANES).orElseThrow();
+
+        assertEquals(QUEUE, task.queueKey());
+        assertEquals("2", task.data().get(AsyncTaskStreamConstants.FIELD_KB_ID));
+        assertEquals(1, redis.pendingCount(QUEUE, AsyncTaskStreamConstants.KB_VECTORIZE_GROUP_NAME));
+    }
+}
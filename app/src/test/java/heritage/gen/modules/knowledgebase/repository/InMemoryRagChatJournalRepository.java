@@ -0,0 +1,143 @@
+package heritage.gen.modules.knowledgebase.repository;
+
+import heritage.gen.modules.knowledgebase.model.RagChatJournalEvent;
+import heritage.gen.modules.knowledgebase.repository.RagChatRecoveryRepository.RecoveredMessage;
+
+import java.util.HashMap;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * 内存版消息日志落库 Repository（离线测试用）
+ * 按与 SQL 相同的语义落库：TURN 只在消息不存在时插入，COMPLETE 覆盖为已完成，会话消息数取最大值，会话不存在时跳过；
+ * 一批事件要么全部生效要么全部不生效，可通过 {@link #failNextBatches} 注入失败。
+ * 消息的更新时间取事件时间，供中断回答回收按更新时间查找未完成的消息。
+ */
+public class InMemoryRagChatJournalRepository extends RagChatJournalRepository {
+
+    /**
+     * 已落库的消息
+     */
+    public record Row(String type, String content, boolean completed, String sourceKbIds) {}
+
+    private final Map<Long, TreeMap<Integer, Row>> messages = new HashMap<>();
+    private final Map<Long, Map<Integer, Long>> updatedAt = new HashMap<>();
+    private final Map<Long, Integer> messageCounts = new HashMap<>();
+    private final Set<Long> sessions = new HashSet<>();
+    private Consumer<List<RagChatJournalEvent>> failure = events -> { };
+    private int batches;
+    private int nextOrderQueries;
+
+    public InMemoryRagChatJournalRepository() {
+        super(null);
+    }
+
+    public synchronized void createSession(Long sessionId) {
+        sessions.add(sessionId);
+        messages.put(sessionId, new TreeMap<>());
+        updatedAt.put(sessionId, new HashMap<>());
+        messageCounts.put(sessionId, 0);
+    }
+
+    /**
+     * 之后的 applyBatch 先调用 failure，由其抛出异常模拟落库失败
+     */
+    public synchronized void failNextBatches(Consumer<List<RagChatJournalEvent>> failure) {
+        this.failure = failure;
+    }
+
+    @Override
+    public void ensureSchema() {
+    }
+
+    @Override
+    public synchronized int nextMessageOrder(Long sessionId) {
+        nextOrderQueries++;
+        TreeMap<Integer, Row> rows = messages.get(sessionId);
+        return rows == null || rows.isEmpty() ? 0 : rows.lastKey() + 1;
+    }
+
+    @Override
+    public synchronized void applyBatch(List<RagChatJournalEvent> events) {
+        failure.accept(events);
+        batches++;
+        for (RagChatJournalEvent event : events) {
+            if (!sessions.contains(event.sessionId())) {
+                continue;
+            }
+            TreeMap<Integer, Row> rows = messages.get(event.sessionId());
+            Map<Integer, Long> times = updatedAt.get(event.sessionId());
+            switch (event.type()) {
+                case TURN -> {
+                    if (rows.putIfAbsent(event.order(), new Row("USER", event.content(), true, null)) == null) {
+                        times.put(event.order(), event.at());
+                    }
+                    if (rows.putIfAbsent(event.order() + 1, new Row("ASSISTANT", "", false, null)) == null) {
+                        times.put(event.order() + 1, event.at());
+                    }
+                }
+                case COMPLETE -> {
+                    rows.put(event.order(), new Row("ASSISTANT", event.content(), true, event.sourceKbIds()));
+                    times.put(event.order(), event.at());
+                }
+            }
+            messageCounts.merge(event.sessionId(), event.messageCountAfter(), Math::max);
+        }
+    }
+
+    /**
+     * 更新时间早于 staleBeforeMillis 的未完成消息，按更新时间升序
+     */
+    public synchronized List<RecoveredMessage> incompleteBefore(long staleBeforeMillis) {
+        return messages.entrySet().stream()
+            .flatMap(session -> session.getValue().entrySet().stream()
+                .filter(row -> !row.getValue().completed())
+                .map(row -> new RecoveredMessage(session.getKey(), row.getKey())))
+            .filter(message -> updatedAt(message) < staleBeforeMillis)
+            .sorted(Comparator.comparingLong(this::updatedAt))
+            .toList();
+    }
+
+    /**
+     * 消息仍未完成时写入内容并置为完成（与回收 SQL 的条件更新一致）
+     *
+     * @return 是否更新
+     */
+    public synchronized boolean failIfIncomplete(RecoveredMessage message, String content, long at) {
+        Row row = messages.get(message.sessionId()).get(message.messageOrder());
+        if (row == null || row.completed()) {
+            return false;
+        }
+        messages.get(message.sessionId()).put(message.messageOrder(), new Row(row.type(), content, true, null));
+        updatedAt.get(message.sessionId()).put(message.messageOrder(), at);
+        return true;
+    }
+
+    private long updatedAt(RecoveredMessage message) {
+        return updatedAt.get(message.sessionId()).get(message.messageOrder());
+    }
+
+    public synchronized Map<Integer, Row> messages(Long sessionId) {
+        return new TreeMap<>(messages.getOrDefault(sessionId, new TreeMap<>()));
+    }
+
+    public synchronized int messageCount(Long sessionId) {
+        return messageCounts.getOrDefault(sessionId, 0);
+    }
+
+    public synchronized int batches() {
+        return batches;
+    }
+
+    /**
+     * nextMessageOrder 被调用的次数（热路径上应只在计数器缺失时查询）
+     */
+    public synchronized int nextOrderQueries() {
+        return nextOrderQueries;
+    }
+}
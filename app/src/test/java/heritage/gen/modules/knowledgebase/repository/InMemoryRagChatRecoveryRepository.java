@@ -0,0 +1,46 @@
+package heritage.gen.modules.knowledgebase.repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * 内存版中断回答回收 Repository（离线测试用）
+ * 直接操作 {@link InMemoryRagChatJournalRepository} 中的消息，按与 SQL 相同的语义回收：
+ * 只处理更新时间早于 staleBefore 的未完成消息，最旧的优先，条件更新不会覆盖已完成的回答。
+ */
+public class InMemoryRagChatRecoveryRepository extends RagChatRecoveryRepository {
+
+    private final InMemoryRagChatJournalRepository messages;
+    private int sweeps;
+
+    public InMemoryRagChatRecoveryRepository(InMemoryRagChatJournalRepository messages) {
+        super(null);
+        this.messages = messages;
+    }
+
+    @Override
+    public void ensureSchema() {
+    }
+
+    @Override
+    public long countStale(Timestamp staleBefore) {
+        return messages.incompleteBefore(staleBefore.getTime()).size();
+    }
+
+    @Override
+    public synchronized List<RecoveredMessage> failStale(Timestamp staleBefore, String content, int limit) {
+        sweeps++;
+        long now = System.currentTimeMillis();
+        return messages.incompleteBefore(staleBefore.getTime()).stream()
+            .limit(limit)
+            .filter(message -> messages.failIfIncomplete(message, content, now))
+            .toList();
+    }
+
+    /**
+     * failStale 被调用的次数（只有持有租约的节点会调用）
+     */
+    public synchronized int sweeps() {
+        return sweeps;
+    }
+}
@@ -0,0 +1,106 @@
+package heritage.gen.modules.knowledgebase.repository;
+
+import heritage.gen.modules.knowledgebase.repository.RagChatRecoveryRepository.RecoveredMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 中断回答回收 SQL 测试（需要 PostgreSQL）
+ * 设置 TEST_POSTGRES_URL（如 jdbc:postgresql://localhost:5432/heritage_culture）后运行，
+ * 用户名与密码取 TEST_POSTGRES_USER / TEST_POSTGRES_PASSWORD；表建在临时 schema 中，结束后删除。
+ */
+@EnabledIfEnvironmentVariable(named = "TEST_POSTGRES_URL", matches = ".+")
+class RagChatRecoveryRepositoryTest {
+
+    private static final String SCHEMA = "rag_recovery_test";
+    private static final String FAILED = "回答中断";
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private RagChatRecoveryRepository repository;
+    private final Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    private final Timestamp staleBefore = Timestamp.from(now.minus(5, ChronoUnit.MINUTES));
+
+    @BeforeEach
+    void createSchema() {
+        dataSource = new SingleConnectionDataSource(System.getenv("TEST_POSTGRES_URL"),
+            Objects.requireNonNullElse(System.getenv("TEST_POSTGRES_USER"), "postgres"),
+            Objects.requireNonNullElse(System.getenv("TEST_POSTGRES_PASSWORD"), "password"), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA " + SCHEMA);
+        jdbcTemplate.execute("SET search_path TO " + SCHEMA);
+        // 与 JPA 生成的 rag_chat_messages 中回收相关的列一致
+        jdbcTemplate.execute("""
+            CREATE TABLE rag_chat_messages (
+                id BIGSERIAL PRIMARY KEY,
+                session_id BIGINT NOT NULL,
+                message_order INTEGER NOT NULL,
+                content TEXT NOT NULL,
+                completed BOOLEAN,
+                updated_at TIMESTAMP
+            )
+            """);
+        repository = new RagChatRecoveryRepository(jdbcTemplate);
+        repository.ensureSchema();
+    }
+
+    @AfterEach
+    void dropSchema() {
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        dataSource.destroy();
+    }
+
+    @Test
+    void failsOnlyStaleIncompleteMessages() {
+        insert(1L, 1, "已完成的回答", true, 30);
+        insert(1L, 3, "", false, 30);
+        insert(2L, 1, "正在生成", false, 1);
+
+        List<RecoveredMessage> recovered = repository.failStale(staleBefore, FAILED, 10);
+
+        assertEquals(List.of(new RecoveredMessage(1L, 3)), recovered);
+        assertEquals("已完成的回答", content(1L, 1));
+        assertEquals(FAILED, content(1L, 3));
+        assertEquals("正在生成", content(2L, 1));
+        assertEquals(0, repository.countStale(staleBefore));
+    }
+
+    @Test
+    void respectsLimitAndRecoversOldestFirst() {
+        insert(1L, 1, "", false, 10);
+        insert(2L, 1, "", false, 30);
+        insert(3L, 1, "", false, 20);
+
+        List<RecoveredMessage> recovered = repository.failStale(staleBefore, FAILED, 2);
+
+        assertEquals(List.of(2L, 3L), recovered.stream().map(RecoveredMessage::sessionId).sorted().toList());
+        assertEquals(1, repository.countStale(staleBefore));
+        assertEquals(List.of(new RecoveredMessage(1L, 1)), repository.failStale(staleBefore, FAILED, 2));
+    }
+
+    private void insert(Long sessionId, int order, String content, boolean completed, int minutesAgo) {
+        jdbcTemplate.update("""
+            INSERT INTO rag_chat_messages (session_id, message_order, content, completed, updated_at)
+            VALUES (?, ?, ?, ?, ?)
+            """, sessionId, order, content, completed, Timestamp.from(now.minus(minutesAgo, ChronoUnit.MINUTES)));
+    }
+
+    private String content(Long sessionId, int order) {
+        return jdbcTemplate.queryForObject(
+            "SELECT content FROM rag_chat_messages WHERE session_id = ? AND message_order = ?",
+            String.class, sessionId, order);
+    }
+}
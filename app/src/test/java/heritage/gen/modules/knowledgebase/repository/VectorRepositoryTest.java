@@ -0,0 +1,21 @@
+package heritage.gen.modules.knowledgebase.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 关键词检索预过滤测试
+ */
+class VectorRepositoryTest {
+
+    @Test
+    void prefilterUsesOnlyTrigramIndexableTermsWhenPresent() {
+        assertEquals(List.of("景德镇", "unesco"),
+            VectorRepository.prefilterTerms(List.of("景德镇", "景德", "德镇", "瓷器", "unesco")));
+        // 没有可走索引的词时退化为全部词（顺序扫描）
+        assertEquals(List.of("瓷器", "苏绣"), VectorRepository.prefilterTerms(List.of("瓷器", "苏绣")));
+    }
+}
@@ -0,0 +1,226 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.EmbeddingConfigProperties;
+import heritage.gen.infrastructure.ai.EmbeddingRateLimiter;
+import heritage.gen.infrastructure.ai.FakeEmbeddingModel;
+import heritage.gen.modules.knowledgebase.model.EmbeddingPipelineStats;
+import heritage.gen.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 增量向量化测试：分段与 chunk ID、按批 Embedding 与批量写库、增量复用、提交失败归还限流许可
+ */
+class EmbeddingPipelineServiceTest {
+
+    private final FakeEmbeddingModel embeddingModel = new FakeEmbeddingModel(8);
+    private final RecordingVectorRepository vectorRepository = new RecordingVectorRepository();
+    private final EmbeddingConfigProperties embeddingConfig = new EmbeddingConfigProperties();
+    private final EmbeddingRateLimiter rateLimiter;
+
+    EmbeddingPipelineServiceTest() {
+        embeddingConfig.setBatchSize(10);
+        embeddingConfig.setInsertBatchSize(25);
+        rateLimiter = new EmbeddingRateLimiter(embeddingConfig);
+    }
+
+    @Test
+    void segmentsCoverWholeContent() {
+        String content = buildDocument(4000, -1);
+
+        List<String> segments = EmbeddingPipelineService.splitIntoSegments(content);
+
+        assertTrue(segments.size() > 1);
+        assertEquals(content, String.join("", segments));
+    }
+
+    @Test
+    void localEditOnlyChangesNearbySegments() {
+        List<String> original = EmbeddingPipelineService.splitIntoSegments(buildDocument(4000, -1));
+        List<String> edited = EmbeddingPipelineService.splitIntoSegments(buildDocument(4000, 200));
+
+        Set<String> unchanged = new HashSet<>(original);
+        unchanged.retainAll(new HashSet<>(edited));
+
+        // 在文档开头附近插入一行，后续段不受偏移影响
+        assertTrue(unchanged.size() >= original.size() - 2,
+            "unchanged=" + unchanged.size() + ", total=" + original.size());
+    }
+
+    @Test
+    void chunkIdIsDeterministicPerOccurrence() {
+        String first = EmbeddingPipelineService.buildChunkId(1L, "abc", 1);
+
+        assertEquals(first, EmbeddingPipelineService.buildChunkId(1L, "abc", 1));
+        assertNotEquals(first, EmbeddingPipelineService.buildChunkId(1L, "abc", 2));
+        assertNotEquals(first, EmbeddingPipelineService.buildChunkId(2L, "abc", 1));
+    }
+
+    @Test
+    void embedsInModelBatchesAndInsertsInJdbcBatches() {
+        EmbeddingPipelineStats stats = pipeline().run(1L, new StringReader(buildDocument(4000, -1)));
+
+        int chunks = stats.chunkCount();
+        assertTrue(chunks > 25, "chunks=" + chunks);
+        assertEquals(chunks, stats.insertedChunkCount());
+        // 每次 Embedding 调用最多 batchSize 条
+        assertEquals((chunks + 9) / 10, embeddingModel.getCalls());
+        assertEquals((chunks + 9) / 10, stats.embeddingBatchCount());
+        assertEquals(chunks, embeddingModel.getEmbeddedTexts());
+        // 攒够 insertBatchSize 才写库，只有最后一次可以不足
+        List<Integer> inserts = vectorRepository.insertSizes;
+        assertEquals(chunks, inserts.stream().mapToInt(Integer::intValue).sum());
+        inserts.subList(0, inserts.size() - 1).forEach(size -> assertTrue(size >= 25, "inserts=" + inserts));
+        assertEquals(chunks, vectorRepository.chunkIds.size());
+        assertTrue(vectorRepository.documents.stream().allMatch(document -> "1".equals(document.getMetadata().get("kb_id"))));
+        assertEquals(0, rateLimiter.getInFlightCount());
+    }
+
+    @Test
+    void rerunOnlyEmbedsChangedChunksAndDeletesStaleOnes() {
+        EmbeddingPipelineStats first = pipeline().run(1L, new StringReader(buildDocument(4000, -1)));
+        int callsAfterFirstRun = embeddingModel.getCalls();
+
+        EmbeddingPipelineStats unchanged = pipeline().run(1L, new StringReader(buildDocument(4000, -1)));
+        assertEquals(0, unchanged.insertedChunkCount());
+        assertEquals(first.chunkCount(), unchanged.reusedChunkCount());
+        assertEquals(callsAfterFirstRun, embeddingModel.getCalls());
+
+        EmbeddingPipelineStats edited = pipeline().run(1L, new StringReader(buildDocument(4000, 200)));
+        assertTrue(edited.insertedChunkCount() > 0);
+        assertTrue(edited.insertedChunkCount() < first.chunkCount() / 4, "inserted=" + edited.insertedChunkCount());
+        assertEquals(edited.insertedChunkCount(), edited.deletedChunkCount() + edited.chunkCount() - first.chunkCount());
+        assertEquals(edited.chunkCount(), vectorRepository.chunkIds.size());
+    }
+
+    @Test
+    void rejectedEmbeddingTaskReturnsItsPermit() {
+        EmbeddingPipelineService pipeline = new EmbeddingPipelineService(embeddingModel, vectorRepository, rateLimiter,
+            embeddingConfig, new SimpleMeterRegistry()) {
+            @Override
+            ExecutorService newExecutor() {
+                return new RejectingEmbeddingExecutor();
+            }
+        };
+
+        assertThrows(RuntimeException.class, () -> pipeline.run(1L, new StringReader(buildDocument(400, -1))));
+
+        assertEquals(0, rateLimiter.getInFlightCount());
+        assertEquals(0, embeddingModel.getCalls());
+        assertTrue(vectorRepository.insertSizes.isEmpty());
+    }
+
+    private EmbeddingPipelineService pipeline() {
+        return new EmbeddingPipelineService(embeddingModel, vectorRepository, rateLimiter, embeddingConfig,
+            new SimpleMeterRegistry());
+    }
+
+    private static String buildDocument(int lines, int insertAt) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (i == insertAt) {
+                sb.append("新增的一行：非遗项目补充说明\n");
+            }
+            sb.append("第").append(i).append("行：传统技艺的传承与保护，记录编号 ").append(i * 7919 % 10007).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 内存版 vector_store：记录每次 batchInsert 的行数
+     */
+    private static final class RecordingVectorRepository extends VectorRepository {
+
+        private final Set<String> chunkIds = new HashSet<>();
+        private final List<Document> documents = new ArrayList<>();
+        private final List<Integer> insertSizes = new ArrayList<>();
+
+        private RecordingVectorRepository() {
+            super(null, null);
+        }
+
+        @Override
+        public Set<String> findChunkIdsByKnowledgeBaseId(Long knowledgeBaseId) {
+            return new HashSet<>(chunkIds);
+        }
+
+        @Override
+        public int batchInsert(List<Document> documents, List<float[]> embeddings, int batchSize) {
+            assertEquals(documents.size(), embeddings.size());
+            insertSizes.add(documents.size());
+            this.documents.addAll(documents);
+            documents.forEach(document -> chunkIds.add(document.getId()));
+            return documents.size();
+        }
+
+        @Override
+        public int deleteByIds(Collection<String> ids) {
+            int before = chunkIds.size();
+            chunkIds.removeAll(ids);
+            return before - chunkIds.size();
+        }
+    }
+
+    /**
+     * 分块任务正常执行，Embedding 任务提交（execute）一律被拒绝，模拟执行器已关闭
+     */
+    private static final class RejectingEmbeddingExecutor extends AbstractExecutorService {
+
+        private final ExecutorService delegate = Executors.newVirtualThreadPerTaskExecutor();
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return delegate.submit(task);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            throw new RejectedExecutionException("executor shut down");
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
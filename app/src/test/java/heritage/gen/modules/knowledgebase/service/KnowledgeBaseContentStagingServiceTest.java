@@ -0,0 +1,103 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.infrastructure.file.InMemoryFileStorageService;
+import heritage.gen.modules.knowledgebase.service.KnowledgeBaseContentStagingService.StagedContent;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 解析文本暂存测试：gzip 压缩写入、边读边校验哈希
+ */
+class KnowledgeBaseContentStagingServiceTest {
+
+    private final InMemoryFileStorageService storage = new InMemoryFileStorageService();
+    private final KnowledgeBaseContentStagingService stagingService = new KnowledgeBaseContentStagingService(storage);
+
+    @Test
+    void stagedTextRoundTripsThroughGzipWithItsHash() throws Exception {
+        // 超过读写缓冲区，覆盖多次分段读取
+        String text = "景德镇制瓷技艺，白如玉、明如镜、薄如纸、声如磬。\n".repeat(5000);
+
+        StagedContent staged = stagingService.stage(text);
+
+        assertEquals(text.length(), staged.contentLength());
+        assertEquals(sha256(text), staged.contentHash());
+        byte[] stored = storage.get(staged.storageKey());
+        assertEquals((byte) 0x1f, stored[0]);
+        assertEquals((byte) 0x8b, stored[1]);
+        assertTrue(stored.length < text.getBytes(StandardCharsets.UTF_8).length / 10);
+        try (Reader reader = stagingService.openReader(staged.storageKey(), staged.contentHash())) {
+            assertEquals(text, read(reader));
+        }
+
+        stagingService.discard(staged.storageKey());
+        assertTrue(storage.keys().isEmpty());
+    }
+
+    @Test
+    void emptyTextIsNotUploaded() {
+        StagedContent staged = stagingService.stage("");
+
+        assertTrue(staged.isEmpty());
+        assertNull(staged.storageKey());
+        assertTrue(storage.keys().isEmpty());
+    }
+
+    @Test
+    void readingRejectsContentThatDoesNotMatchTheHash() throws Exception {
+        StagedContent staged = stagingService.stage("苏绣针法");
+        // 存储中的对象被替换为其他文本
+        storage.put(staged.storageKey(), gzip("湘绣针法"));
+
+        try (Reader reader = stagingService.openReader(staged.storageKey(), staged.contentHash())) {
+            IOException e = assertThrows(IOException.class, () -> read(reader));
+            assertTrue(e.getMessage().contains(staged.storageKey()));
+        }
+        // 不传哈希时不校验
+        try (Reader reader = stagingService.openReader(staged.storageKey(), null)) {
+            assertEquals("湘绣针法", read(reader));
+        }
+    }
+
+    @Test
+    void openingCorruptOrMissingObjectFails() {
+        StagedContent staged = stagingService.stage("苏绣针法");
+        storage.put(staged.storageKey(), "not gzip".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(BusinessException.class, () -> stagingService.openReader(staged.storageKey(), staged.contentHash()));
+        assertThrows(BusinessException.class, () -> stagingService.openReader("kb-parsed/missing.txt.gz", null));
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringWriter writer = new StringWriter();
+        reader.transferTo(writer);
+        return writer.toString();
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String sha256(String text) throws Exception {
+        return HexFormat.of().formatHex(
+            MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,53 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 混合检索的查询词提取与 RRF 融合测试
+ */
+class KnowledgeBaseHybridSearchServiceTest {
+
+    @Test
+    void parseKeepsProperNounsAndDropsFunctionWords() {
+        Map<String, Integer> terms = LexicalQueryParser.parse("景德镇的瓷器有哪些 UNESCO 名录？", 16);
+
+        assertEquals(3, terms.get("景德镇"));
+        assertEquals(1, terms.get("景德"));
+        assertEquals(1, terms.get("德镇"));
+        assertEquals(2, terms.get("瓷器"));
+        assertEquals(6, terms.get("unesco"));
+        assertEquals(2, terms.get("名录"));
+        assertFalse(terms.containsKey("哪些"));
+        assertFalse(terms.containsKey("的瓷"));
+    }
+
+    @Test
+    void parseRespectsMaxTerms() {
+        assertTrue(LexicalQueryParser.parse("苏绣湘绣蜀绣粤绣四大名绣的针法", 4).size() <= 4);
+        assertTrue(LexicalQueryParser.parse("的是？", 16).isEmpty());
+    }
+
+    @Test
+    void fusePromotesDocumentsFoundByBothLegs() {
+        List<Document> vector = List.of(doc("a"), doc("b"), doc("c"));
+        List<Document> lexical = List.of(doc("c"), doc("d"));
+
+        List<Document> fused = KnowledgeBaseHybridSearchService.fuse(List.of(vector, lexical), 60, 4);
+
+        // b 与 d 同分，保持向量检索的先后顺序
+        assertEquals(List.of("c", "a", "b", "d"), fused.stream().map(Document::getId).toList());
+        assertEquals(1.0 / 63 + 1.0 / 61, fused.getFirst().getScore(), 1e-12);
+    }
+
+    private static Document doc(String id) {
+        return Document.builder().id(id).text("chunk " + id).metadata(Map.of("kb_id", "1")).build();
+    }
+}
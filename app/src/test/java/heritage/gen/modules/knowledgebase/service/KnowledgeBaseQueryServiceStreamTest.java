@@ -0,0 +1,199 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.AnswerCacheProperties;
+import heritage.gen.common.config.RagChatProperties;
+import heritage.gen.common.config.RagStreamProperties;
+import heritage.gen.common.config.RerankProperties;
+import heritage.gen.infrastructure.ai.StubChatClient;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.knowledgebase.model.RagStreamEvent;
+import heritage.gen.modules.knowledgebase.repository.AnswerCacheRepository;
+import heritage.gen.modules.knowledgebase.tool.HeritageDataTool;
+import heritage.gen.modules.knowledgebase.tool.HeritageToolPrePass;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.ClassPathResource;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 知识库流式问答测试（桩 ChatClient 流式输出）：
+ * 元数据先于回答片段发出并带来源与片段得分；语义缓存命中时不调用模型；
+ * 回答只在流正常完成后写入语义缓存，生成中断时不写入
+ */
+class KnowledgeBaseQueryServiceStreamTest {
+
+    private static final List<Long> KB_IDS = List.of(1L, 2L);
+    private static final List<Document> DOCUMENTS = List.of(
+        Document.builder().id("c1").text("昆曲起源于元末明初的昆山").metadata("kb_id", 1L).score(0.92).build(),
+        Document.builder().id("c2").text("昆曲被誉为百戏之祖").metadata("kb_id", "2").score(0.75).build());
+
+    private final List<String> searchQueries = new CopyOnWriteArrayList<>();
+    private final RecordingAnswerCache answerCache = new RecordingAnswerCache();
+
+    @Test
+    void metadataPrecedesTokensAndCarriesSourcesAndChunkScores() throws Exception {
+        Sinks.Many<String> tokens = Sinks.many().unicast().onBackpressureBuffer();
+        StubChatClient chat = new StubChatClient(request -> "", request -> tokens.asFlux());
+        KnowledgeBaseQueryService service = service(chat);
+
+        StepVerifier.create(service.answerQuestionStream(KB_IDS, "昆曲起源于哪里"))
+            .assertNext(event -> {
+                RagStreamEvent.Metadata metadata = (RagStreamEvent.Metadata) event;
+                assertEquals(List.of(1L, 2L), metadata.sourceKbIds());
+                assertEquals(List.of(new RagStreamEvent.SourceChunk("c1", 1L, 0.92),
+                    new RagStreamEvent.SourceChunk("c2", 2L, 0.75)), metadata.chunks());
+                assertFalse(metadata.cached());
+            })
+            .then(() -> tokens.tryEmitNext("昆曲"))
+            .expectNext(new RagStreamEvent.Token("昆曲"))
+            .then(() -> tokens.tryEmitNext(""))
+            .then(() -> tokens.tryEmitNext("起源于昆山"))
+            .expectNext(new RagStreamEvent.Token("起源于昆山"))
+            // 流未完成前不写缓存
+            .then(() -> assertTrue(answerCache.puts.isEmpty()))
+            .then(tokens::tryEmitComplete)
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+
+        assertTrue(answerCache.putDone.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(new Put("昆曲起源于哪里", "昆曲起源于昆山", List.of(1L, 2L))), answerCache.puts);
+        assertEquals(List.of("昆曲起源于哪里"), searchQueries);
+        StubChatClient.Request request = chat.requests().get(0);
+        assertTrue(request.user().contains("昆曲起源于元末明初的昆山"));
+        assertTrue(request.user().contains("昆曲起源于哪里"));
+    }
+
+    @Test
+    void cacheHitAnswersWithoutRetrievalOrModelCall() throws Exception {
+        answerCache.hit = new AnswerCacheRepository.CachedAnswerRow(9L, "缓存的回答", List.of(2L), 0.98);
+        StubChatClient chat = new StubChatClient(request -> "",
+            request -> Flux.error(new AssertionError("缓存命中时不应调用模型")));
+        KnowledgeBaseQueryService service = service(chat);
+
+        StepVerifier.create(service.answerQuestionStream(KB_IDS, "昆曲起源于哪里"))
+            .assertNext(event -> {
+                RagStreamEvent.Metadata metadata = (RagStreamEvent.Metadata) event;
+                assertEquals(List.of(2L), metadata.sourceKbIds());
+                assertEquals(List.of(), metadata.chunks());
+                assertTrue(metadata.cached());
+            })
+            .expectNext(new RagStreamEvent.Token("缓存的回答"))
+            .verifyComplete();
+
+        assertEquals(List.of(), chat.requests());
+        assertEquals(List.of(), searchQueries);
+        assertEquals(1, answerCache.lookups.get());
+        assertTrue(answerCache.puts.isEmpty());
+    }
+
+    @Test
+    void interruptedGenerationKeepsPartialAnswerAndSkipsCacheWrite() throws Exception {
+        StubChatClient chat = new StubChatClient(request -> "", request -> Flux.concat(
+            Flux.just("昆曲"), Flux.error(new IllegalStateException("连接被重置"))));
+        KnowledgeBaseQueryService service = service(chat);
+
+        StepVerifier.create(service.answerQuestionStream(KB_IDS, "昆曲起源于哪里"))
+            .expectNextMatches(RagStreamEvent.Metadata.class::isInstance)
+            .expectNext(new RagStreamEvent.Token("昆曲"))
+            .expectNext(new RagStreamEvent.Token("\n\n【错误】回答生成中断：连接被重置"))
+            .verifyComplete();
+
+        // 缓存写入在弹性线程池上异步执行，等待足够长的时间确认没有被调度
+        assertFalse(answerCache.putDone.await(300, TimeUnit.MILLISECONDS));
+        assertTrue(answerCache.puts.isEmpty());
+    }
+
+    private KnowledgeBaseQueryService service(StubChatClient chat) throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RerankProperties rerankProperties = new RerankProperties();
+        rerankProperties.setEnabled(false);
+        RagStreamProperties streamProperties = new RagStreamProperties();
+        streamProperties.setToolPrePassEnabled(false);
+        StubChatClient unused = new StubChatClient(request -> {
+            throw new AssertionError("不应调用: " + request.system());
+        });
+
+        return new KnowledgeBaseQueryService(
+            chat.builder(),
+            new KnowledgeBaseHybridSearchService(null, null, null, registry) {
+                @Override
+                public List<Document> search(String query, List<Long> knowledgeBaseIds, int topK) {
+                    searchQueries.add(query);
+                    return DOCUMENTS;
+                }
+            },
+            new KnowledgeBaseRerankService(rerankProperties, List.of(scorer("lexical")), registry),
+            answerCache,
+            null,
+            new KnowledgeBaseCountService(null) {
+                @Override
+                public void updateQuestionCounts(List<Long> knowledgeBaseIds) {
+                }
+            },
+            new HeritageToolPrePass(unused.builder(), new HeritageDataTool(null, null), streamProperties,
+                new ClassPathResource("prompts/knowledgebase-tool-router.st")),
+            new RagQueryRewriter(unused.builder(), new InMemoryRedisService(), new RagChatProperties(), registry,
+                new ClassPathResource("prompts/knowledgebase-query-rewrite.st")),
+            registry,
+            new ClassPathResource("prompts/knowledgebase-query-system.st"),
+            new ClassPathResource("prompts/knowledgebase-query-user.st"));
+    }
+
+    private static RerankScorer scorer(String name) {
+        return new RerankScorer() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public double[] score(String query, List<Document> candidates) {
+                return new double[candidates.size()];
+            }
+        };
+    }
+
+    private record Put(String question, String answer, List<Long> sourceKbIds) {}
+
+    /**
+     * 记录查询与写入的语义缓存；未命中时返回带问题向量的查询结果，写入条件与真实实现一致
+     */
+    private static final class RecordingAnswerCache extends SemanticAnswerCache {
+
+        private final AtomicInteger lookups = new AtomicInteger();
+        private final List<Put> puts = new CopyOnWriteArrayList<>();
+        private final CountDownLatch putDone = new CountDownLatch(1);
+        private AnswerCacheRepository.CachedAnswerRow hit;
+
+        private RecordingAnswerCache() {
+            super(null, null, new AnswerCacheProperties(), new SimpleMeterRegistry());
+        }
+
+        @Override
+        public Lookup lookup(List<Long> knowledgeBaseIds, String question) {
+            lookups.incrementAndGet();
+            return new Lookup("1,2", knowledgeBaseIds, new float[]{1f}, hit);
+        }
+
+        @Override
+        public void put(Lookup lookup, String question, String answer, List<Long> sourceKbIds) {
+            puts.add(new Put(question, answer, sourceKbIds));
+            putDone.countDown();
+        }
+    }
+}
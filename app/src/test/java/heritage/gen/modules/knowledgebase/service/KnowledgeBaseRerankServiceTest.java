@@ -0,0 +1,37 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 检索重排的选取与打分解析测试
+ */
+class KnowledgeBaseRerankServiceTest {
+
+    @Test
+    void selectTopOrdersByScoreAndKeepsRetrievalOrderOnTies() {
+        List<Document> candidates = List.of(doc("a"), doc("b"), doc("c"), doc("d"));
+
+        List<Document> top = KnowledgeBaseRerankService.selectTop(candidates, new double[]{2, 9, 5, 5}, 3);
+
+        assertEquals(List.of("b", "c", "d"), top.stream().map(Document::getId).toList());
+    }
+
+    @Test
+    void parseScoresToleratesMissingAndOutOfRangeEntries() {
+        assertArrayEquals(new double[]{8, -1, 3},
+            LlmRerankScorer.parseScores("1:8\n3：3\n7:10\n", 3));
+        assertNull(LlmRerankScorer.parseScores("无法评估", 3));
+        assertNull(LlmRerankScorer.parseScores(null, 3));
+    }
+
+    private static Document doc(String id) {
+        return Document.builder().id(id).text(id).build();
+    }
+}
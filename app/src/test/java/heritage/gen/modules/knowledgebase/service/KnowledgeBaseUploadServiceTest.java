@@ -0,0 +1,140 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.common.exception.ErrorCode;
+import heritage.gen.infrastructure.file.FileHashService;
+import heritage.gen.infrastructure.file.FileUploadResult;
+import heritage.gen.infrastructure.file.FileValidationService;
+import heritage.gen.infrastructure.file.InMemoryFileStorageService;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.knowledgebase.listener.VectorizeStreamProducer;
+import heritage.gen.modules.knowledgebase.listener.VectorizeTaskScheduler;
+import heritage.gen.modules.knowledgebase.model.KnowledgeBaseEntity;
+import heritage.gen.modules.knowledgebase.model.VectorStatus;
+import heritage.gen.modules.knowledgebase.model.VectorizeLane;
+import heritage.gen.modules.knowledgebase.repository.KnowledgeBaseRepository;
+import heritage.gen.modules.knowledgebase.service.KnowledgeBaseContentStagingService.StagedContent;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 知识库上传失败时清理暂存文本的测试
+ */
+class KnowledgeBaseUploadServiceTest {
+
+    private static final String PARSED_PREFIX = "kb-parsed/";
+
+    private final InMemoryFileStorageService storage = new InMemoryFileStorageService();
+    private final KnowledgeBaseContentStagingService stagingService = new KnowledgeBaseContentStagingService(storage);
+    private final KnowledgeBaseEntity kb = new KnowledgeBaseEntity();
+    private final AtomicBoolean failSave = new AtomicBoolean();
+    private final KnowledgeBaseRepository repository = (KnowledgeBaseRepository) Proxy.newProxyInstance(
+        KnowledgeBaseRepository.class.getClassLoader(), new Class<?>[]{KnowledgeBaseRepository.class},
+        (proxy, method, args) -> switch (method.getName()) {
+            case "findById" -> Optional.of(kb);
+            case "findByFileHash" -> Optional.empty();
+            case "save" -> {
+                if (failSave.get()) {
+                    throw new IllegalStateException("connection refused");
+                }
+                yield args[0];
+            }
+            default -> null;
+        });
+
+    KnowledgeBaseUploadServiceTest() {
+        kb.setId(1L);
+        kb.setStorageKey("knowledgebases/original.txt");
+        kb.setOriginalFilename("original.txt");
+    }
+
+    @Test
+    void failedFileUploadDiscardsStagedText() {
+        InMemoryFileStorageService failingStorage = new InMemoryFileStorageService() {
+            @Override
+            public FileUploadResult uploadKnowledgeBase(MultipartFile file) {
+                throw new BusinessException(ErrorCode.STORAGE_UPLOAD_FAILED, "文件存储失败");
+            }
+        };
+        KnowledgeBaseContentStagingService failingStaging = new KnowledgeBaseContentStagingService(failingStorage);
+        KnowledgeBaseUploadService service = uploadService(failingStorage, failingStaging);
+
+        assertThrows(BusinessException.class, () -> service.uploadKnowledgeBase(file(), null, null, false));
+
+        assertTrue(failingStorage.keys().isEmpty());
+    }
+
+    @Test
+    void failedKnowledgeBaseSaveDiscardsStagedText() {
+        failSave.set(true);
+
+        assertThrows(BusinessException.class,
+            () -> uploadService(storage, stagingService).uploadKnowledgeBase(file(), null, null, false));
+
+        assertTrue(storage.keys().stream().noneMatch(key -> key.startsWith(PARSED_PREFIX)));
+    }
+
+    @Test
+    void failedRevectorizeStatusSaveDiscardsStagedText() {
+        failSave.set(true);
+
+        assertThrows(IllegalStateException.class, () -> uploadService(storage, stagingService).revectorize(1L));
+
+        assertTrue(storage.keys().isEmpty());
+    }
+
+    @Test
+    void failedEnqueueMarksKnowledgeBaseFailedAndDiscardsStagedText() {
+        VectorizeTaskScheduler failingScheduler = new VectorizeTaskScheduler(new InMemoryRedisService()) {
+            @Override
+            public String enqueue(VectorizeLane lane, String submitter, Map<String, String> message) {
+                throw new IllegalStateException("redis unavailable");
+            }
+        };
+        StagedContent staged = stagingService.stage("景德镇制瓷技艺");
+
+        new VectorizeStreamProducer(failingScheduler, repository, stagingService)
+            .sendVectorizeTask(1L, staged, VectorizeLane.MANUAL, "user-1");
+
+        assertEquals(VectorStatus.FAILED, kb.getVectorStatus());
+        assertTrue(storage.keys().isEmpty());
+    }
+
+    private KnowledgeBaseUploadService uploadService(InMemoryFileStorageService fileStorage,
+                                                     KnowledgeBaseContentStagingService staging) {
+        KnowledgeBaseParseService parseService = new KnowledgeBaseParseService(null, null, fileStorage, staging) {
+            @Override
+            public String detectContentType(MultipartFile file) {
+                return "text/plain";
+            }
+
+            @Override
+            public StagedContent parseAndStage(MultipartFile file) {
+                return staging.stage("景德镇制瓷技艺");
+            }
+
+            @Override
+            public StagedContent downloadParseAndStage(String storageKey, String originalFilename) {
+                return staging.stage("景德镇制瓷技艺");
+            }
+        };
+        return new KnowledgeBaseUploadService(parseService, fileStorage, repository, new FileValidationService(),
+            new FileHashService(), null, staging);
+    }
+
+    private static MockMultipartFile file() {
+        return new MockMultipartFile("file", "景德镇.txt", "text/plain",
+            "景德镇制瓷技艺".getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,97 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.RagChatJournalProperties;
+import heritage.gen.common.constant.AsyncTaskStreamConstants;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.knowledgebase.model.RagChatJournalEvent;
+import heritage.gen.modules.knowledgebase.model.RagChatMessageEntity;
+import heritage.gen.modules.knowledgebase.repository.InMemoryRagChatJournalRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 消息日志测试
+ */
+class RagChatMessageJournalTest {
+
+    @Test
+    void pendingMessagesOverrideOlderStateButNotCompletedAnswers() {
+        RagChatMessageEntity persistedQuestion = message(1L, 0, "景德镇瓷器有什么特点", true);
+        RagChatMessageEntity persistedPlaceholder = message(2L, 1, "", false);
+        RagChatMessageEntity persistedAnswer = message(4L, 3, "白如玉、明如镜", true);
+
+        List<RagChatMessageEntity> merged = RagChatMessageJournal.overlay(
+            List.of(persistedAnswer, persistedPlaceholder, persistedQuestion),
+            List.of(
+                message(null, 1, "薄如纸、声如磬", true),
+                message(null, 3, "", false),
+                message(null, 4, "传承人有哪些", true)));
+
+        assertEquals(List.of(0, 1, 3, 4), merged.stream().map(RagChatMessageEntity::getMessageOrder).toList());
+        // 未落库的完成状态覆盖已落库的占位，并沿用已落库的ID
+        assertEquals("薄如纸、声如磬", merged.get(1).getContent());
+        assertEquals(2L, merged.get(1).getId());
+        // 迟到的占位不覆盖已完成的回答
+        assertEquals("白如玉、明如镜", merged.get(2).getContent());
+        assertEquals(4L, merged.get(2).getId());
+    }
+
+    @Test
+    void journalEventRoundTripsThroughStreamFields() {
+        RagChatJournalEvent event = RagChatJournalEvent.complete(7L, 5, "回答", "[1,2]", 1700000000000L);
+
+        assertEquals(event, RagChatJournalEvent.fromFields(event.toFields()));
+        assertEquals(6, event.messageCountAfter());
+        assertEquals(8, RagChatJournalEvent.turn(7L, 6, "问题", 0L).messageCountAfter());
+        assertThrows(IllegalArgumentException.class, () -> RagChatJournalEvent.fromFields(Map.of("type", "TURN")));
+    }
+
+    @Test
+    void orderSeedsFromPersistedAndPendingMessagesNotTheLaggingCount() {
+        InMemoryRedisService redis = new InMemoryRedisService();
+        InMemoryRagChatJournalRepository repository = new InMemoryRagChatJournalRepository();
+        RagChatMessageJournal journal = new RagChatMessageJournal(
+            redis, repository, new ObjectMapper(), new RagChatJournalProperties(), new SimpleMeterRegistry());
+        repository.createSession(7L);
+        repository.applyBatch(List.of(RagChatJournalEvent.turn(7L, 0, "问题一", 0L)));
+
+        assertEquals(2, journal.appendTurn(7L, "问题二"));
+        // 计数器丢失后，未落库的第二轮仍计入起点
+        redis.delete(AsyncTaskStreamConstants.RAG_CHAT_ORDER_PREFIX + 7L);
+        assertEquals(4, journal.appendTurn(7L, "问题三"));
+        assertEquals(6, journal.appendTurn(7L, "问题四"));
+    }
+
+    @Test
+    void existingCounterAllocatesWithoutQueryingTheDatabase() {
+        InMemoryRedisService redis = new InMemoryRedisService();
+        InMemoryRagChatJournalRepository repository = new InMemoryRagChatJournalRepository();
+        RagChatMessageJournal journal = new RagChatMessageJournal(
+            redis, repository, new ObjectMapper(), new RagChatJournalProperties(), new SimpleMeterRegistry());
+        repository.createSession(8L);
+
+        assertEquals(0, journal.appendTurn(8L, "问题一"));
+        assertEquals(2, journal.appendTurn(8L, "问题二"));
+        assertEquals(4, journal.appendTurn(8L, "问题三"));
+
+        // 只有首次提问（计数器不存在）时计算起点
+        assertEquals(1, repository.nextOrderQueries());
+    }
+
+    private static RagChatMessageEntity message(Long id, int order, String content, boolean completed) {
+        RagChatMessageEntity message = new RagChatMessageEntity();
+        message.setId(id);
+        message.setType(order % 2 == 0 ? RagChatMessageEntity.MessageType.USER : RagChatMessageEntity.MessageType.ASSISTANT);
+        message.setMessageOrder(order);
+        message.setContent(content);
+        message.setCompleted(completed);
+        return message;
+    }
+}
@@ -0,0 +1,82 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.RagChatProperties;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.knowledgebase.model.KnowledgeBaseEntity;
+import heritage.gen.modules.knowledgebase.model.RagChatSessionEntity;
+import heritage.gen.modules.knowledgebase.model.RagChatSessionSnapshot;
+import heritage.gen.modules.knowledgebase.repository.RagChatSessionRepository;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 会话快照缓存测试：命中时不查询数据库，清除后重新加载
+ */
+class RagChatSessionCacheTest {
+
+    private final AtomicInteger queries = new AtomicInteger();
+    private final RagChatSessionEntity session = new RagChatSessionEntity();
+    private final RagChatSessionCache cache = new RagChatSessionCache(sessionRepository(), new InMemoryRedisService(),
+        new ObjectMapper(), new RagChatProperties());
+
+    RagChatSessionCacheTest() {
+        session.setId(1L);
+        session.setUserId(42L);
+        session.setKnowledgeBases(Set.of(knowledgeBase(3L)));
+        session.setHistorySummary("用户在了解陶瓷类非遗");
+        session.setSummarizedUntilOrder(9);
+    }
+
+    @Test
+    void cachedSnapshotSkipsTheSessionQuery() {
+        RagChatSessionSnapshot first = cache.get(1L);
+        RagChatSessionSnapshot second = cache.get(1L);
+
+        assertEquals(new RagChatSessionSnapshot(1L, 42L, List.of(3L), "用户在了解陶瓷类非遗", 9), first);
+        assertEquals(first, second);
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    void evictReloadsTheChangedKnowledgeBases() {
+        cache.get(1L);
+        session.setKnowledgeBases(Set.of(knowledgeBase(5L)));
+
+        cache.evict(1L);
+
+        assertEquals(List.of(5L), cache.get(1L).knowledgeBaseIds());
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    void missingSessionIsNotFound() {
+        assertThrows(BusinessException.class, () -> cache.get(2L));
+    }
+
+    private RagChatSessionRepository sessionRepository() {
+        return (RagChatSessionRepository) Proxy.newProxyInstance(RagChatSessionRepository.class.getClassLoader(),
+            new Class<?>[]{RagChatSessionRepository.class}, (proxy, method, args) -> {
+                if (!method.getName().equals("findByIdWithKnowledgeBases")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                queries.incrementAndGet();
+                return session.getId().equals(args[0]) ? Optional.of(session) : Optional.empty();
+            });
+    }
+
+    private static KnowledgeBaseEntity knowledgeBase(Long id) {
+        KnowledgeBaseEntity kb = new KnowledgeBaseEntity();
+        kb.setId(id);
+        return kb;
+    }
+}
@@ -0,0 +1,131 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import heritage.gen.common.config.RagChatJournalProperties;
+import heritage.gen.common.config.RagChatProperties;
+import heritage.gen.infrastructure.redis.InMemoryRedisService;
+import heritage.gen.modules.knowledgebase.model.RagChatMessageEntity;
+import heritage.gen.modules.knowledgebase.model.RagChatSessionSnapshot;
+import heritage.gen.modules.knowledgebase.repository.InMemoryRagChatJournalRepository;
+import heritage.gen.modules.knowledgebase.repository.RagChatMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.data.domain.Limit;
+
+import java.lang.reflect.Proxy;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对话记忆测试
+ */
+class RagConversationMemoryTest {
+
+    @Test
+    void summarizesOnlyFullBatchesOutsideWindow() {
+        // 窗口 4 轮（8 条），批量 2 轮（4 条）
+        assertNull(RagConversationMemory.pendingSummaryRange(-1, 10, 4, 2));
+        assertArrayEquals(new int[]{0, 4}, RagConversationMemory.pendingSummaryRange(-1, 12, 4, 2));
+        assertNull(RagConversationMemory.pendingSummaryRange(3, 14, 4, 2));
+        assertArrayEquals(new int[]{4, 8}, RagConversationMemory.pendingSummaryRange(3, 16, 4, 2));
+        // 积压过多时从最早未摘要的消息开始，每次最多 2 个批次，逐次追赶
+        assertArrayEquals(new int[]{0, 8}, RagConversationMemory.pendingSummaryRange(-1, 2008, 4, 2));
+        assertArrayEquals(new int[]{8, 16}, RagConversationMemory.pendingSummaryRange(7, 2008, 4, 2));
+    }
+
+    @Test
+    void rawHistoryStartsRightAfterTheSummary() throws Exception {
+        RagChatProperties properties = new RagChatProperties();
+        properties.setMemoryWindowTurns(2);
+        properties.setSummaryBatchTurns(2);
+        RagConversationMemory memory = memory(properties, IntStream.range(0, 40)
+            .mapToObj(order -> message(order % 2 == 0 ? RagChatMessageEntity.MessageType.USER
+                : RagChatMessageEntity.MessageType.ASSISTANT, "消息" + order, true, order))
+            .toList());
+        RagChatSessionSnapshot session = new RagChatSessionSnapshot(1L, 1L, List.of(), "用户在了解陶瓷类非遗", 9);
+
+        // 摘要滞后于窗口（窗口为 16..19）：原文从 10 开始，与摘要衔接
+        String history = memory.buildHistory(session, 20);
+        assertTrue(history.startsWith("【较早对话摘要】用户在了解陶瓷类非遗\n\n用户：消息10\n"));
+        assertTrue(history.endsWith("助手：消息19"));
+
+        // 积压超过上限（窗口 4 条 + 两个批次 8 条）时只取最近 12 条
+        String lagging = memory.buildHistory(session, 40);
+        assertTrue(lagging.contains("用户：消息28\n"));
+        assertFalse(lagging.contains("消息27"));
+
+        // 摘要覆盖到当前问题之后时不使用摘要，只取窗口
+        String regenerated = memory.buildHistory(session, 6);
+        assertEquals("用户：消息2\n助手：消息3\n用户：消息4\n助手：消息5", regenerated);
+    }
+
+    @Test
+    void formatsSummaryAndSkipsIncompleteMessages() {
+        List<RagChatMessageEntity> messages = List.of(
+            message(RagChatMessageEntity.MessageType.USER, "景德镇瓷器有什么特点", true),
+            message(RagChatMessageEntity.MessageType.ASSISTANT, "白如玉、明如镜、薄如纸、声如磬", true),
+            message(RagChatMessageEntity.MessageType.USER, "传承人有哪些", true),
+            message(RagChatMessageEntity.MessageType.ASSISTANT, "", false));
+
+        String history = RagConversationMemory.formatHistory("用户在了解陶瓷类非遗", messages, 8);
+
+        assertEquals("""
+            【较早对话摘要】用户在了解陶瓷类非遗
+
+            用户：景德镇瓷器有什么…
+            助手：白如玉、明如镜、…
+            用户：传承人有哪些""", history);
+        assertEquals("", RagConversationMemory.formatHistory(null, List.of(), 8));
+    }
+
+    private static RagChatMessageEntity message(RagChatMessageEntity.MessageType type, String content, boolean completed) {
+        return message(type, content, completed, 0);
+    }
+
+    private static RagChatMessageEntity message(RagChatMessageEntity.MessageType type, String content, boolean completed,
+                                                int order) {
+        RagChatMessageEntity message = new RagChatMessageEntity();
+        message.setType(type);
+        message.setContent(content);
+        message.setCompleted(completed);
+        message.setMessageOrder(order);
+        return message;
+    }
+
+    /**
+     * 对话记忆：消息仓库只实现按游标倒序读取，不调用模型
+     */
+    private static RagConversationMemory memory(RagChatProperties properties, List<RagChatMessageEntity> messages)
+            throws Exception {
+        RagChatMessageRepository messageRepository = (RagChatMessageRepository) Proxy.newProxyInstance(
+            RagChatMessageRepository.class.getClassLoader(), new Class<?>[]{RagChatMessageRepository.class},
+            (proxy, method, args) -> {
+                if (!method.getName().equals("findBySessionIdAndMessageOrderLessThanOrderByMessageOrderDesc")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                int beforeOrder = (Integer) args[1];
+                return messages.stream()
+                    .filter(message -> message.getMessageOrder() < beforeOrder)
+                    .sorted(Comparator.comparing(RagChatMessageEntity::getMessageOrder).reversed())
+                    .limit(((Limit) args[2]).max())
+                    .toList();
+            });
+        ChatClient.Builder chatClientBuilder = (ChatClient.Builder) Proxy.newProxyInstance(
+            ChatClient.Builder.class.getClassLoader(), new Class<?>[]{ChatClient.Builder.class},
+            (proxy, method, args) -> null);
+        RagChatMessageJournal journal = new RagChatMessageJournal(new InMemoryRedisService(),
+            new InMemoryRagChatJournalRepository(), new ObjectMapper(), new RagChatJournalProperties(),
+            new SimpleMeterRegistry());
+        return new RagConversationMemory(messageRepository, null, journal, null, properties, chatClientBuilder,
+            new SimpleMeterRegistry(), new ByteArrayResource("{maxChars}".getBytes()));
+    }
+}
@@ -0,0 +1,31 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 检索改写测试
+ */
+class RagQueryRewriterTest {
+
+    @Test
+    void detectsQuestionsThatDependOnContext() {
+        assertTrue(RagQueryRewriter.needsRewrite("它的传承人有哪些"));
+        assertTrue(RagQueryRewriter.needsRewrite("那苗族古歌呢？"));
+        assertTrue(RagQueryRewriter.needsRewrite("为什么"));
+        assertFalse(RagQueryRewriter.needsRewrite("景德镇手工制瓷技艺的代表性传承人有哪些"));
+        assertFalse(RagQueryRewriter.needsRewrite("  "));
+    }
+
+    @Test
+    void sanitizesModelOutput() {
+        assertEquals("景德镇手工制瓷技艺的传承人有哪些",
+            RagQueryRewriter.sanitize("“景德镇手工制瓷技艺的传承人有哪些”\n改写说明：补全了指代"));
+        assertNull(RagQueryRewriter.sanitize("  \n"));
+        assertNull(RagQueryRewriter.sanitize("问".repeat(201)));
+    }
+}
@@ -0,0 +1,240 @@
+package heritage.gen.modules.knowledgebase.service;
+
+import heritage.gen.common.config.AnswerCacheProperties;
+import heritage.gen.common.exception.BusinessException;
+import heritage.gen.infrastructure.ai.FakeEmbeddingModel;
+import heritage.gen.infrastructure.file.FileStorageService;
+import heritage.gen.modules.knowledgebase.model.KnowledgeBaseEntity;
+import heritage.gen.modules.knowledgebase.repository.AnswerCacheRepository;
+import heritage.gen.modules.knowledgebase.repository.KnowledgeBaseRepository;
+import heritage.gen.modules.knowledgebase.repository.RagChatSessionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 知识库问答语义缓存测试
+ */
+class SemanticAnswerCacheTest {
+
+    private static final String QUESTION = "景德镇瓷器有什么特点";
+    /**
+     * 与 QUESTION 的余弦相似度为 0.6
+     */
+    private static final String PARAPHRASE = "景德镇瓷器的特点";
+
+    private final InMemoryAnswerCacheRepository repository = new InMemoryAnswerCacheRepository();
+    private final AnswerCacheProperties properties = new AnswerCacheProperties();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SemanticAnswerCache cache = new SemanticAnswerCache(repository, new FakeEmbeddingModel(2) {
+        @Override
+        public float[] embed(String text) {
+            return text.equals(QUESTION) ? new float[]{1f, 0f} : new float[]{0.6f, 0.8f};
+        }
+    }, properties, registry);
+
+    @Test
+    void kbKeyIgnoresOrderDuplicatesAndNulls() {
+        List<Long> kbIds = SemanticAnswerCache.normalizeKbIds(Arrays.asList(3L, 1L, null, 3L, 2L));
+
+        assertEquals(List.of(1L, 2L, 3L), kbIds);
+        assertEquals("1,2,3", SemanticAnswerCache.buildKbKey(kbIds));
+        assertEquals("", SemanticAnswerCache.buildKbKey(SemanticAnswerCache.normalizeKbIds(null)));
+    }
+
+    @Test
+    void hitsOnlyAtOrAboveSimilarityThreshold() {
+        cache.put(cache.lookup(List.of(2L, 1L), QUESTION), QUESTION, "白如玉、明如镜", List.of(1L));
+
+        properties.setSimilarityThreshold(0.6);
+        SemanticAnswerCache.Lookup hit = cache.lookup(List.of(1L, 2L), PARAPHRASE);
+        assertTrue(hit.isHit());
+        assertEquals("白如玉、明如镜", hit.hit().answer());
+
+        properties.setSimilarityThreshold(0.61);
+        assertFalse(cache.lookup(List.of(1L, 2L), PARAPHRASE).isHit());
+        // 不同知识库集合之间不共享缓存
+        assertFalse(cache.lookup(List.of(1L), QUESTION).isHit());
+        assertEquals(1.0, registry.get("kb.answer.cache.requests").tag("result", "hit").counter().count());
+        // 写入前的首次查询也是未命中
+        assertEquals(3.0, registry.get("kb.answer.cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void putIsSkippedOnHit() {
+        cache.put(cache.lookup(List.of(1L), QUESTION), QUESTION, "白如玉、明如镜", List.of(1L));
+        SemanticAnswerCache.Lookup hit = cache.lookup(List.of(1L), QUESTION);
+
+        cache.put(hit, QUESTION, "重新生成的回答", List.of(1L));
+
+        assertEquals(1, repository.rows.size());
+        assertEquals(1, repository.rows.getFirst().hitCount);
+    }
+
+    @Test
+    void invalidationRemovesEveryEntryContainingTheKnowledgeBase() {
+        cache.put(cache.lookup(List.of(1L), QUESTION), QUESTION, "a", List.of(1L));
+        cache.put(cache.lookup(List.of(1L, 2L), QUESTION), QUESTION, "b", List.of(1L));
+        cache.put(cache.lookup(List.of(2L), QUESTION), QUESTION, "c", List.of(2L));
+
+        assertEquals(2, cache.invalidate(1L, "revectorize"));
+
+        assertFalse(cache.lookup(List.of(1L), QUESTION).isHit());
+        assertFalse(cache.lookup(List.of(1L, 2L), QUESTION).isHit());
+        assertTrue(cache.lookup(List.of(2L), QUESTION).isHit());
+        assertEquals(2.0, registry.get("kb.answer.cache.evictions").tag("reason", "revectorize").counter().count());
+    }
+
+    @Test
+    void deletingKnowledgeBaseInvalidatesItsAnswers() {
+        cache.put(cache.lookup(List.of(5L), QUESTION), QUESTION, "a", List.of(5L));
+        KnowledgeBaseEntity kb = new KnowledgeBaseEntity();
+        kb.setId(5L);
+        KnowledgeBaseDeleteService deleteService = new KnowledgeBaseDeleteService(
+            proxy(KnowledgeBaseRepository.class, Map.of("findById", Optional.of(kb))),
+            proxy(RagChatSessionRepository.class, Map.of("findByKnowledgeBaseIds", List.of())),
+            new KnowledgeBaseVectorService(null, null, null) {
+                @Override
+                public void deleteByKnowledgeBaseId(Long knowledgeBaseId) {
+                }
+            },
+            new FileStorageService(null, null) {
+                @Override
+                public void deleteKnowledgeBase(String storageKey) {
+                }
+            },
+            cache,
+            null);
+
+        deleteService.deleteKnowledgeBase(5L);
+
+        assertTrue(repository.rows.isEmpty());
+        assertEquals(1.0, registry.get("kb.answer.cache.evictions").tag("reason", "delete").counter().count());
+    }
+
+    @Test
+    void purgeAllReportsFailure() {
+        cache.put(cache.lookup(List.of(1L), QUESTION), QUESTION, "a", List.of(1L));
+        assertEquals(1, cache.purgeAll());
+
+        repository.failing = true;
+        assertThrows(BusinessException.class, cache::purgeAll);
+        // 查询失败按未命中处理
+        assertNull(cache.lookup(List.of(1L), QUESTION).hit());
+    }
+
+    /**
+     * JPA 仓库桩：只响应给定的方法，其余方法返回 null
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+            (proxy, method, args) -> answers.get(method.getName()));
+    }
+
+    /**
+     * 内存版缓存仓库，与 SQL 语义一致：同一知识库集合内取余弦相似度最高的一条
+     */
+    private static final class InMemoryAnswerCacheRepository extends AnswerCacheRepository {
+
+        private final List<Row> rows = new ArrayList<>();
+        private boolean failing;
+        private long nextId = 1;
+
+        private static final class Row {
+            final long id;
+            final String kbKey;
+            final List<Long> kbIds;
+            final float[] embedding;
+            final String answer;
+            final List<Long> sourceKbIds;
+            int hitCount;
+
+            Row(long id, String kbKey, List<Long> kbIds, float[] embedding, String answer, List<Long> sourceKbIds) {
+                this.id = id;
+                this.kbKey = kbKey;
+                this.kbIds = kbIds;
+                this.embedding = embedding;
+                this.answer = answer;
+                this.sourceKbIds = sourceKbIds;
+            }
+        }
+
+        private InMemoryAnswerCacheRepository() {
+            super(null);
+        }
+
+        @Override
+        public Optional<CachedAnswerRow> findNearest(String kbKey, float[] embedding, Instant notBefore) {
+            checkAvailable();
+            return rows.stream()
+                .filter(row -> row.kbKey.equals(kbKey))
+                .map(row -> new CachedAnswerRow(row.id, row.answer, row.sourceKbIds, cosine(row.embedding, embedding)))
+                .max((a, b) -> Double.compare(a.similarity(), b.similarity()));
+        }
+
+        @Override
+        public void insert(String kbKey, List<Long> kbIds, String question, float[] embedding,
+                           String answer, List<Long> sourceKbIds) {
+            checkAvailable();
+            rows.add(new Row(nextId++, kbKey, kbIds, embedding, answer, sourceKbIds));
+        }
+
+        @Override
+        public void incrementHitCount(long id) {
+            rows.stream().filter(row -> row.id == id).forEach(row -> row.hitCount++);
+        }
+
+        @Override
+        public int deleteByKnowledgeBaseId(Long knowledgeBaseId) {
+            checkAvailable();
+            int before = rows.size();
+            rows.removeIf(row -> row.kbIds.contains(knowledgeBaseId));
+            return before - rows.size();
+        }
+
+        @Override
+        public int deleteExpired(String kbKey, Instant notBefore) {
+            return 0;
+        }
+
+        @Override
+        public int deleteAll() {
+            checkAvailable();
+            int deleted = rows.size();
+            rows.clear();
+            return deleted;
+        }
+
+        private void checkAvailable() {
+            if (failing) {
+                throw new IllegalStateException("connection refused");
+            }
+        }
+
+        private static double cosine(float[] a, float[] b) {
+            double dot = 0;
+            double normA = 0;
+            double normB = 0;
+            for (int i = 0; i < a.length; i++) {
+                dot += a[i] * b[i];
+                normA += a[i] * a[i];
+                normB += b[i] * b[i];
+            }
+            return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+        }
+    }
+}
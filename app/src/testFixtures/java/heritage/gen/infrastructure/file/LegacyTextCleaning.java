@@ -0,0 +1,56 @@
+package heritage.gen.infrastructure.file;
+
+/**
+ * 基于正则替换的旧版文本清理实现
+ * 仅作为 {@link TextCleaningService} 单次扫描实现的等价性对照与性能基线，业务代码不应使用
+ */
+public final class LegacyTextCleaning {
+
+    private LegacyTextCleaning() {
+    }
+
+    public static String cleanText(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+
+        return text
+            .replaceAll("\\r\\n", "\n")
+            .replaceAll("\\r", "\n")
+            .replaceAll("\\n{3,}", "\n\n")
+            .lines()
+            .map(String::strip)
+            .reduce((a, b) -> a + "\n" + b)
+            .orElse("")
+            .strip();
+    }
+
+    public static String cleanToSingleLine(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+
+        return text
+            .replaceAll("\\r\\n", " ")
+            .replaceAll("\\r", " ")
+            .replaceAll("\\n", " ")
+            .replaceAll("\\s+", " ")
+            .strip();
+    }
+
+    public static String stripHtml(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+
+        return text
+            .replaceAll("<[^>]+>", " ")
+            .replaceAll("&nbsp;", " ")
+            .replaceAll("&amp;", "&")
+            .replaceAll("&lt;", "<")
+            .replaceAll("&gt;", ">")
+            .replaceAll("&quot;", "\"")
+            .replaceAll("\\s+", " ")
+            .strip();
+    }
+}
@@ -0,0 +1,90 @@
+package heritage.gen.benchmark;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 基准语料
+ * 从 -Dbenchmark.corpus 指定的目录读取非遗 PDF（及其他 Tika 支持的文档），提取未清理的原始文本，
+ * 即知识库入库时清理步骤的实际输入。未指定目录时退化为合成文本并在标准错误输出提示。
+ */
+final class HeritageCorpus {
+
+    static final String CORPUS_PROPERTY = "benchmark.corpus";
+
+    private HeritageCorpus() {
+    }
+
+    /**
+     * 返回恰好 chars 个字符的原始文本，语料不足时循环拼接
+     */
+    static String rawText(int chars) throws Exception {
+        String source = loadRawText();
+        StringBuilder sb = new StringBuilder(chars + source.length());
+        while (sb.length() < chars) {
+            sb.append(source);
+        }
+        sb.setLength(chars);
+        return sb.toString();
+    }
+
+    private static String loadRawText() throws Exception {
+        String dir = System.getProperty(CORPUS_PROPERTY);
+        if (dir == null || dir.isBlank()) {
+            System.err.println("未指定 -D" + CORPUS_PROPERTY + "，使用合成文本；结果不代表真实 PDF 入库开销");
+            return syntheticText();
+        }
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(Path.of(dir))) {
+            files = stream.filter(Files::isRegularFile).sorted().toList();
+        }
+        if (files.isEmpty()) {
+            throw new IllegalStateException("语料目录为空: " + dir);
+        }
+
+        Parser parser = new AutoDetectParser();
+        StringBuilder sb = new StringBuilder();
+        for (Path file : files) {
+            StringWriter writer = new StringWriter();
+            ParseContext context = new ParseContext();
+            context.set(Parser.class, parser);
+            try (InputStream in = Files.newInputStream(file)) {
+                parser.parse(in, new BodyContentHandler(writer), new Metadata(), context);
+            } catch (IOException e) {
+                throw new IllegalStateException("语料解析失败: " + file, e);
+            }
+            sb.append(writer).append("\n\n");
+        }
+        System.err.printf("语料: %d 个文件, 原始文本 %d 字符%n", files.size(), sb.length());
+        return sb.toString();
+    }
+
+    /**
+     * 模拟 PDF 抽取文本的形态：短行、行首缩进、行尾空白、页间多个空行、\r\n 混排
+     */
+    private static String syntheticText() {
+        StringBuilder sb = new StringBuilder();
+        for (int page = 0; page < 200; page++) {
+            for (int line = 0; line < 40; line++) {
+                sb.append(line % 7 == 0 ? "    " : "")
+                    .append("第").append(page).append("页 第").append(line)
+                    .append("行：传统技艺的传承与保护，项目编号 ").append((page * 40 + line) * 7919 % 10007)
+                    .append(line % 3 == 0 ? "  \r\n" : "\n");
+            }
+            sb.append("\n\n\n\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package heritage.gen.benchmark;
+
+import com.itextpdf.html2pdf.ConverterProperties;
+import com.itextpdf.html2pdf.HtmlConverter;
+import com.itextpdf.html2pdf.resolver.font.DefaultFontProvider;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.layout.font.FontProvider;
+import heritage.gen.infrastructure.pdf.PdfRenderEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 设计提案 PDF 渲染基准：共享 PdfRenderEngine vs 旧版每次导出重新读取并解析字体
+ * 字体通过 -Dbenchmark.font 指定（./gradlew :benchmarks:jmh -Pfont=/path/to/NotoSansSC.ttf），
+ * 未指定时从 app 的 classpath 读取 fonts/NotoSansSC-VariableFont_wght.ttf（该字体不随仓库提交，需部署时放入）。
+ * 分配量对比加 -Pprofilers=gc 运行，看 gc.alloc.rate.norm（每次导出的分配字节数）。
+ * 尚未测量：使用真实 Noto Sans SC 字体的耗时与分配量对比还没有跑过。目前只用 DejaVuSans 代替字体验证过基准能运行，
+ * 该字体远小于可变中文字体且缺少中文字形，其结果不能作为共享字体的收益。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PdfRenderBenchmark {
+
+    static final String FONT_PROPERTY = "benchmark.font";
+    private static final String FONT_RESOURCE = "fonts/NotoSansSC-VariableFont_wght.ttf";
+
+    private byte[] fontBytes;
+    private PdfRenderEngine engine;
+    private String html;
+
+    @Setup
+    public void setUp() throws Exception {
+        fontBytes = loadFont();
+        engine = new PdfRenderEngine(fontBytes, true);
+        html = sampleHtml();
+    }
+
+    @Benchmark
+    public byte[] sharedEngine() {
+        return engine.render(html);
+    }
+
+    /**
+     * 旧版 PdfExportService 的做法：每次导出新建字体提供者并重新解析字体
+     */
+    @Benchmark
+    public byte[] legacyPerExportFont() throws Exception {
+        ConverterProperties properties = new ConverterProperties();
+        FontProvider fontProvider = new DefaultFontProvider(false, false, false);
+        fontProvider.addFont(FontProgramFactory.createFont(fontBytes.clone()));
+        properties.setFontProvider(fontProvider);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HtmlConverter.convertToPdf(html, out, properties);
+        return out.toByteArray();
+    }
+
+    private static byte[] loadFont() throws Exception {
+        String path = System.getProperty(FONT_PROPERTY);
+        if (path != null && !path.isBlank()) {
+            return Files.readAllBytes(Path.of(path));
+        }
+        try (InputStream in = PdfRenderBenchmark.class.getClassLoader().getResourceAsStream(FONT_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("未找到字体，请通过 -D" + FONT_PROPERTY + " 指定中文字体文件");
+            }
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * 与 design-export 模板结构相近的提案页面：标题、段落、列表和表格，均为中文内容
+     */
+    private static String sampleHtml() {
+        StringBuilder sb = new StringBuilder("<html><head><meta charset=\"UTF-8\"/>"
+            + "<style>body{font-family:sans-serif;font-size:12px}h2{color:#8b0000}"
+            + "table{border-collapse:collapse;width:100%}td{border:1px solid #ccc;padding:4px}</style>"
+            + "</head><body><h1>景泰蓝纹样香薰灯 设计提案</h1>");
+        for (int section = 0; section < 6; section++) {
+            sb.append("<h2>第").append(section + 1).append("部分 设计理念与市场分析</h2>");
+            for (int p = 0; p < 4; p++) {
+                sb.append("<p>以非遗掐丝珐琅工艺为灵感，将传统缠枝莲纹样转化为现代灯具的镂空结构，")
+                    .append("兼顾文化传承与日常使用，目标人群为二十五至四十岁的城市文化消费者。</p>");
+            }
+            sb.append("<ul><li>材质：黄铜 拉丝</li><li>配色：宝石蓝、朱红</li><li>工艺：掐丝、点蓝、烧制</li></ul>");
+            sb.append("<table>");
+            for (int row = 0; row < 5; row++) {
+                sb.append("<tr><td>风险项 ").append(row).append("</td><td>珐琅釉料高温开裂，需控制烧制曲线</td></tr>");
+            }
+            sb.append("</table>");
+        }
+        return sb.append("</body></html>").toString();
+    }
+}
@@ -0,0 +1,81 @@
+package heritage.gen.benchmark;
+
+import heritage.gen.infrastructure.file.LegacyTextCleaning;
+import heritage.gen.infrastructure.file.TextCleaningService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文本清理基准：单次扫描实现 vs 旧版正则实现
+ * 输入为 megabytes × 1M 字符的原始语料，megabytes=1 时得分即"每 MB 文本的清理耗时"，
+ * 用于跟踪入库流程的 CPU 开销。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TextCleaningBenchmark {
+
+    private static final int CHARS_PER_MB = 1024 * 1024;
+
+    @Param({"1"})
+    public int megabytes;
+
+    private final TextCleaningService service = new TextCleaningService();
+
+    private String text;
+
+    @Setup
+    public void setUp() throws Exception {
+        text = HeritageCorpus.rawText(megabytes * CHARS_PER_MB);
+        // 基准前先校验两种实现在真实语料上输出一致
+        if (!service.cleanText(text).equals(LegacyTextCleaning.cleanText(text))
+            || !service.cleanToSingleLine(text).equals(LegacyTextCleaning.cleanToSingleLine(text))
+            || !service.stripHtml(text).equals(LegacyTextCleaning.stripHtml(text))) {
+            throw new IllegalStateException("单次扫描实现与旧版实现输出不一致");
+        }
+    }
+
+    @Benchmark
+    public String cleanText() {
+        return service.cleanText(text);
+    }
+
+    @Benchmark
+    public String legacyCleanText() {
+        return LegacyTextCleaning.cleanText(text);
+    }
+
+    @Benchmark
+    public String cleanToSingleLine() {
+        return service.cleanToSingleLine(text);
+    }
+
+    @Benchmark
+    public String legacyCleanToSingleLine() {
+        return LegacyTextCleaning.cleanToSingleLine(text);
+    }
+
+    @Benchmark
+    public String stripHtml() {
+        return service.stripHtml(text);
+    }
+
+    @Benchmark
+    public String legacyStripHtml() {
+        return LegacyTextCleaning.stripHtml(text);
+    }
+}
@@ -1 +1,3 @@
 CREATE EXTENSION IF NOT EXISTS vector;
+-- 知识库关键词检索（trigram 索引）
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
@@ -8,6 +8,17 @@ export interface KvGenerationResult {
     detailUrl: string;
 }
 
+export interface ImageJob {
+    jobId: string;
+    type: 'BLUEPRINT' | 'RENDER' | 'KV';
+    status: 'PENDING' | 'PROCESSING' | 'COMPLETED' | 'FAILED';
+    stage: string;
+    result: any;
+    error?: string;
+    createdAt: number;
+    updatedAt: number;
+}
+
 export const designApi = {
     generateConcept: (data: { idea: string; useRag?: boolean; chatHistory?: Array<{ role: string; content: string }> }) => {
         return axiosInstance.post<any, { data: DesignProject }>('/api/design/generate/concept', data);
@@ -67,5 +78,29 @@ export const designApi = {
             undefined,
             { timeout: 600000 }
         );
+    },
+
+    // 异步图片任务：提交后立即返回任务ID，通过 getImageJob 轮询状态
+    // idempotencyKey 在同一次操作的重试中保持不变，避免重复生成
+    submitBlueprintJob: (data: any, idempotencyKey?: string) => {
+        return axiosInstance.post<any, { data: ImageJob }>('/api/design/jobs/blueprint', data, {
+            headers: idempotencyKey ? { 'Idempotency-Key': idempotencyKey } : undefined,
+        });
+    },
+
+    submitRenderJob: (data: any, idempotencyKey?: string) => {
+        return axiosInstance.post<any, { data: ImageJob }>('/api/design/jobs/render', data, {
+            headers: idempotencyKey ? { 'Idempotency-Key': idempotencyKey } : undefined,
+        });
+    },
+
+    submitKvJob: (id: number, idempotencyKey?: string) => {
+        return axiosInstance.post<any, { data: ImageJob }>(`/api/design/${id}/jobs/kv`, undefined, {
+            headers: idempotencyKey ? { 'Idempotency-Key': idempotencyKey } : undefined,
+        });
+    },
+
+    getImageJob: (jobId: string) => {
+        return axiosInstance.get<any, { data: ImageJob }>(`/api/design/jobs/${jobId}`);
     }
 };
@@ -58,12 +58,15 @@ export interface SessionListItemDTO {
 }
 
 export interface MessageDTO {
-    id: number;
+    /** 尚未落库的消息为 null，列表渲染以 messageOrder 为 key */
+    id: number | null;
     type: 'user' | 'assistant';
     content: string;
     createdAt: string;
     // ✅ 新增：来源知识库ID列表（可选，因为 user 消息通常没有）
     sourceKnowledgeBaseIds?: number[];
+    /** 消息顺序，用作分页游标 */
+    messageOrder: number;
 }
 
 export interface KnowledgeBaseListItemDTO {
@@ -86,9 +89,28 @@ export interface SessionDetailDTO {
     id: number;
     title: string;
     knowledgeBases: KnowledgeBaseListItemDTO[];
+    /** 最近一页消息，更早的消息通过 getMessages 加载 */
     messages: MessageDTO[];
     createdAt: string;
     updatedAt: string;
+    hasMoreMessages: boolean;
+}
+
+/** 会话摘要（不含消息） */
+export interface SessionSummaryDTO {
+    id: number;
+    title: string;
+    knowledgeBases: KnowledgeBaseListItemDTO[];
+    messageCount: number;
+    isPinned: boolean;
+    createdAt: string;
+    updatedAt: string;
+}
+
+/** 消息分页结果（按消息顺序正序） */
+export interface MessagePageDTO {
+    messages: MessageDTO[];
+    hasMore: boolean;
 }
 
 export interface UpdateTitleRequest {
@@ -99,6 +121,14 @@ export interface UpdateKnowledgeBasesRequest {
     knowledgeBaseIds: number[];
 }
 
+/** 流式回答开始前下发的检索元数据（SSE event: metadata） */
+export interface RagStreamMetadata {
+    sourceKbIds: number[];
+    chunks: { chunkId: string; knowledgeBaseId: number | null; score: number | null }[];
+    timings: { retrievalMillis: number; toolPrePassMillis: number; rewriteMillis: number; rerankMillis: number };
+    cached: boolean;
+}
+
 // ========== API 方法 ==========
 
 export const ragChatApi = {
@@ -126,6 +156,26 @@ export const ragChatApi = {
         return response.data;
     },
 
+    /**
+     * 获取会话摘要（不含消息）
+     */
+    getSessionSummary: async (sessionId: number): Promise<SessionSummaryDTO> => {
+        const response = await request.get(`${BASE_URL}/sessions/${sessionId}/summary`);
+        return response.data;
+    },
+
+    /**
+     * 游标分页获取消息
+     * before：加载该 messageOrder 之前的消息；after：加载该 messageOrder 之后的消息
+     */
+    getMessages: async (
+        sessionId: number,
+        params: { before?: number; after?: number; limit?: number }
+    ): Promise<MessagePageDTO> => {
+        const response = await request.get(`${BASE_URL}/sessions/${sessionId}/messages`, { params });
+        return response.data;
+    },
+
     /**
      * 更新会话标题
      */
@@ -163,6 +213,7 @@ export const ragChatApi = {
      * @param onChunk 接收到数据块时的回调
      * @param onComplete 流式完成时的回调
      * @param onError 错误时的回调
+     * @param onMetadata 收到检索元数据（来源知识库、文档片段、耗时）时的回调
      * @returns AbortController 实例（可用于取消）
      */
     sendMessageStream: async (
@@ -170,7 +221,8 @@ export const ragChatApi = {
         question: string,
         onChunk: (chunk: string) => void,
         onComplete: () => void,
-        onError: (error: Error) => void
+        onError: (error: Error) => void,
+        onMetadata?: (metadata: RagStreamMetadata) => void
     ): Promise<AbortController> => {
         const url = `${import.meta.env.VITE_API_BASE_URL || ''}${BASE_URL}/sessions/${sessionId}/messages/stream`;
         const abortController = new AbortController();
@@ -205,6 +257,7 @@ export const ragChatApi = {
             const reader = response.body.getReader();
             const decoder = new TextDecoder();
             let buffer = '';
+            let eventName = '';
 
             while (true) {
                 const { done, value } = await reader.read();
@@ -222,6 +275,23 @@ export const ragChatApi = {
                 buffer = lines.pop() || ''; // 保留最后一个不完整的行
 
                 for (const line of lines) {
+                    // 空行表示一个事件结束
+                    if (line.trim() === '') {
+                        eventName = '';
+                        continue;
+                    }
+                    if (line.startsWith('event:')) {
+                        eventName = line.substring(6).trim();
+                        continue;
+                    }
+                    if (line.startsWith('data:') && eventName === 'metadata') {
+                        try {
+                            onMetadata?.(JSON.parse(line.substring(5).trim()));
+                        } catch {
+                            // 元数据解析失败不影响回答展示
+                        }
+                        continue;
+                    }
                     if (line.startsWith('data: ')) {
                         const data = line.substring(6); // 移除 "data: " 前缀
                         if (data.trim()) {
@@ -17,6 +17,8 @@ export function QASection() {
     const [sessions, setSessions] = useState<SessionListItemDTO[]>([]);
     const [currentSession, setCurrentSession] = useState<SessionDetailDTO | null>(null);
     const [messages, setMessages] = useState<MessageDTO[]>([]);
+    const [hasMoreMessages, setHasMoreMessages] = useState(false);
+    const [loadingOlder, setLoadingOlder] = useState(false);
     const [inputValue, setInputValue] = useState('');
     const [isStreaming, setIsStreaming] = useState(false);
     const [streamingContent, setStreamingContent] = useState('');
@@ -27,6 +29,8 @@ export function QASection() {
     const [editingTitle, setEditingTitle] = useState('');
     const scrollContainerRef = useRef<HTMLDivElement>(null);
     const abortControllerRef = useRef<AbortController | null>(null);
+    // 加载更早的消息时保持当前阅读位置，不自动滚动到底部
+    const keepScrollRef = useRef<number | null>(null);
 
     // 加载统计信息和会话列表
     useEffect(() => {
@@ -84,6 +88,7 @@ export function QASection() {
             const detail = await ragChatApi.getSessionDetail(sessionId);
             setCurrentSession(detail);
             setMessages(detail.messages);
+            setHasMoreMessages(detail.hasMoreMessages);
             loadSessions(); // 刷新会话列表
         } catch (error: any) {
             console.error('创建会话失败:', error);
@@ -97,6 +102,7 @@ export function QASection() {
             const detail = await ragChatApi.getSessionDetail(sessionId);
             setCurrentSession(detail);
             setMessages(detail.messages);
+            setHasMoreMessages(detail.hasMoreMessages);
         } catch (error: any) {
             console.error('加载会话失败:', error);
             alert('加载会话失败: ' + (error.response?.data?.message || error.message));
@@ -115,6 +121,7 @@ export function QASection() {
             if (currentSession?.id === sessionId) {
                 setCurrentSession(null);
                 setMessages([]);
+                setHasMoreMessages(false);
             }
         } catch (error: any) {
             console.error('删除会话失败:', error);
@@ -217,11 +224,33 @@ export function QASection() {
 
     // 自动滚动到底部
     useEffect(() => {
-        if (scrollContainerRef.current) {
-            scrollContainerRef.current.scrollTop = scrollContainerRef.current.scrollHeight;
+        const container = scrollContainerRef.current;
+        if (!container) return;
+        if (keepScrollRef.current !== null) {
+            container.scrollTop = container.scrollHeight - keepScrollRef.current;
+            keepScrollRef.current = null;
+            return;
         }
+        container.scrollTop = container.scrollHeight;
     }, [messages, streamingContent]);
 
+    // 加载更早的消息（按 messageOrder 游标分页）
+    const loadOlderMessages = async () => {
+        if (!currentSession || loadingOlder || messages.length === 0) return;
+        setLoadingOlder(true);
+        try {
+            const page = await ragChatApi.getMessages(currentSession.id, { before: messages[0].messageOrder });
+            const container = scrollContainerRef.current;
+            keepScrollRef.current = container ? container.scrollHeight - container.scrollTop : null;
+            setMessages(prev => [...page.messages, ...prev]);
+            setHasMoreMessages(page.hasMore);
+        } catch (error: any) {
+            console.error('加载更早消息失败:', error);
+        } finally {
+            setLoadingOlder(false);
+        }
+    };
+
     // 发送消息
     const handleSendMessage = async () => {
         if (!inputValue.trim() || !currentSession || isStreaming) return;
@@ -239,11 +268,12 @@ export function QASection() {
                     setStreamingContent(prev => prev + chunk);
                 },
                 async () => {
-                    // 流式完成，重新加载会话详情
+                    // 流式完成，只加载本轮新增的消息
                     setIsStreaming(false);
                     setStreamingContent('');
-                    const detail = await ragChatApi.getSessionDetail(currentSession.id);
-                    setMessages(detail.messages);
+                    const lastOrder = messages.length > 0 ? messages[messages.length - 1].messageOrder : -1;
+                    const page = await ragChatApi.getMessages(currentSession.id, { after: lastOrder });
+                    setMessages(prev => [...prev, ...page.messages]);
                     loadStats(); // 更新统计
                 },
                 (error) => {
@@ -281,7 +311,7 @@ export function QASection() {
         ) || [];
 
         return (
-            <div key={message.id} className={`flex items-start space-x-4 ${isUser ? 'flex-row-reverse' : ''}`}>
+            <div key={message.messageOrder} className={`flex items-start space-x-4 ${isUser ? 'flex-row-reverse' : ''}`}>
                 {isUser ? (
                     <Avatar className="w-10 h-10 flex-shrink-0 ring-1 ring-black/5">
                         <AvatarImage src={currentUser?.avatarUrl || undefined} alt={currentUser?.nickname || currentUser?.username || '用户'} />
@@ -593,6 +623,21 @@ export function QASection() {
                             </div>
                         )}
 
+                        {/* 更早的消息 */}
+                        {hasMoreMessages && (
+                            <div className="flex justify-center">
+                                <Button
+                                    variant="ghost"
+                                    size="sm"
+                                    className="text-xs text-gray-500"
+                                    disabled={loadingOlder}
+                                    onClick={loadOlderMessages}
+                                >
+                                    {loadingOlder ? '加载中...' : '加载更早的消息'}
+                                </Button>
+                            </div>
+                        )}
+
                         {/* 历史消息 */}
                         {messages.map(renderMessage)}
 